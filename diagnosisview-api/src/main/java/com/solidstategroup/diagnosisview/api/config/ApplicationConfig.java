@@ -1,19 +1,35 @@
 package com.solidstategroup.diagnosisview.api.config;
 
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
+import com.solidstategroup.diagnosisview.service.CacheValueLoader;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.EnableCaching;
-import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.cache.caffeine.CaffeineCache;
 import org.springframework.cache.support.SimpleCacheManager;
 import org.springframework.cache.transaction.TransactionAwareCacheManagerProxy;
+import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
 
 /**
  * General application configuration.
@@ -26,22 +42,84 @@ import java.util.Arrays;
 @EntityScan(basePackages = {"com.solidstategroup.diagnosisview.model"})
 public class ApplicationConfig implements WebMvcConfigurer {
 
+    /**
+     * Names of all caches used with @Cacheable/@CacheEvict.
+     */
+    private static final List<String> CACHE_NAMES = Arrays.asList(
+            "getAllCategories"
+    );
+
     /**
      * Set up in memory caching including listing all caches.
+     * <p>
+     * Each cache is bounded and configured with Caffeine spec from cache.spec.[name]
+     * property, falling back to cache.spec.default. Caches with CacheValueLoader can
+     * use refreshAfterWrite to reload entries in the background before they expire.
      *
      * @return CacheManager
      */
     @Bean
-    public CacheManager cacheManager() {
+    public CacheManager cacheManager(Environment environment,
+                                     ObjectProvider<CacheValueLoader> cacheValueLoaders) {
+
+        Map<String, CacheValueLoader> loaders = cacheValueLoaders
+                .orderedStream()
+                .collect(toMap(CacheValueLoader::getCacheName, Function.identity()));
+
+        String defaultSpec = environment.getRequiredProperty("cache.spec.default");
+        List<CaffeineCache> caches = CACHE_NAMES
+                .stream()
+                .map(name -> buildCache(name,
+                        environment.getProperty("cache.spec." + name, defaultSpec),
+                        loaders.get(name)))
+                .collect(toList());
+
         SimpleCacheManager cacheManager = new SimpleCacheManager();
-        cacheManager.setCaches(Arrays.asList(
-                new ConcurrentMapCache("getAllCodes"),
-                new ConcurrentMapCache("getAllCategories")
-        ));
+        cacheManager.setCaches(caches);
         // manually call initialize the caches as our SimpleCacheManager is not declared as a bean
         cacheManager.initializeCaches();
 
         // to support transactions with caching
         return new TransactionAwareCacheManagerProxy(cacheManager);
     }
+
+    /**
+     * Converter for clients accepting application/cbor, its mapper is built separately with
+     * the same customizers as the JSON one so both encodings carry the same fields and values.
+     * The shared Jackson2ObjectMapperBuilder is left untouched as JSON mappers are built from it.
+     * Replaces the CBOR converter Spring adds by default.
+     *
+     * @return MappingJackson2CborHttpMessageConverter
+     */
+    @Bean
+    public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(
+            ApplicationContext applicationContext,
+            ObjectProvider<Jackson2ObjectMapperBuilderCustomizer> customizers) {
+
+        Jackson2ObjectMapperBuilder builder = Jackson2ObjectMapperBuilder
+                .cbor()
+                .applicationContext(applicationContext);
+        customizers.orderedStream().forEach(customizer -> customizer.customize(builder));
+        return new MappingJackson2CborHttpMessageConverter(builder.build());
+    }
+
+    private static CaffeineCache buildCache(String name, String spec, CacheValueLoader loader) {
+        CaffeineSpec caffeineSpec = CaffeineSpec.parse(spec);
+        Caffeine<Object, Object> builder = Caffeine.from(caffeineSpec).recordStats();
+
+        // weight listing caches by number of elements rather than by entry
+        if (spec.contains("maximumWeight")) {
+            builder.weigher((key, value) -> value instanceof Collection
+                    ? Math.max(1, ((Collection<?>) value).size())
+                    : 1);
+        }
+
+        if (loader != null) {
+            return new CaffeineCache(name, builder.build(loader::load));
+        }
+        if (spec.contains("refreshAfterWrite")) {
+            throw new IllegalStateException("Cache " + name + " uses refreshAfterWrite but has no CacheValueLoader");
+        }
+        return new CaffeineCache(name, builder.build());
+    }
 }
@@ -1,16 +1,22 @@
 package com.solidstategroup.diagnosisview.api.controller;
 
+import com.solidstategroup.diagnosisview.clients.OutboundHttpClient;
+import com.solidstategroup.diagnosisview.model.CacheStatsDto;
+import com.solidstategroup.diagnosisview.model.CircuitBreakerDto;
 import com.solidstategroup.diagnosisview.model.CodeDto;
 import com.solidstategroup.diagnosisview.model.LoginRequest;
+import com.solidstategroup.diagnosisview.model.OutboundHttpStatsDto;
 import com.solidstategroup.diagnosisview.model.User;
 import com.solidstategroup.diagnosisview.model.codes.Code;
 import com.solidstategroup.diagnosisview.model.codes.ExternalStandard;
 import com.solidstategroup.diagnosisview.model.codes.Link;
 import com.solidstategroup.diagnosisview.model.enums.RoleType;
 import com.solidstategroup.diagnosisview.repository.ExternalStandardRepository;
+import com.solidstategroup.diagnosisview.service.CacheStatsService;
 import com.solidstategroup.diagnosisview.service.CodeService;
 import com.solidstategroup.diagnosisview.service.LinkService;
 import com.solidstategroup.diagnosisview.service.UserService;
+import com.solidstategroup.diagnosisview.service.impl.CircuitBreakerRegistry;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import lombok.extern.slf4j.Slf4j;
@@ -41,16 +47,25 @@ public class AdminController extends BaseController {
     private final CodeService codeService;
     private final LinkService linkService;
     private final ExternalStandardRepository externalStandardRepository;
+    private final CacheStatsService cacheStatsService;
+    private final OutboundHttpClient outboundHttpClient;
+    private final CircuitBreakerRegistry circuitBreakerRegistry;
 
     public AdminController(final UserService userService,
                            final CodeService codeService,
                            final LinkService linkService,
-                           final ExternalStandardRepository externalStandardRepository) {
+                           final ExternalStandardRepository externalStandardRepository,
+                           final CacheStatsService cacheStatsService,
+                           final OutboundHttpClient outboundHttpClient,
+                           final CircuitBreakerRegistry circuitBreakerRegistry) {
 
         super(userService);
         this.codeService = codeService;
         this.linkService = linkService;
         this.externalStandardRepository = externalStandardRepository;
+        this.cacheStatsService = cacheStatsService;
+        this.outboundHttpClient = outboundHttpClient;
+        this.circuitBreakerRegistry = circuitBreakerRegistry;
     }
 
     @ApiOperation(value = "Logs user into the system")
@@ -233,4 +248,37 @@ public class AdminController extends BaseController {
 
         codeService.delete(code);
     }
+
+    @ApiOperation(value = "Get Cache Statistics",
+            notes = "Admin endpoint to get size, hit/miss, eviction and load statistics of in memory caches",
+            response = CacheStatsDto[].class)
+    @GetMapping("/cache/stats")
+    public List<CacheStatsDto> getCacheStats(HttpServletRequest request) throws Exception {
+
+        isAdminUser(request);
+
+        return cacheStatsService.getStats();
+    }
+
+    @ApiOperation(value = "Get Outbound Http Statistics",
+            notes = "Admin endpoint to get call count, errors and latency of calls to each third party host",
+            response = OutboundHttpStatsDto[].class)
+    @GetMapping("/http/stats")
+    public List<OutboundHttpStatsDto> getOutboundHttpStats(HttpServletRequest request) throws Exception {
+
+        isAdminUser(request);
+
+        return outboundHttpClient.getStats();
+    }
+
+    @ApiOperation(value = "Get Circuit Breaker States",
+            notes = "Admin endpoint to get state and recent transitions of circuit breakers of each integration",
+            response = CircuitBreakerDto[].class)
+    @GetMapping("/circuit-breakers")
+    public List<CircuitBreakerDto> getCircuitBreakers(HttpServletRequest request) throws Exception {
+
+        isAdminUser(request);
+
+        return circuitBreakerRegistry.getStates();
+    }
 }
@@ -1,8 +1,8 @@
 package com.solidstategroup.diagnosisview.api.controller;
 
 import com.solidstategroup.diagnosisview.exceptions.NotAuthorisedException;
+import com.solidstategroup.diagnosisview.model.AuthenticatedUser;
 import com.solidstategroup.diagnosisview.model.User;
-import com.solidstategroup.diagnosisview.model.enums.RoleType;
 import com.solidstategroup.diagnosisview.service.UserService;
 import org.apache.commons.lang3.StringUtils;
 
@@ -21,13 +21,13 @@ public abstract class BaseController {
     }
 
     /**
-     * Get the user based on the user token.
+     * Get the authenticated user based on the user token, without loading full User.
      *
      * @param request
-     * @return User the user or null
+     * @return AuthenticatedUser the user or null
      */
-    protected User getUserFromRequest(final HttpServletRequest request) throws Exception {
-        return userService.getUserByToken(getToken(request));
+    protected AuthenticatedUser getUserFromRequest(final HttpServletRequest request) {
+        return userService.getAuthenticatedUser(getToken(request));
     }
 
     /**
@@ -56,13 +56,13 @@ public abstract class BaseController {
      * @throws Exception
      */
     void isAdminUser(final HttpServletRequest request) throws Exception {
-        User user = userService.getUserByToken(getToken(request));
+        AuthenticatedUser user = userService.getAuthenticatedUser(getToken(request));
 
         if (user == null) {
             throw new NotAuthorisedException("You are not authenticated, please try logging in again.");
         }
         //Throw an error if the user is not an admin
-        if (!user.getRoleType().equals(RoleType.ADMIN)) {
+        if (!user.isAdmin()) {
             throw new NotAuthorisedException("You are not authenticated, please try logging in again.");
         }
     }
@@ -1,16 +1,23 @@
 package com.solidstategroup.diagnosisview.api.controller;
 
+import com.solidstategroup.diagnosisview.model.AuthenticatedUser;
 import com.solidstategroup.diagnosisview.model.CategoryDto;
+import com.solidstategroup.diagnosisview.model.CodeChangesDto;
 import com.solidstategroup.diagnosisview.model.CodeDto;
-import com.solidstategroup.diagnosisview.model.User;
 import com.solidstategroup.diagnosisview.model.codes.Code;
+import com.solidstategroup.diagnosisview.service.CatalogueFormat;
 import com.solidstategroup.diagnosisview.service.CodeService;
 import com.solidstategroup.diagnosisview.service.LinkService;
+import com.solidstategroup.diagnosisview.service.SerialisedCatalogue;
 import com.solidstategroup.diagnosisview.service.UserService;
 import io.swagger.annotations.ApiOperation;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.servlet.http.HttpServletRequest;
@@ -33,18 +40,54 @@ public class CodeController extends BaseController {
     }
 
     @ApiOperation(value = "Get All activeCodes",
-            notes = "User endpoint to get all active codes within the DiagnosisView",
+            notes = "User endpoint to get all active codes within the DiagnosisView, supports "
+                    + "If-None-Match and gzip Accept-Encoding. Codes are sent as a CompactCatalogueDto when "
+                    + "format is compact or Accept is application/vnd.diagnosisview.compact+json, and as CBOR "
+                    + "when Accept is application/cbor",
             response = CodeDto[].class)
     @GetMapping("/code")
-    public List<CodeDto> getAllActiveCodes(HttpServletRequest request) throws Exception {
+    public ResponseEntity<byte[]> getAllActiveCodes(@RequestParam(value = "format", required = false)
+                                                    final String format,
+                                                    HttpServletRequest request) throws Exception {
 
-        User user = getUserFromRequest(request);
+        AuthenticatedUser user = getUserFromRequest(request);
+
+        CatalogueFormat catalogueFormat = CatalogueFormat.select(format, request.getHeader(HttpHeaders.ACCEPT));
+        SerialisedCatalogue catalogue = user != null && user.getInstitution() != null
+                ? codeService.getActiveCatalogue(user.getInstitution(), catalogueFormat)
+                : codeService.getActiveCatalogue(null, catalogueFormat);
+
+        String encoding = catalogue.selectEncoding(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+
+        // If-None-Match matching the ETag is answered with 304 by Spring before the body is written
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(catalogueFormat.getMediaType())
+                .eTag(catalogue.getEtag(encoding))
+                .cacheControl(CacheControl.noCache().cachePrivate())
+                .varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING);
+
+        if (encoding == null) {
+            return response.body(catalogue.getBody());
+        }
+        return response.header(HttpHeaders.CONTENT_ENCODING, encoding).body(catalogue.getEncoded(encoding));
+    }
+
+    @ApiOperation(value = "Get active Codes changed since a version",
+            notes = "User endpoint to keep a copy of the active codes up to date. Call without since to get a "
+                    + "starting version before loading all codes, then pass the version returned each time. "
+                    + "When full is true the changes can not be listed and all codes have to be loaded again",
+            response = CodeChangesDto.class)
+    @GetMapping("/code/changes")
+    public CodeChangesDto getActiveCodeChanges(@RequestParam(value = "since", required = false) final Long since,
+                                               HttpServletRequest request) throws Exception {
+
+        AuthenticatedUser user = getUserFromRequest(request);
 
         if (user != null && user.getInstitution() != null) {
-            return codeService.getAllActive(user.getInstitution());
+            return codeService.getActiveChanges(since, user.getInstitution());
         }
 
-        return codeService.getAllActive(null);
+        return codeService.getActiveChanges(since, null);
     }
 
     @ApiOperation(value = "Find Codes by synonyms",
@@ -54,7 +97,7 @@ public class CodeController extends BaseController {
     public List<CodeDto> findCodesBySynonyms(@PathVariable("term") final String term,
                                              HttpServletRequest request) throws Exception {
 
-        User user = getUserFromRequest(request);
+        AuthenticatedUser user = getUserFromRequest(request);
 
         if (user != null && user.getInstitution() != null) {
             return codeService.getCodesBySynonyms(term, user.getInstitution());
@@ -78,7 +121,7 @@ public class CodeController extends BaseController {
     public Code getCodeByName(@PathVariable("code") final String code, HttpServletRequest request)
             throws Exception {
 
-        User user = getUserFromRequest(request);
+        AuthenticatedUser user = getUserFromRequest(request);
         if (user != null && user.getInstitution() != null) {
             return codeService.getByInstitution(code, user.getInstitution());
         }
@@ -160,6 +160,7 @@ public class LogoRulesController extends BaseController {
                 lt.getLogoData(),
                 lt.getLogoFileType(),
                 String.format(IMAGE_URL_TEMPLATE, lt.getId()),
-                lt.getOverrideDifficultyLevel());
+                lt.getOverrideDifficultyLevel(),
+                lt.getLinksUpdated());
     }
 }
@@ -80,7 +80,7 @@ public class UserController extends BaseController {
   }
 
   @ApiOperation(value = "Get a list of favourite codes",
-      notes = "Get a list of user's favourite codes",
+      notes = "Get a list of user's favourite codes, sent as CBOR when Accept is application/cbor",
       response = User.class)
   @GetMapping("/favourites")
   public List<FavouriteResult> getFavouriteList(final HttpServletRequest request) throws Exception {
@@ -90,7 +90,7 @@ public class UserController extends BaseController {
   }
 
   @ApiOperation(value = "Get a list of history",
-      notes = "Get a list of user's history",
+      notes = "Get a list of user's history, sent as CBOR when Accept is application/cbor",
       response = User.class)
   @GetMapping("/history")
   public List<HistoryResult> getHistoryList(final HttpServletRequest request) throws Exception {
@@ -0,0 +1,35 @@
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+-- upper cased synonym names of a code, one per line, used for synonym LIKE searches
+CREATE OR REPLACE FUNCTION dv_synonym_names(synonyms jsonb) RETURNS text AS $$
+  SELECT UPPER(string_agg(obj->>'name', E'\n'))
+  FROM jsonb_array_elements(CASE WHEN jsonb_typeof(synonyms) = 'array' THEN synonyms ELSE '[]'::jsonb END) AS obj
+$$ LANGUAGE sql IMMUTABLE;
+
+-- users, looked up by token on every authenticated request and by username on login
+CREATE INDEX IF NOT EXISTS idx_dv_user_token ON dv_user (token);
+CREATE INDEX IF NOT EXISTS idx_dv_user_upper_username ON dv_user (UPPER(username));
+CREATE INDEX IF NOT EXISTS idx_dv_user_institution ON dv_user (institution);
+CREATE INDEX IF NOT EXISTS idx_dv_user_active_expiry ON dv_user (expiry_date) WHERE active_subscription = true;
+
+-- codes, exact code lookups and substring search on code, name and synonyms
+CREATE INDEX IF NOT EXISTS idx_pv_code_code ON pv_code (code);
+CREATE INDEX IF NOT EXISTS idx_pv_code_upper_code_trgm ON pv_code USING gin (UPPER(code) gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS idx_pv_code_upper_name_trgm ON pv_code USING gin (UPPER(patient_friendly_name) gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS idx_pv_code_synonym_names_trgm ON pv_code USING gin (dv_synonym_names(synonyms) gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS idx_pv_code_synonyms ON pv_code USING gin (synonyms jsonb_path_ops);
+
+-- external standards, icd10 prefix searches and joins from code
+CREATE INDEX IF NOT EXISTS idx_pv_code_external_standard_code ON pv_code_external_standard (code varchar_pattern_ops);
+CREATE INDEX IF NOT EXISTS idx_pv_code_external_standard_code_id ON pv_code_external_standard (code_id);
+
+-- code categories, joined from code
+CREATE INDEX IF NOT EXISTS idx_pv_code_category_code_id ON pv_code_category (code_id);
+
+-- links, sync lookups by external id, joins from code and url searches
+CREATE INDEX IF NOT EXISTS idx_pv_link_external_id ON pv_link (external_id);
+CREATE INDEX IF NOT EXISTS idx_pv_link_code_id ON pv_link (code_id);
+CREATE INDEX IF NOT EXISTS idx_pv_link_link_trgm ON pv_link USING gin (link gin_trgm_ops);
+
+-- link rule mappings, joined from link
+CREATE INDEX IF NOT EXISTS idx_dv_link_rule_mapping_link_id ON dv_link_rule_mapping (link_id);
@@ -0,0 +1,11 @@
+-- progress of long running sync jobs, so interrupted runs resume from last committed chunk
+CREATE TABLE IF NOT EXISTS dv_sync_checkpoint
+(
+  name             VARCHAR(100) NOT NULL,
+  run_started      TIMESTAMP    NOT NULL,
+  last_key         VARCHAR(255),
+  processed        INTEGER      NOT NULL DEFAULT 0,
+  completed        BOOLEAN      NOT NULL DEFAULT FALSE,
+  last_update_date TIMESTAMP    NOT NULL,
+  PRIMARY KEY (name)
+);
@@ -0,0 +1,10 @@
+-- hash of each Code as last received from PatientView, used to skip unchanged Codes on sync.
+-- code_last_update is the Code last update after sync, a later change in DV invalidates the row
+CREATE TABLE IF NOT EXISTS dv_code_sync_fingerprint
+(
+  code_id            BIGINT      NOT NULL,
+  hash               VARCHAR(64) NOT NULL,
+  source_last_update TIMESTAMP,
+  code_last_update   TIMESTAMP,
+  PRIMARY KEY (code_id)
+);
@@ -0,0 +1,5 @@
+-- btree index serving LIKE 'prefix%' on link urls, used by logo and link rule matching
+CREATE INDEX IF NOT EXISTS idx_pv_link_link_prefix ON pv_link (link varchar_pattern_ops);
+
+-- links of a logo rule, used when a rule is updated or deleted
+CREATE INDEX IF NOT EXISTS idx_pv_link_link_logo_id ON pv_link (link_logo_id);
@@ -0,0 +1,13 @@
+-- links BMJ and MedlinePlus returned for each code, reused by links sync until older than the minimum age.
+-- a row with found false records the provider had nothing for the code
+CREATE TABLE IF NOT EXISTS dv_provider_response
+(
+  provider       VARCHAR(50)  NOT NULL,
+  code_system    VARCHAR(50)  NOT NULL,
+  code           VARCHAR(255) NOT NULL,
+  found          BOOLEAN      NOT NULL,
+  entries        TEXT,
+  source_updated TIMESTAMP,
+  fetched        TIMESTAMP    NOT NULL,
+  PRIMARY KEY (provider, code_system, code)
+);
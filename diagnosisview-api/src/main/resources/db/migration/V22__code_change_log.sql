@@ -0,0 +1,13 @@
+-- every change to a Code in the catalogue, read by clients asking what changed since the version they hold.
+-- txid is the transaction making the change, versions given to clients are transaction ids so changes
+-- committed out of order are not missed. a row without code_id means too many Codes changed to list
+CREATE TABLE IF NOT EXISTS dv_code_change
+(
+  id      BIGSERIAL PRIMARY KEY,
+  txid    BIGINT       NOT NULL DEFAULT txid_current(),
+  code_id BIGINT,
+  code    VARCHAR(255),
+  changed TIMESTAMP    NOT NULL DEFAULT now()
+);
+
+CREATE INDEX IF NOT EXISTS idx_dv_code_change_txid ON dv_code_change (txid);
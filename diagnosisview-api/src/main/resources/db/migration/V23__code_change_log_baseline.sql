@@ -0,0 +1,6 @@
+-- code of every Code not logged yet, so a rename of a Code created before the log can still send its
+-- previous code as removed. txid 0 is older than any version so these rows are never read as changes
+INSERT INTO dv_code_change (txid, code_id, code)
+SELECT 0, c.id, c.code
+FROM pv_code c
+WHERE NOT EXISTS(SELECT 1 FROM dv_code_change l WHERE l.code_id = c.id);
@@ -0,0 +1,90 @@
+package com.solidstategroup.diagnosisview.api.config
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory
+import com.solidstategroup.diagnosisview.api.Application
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder
+import org.springframework.test.web.servlet.MockMvc
+import spock.lang.Requires
+import spock.lang.Specification
+
+import static org.springframework.http.MediaType.APPLICATION_JSON
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status
+
+/**
+ * Starts the whole application to check JSON stays the default encoding with the CBOR converter added.
+ * <p>
+ * Needs a local Postgres database, skipped unless DV_IT_DATASOURCE_URL is set, see {@code QueryPlanTest}.
+ */
+@Requires({ System.getenv("DV_IT_DATASOURCE_URL") })
+@SpringBootTest(classes = Application, properties = [
+        "spring.datasource.url=\${DV_IT_DATASOURCE_URL}",
+        "spring.datasource.username=\${DV_IT_DATASOURCE_USERNAME:}",
+        "spring.datasource.password=\${DV_IT_DATASOURCE_PASSWORD:}",
+        "cron.job.sync.code=0 0 23 * * ?",
+        "cron.job.sync.nhschoices=0 0 21 * * ?",
+        "cron.job.sync.links=0 0 22 * * ?",
+        "nhschoices.conditions.api.key=test",
+        "chargebee.api.key=test",
+        "chargebee.site=test",
+        "google.recaptcha.key.site=test",
+        "google.recaptcha.key.secret=test"
+])
+@AutoConfigureMockMvc
+class ContentNegotiationTest extends Specification {
+
+    static final String APPLICATION_CBOR = "application/cbor"
+
+    @Autowired
+    MockMvc mockMvc
+
+    @Autowired
+    ObjectMapper objectMapper
+
+    @Autowired
+    Jackson2ObjectMapperBuilder objectMapperBuilder
+
+    @Autowired
+    MappingJackson2CborHttpMessageConverter cborHttpMessageConverter
+
+    def "should send codes as JSON without Accept"() {
+
+        expect:
+        mockMvc.perform(get("/api/code"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(APPLICATION_JSON))
+    }
+
+    def "should send codes as CBOR only when Accept is application/cbor"() {
+
+        expect:
+        mockMvc.perform(get("/api/code").header("Accept", APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(APPLICATION_CBOR))
+    }
+
+    def "should send code changes through message converters as JSON unless CBOR is accepted"() {
+
+        expect:
+        mockMvc.perform(get("/api/code/changes"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(APPLICATION_JSON))
+        mockMvc.perform(get("/api/code/changes").header("Accept", APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(APPLICATION_CBOR))
+    }
+
+    def "should keep JSON mappers apart from the CBOR one"() {
+
+        expect:
+        !(objectMapper.factory instanceof CBORFactory)
+        !(objectMapperBuilder.build().factory instanceof CBORFactory)
+        cborHttpMessageConverter.objectMapper.factory instanceof CBORFactory
+    }
+}
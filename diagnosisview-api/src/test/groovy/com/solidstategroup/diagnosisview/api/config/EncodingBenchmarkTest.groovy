@@ -0,0 +1,142 @@
+package com.solidstategroup.diagnosisview.api.config
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.solidstategroup.diagnosisview.model.CategoryDto
+import com.solidstategroup.diagnosisview.model.CodeDto
+import com.solidstategroup.diagnosisview.model.LinkDto
+import com.solidstategroup.diagnosisview.model.Tag
+import com.solidstategroup.diagnosisview.model.codes.Lookup
+import com.solidstategroup.diagnosisview.model.codes.enums.DifficultyLevel
+import com.solidstategroup.diagnosisview.results.FavouriteResult
+import com.solidstategroup.diagnosisview.results.HistoryResult
+import com.solidstategroup.diagnosisview.service.SerialisedCatalogue
+import org.springframework.beans.factory.support.StaticListableBeanFactory
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder
+import spock.lang.Requires
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ * Compares JSON and CBOR encodings of the payloads mobile clients load most, /api/code,
+ * /api/user/favourites and /api/user/history, by encode and decode time and payload size.
+ * <p>
+ * Timings depend on the machine so nothing is asserted about them, results are printed.
+ * Gzip sizes are of the same compression the catalogue is sent with.
+ * Skipped unless DV_BENCHMARK is set, e.g. DV_BENCHMARK=true mvn test -Dtest=EncodingBenchmarkTest
+ * <p>
+ * Both mappers are built the way ApplicationConfig builds them. Decoding reads a tree,
+ * as DTOs sent to clients are not all readable back into their classes.
+ */
+@Requires({ System.getenv("DV_BENCHMARK") })
+class EncodingBenchmarkTest extends Specification {
+
+    static final int WARMUP = 200
+    static final int ITERATIONS = 500
+
+    @Shared
+    ObjectMapper json = Jackson2ObjectMapperBuilder.json().build()
+
+    @Shared
+    ObjectMapper cbor = new ApplicationConfig().cborHttpMessageConverter(null,
+            new StaticListableBeanFactory().getBeanProvider(Jackson2ObjectMapperBuilderCustomizer)).objectMapper
+
+    @Unroll
+    def "should encode #name smaller as CBOR with the same fields"() {
+
+        when: "payload is encoded and decoded both ways"
+
+        def jsonResult = measure(json, payload)
+        def cborResult = measure(cbor, payload)
+
+        println String.format("%-10s %-5s %9s %9s %10s %10s", "payload", "form", "bytes", "gzip", "encode us", "decode us")
+        [JSON: jsonResult, CBOR: cborResult].each { form, result ->
+            println String.format("%-10s %-5s %9d %9d %10.1f %10.1f", name, form,
+                    result.bytes, result.gzipBytes, result.encodeMicros, result.decodeMicros)
+        }
+
+        then: "CBOR decodes to the same tree and is smaller"
+
+        cbor.readTree(cbor.writeValueAsBytes(payload)) == json.readTree(json.writeValueAsBytes(payload))
+        cborResult.bytes < jsonResult.bytes
+
+        where:
+
+        name         | payload
+        "codes"      | codes(2000)
+        "favourites" | favourites(100)
+        "history"    | history(500)
+    }
+
+    private static Map measure(ObjectMapper mapper, Object payload) {
+        byte[] bytes = mapper.writeValueAsBytes(payload)
+        for (int i = 0; i < WARMUP; i++) {
+            mapper.readTree(mapper.writeValueAsBytes(payload))
+        }
+
+        long encode = 0
+        long decode = 0
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime()
+            bytes = mapper.writeValueAsBytes(payload)
+            long encoded = System.nanoTime()
+            mapper.readTree(bytes)
+            long decoded = System.nanoTime()
+
+            encode += encoded - start
+            decode += decoded - encoded
+        }
+
+        [bytes       : bytes.length,
+         gzipBytes   : SerialisedCatalogue.of(bytes).getEncoded(SerialisedCatalogue.GZIP).length,
+         encodeMicros: encode / 1000d / ITERATIONS,
+         decodeMicros: decode / 1000d / ITERATIONS]
+    }
+
+    private static List<CodeDto> codes(int count) {
+        def linkTypes = ["NHS_CHOICES", "MEDLINE_PLUS", "BMJ", "CUSTOM"].withIndex().collect { value, i ->
+            def lookup = new Lookup(value: value, description: value.toLowerCase().capitalize(), displayOrder: i)
+            lookup.setId(i + 1L)
+            lookup
+        }
+        def categories = (1..30).collect {
+            new CategoryDto(it as Long, it, "ICD-10 chapter " + it, "Category " + it, false)
+        }
+        def tags = ["CHILDREN", "ADULTS", "SKIN"].withIndex().collect { value, i ->
+            def lookup = new Lookup(value: value, description: value.toLowerCase())
+            lookup.setId(100L + i)
+            new Tag(lookup)
+        }
+
+        (1..count).collect { i ->
+            CodeDto.builder()
+                    .code("dv_code_" + i)
+                    .friendlyName("Friendly condition name " + i)
+                    .deleted(false)
+                    .categories([categories[i % 30], categories[(i * 7) % 30]] as Set)
+                    .tags([tags[i % 3]] as Set)
+                    .links((0..2).collect { l ->
+                        def url = "https://www.example.org/conditions/condition-" + i + "/" + l
+                        new LinkDto(i * 10L + l, linkTypes[l], DifficultyLevel.GREEN, url, url, l,
+                                true, linkTypes[l].description, l == 0, false, null)
+                    } as Set)
+                    .build()
+        }
+    }
+
+    private static List<FavouriteResult> favourites(int count) {
+        (1..count).collect { i ->
+            def url = "https://www.example.org/conditions/condition-" + i
+            new FavouriteResult("dv_code_" + i, "Friendly condition name " + i, new Date(1546300800000L + i * 60000L),
+                    new LinkDto(i as Long, null, DifficultyLevel.AMBER, url, url, 1, true, "NHS", true, false,
+                            LinkDto.PaywalledType.UNLOCKED))
+        }
+    }
+
+    private static List<HistoryResult> history(int count) {
+        (1..count).collect { i ->
+            new HistoryResult("dv_code_" + i, "Friendly condition name " + i, new Date(1546300800000L + i * 60000L))
+        }
+    }
+}
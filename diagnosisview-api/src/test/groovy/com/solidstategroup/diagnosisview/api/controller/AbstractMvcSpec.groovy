@@ -1,6 +1,8 @@
 package com.solidstategroup.diagnosisview.api.controller
 
 import com.fasterxml.jackson.databind.ObjectMapper
+import com.solidstategroup.diagnosisview.model.AuthenticatedUser
+import com.solidstategroup.diagnosisview.model.enums.RoleType
 import com.solidstategroup.diagnosisview.service.UserService
 import org.springframework.test.util.ReflectionTestUtils
 import org.springframework.test.web.servlet.MockMvc
@@ -48,6 +50,13 @@ class AbstractMvcSpec extends Specification {
                 .build()
     }
 
+    /**
+     * Builds authenticated user as returned for the request token
+     */
+    static AuthenticatedUser authenticatedUser(RoleType roleType, String institution = null) {
+        new AuthenticatedUser(1L, roleType, institution, false, false, null)
+    }
+
     /**
      * Wraps a post request
      */
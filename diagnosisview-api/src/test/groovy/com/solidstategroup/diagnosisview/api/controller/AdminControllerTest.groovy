@@ -1,13 +1,19 @@
 package com.solidstategroup.diagnosisview.api.controller
 
+import com.solidstategroup.diagnosisview.clients.OutboundHttpClient
+import com.solidstategroup.diagnosisview.model.CacheStatsDto
+import com.solidstategroup.diagnosisview.model.CircuitBreakerDto
 import com.solidstategroup.diagnosisview.model.LoginRequest
+import com.solidstategroup.diagnosisview.model.OutboundHttpStatsDto
 import com.solidstategroup.diagnosisview.model.User
 import com.solidstategroup.diagnosisview.model.codes.Code
 import com.solidstategroup.diagnosisview.model.codes.ExternalStandard
 import com.solidstategroup.diagnosisview.model.codes.Link
 import com.solidstategroup.diagnosisview.repository.ExternalStandardRepository
+import com.solidstategroup.diagnosisview.service.CacheStatsService
 import com.solidstategroup.diagnosisview.service.CodeService
 import com.solidstategroup.diagnosisview.service.LinkService
+import com.solidstategroup.diagnosisview.service.impl.CircuitBreakerRegistry
 
 import static com.solidstategroup.diagnosisview.model.enums.RoleType.ADMIN
 import static com.solidstategroup.diagnosisview.model.enums.RoleType.USER
@@ -26,17 +32,24 @@ class AdminControllerTest extends AbstractMvcSpec {
     static ADMIN_CODE = '/api/admin/code'
     static ADMIN_CODE_LINK = '/api/admin/code/link'
     static ADMIN_EXTERNAL_STANDARDS = "/api/admin/code/external-standards"
+    static ADMIN_CACHE_STATS = "/api/admin/cache/stats"
+    static ADMIN_HTTP_STATS = "/api/admin/http/stats"
+    static ADMIN_CIRCUIT_BREAKERS = "/api/admin/circuit-breakers"
 
     def codeService = Mock(CodeService)
     def linkService = Mock(LinkService)
     def externalStandardRepository = Mock(ExternalStandardRepository)
+    def cacheStatsService = Mock(CacheStatsService)
+    def outboundHttpClient = Mock(OutboundHttpClient)
+    def circuitBreakerRegistry = Mock(CircuitBreakerRegistry)
 
     def username = "testusername"
     def password = "password1"
 
     void setup() {
         controller =
-                new AdminController(userService, codeService, linkService, externalStandardRepository)
+                new AdminController(userService, codeService, linkService, externalStandardRepository,
+                        cacheStatsService, outboundHttpClient, circuitBreakerRegistry)
         buildMvc()
     }
 
@@ -106,7 +119,7 @@ class AdminControllerTest extends AbstractMvcSpec {
 
         and: "admin role check is performed"
 
-        1 * userService.getUserByToken(_ as String) >> new User(roleType: ADMIN)
+        1 * userService.getAuthenticatedUser(_ as String) >> authenticatedUser(ADMIN)
     }
 
     def "should delete a user"() {
@@ -127,7 +140,7 @@ class AdminControllerTest extends AbstractMvcSpec {
 
         and: "admin role check is performed"
 
-        1 * userService.getUserByToken(_ as String) >> new User(roleType: ADMIN)
+        1 * userService.getAuthenticatedUser(_ as String) >> authenticatedUser(ADMIN)
     }
 
     def "should create a user"() {
@@ -147,7 +160,7 @@ class AdminControllerTest extends AbstractMvcSpec {
 
         and: "admin role check is performed"
 
-        1 * userService.getUserByToken(_ as String) >> new User(roleType: ADMIN)
+        1 * userService.getAuthenticatedUser(_ as String) >> authenticatedUser(ADMIN)
     }
 
     def "should create a new code"() {
@@ -167,7 +180,7 @@ class AdminControllerTest extends AbstractMvcSpec {
 
         and: "admin role check is performed"
 
-        1 * userService.getUserByToken(_ as String) >> new User(roleType: ADMIN)
+        1 * userService.getAuthenticatedUser(_ as String) >> authenticatedUser(ADMIN)
     }
 
     def "should update a code"() {
@@ -187,7 +200,7 @@ class AdminControllerTest extends AbstractMvcSpec {
 
         and: "admin role check is performed"
 
-        1 * userService.getUserByToken(_ as String) >> new User(roleType: ADMIN)
+        1 * userService.getAuthenticatedUser(_ as String) >> authenticatedUser(ADMIN)
     }
 
     def "should update a link"() {
@@ -207,7 +220,7 @@ class AdminControllerTest extends AbstractMvcSpec {
 
         and: "admin role check is performed"
 
-        1 * userService.getUserByToken(_ as String) >> new User(roleType: ADMIN)
+        1 * userService.getAuthenticatedUser(_ as String) >> authenticatedUser(ADMIN)
     }
 
     def "should fetch external standards"() {
@@ -225,7 +238,7 @@ class AdminControllerTest extends AbstractMvcSpec {
 
         and: "admin role check is performed"
 
-        1 * userService.getUserByToken(_ as String) >> new User(roleType: ADMIN)
+        1 * userService.getAuthenticatedUser(_ as String) >> authenticatedUser(ADMIN)
     }
 
     def "should update a user"() {
@@ -247,6 +260,70 @@ class AdminControllerTest extends AbstractMvcSpec {
 
         and: "admin role check is performed"
 
-        1 * userService.getUserByToken(_ as String) >> new User(roleType: ADMIN)
+        1 * userService.getAuthenticatedUser(_ as String) >> authenticatedUser(ADMIN)
+    }
+
+    def "should return cache statistics"() {
+
+        when: "cache stats endpoint is called"
+
+        getAt(ADMIN_CACHE_STATS)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath('$', hasSize(1)))
+                .andExpect(jsonPath('$[0].name', is("getAllCategories")))
+                .andExpect(jsonPath('$[0].hitCount', is(3)))
+
+        then: "stats for all caches are returned"
+
+        1 * cacheStatsService.getStats() >> [CacheStatsDto.builder().name("getAllCategories").hitCount(3).build()]
+
+        and: "admin role check is performed"
+
+        1 * userService.getAuthenticatedUser(_ as String) >> authenticatedUser(ADMIN)
+    }
+
+    def "should return outbound http statistics"() {
+
+        when: "http stats endpoint is called"
+
+        getAt(ADMIN_HTTP_STATS)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath('$', hasSize(1)))
+                .andExpect(jsonPath('$[0].host', is("bestpractice.bmj.com")))
+                .andExpect(jsonPath('$[0].errors', is(2)))
+
+        then: "stats for each host are returned"
+
+        1 * outboundHttpClient.getStats() >>
+                [OutboundHttpStatsDto.builder().host("bestpractice.bmj.com").calls(10).errors(2).build()]
+
+        and: "admin role check is performed"
+
+        1 * userService.getAuthenticatedUser(_ as String) >> authenticatedUser(ADMIN)
+    }
+
+    def "should return circuit breaker states"() {
+
+        given: "an admin user"
+
+        when: "circuit breakers endpoint is called"
+
+        getAt(ADMIN_CIRCUIT_BREAKERS)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath('$', hasSize(1)))
+                .andExpect(jsonPath('$[0].name', is("bmj")))
+                .andExpect(jsonPath('$[0].state', is("OPEN")))
+                .andExpect(jsonPath('$[0].transitions', hasSize(1)))
+
+        then: "state of each circuit breaker is returned"
+
+        1 * circuitBreakerRegistry.getStates() >>
+                [CircuitBreakerDto.builder().name("bmj").state("OPEN")
+                         .transitions([new CircuitBreakerDto.Transition("CLOSED", "OPEN", new Date(), "failure rate 60%")])
+                         .build()]
+
+        and: "admin role check is performed"
+
+        1 * userService.getAuthenticatedUser(_ as String) >> authenticatedUser(ADMIN)
     }
 }
@@ -1,15 +1,25 @@
 package com.solidstategroup.diagnosisview.api.controller
 
-import com.solidstategroup.diagnosisview.model.User
+import com.solidstategroup.diagnosisview.model.CodeChangesDto
+import com.solidstategroup.diagnosisview.model.CodeDto
 import com.solidstategroup.diagnosisview.model.codes.Category
 import com.solidstategroup.diagnosisview.model.codes.Code
 import com.solidstategroup.diagnosisview.model.codes.Link
 import com.solidstategroup.diagnosisview.model.codes.enums.InstitutionEnum
 import com.solidstategroup.diagnosisview.model.enums.RoleType
+import com.solidstategroup.diagnosisview.service.CatalogueFormat
 import com.solidstategroup.diagnosisview.service.CodeService
 import com.solidstategroup.diagnosisview.service.LinkService
+import com.solidstategroup.diagnosisview.service.SerialisedCatalogue
+import org.springframework.http.HttpHeaders
+
+import java.util.zip.GZIPInputStream
 
 import static java.lang.String.format
+import static org.hamcrest.Matchers.is
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status
 
 class CodeControllerTest extends AbstractMvcSpec {
@@ -84,7 +94,7 @@ class CodeControllerTest extends AbstractMvcSpec {
 
         and: "user is an admin"
 
-        userService.getUserByToken(DEFAULT_AUTH_HEADER_VALUE) >> new User(roleType: RoleType.ADMIN)
+        userService.getAuthenticatedUser(DEFAULT_AUTH_HEADER_VALUE) >> authenticatedUser(RoleType.ADMIN)
     }
 
     def "should return all categories"() {
@@ -129,8 +139,8 @@ class CodeControllerTest extends AbstractMvcSpec {
 
         and: "user is presented with the appropriate codes"
 
-        1 * userService.getUserByToken(DEFAULT_AUTH_HEADER_VALUE) >>
-                new User(institution: "University of Edinburgh")
+        1 * userService.getAuthenticatedUser(DEFAULT_AUTH_HEADER_VALUE) >>
+                authenticatedUser(RoleType.USER, "University of Edinburgh")
     }
 
     def "should get all codes when an institution isn't found"() {
@@ -147,7 +157,172 @@ class CodeControllerTest extends AbstractMvcSpec {
 
         and: "user is presented with the appropriate codes"
 
-        1 * userService.getUserByToken(DEFAULT_AUTH_HEADER_VALUE) >>
-                new User(institution: null)
+        1 * userService.getAuthenticatedUser(DEFAULT_AUTH_HEADER_VALUE) >>
+                authenticatedUser(RoleType.USER, null)
+    }
+
+    def "should return serialised catalogue with an ETag"() {
+
+        given: "a serialised catalogue"
+
+        def catalogue = SerialisedCatalogue.of('[{"code":"dv_acne"}]'.getBytes("UTF-8"))
+
+        when: "get code endpoint is called"
+
+        def response = getAt(CODE)
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, catalogue.getEtag(null)))
+                .andExpect(jsonPath('$[0].code', is("dv_acne")))
+                .andReturn().response
+
+        then: "catalogue for the user institution is returned"
+
+        1 * codeService.getActiveCatalogue("University of Edinburgh", CatalogueFormat.FULL) >> catalogue
+        1 * userService.getAuthenticatedUser(DEFAULT_AUTH_HEADER_VALUE) >>
+                authenticatedUser(RoleType.USER, "University of Edinburgh")
+        response.getHeader(HttpHeaders.VARY) == "Accept, Accept-Encoding"
+    }
+
+    def "should return not modified when ETag matches"() {
+
+        given: "a serialised catalogue"
+
+        def catalogue = SerialisedCatalogue.of('[{"code":"dv_acne"}]'.getBytes("UTF-8"))
+
+        when: "get code endpoint is called with the catalogue ETag"
+
+        def response = server.perform(get(CODE)
+                .header(AUTH_HEADER, DEFAULT_AUTH_HEADER_VALUE)
+                .header(HttpHeaders.IF_NONE_MATCH, catalogue.getEtag(null)))
+                .andExpect(status().isNotModified())
+                .andReturn().response
+
+        then: "no body is sent"
+
+        1 * codeService.getActiveCatalogue(null, CatalogueFormat.FULL) >> catalogue
+        response.contentAsByteArray.length == 0
+    }
+
+    def "should return gzip catalogue when accepted"() {
+
+        given: "a serialised catalogue"
+
+        def catalogue = SerialisedCatalogue.of('[{"code":"dv_acne"}]'.getBytes("UTF-8"))
+
+        when: "get code endpoint is called accepting gzip"
+
+        def response = server.perform(get(CODE)
+                .header(AUTH_HEADER, DEFAULT_AUTH_HEADER_VALUE)
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andExpect(header().string(HttpHeaders.ETAG, catalogue.getEtag("gzip")))
+                .andReturn().response
+
+        then: "compressed bytes are sent"
+
+        1 * codeService.getActiveCatalogue(null, CatalogueFormat.FULL) >> catalogue
+        new GZIPInputStream(new ByteArrayInputStream(response.contentAsByteArray)).text == '[{"code":"dv_acne"}]'
+    }
+
+    def "should return compact catalogue when its media type is accepted"() {
+
+        given: "a compact serialised catalogue"
+
+        def catalogue = SerialisedCatalogue.of('{"codes":[{"code":"dv_acne"}]}'.getBytes("UTF-8"))
+
+        when: "get code endpoint is called accepting the compact media type"
+
+        server.perform(get(CODE)
+                .header(AUTH_HEADER, DEFAULT_AUTH_HEADER_VALUE)
+                .header(HttpHeaders.ACCEPT, "application/vnd.diagnosisview.compact+json, application/json;q=0.5"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE,
+                        CatalogueFormat.COMPACT.mediaType.toString()))
+                .andExpect(jsonPath('$.codes[0].code', is("dv_acne")))
+
+        then: "compact catalogue is returned"
+
+        1 * codeService.getActiveCatalogue(null, CatalogueFormat.COMPACT) >> catalogue
+    }
+
+    def "should return compact catalogue when asked by format parameter"() {
+
+        given: "a compact serialised catalogue"
+
+        def catalogue = SerialisedCatalogue.of('{"codes":[{"code":"dv_acne"}]}'.getBytes("UTF-8"))
+
+        when: "get code endpoint is called with format parameter"
+
+        server.perform(get(CODE + "?format=compact")
+                .header(AUTH_HEADER, DEFAULT_AUTH_HEADER_VALUE))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE,
+                        CatalogueFormat.COMPACT.mediaType.toString()))
+
+        then: "compact catalogue is returned"
+
+        1 * codeService.getActiveCatalogue(null, CatalogueFormat.COMPACT) >> catalogue
+    }
+
+    def "should return CBOR catalogue when accepted"() {
+
+        given: "a CBOR serialised catalogue"
+
+        def catalogue = SerialisedCatalogue.of([0x81, 0xa0] as byte[])
+
+        when: "get code endpoint is called accepting CBOR"
+
+        def response = server.perform(get(CODE)
+                .header(AUTH_HEADER, DEFAULT_AUTH_HEADER_VALUE)
+                .header(HttpHeaders.ACCEPT, "application/cbor"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, "application/cbor"))
+                .andReturn().response
+
+        then: "CBOR bytes are sent as serialised"
+
+        1 * codeService.getActiveCatalogue(null, CatalogueFormat.CBOR) >> catalogue
+        response.contentAsByteArray == catalogue.body
+    }
+
+    def "should return code changes since a version"() {
+
+        when: "changes endpoint is called with a version"
+
+        getAt(CODE + "/changes?since=1200")
+                .andExpect(status().isOk())
+                .andExpect(jsonPath('$.version', is(1250)))
+                .andExpect(jsonPath('$.full', is(false)))
+                .andExpect(jsonPath('$.codes[0].code', is("dv_acne")))
+                .andExpect(jsonPath('$.tombstones[0]', is("dv_rash")))
+
+        then: "changes for the user institution are returned"
+
+        1 * codeService.getActiveChanges(1200L, "University of Edinburgh") >> CodeChangesDto.builder()
+                .version(1250L)
+                .codes([CodeDto.builder().code("dv_acne").build()])
+                .tombstones(["dv_rash"])
+                .build()
+        1 * userService.getAuthenticatedUser(DEFAULT_AUTH_HEADER_VALUE) >>
+                authenticatedUser(RoleType.USER, "University of Edinburgh")
+    }
+
+    def "should return a starting version without since"() {
+
+        when: "changes endpoint is called without a version"
+
+        getAt(CODE + "/changes")
+                .andExpect(status().isOk())
+                .andExpect(jsonPath('$.full', is(true)))
+
+        then: "client is told to load all codes"
+
+        1 * codeService.getActiveChanges(null, null) >> CodeChangesDto.builder()
+                .version(1250L)
+                .full(true)
+                .codes([])
+                .tombstones([])
+                .build()
     }
 }
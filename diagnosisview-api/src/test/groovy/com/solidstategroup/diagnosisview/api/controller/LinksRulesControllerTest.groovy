@@ -2,7 +2,6 @@ package com.solidstategroup.diagnosisview.api.controller
 
 import com.solidstategroup.diagnosisview.exceptions.BadRequestException
 import com.solidstategroup.diagnosisview.model.LinkRuleDto
-import com.solidstategroup.diagnosisview.model.User
 import com.solidstategroup.diagnosisview.model.codes.LinkRule
 import com.solidstategroup.diagnosisview.model.codes.enums.CriteriaType
 import com.solidstategroup.diagnosisview.model.codes.enums.InstitutionEnum
@@ -45,7 +44,7 @@ class LinksRulesControllerTest extends AbstractMvcSpec {
 
         and: "admin role check is performed"
 
-        1 * userService.getUserByToken(_ as String) >> new User(roleType: ADMIN)
+        1 * userService.getAuthenticatedUser(_ as String) >> authenticatedUser(ADMIN)
     }
 
     def "should reject invalid rule request"() {
@@ -77,7 +76,7 @@ class LinksRulesControllerTest extends AbstractMvcSpec {
 
         and: "admin role check is performed"
 
-        1 * userService.getUserByToken(_ as String) >> new User(roleType: ADMIN)
+        1 * userService.getAuthenticatedUser(_ as String) >> authenticatedUser(ADMIN)
     }
 
     def "should fetch a specific rule"() {
@@ -97,7 +96,7 @@ class LinksRulesControllerTest extends AbstractMvcSpec {
 
         and: "admin role check is performed"
 
-        1 * userService.getUserByToken(_ as String) >> new User(roleType: ADMIN)
+        1 * userService.getAuthenticatedUser(_ as String) >> authenticatedUser(ADMIN)
     }
 
     def "should throw 404 when specific rule not found"() {
@@ -115,7 +114,7 @@ class LinksRulesControllerTest extends AbstractMvcSpec {
 
         then: "admin role check is performed"
 
-        1 * userService.getUserByToken(_ as String) >> new User(roleType: ADMIN)
+        1 * userService.getAuthenticatedUser(_ as String) >> authenticatedUser(ADMIN)
     }
 
     def "should delete a specific rule"() {
@@ -134,6 +133,6 @@ class LinksRulesControllerTest extends AbstractMvcSpec {
 
         and: "admin role check is performed"
 
-        1 * userService.getUserByToken(_ as String) >> new User(roleType: ADMIN)
+        1 * userService.getAuthenticatedUser(_ as String) >> authenticatedUser(ADMIN)
     }
 }
@@ -1,7 +1,6 @@
 package com.solidstategroup.diagnosisview.api.controller
 
 import com.solidstategroup.diagnosisview.model.LogoRuleDto
-import com.solidstategroup.diagnosisview.model.User
 import com.solidstategroup.diagnosisview.model.codes.LogoRule
 import com.solidstategroup.diagnosisview.service.LogoRulesService
 
@@ -48,7 +47,7 @@ class LogoRulesControllerTest extends AbstractMvcSpec {
 
         1 * logoRulesService.add(logoRule) >> standardLogoRule()
 
-        1 * userService.getUserByToken(_ as String) >> new User(roleType: ADMIN)
+        1 * userService.getAuthenticatedUser(_ as String) >> authenticatedUser(ADMIN)
     }
 
     def "should fetch all logos"() {
@@ -82,7 +81,7 @@ class LogoRulesControllerTest extends AbstractMvcSpec {
 
         1 * logoRulesService.update(ID, logoRuleDto) >> standardLogoRule()
 
-        1 * userService.getUserByToken(_ as String) >> new User(roleType: ADMIN)
+        1 * userService.getAuthenticatedUser(_ as String) >> authenticatedUser(ADMIN)
     }
 
     def "should delete a logo"() {
@@ -96,7 +95,7 @@ class LogoRulesControllerTest extends AbstractMvcSpec {
 
         1 * logoRulesService.delete(ID)
 
-        1 * userService.getUserByToken(_ as String) >> new User(roleType: ADMIN)
+        1 * userService.getAuthenticatedUser(_ as String) >> authenticatedUser(ADMIN)
     }
 
     def "should fetch a logo rule"() {
@@ -113,7 +112,7 @@ class LogoRulesControllerTest extends AbstractMvcSpec {
 
         then:
 
-        1 * userService.getUserByToken(_ as String) >> new User(roleType: ADMIN)
+        1 * userService.getAuthenticatedUser(_ as String) >> authenticatedUser(ADMIN)
     }
 
     def "should return stored image"() {
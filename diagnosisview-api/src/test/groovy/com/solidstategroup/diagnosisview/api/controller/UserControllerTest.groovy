@@ -1,12 +1,20 @@
 package com.solidstategroup.diagnosisview.api.controller
 
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory
 import com.solidstategroup.diagnosisview.model.FeedbackDto
+import com.solidstategroup.diagnosisview.model.LinkDto
 import com.solidstategroup.diagnosisview.model.PasswordResetDto
 import com.solidstategroup.diagnosisview.model.SavedUserCode
 import com.solidstategroup.diagnosisview.model.User
+import com.solidstategroup.diagnosisview.results.FavouriteResult
+import com.solidstategroup.diagnosisview.results.HistoryResult
 import com.solidstategroup.diagnosisview.service.EmailService
+import org.springframework.http.HttpHeaders
 
 import static org.hamcrest.Matchers.is
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status
 
@@ -20,6 +28,7 @@ class UserControllerTest extends AbstractMvcSpec {
     static SYNC_FAVOURITE = '/api/user/sync/favourites'
     static SYNC_HISTORY = '/api/user/sync/history'
     static HISTORY = '/api/user/history'
+    static CBOR = 'application/cbor'
 
     def emailService = Mock(EmailService)
 
@@ -239,4 +248,50 @@ class UserControllerTest extends AbstractMvcSpec {
 
         1 * userService.getUserByToken(DEFAULT_AUTH_HEADER_VALUE) >> user
     }
+
+    def "should send favourites as CBOR when accepted"() {
+
+        given: "a user's favourites"
+
+        def favourites = [new FavouriteResult("dv_acne", "Acne", new Date(1546300800000L),
+                new LinkDto(4L, null, null, "https://nhs.uk/acne", "https://nhs.uk/acne", 1, true, "NHS",
+                        true, false, null))]
+
+        when: "favourites endpoint is called accepting CBOR"
+
+        def response = server.perform(get(FAVOURITE)
+                .header(AUTH_HEADER, DEFAULT_AUTH_HEADER_VALUE)
+                .header(HttpHeaders.ACCEPT, CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(CBOR))
+                .andReturn().response
+
+        then: "same fields are sent as in JSON"
+
+        1 * userService.getUserByToken(DEFAULT_AUTH_HEADER_VALUE) >> user
+        1 * userService.getFavouriteList(user) >> favourites
+        new ObjectMapper(new CBORFactory()).readTree(response.contentAsByteArray) == MAPPER.readTree(MAPPER.writeValueAsBytes(favourites))
+    }
+
+    def "should send history as CBOR when accepted"() {
+
+        given: "a user's history"
+
+        def history = [new HistoryResult("dv_acne", "Acne", new Date(1546300800000L))]
+
+        when: "history endpoint is called accepting CBOR"
+
+        def response = server.perform(get(HISTORY)
+                .header(AUTH_HEADER, DEFAULT_AUTH_HEADER_VALUE)
+                .header(HttpHeaders.ACCEPT, CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(CBOR))
+                .andReturn().response
+
+        then: "same fields are sent as in JSON"
+
+        1 * userService.getUserByToken(DEFAULT_AUTH_HEADER_VALUE) >> user
+        1 * userService.getHistoryList(user) >> history
+        new ObjectMapper(new CBORFactory()).readTree(response.contentAsByteArray) == MAPPER.readTree(MAPPER.writeValueAsBytes(history))
+    }
 }
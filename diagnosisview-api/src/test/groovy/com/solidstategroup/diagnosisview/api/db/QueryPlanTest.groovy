@@ -0,0 +1,224 @@
+package com.solidstategroup.diagnosisview.api.db
+
+import com.solidstategroup.diagnosisview.repository.CodeRepository
+import com.solidstategroup.diagnosisview.repository.LinkRepository
+import com.solidstategroup.diagnosisview.repository.UserRepository
+import groovy.sql.Sql
+import org.flywaydb.core.Flyway
+import org.hibernate.dialect.PostgreSQL95Dialect
+import org.springframework.boot.orm.jpa.hibernate.SpringImplicitNamingStrategy
+import org.springframework.boot.orm.jpa.hibernate.SpringPhysicalNamingStrategy
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactory
+import org.springframework.jdbc.datasource.DelegatingDataSource
+import org.springframework.jdbc.datasource.DriverManagerDataSource
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter
+import spock.lang.Requires
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import javax.persistence.EntityManager
+import java.lang.reflect.InvocationHandler
+import java.lang.reflect.InvocationTargetException
+import java.lang.reflect.Method
+import java.lang.reflect.Proxy
+import java.sql.Connection
+import java.sql.PreparedStatement
+
+/**
+ * Checks repository queries are served by indexes from the Flyway migrations.
+ * <p>
+ * Needs an empty local Postgres database, skipped unless DV_IT_DATASOURCE_URL is set, e.g.
+ * DV_IT_DATASOURCE_URL=jdbc:postgresql://localhost:5432/diagnosisview_it
+ * DV_IT_DATASOURCE_USERNAME=diagnosisview DV_IT_DATASOURCE_PASSWORD=diagnosisview mvn test
+ * <p>
+ * Each repository method is called through Spring Data and Hibernate with the mapping settings
+ * the application uses, and the first statement it sends is explained with the values it bound.
+ * Derived, JPQL and native queries are all checked as the database receives them, so a changed
+ * query or mapping shows up here. Calls are made in a transaction that is rolled back.
+ * Sequential scans are disabled as an empty schema would otherwise never pick an index.
+ */
+@Requires({ System.getenv("DV_IT_DATASOURCE_URL") })
+class QueryPlanTest extends Specification {
+
+    @Shared
+    Sql sql
+
+    @Shared
+    LocalContainerEntityManagerFactoryBean entityManagerFactory
+
+    @Shared
+    EntityManager entityManager
+
+    @Shared
+    JpaRepositoryFactory repositoryFactory
+
+    @Shared
+    List<RecordedStatement> recorded = []
+
+    def setupSpec() {
+        def url = System.getenv("DV_IT_DATASOURCE_URL")
+        def username = System.getenv("DV_IT_DATASOURCE_USERNAME")
+        def password = System.getenv("DV_IT_DATASOURCE_PASSWORD")
+
+        Flyway.configure()
+                .dataSource(url, username, password)
+                .locations("classpath:db/migration")
+                .load()
+                .migrate()
+
+        sql = Sql.newInstance(url, username, password, "org.postgresql.Driver")
+        sql.execute("SET enable_seqscan = off")
+
+        entityManagerFactory = new LocalContainerEntityManagerFactoryBean(
+                dataSource: new RecordingDataSource(new DriverManagerDataSource(url, username, password), recorded),
+                jpaVendorAdapter: new HibernateJpaVendorAdapter(),
+                packagesToScan: ["com.solidstategroup.diagnosisview.model"] as String[])
+        // same as spring.jpa.* in application.properties and the Spring Boot defaults
+        entityManagerFactory.jpaPropertyMap.putAll([
+                "hibernate.dialect"                            : PostgreSQL95Dialect.name,
+                "hibernate.hbm2ddl.auto"                       : "none",
+                "hibernate.id.new_generator_mappings"          : "true",
+                "hibernate.physical_naming_strategy"           : SpringPhysicalNamingStrategy.name,
+                "hibernate.implicit_naming_strategy"           : SpringImplicitNamingStrategy.name,
+                "hibernate.jdbc.lob.non_contextual_creation"   : "true"
+        ])
+        entityManagerFactory.afterPropertiesSet()
+
+        entityManager = entityManagerFactory.object.createEntityManager()
+        repositoryFactory = new JpaRepositoryFactory(entityManager)
+    }
+
+    def cleanupSpec() {
+        entityManager?.close()
+        entityManagerFactory?.destroy()
+        sql?.close()
+    }
+
+    @Unroll
+    def "#method of #repository.simpleName should use #index"() {
+
+        given: "statement sent by the repository method"
+
+        def statement = record(repositoryFactory.getRepository(repository), call)
+
+        when: "its query plan is explained with the values it bound"
+
+        def plan = explain(statement)
+
+        then: "expected index is used"
+
+        plan.contains(index)
+
+        where:
+
+        repository     | method                         | index                                | call
+        UserRepository | "findOneByToken"               | "idx_dv_user_token"                  | { it.findOneByToken("token") }
+        UserRepository | "findAuthenticatedUserByToken" | "idx_dv_user_token"                  | { it.findAuthenticatedUserByToken("token") }
+        UserRepository | "findOneByUsernameIgnoreCase"  | "idx_dv_user_upper_username"         | { it.findOneByUsernameIgnoreCase("user@example.com") }
+        UserRepository | "expireLapsedSubscriptions"    | "idx_dv_user_active_expiry"          | { it.expireLapsedSubscriptions(500) }
+        CodeRepository | "findOneByCode"                | "idx_pv_code_code"                   | { it.findOneByCode("dv_acne") }
+        CodeRepository | "findAllActiveByCodes"         | "idx_pv_code_code"                   | { it.findAllActiveByCodes(["dv_acne", "dv_rash"]) }
+        CodeRepository | "findByCode"                   | "idx_pv_code_upper_code_trgm"        | { it.findByCode("%acne%") }
+        CodeRepository | "findBySynonym"                | "idx_pv_code_synonym_names_trgm"     | { it.findBySynonym("%spots%") }
+        CodeRepository | "searchAllCodes"               | "idx_pv_code_upper_name_trgm"        | { it.searchAllCodes("%acne%") }
+        CodeRepository | "findByExternalStandards"      | "idx_pv_code_external_standard_code" | { it.findByExternalStandards("I21%") }
+        CodeRepository | "findById, eager links"        | "idx_pv_link_code_id"                | { it.findById(1L) }
+        LinkRepository | "findLinkByExternalId"         | "idx_pv_link_external_id"            | { it.findLinkByExternalId("bmj-123") }
+        LinkRepository | "findLinksByLinkContaining"    | "idx_pv_link_link_trgm"              | { it.findLinksByLinkContaining("bmj.com") }
+    }
+
+    /**
+     * Call a repository method in a rolled back transaction.
+     *
+     * @return first statement it sent
+     */
+    private RecordedStatement record(Object repository, Closure call) {
+        recorded.clear()
+        entityManager.clear()
+        entityManager.transaction.begin()
+        try {
+            call(repository)
+            entityManager.flush()
+        } finally {
+            entityManager.transaction.rollback()
+        }
+        assert !recorded.isEmpty(): "repository method sent no statement"
+        recorded.first()
+    }
+
+    private String explain(RecordedStatement statement) {
+        Connection connection = sql.connection
+        PreparedStatement explain = connection.prepareStatement("EXPLAIN " + statement.sql)
+        try {
+            statement.parameters.each { Tuple2<String, Object[]> call -> explain.invokeMethod(call.first, call.second) }
+            def rows = explain.executeQuery()
+            def plan = []
+            while (rows.next()) {
+                plan << rows.getString(1)
+            }
+            plan.join("\n")
+        } finally {
+            explain.close()
+        }
+    }
+
+    /**
+     * Statement as sent by Hibernate, with the setter calls binding its parameters.
+     */
+    static class RecordedStatement {
+        String sql
+        List<Tuple2<String, Object[]>> parameters = []
+    }
+
+    /**
+     * DataSource recording every prepared statement executed through its connections.
+     */
+    static class RecordingDataSource extends DelegatingDataSource {
+
+        private final List<RecordedStatement> recorded
+
+        RecordingDataSource(DriverManagerDataSource target, List<RecordedStatement> recorded) {
+            super(target)
+            this.recorded = recorded
+        }
+
+        @Override
+        Connection getConnection() {
+            Connection connection = super.getConnection()
+            proxy(Connection, { Object proxy, Method method, Object[] args ->
+                Object result = invoke(connection, method, args)
+                if (method.name == "prepareStatement") {
+                    return recording((PreparedStatement) result, (String) args[0])
+                }
+                result
+            })
+        }
+
+        private PreparedStatement recording(PreparedStatement target, String sql) {
+            def statement = new RecordedStatement(sql: sql)
+            proxy(PreparedStatement, { Object proxy, Method method, Object[] args ->
+                // setString(1, ...), setNull(2, ...) and the like, not setFetchSize(...)
+                if (method.name.startsWith("set") && args?.length > 1 && args[0] instanceof Integer) {
+                    statement.parameters << new Tuple2<String, Object[]>(method.name, args)
+                } else if (method.name.startsWith("execute")) {
+                    recorded << statement
+                }
+                invoke(target, method, args)
+            })
+        }
+
+        private static <T> T proxy(Class<T> type, Closure handler) {
+            (T) Proxy.newProxyInstance(QueryPlanTest.classLoader, [type] as Class[], handler as InvocationHandler)
+        }
+
+        private static Object invoke(Object target, Method method, Object[] args) {
+            try {
+                method.invoke(target, args)
+            } catch (InvocationTargetException e) {
+                throw e.cause
+            }
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.solidstategroup.diagnosisview.exceptions;
+
+/**
+ * CircuitOpenException thrown when a call to an external system is refused
+ * because its circuit breaker is open.
+ */
+public class CircuitOpenException extends Exception {
+    public CircuitOpenException(String message) {
+        super(message);
+    }
+}
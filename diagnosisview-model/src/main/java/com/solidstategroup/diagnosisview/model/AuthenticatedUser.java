@@ -0,0 +1,43 @@
+package com.solidstategroup.diagnosisview.model;
+
+import com.solidstategroup.diagnosisview.model.enums.RoleType;
+import lombok.Getter;
+
+import java.util.Date;
+
+/**
+ * Slim, immutable view of a logged in User used for request authentication,
+ * loaded without favourites, history and payment data.
+ */
+@Getter
+public class AuthenticatedUser {
+    private final Long id;
+    private final RoleType roleType;
+    private final String institution;
+    private final boolean activeSubscription;
+    private final boolean autoRenewing;
+    private final Date expiryDate;
+
+    public AuthenticatedUser(Long id, RoleType roleType, String institution,
+                             boolean activeSubscription, boolean autoRenewing, Date expiryDate) {
+        this.id = id;
+        this.roleType = roleType;
+        this.institution = institution;
+        this.activeSubscription = activeSubscription;
+        this.autoRenewing = autoRenewing;
+        this.expiryDate = expiryDate;
+    }
+
+    public boolean isAdmin() {
+        return RoleType.ADMIN.equals(roleType);
+    }
+
+    /**
+     * Subscription state at the time of the call, see {@link Utils#isSubscriptionActive}.
+     *
+     * @return true if user has active subscription
+     */
+    public boolean isActiveSubscription() {
+        return Utils.isSubscriptionActive(roleType, activeSubscription, autoRenewing, expiryDate);
+    }
+}
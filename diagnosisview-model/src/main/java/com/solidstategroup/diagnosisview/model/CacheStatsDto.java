@@ -0,0 +1,22 @@
+package com.solidstategroup.diagnosisview.model;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Usage statistics of a single in memory cache, for admin monitoring.
+ */
+@Getter
+@Builder
+public class CacheStatsDto {
+    private String name;
+    private long size;
+    private long hitCount;
+    private long missCount;
+    private double hitRate;
+    private long evictionCount;
+    private long evictionWeight;
+    private long loadSuccessCount;
+    private long loadFailureCount;
+    private double averageLoadPenaltyMillis;
+}
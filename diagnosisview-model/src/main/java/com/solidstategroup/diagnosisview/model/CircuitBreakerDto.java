@@ -0,0 +1,38 @@
+package com.solidstategroup.diagnosisview.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * State of the circuit breaker around one external system, for admin monitoring.
+ */
+@Getter
+@Builder
+public class CircuitBreakerDto {
+    private String name;
+    // CLOSED, OPEN or HALF_OPEN
+    private String state;
+    // percentage of failed and slow calls among the calls in the window
+    private double failureRate;
+    private double slowCallRate;
+    private int bufferedCalls;
+    private long rejectedCalls;
+    // most recent last
+    private List<Transition> transitions;
+
+    /**
+     * A change of state and why it happened.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Transition {
+        private String from;
+        private String to;
+        private Date at;
+        private String reason;
+    }
+}
@@ -0,0 +1,22 @@
+package com.solidstategroup.diagnosisview.model;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Active Codes changed since a catalogue version, for clients keeping their own copy of the catalogue.
+ */
+@Getter
+@Builder
+public class CodeChangesDto {
+    // pass as since on the next request
+    private long version;
+    // changes can not be listed, client has to reload the whole catalogue
+    private boolean full;
+    // Codes created or changed, to add or replace by code
+    private List<CodeDto> codes;
+    // codes deleted or no longer shown to users, to remove
+    private List<String> tombstones;
+}
@@ -0,0 +1,25 @@
+package com.solidstategroup.diagnosisview.model;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Summary of a PatientView code sync run.
+ */
+@Getter
+@Builder
+@ToString
+public class CodeSyncReport {
+    private int pages;
+    // same fingerprint as last sync, dropped before loading the Code
+    private int skipped;
+    private int created;
+    private int updated;
+    private int unchanged;
+    private int failed;
+    // Lookups, Categories and ExternalStandards saved, and saves skipped as already saved in the run
+    private int referenceWrites;
+    private int referenceWritesAvoided;
+    private long timing;
+}
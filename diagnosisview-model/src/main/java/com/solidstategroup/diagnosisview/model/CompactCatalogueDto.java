@@ -0,0 +1,64 @@
+package com.solidstategroup.diagnosisview.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.solidstategroup.diagnosisview.model.codes.Lookup;
+import com.solidstategroup.diagnosisview.model.codes.enums.DifficultyLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Active Codes in a dictionary normalised form, for clients asking for it instead of a CodeDto list.
+ * <p>
+ * Link types, categories and tags are sent once, keyed by id, and Codes and links refer to them by id.
+ * Other fields mean the same as in {@link CodeDto} and {@link LinkDto}, except originalLink which is
+ * left out when it is the same as link.
+ */
+@Getter
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CompactCatalogueDto {
+    private Map<Long, Lookup> linkTypes;
+    private Map<Long, CategoryDto> categories;
+    private Map<Long, Tag> tags;
+    private List<CodeEntry> codes;
+
+    /**
+     * A CodeDto with ids of its categories and tags.
+     */
+    @Getter
+    @Builder
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class CodeEntry {
+        private String code;
+        private String friendlyName;
+        private Boolean deleted;
+        private Set<Long> categories;
+        private Set<Long> tags;
+        private List<LinkEntry> links;
+    }
+
+    /**
+     * A LinkDto with id of its link type.
+     */
+    @Getter
+    @AllArgsConstructor
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class LinkEntry {
+        private Long id;
+        private Long linkType;
+        private DifficultyLevel difficultyLevel;
+        private String link;
+        private String originalLink;
+        private Integer displayOrder;
+        private Boolean displayLink;
+        private String name;
+        private Boolean freeLink;
+        private Boolean transformationsOnly;
+        private LinkDto.PaywalledType paywalled;
+    }
+}
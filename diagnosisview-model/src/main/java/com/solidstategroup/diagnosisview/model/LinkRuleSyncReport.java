@@ -0,0 +1,27 @@
+package com.solidstategroup.diagnosisview.model;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.Set;
+
+/**
+ * Summary of reconciling link rule mappings with the links they apply to.
+ */
+@Getter
+@Builder
+@ToString(exclude = "changedCodeIds")
+public class LinkRuleSyncReport {
+    private int rules;
+    // links read and (rule, link) pairs matched
+    private int links;
+    private int matched;
+    private int inserted;
+    private int updated;
+    private int deleted;
+    private int unchanged;
+    private long timing;
+    // Codes whose links got, changed or lost a mapping
+    private Set<Long> changedCodeIds;
+}
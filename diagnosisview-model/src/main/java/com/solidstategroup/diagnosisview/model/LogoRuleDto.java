@@ -17,4 +17,6 @@ public class LogoRuleDto {
     private String imageFormat;
     private String imageUrl;
     private DifficultyLevel overrideDifficultyLevel;
+    // set when adding or updating a rule
+    private Integer linksUpdated;
 }
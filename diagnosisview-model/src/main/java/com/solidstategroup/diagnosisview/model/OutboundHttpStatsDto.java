@@ -0,0 +1,18 @@
+package com.solidstategroup.diagnosisview.model;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Calls made to a single third party host since startup, for admin monitoring.
+ */
+@Getter
+@Builder
+public class OutboundHttpStatsDto {
+    private String host;
+    private long calls;
+    // calls failing to connect or read, or answered with a 5xx status
+    private long errors;
+    private long averageMillis;
+    private long maxMillis;
+}
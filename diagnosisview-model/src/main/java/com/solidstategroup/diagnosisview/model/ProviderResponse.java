@@ -0,0 +1,51 @@
+package com.solidstategroup.diagnosisview.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Links an external provider (BMJ, MedlinePlus) returned for one code of a code system,
+ * as kept in the provider response cache. A response without entries records that the
+ * provider has nothing for the code.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProviderResponse {
+
+    private List<Entry> entries = Collections.emptyList();
+    // latest updated timestamp of the entries, as reported by the provider
+    private Date updated;
+    private Date fetched;
+
+    public ProviderResponse(List<Entry> entries) {
+        this.entries = entries;
+        this.updated = entries.stream()
+                .map(Entry::getUpdated)
+                .filter(d -> d != null)
+                .max(Date::compareTo)
+                .orElse(null);
+    }
+
+    public boolean isFound() {
+        return !entries.isEmpty();
+    }
+
+    /**
+     * A single link of the response.
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Entry {
+        private String externalId;
+        private String href;
+        private String title;
+        private Date updated;
+    }
+}
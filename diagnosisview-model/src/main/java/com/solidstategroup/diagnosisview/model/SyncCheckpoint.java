@@ -0,0 +1,45 @@
+package com.solidstategroup.diagnosisview.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import java.util.Date;
+
+/**
+ * Progress of a long running sync job, lets an interrupted run carry on
+ * from the last committed chunk instead of starting over.
+ */
+@Data
+@NoArgsConstructor
+@Entity
+@Table(name = "dv_sync_checkpoint")
+public class SyncCheckpoint {
+
+    @Id
+    @Column(name = "name", nullable = false)
+    private String name;
+
+    @Column(name = "run_started", nullable = false)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date runStarted;
+
+    // last key processed by the run, keys are processed in natural order
+    @Column(name = "last_key")
+    private String lastKey;
+
+    @Column(name = "processed", nullable = false)
+    private int processed;
+
+    @Column(name = "completed", nullable = false)
+    private boolean completed;
+
+    @Column(name = "last_update_date", nullable = false)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date lastUpdate;
+}
@@ -1,5 +1,6 @@
 package com.solidstategroup.diagnosisview.model;
 
+import com.solidstategroup.diagnosisview.model.enums.RoleType;
 import lombok.extern.java.Log;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.springframework.util.StringUtils;
@@ -8,6 +9,7 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.Date;
 
 /**
  * Helper utilities used by DTOs and tests.
@@ -19,6 +21,26 @@ public final class Utils {
      */
     private Utils() { }
 
+    /**
+     * Work out whether user subscription is active right now, admins are always
+     * subscribed and non auto-renewing subscriptions lapse once expiry date has passed.
+     * @param roleType user role
+     * @param activeSubscription stored subscription flag
+     * @param autoRenewing whether subscription renews automatically
+     * @param expiryDate subscription expiry date, can be null
+     * @return true if subscription is active
+     */
+    public static boolean isSubscriptionActive(final RoleType roleType, final boolean activeSubscription,
+                                               final boolean autoRenewing, final Date expiryDate) {
+        if (RoleType.ADMIN.equals(roleType)) {
+            return true;
+        }
+        if (!autoRenewing && (expiryDate == null || expiryDate.before(new Date()))) {
+            return false;
+        }
+        return activeSubscription;
+    }
+
     /**
      * Get a BigDecimal from a String.
      * @param value String value to convert
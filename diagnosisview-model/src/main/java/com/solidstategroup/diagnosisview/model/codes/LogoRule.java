@@ -59,4 +59,9 @@ public class LogoRule {
 
     @OneToMany(mappedBy = "logoRule")
     private Set<Link> links;
+
+    //Number of links the rule was assigned to or removed from by the last add or update
+    @Transient
+    @JsonIgnore
+    private Integer linksUpdated;
 }
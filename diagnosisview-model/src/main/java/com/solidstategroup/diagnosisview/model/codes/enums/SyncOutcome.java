@@ -0,0 +1,12 @@
+package com.solidstategroup.diagnosisview.model.codes.enums;
+
+/**
+ * What happened to a Code received from a sync job.
+ */
+public enum SyncOutcome {
+    CREATED,
+    UPDATED,
+    // compared with stored Code and nothing to update
+    UNCHANGED,
+    FAILED
+}
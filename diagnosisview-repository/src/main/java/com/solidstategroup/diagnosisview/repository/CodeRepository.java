@@ -32,10 +32,9 @@ public interface CodeRepository extends JpaRepository<Code, Long> {
             " WHERE removed_externally = false AND hide_from_patients = false AND es.codeString LIKE :code")
     List<Code> findByExternalStandards(@Param("code") String code);
 
-    @Query(value = "SELECT * FROM pv_code, " +
-            " jsonb_array_elements(synonyms) " +
+    @Query(value = "SELECT * FROM pv_code " +
             " WHERE removed_externally = false AND hide_from_patients = false " +
-            " AND UPPER(value->>'name') LIKE UPPER(:synonym)",
+            " AND dv_synonym_names(synonyms) LIKE UPPER(:synonym)",
             nativeQuery = true)
     List<Code> findBySynonym(@Param("synonym") String synonym);
 
@@ -65,13 +64,10 @@ public interface CodeRepository extends JpaRepository<Code, Long> {
             "WHERE c.standardType = :standardType")
     List<Code> findAllByStandardType(@Param("standardType") Lookup standardType);
 
-    @Query(value = "SELECT DISTINCT ON (id) * FROM pv_code" +
+    @Query(value = "SELECT * FROM pv_code" +
             " WHERE UPPER(code) LIKE UPPER(:searchTerm) " +
             " OR UPPER(patient_friendly_name) LIKE UPPER(:searchTerm) " +
-            " OR EXISTS ( " +
-            "       SELECT 1 from jsonb_array_elements(synonyms) as obj " +
-            "       WHERE UPPER(obj->>'name') LIKE UPPER(:searchTerm)" +
-            " )",
+            " OR dv_synonym_names(synonyms) LIKE UPPER(:searchTerm)",
             nativeQuery = true)
     List<Code> searchAllCodes(@Param("searchTerm") String searchTerm);
 }
@@ -3,8 +3,11 @@ package com.solidstategroup.diagnosisview.repository;
 import com.solidstategroup.diagnosisview.model.codes.Code;
 import com.solidstategroup.diagnosisview.model.codes.Link;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 
@@ -21,4 +24,13 @@ public interface LinkRepository extends JpaRepository<Link, Long> {
     List<Link> findLinksByExternalId(String externalId);
 
     void deleteByCode(Code code);
+
+    /**
+     * Load Links together with their link rule mappings in a single query.
+     *
+     * @param ids ids of Links to load
+     * @return Links found, ids not in the database are ignored
+     */
+    @Query("SELECT DISTINCT l FROM Link l LEFT JOIN FETCH l.mappingLinks WHERE l.id IN :ids")
+    List<Link> findAllWithMappingsByIdIn(@Param("ids") Collection<Long> ids);
 }
@@ -17,8 +17,41 @@ public interface LogoRuleRepository extends JpaRepository<LogoRule, String> {
     @Query(value = "UPDATE Link l set l.logoRule = NULL WHERE l.logoRule = ?1")
     void clearLogoRule(LogoRule logoRule);
 
+    /**
+     * Assign a logo rule to the next chunk of links whose url starts with the rule prefix,
+     * leaving links that have a rule with a longer (more specific) prefix.
+     *
+     * @param ruleId       id of the logo rule
+     * @param pattern      LIKE pattern for the prefix, with wildcards escaped using backslash
+     * @param prefixLength length of the rule prefix
+     * @param limit        maximum number of links to update
+     * @return number of links updated, less than limit when no links are left
+     */
     @Modifying
-    @Query(value = "UPDATE Link l SET l.logoRule = :logoRule WHERE EXISTS " +
-            "(SELECT ol FROM Link ol WHERE ol.link LIKE CONCAT('%', :#{#logoRule.startsWith}, '%'))")
-    void addLogoRule(@Param("logoRule") LogoRule logoRule);
+    @Query(value = "UPDATE pv_link SET link_logo_id = :ruleId WHERE id IN (" +
+            "SELECT l.id FROM pv_link l LEFT JOIN dv_link_logo_rule r ON r.id = l.link_logo_id " +
+            "WHERE l.link LIKE :pattern ESCAPE '\\' AND (r.id IS NULL OR r.starts_with IS NULL " +
+            "OR (r.id <> :ruleId AND length(r.starts_with) < :prefixLength)) LIMIT :limit)",
+            nativeQuery = true)
+    int assignLogoRule(@Param("ruleId") String ruleId,
+                       @Param("pattern") String pattern,
+                       @Param("prefixLength") int prefixLength,
+                       @Param("limit") int limit);
+
+    /**
+     * Remove a logo rule from the next chunk of links whose url no longer starts with the rule prefix.
+     *
+     * @param ruleId  id of the logo rule
+     * @param pattern LIKE pattern for the prefix, with wildcards escaped using backslash
+     * @param limit   maximum number of links to update
+     * @return number of links updated, less than limit when no links are left
+     */
+    @Modifying
+    @Query(value = "UPDATE pv_link SET link_logo_id = NULL WHERE id IN (" +
+            "SELECT id FROM pv_link WHERE link_logo_id = :ruleId " +
+            "AND (link IS NULL OR link NOT LIKE :pattern ESCAPE '\\') LIMIT :limit)",
+            nativeQuery = true)
+    int releaseLogoRule(@Param("ruleId") String ruleId,
+                        @Param("pattern") String pattern,
+                        @Param("limit") int limit);
 }
@@ -9,7 +9,9 @@ import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 
 /**
  * JPA repository for NhschoicesCondition entity.
@@ -21,6 +23,12 @@ public interface NhschoicesConditionRepository extends JpaRepository<NhschoicesC
     @Query("SELECT c FROM NhschoicesCondition c WHERE c.code = :code")
     NhschoicesCondition findOneByCode(@Param("code") String code);
 
+    @Query("SELECT c FROM NhschoicesCondition c WHERE c.code IN :codes")
+    List<NhschoicesCondition> findAllByCodes(@Param("codes") Collection<String> codes);
+
+    @Query("SELECT c.code FROM NhschoicesCondition c")
+    Set<String> findAllCodes();
+
     @Modifying(clearAutomatically = true)
     @Query("DELETE FROM NhschoicesCondition WHERE code IN :codes")
     void deleteByCode(@Param("codes") List<String> codes);
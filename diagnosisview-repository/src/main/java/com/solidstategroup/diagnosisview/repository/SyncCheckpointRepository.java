@@ -0,0 +1,15 @@
+package com.solidstategroup.diagnosisview.repository;
+
+import com.solidstategroup.diagnosisview.model.SyncCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * JPA repository for SyncCheckpoint entity.
+ */
+@Repository
+@Transactional(propagation = Propagation.MANDATORY)
+public interface SyncCheckpointRepository extends JpaRepository<SyncCheckpoint, String> {
+}
@@ -1,8 +1,13 @@
 package com.solidstategroup.diagnosisview.repository;
 
+import com.solidstategroup.diagnosisview.model.AuthenticatedUser;
 import com.solidstategroup.diagnosisview.model.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Date;
 import java.util.List;
@@ -29,6 +34,18 @@ public interface UserRepository extends JpaRepository<User, Long> {
      */
     User findOneByToken(final String token);
 
+    /**
+     * Find slim authentication details of a user by the login token, without
+     * loading jsonb columns.
+     *
+     * @param token String the login token
+     * @return the authenticated user or null
+     */
+    @Query("SELECT new com.solidstategroup.diagnosisview.model.AuthenticatedUser("
+            + "u.id, u.roleType, u.institution, u.activeSubscription, u.autoRenewing, u.expiryDate) "
+            + "FROM User u WHERE u.token = :token")
+    AuthenticatedUser findAuthenticatedUserByToken(@Param("token") final String token);
+
 
     /**
      * Final all users that are expiring in the next month
@@ -36,4 +53,21 @@ public interface UserRepository extends JpaRepository<User, Long> {
      * @return the user expiring soon
      */
     List<User> findByExpiryDateLessThanEqualAndActiveSubscription(final Date date, final boolean activeSubscription);
+
+    /**
+     * Set active subscription to false for up to batchSize non admin users that are not
+     * auto-renewing and whose subscription expired, in its own transaction.
+     *
+     * @param batchSize max number of users to update
+     * @return number of users updated
+     */
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query(value = "UPDATE dv_user SET active_subscription = false WHERE id IN ("
+            + "SELECT id FROM dv_user WHERE active_subscription = true "
+            + "AND COALESCE(auto_renewing, false) = false "
+            + "AND (role_type IS NULL OR role_type <> 'ADMIN') "
+            + "AND (expiry_date IS NULL OR expiry_date < now()) "
+            + "LIMIT :batchSize)", nativeQuery = true)
+    int expireLapsedSubscriptions(@Param("batchSize") final int batchSize);
 }
@@ -0,0 +1,249 @@
+package com.solidstategroup.diagnosisview.clients;
+
+import com.solidstategroup.diagnosisview.model.OutboundHttpStatsDto;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpHost;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Shared client for every call made to third parties: PatientView, BMJ, MedlinePlus,
+ * NHS Choices, NLM, Google and Apple.
+ * <p>
+ * Connections are pooled and kept alive between calls, with a cap on connections per
+ * host so a slow host only ever holds its own share of the pool. Every call has connect,
+ * read and pool wait timeouts, a caller that cannot get a connection to a busy host in
+ * time fails instead of holding its thread. Latency and errors are recorded per host.
+ */
+@Slf4j
+@Component
+public class OutboundHttpClient implements DisposableBean {
+
+    private static final int VALIDATE_AFTER_INACTIVITY_MS = 2000;
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final RequestConfig requestConfig;
+    private final RestTemplate restTemplate;
+    private final Map<String, HostStats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxTotal         connections kept across all hosts
+     * @param maxPerHost       connections kept per host unless given in hostLimits
+     * @param hostLimits       per host caps as host=connections, comma separated
+     * @param connectTimeoutMs time to establish a connection
+     * @param readTimeoutMs    time to wait for data once connected
+     * @param poolTimeoutMs    time to wait for a free connection to the host
+     * @param keepAliveMs      time an idle connection is kept when the host does not say
+     */
+    public OutboundHttpClient(@Value("${http.outbound.max-total:100}") int maxTotal,
+                              @Value("${http.outbound.max-per-host:10}") int maxPerHost,
+                              @Value("${http.outbound.host-limits:}") String hostLimits,
+                              @Value("${http.outbound.connect-timeout-ms:5000}") int connectTimeoutMs,
+                              @Value("${http.outbound.read-timeout-ms:20000}") int readTimeoutMs,
+                              @Value("${http.outbound.pool-timeout-ms:2000}") int poolTimeoutMs,
+                              @Value("${http.outbound.keep-alive-ms:30000}") long keepAliveMs) {
+
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxTotal);
+        connectionManager.setDefaultMaxPerRoute(maxPerHost);
+        connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY_MS);
+        parseHostLimits(hostLimits).forEach((host, max) -> {
+            connectionManager.setMaxPerRoute(new HttpRoute(new HttpHost(host, 443, "https"), null, true), max);
+            connectionManager.setMaxPerRoute(new HttpRoute(new HttpHost(host, 80, "http")), max);
+        });
+
+        requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeoutMs)
+                .setSocketTimeout(readTimeoutMs)
+                .setConnectionRequestTimeout(poolTimeoutMs)
+                .build();
+
+        httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy((response, context) -> {
+                    long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE
+                            .getKeepAliveDuration(response, context);
+                    return keepAlive > 0 ? Math.min(keepAlive, keepAliveMs) : keepAliveMs;
+                })
+                .evictExpiredConnections()
+                .evictIdleConnections(keepAliveMs, TimeUnit.MILLISECONDS)
+                .build();
+
+        restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+        restTemplate.getInterceptors().add(this::intercept);
+    }
+
+    /**
+     * RestTemplate backed by the shared pool, with default message converters.
+     *
+     * @return the shared RestTemplate
+     */
+    public RestTemplate getRestTemplate() {
+        return restTemplate;
+    }
+
+    /**
+     * RestTemplate on the shared pool with its own connect and read timeouts, for calls
+     * made while a user waits.
+     *
+     * @param connectTimeoutMs time to establish a connection
+     * @param readTimeoutMs    time to wait for data once connected
+     * @return a new RestTemplate
+     */
+    public RestTemplate getRestTemplate(int connectTimeoutMs, int readTimeoutMs) {
+        HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
+        requestFactory.setConnectTimeout(connectTimeoutMs);
+        requestFactory.setReadTimeout(readTimeoutMs);
+        requestFactory.setConnectionRequestTimeout(requestConfig.getConnectionRequestTimeout());
+
+        RestTemplate template = new RestTemplate(requestFactory);
+        template.getInterceptors().add(this::intercept);
+        return template;
+    }
+
+    /**
+     * Execute a request on the shared pool, the connection is released once the
+     * handler returns.
+     *
+     * @param request a request, can set its own config from {@link #requestConfig()}
+     * @param handler reads the response
+     * @param <T>     type of result
+     * @return result of the handler
+     * @throws IOException when the call fails
+     */
+    public <T> T execute(HttpUriRequest request, ResponseHandler<? extends T> handler) throws IOException {
+        HostStats host = statsFor(request.getURI().getHost());
+        long start = System.nanoTime();
+        boolean[] error = {true};
+        try {
+            T result = httpClient.execute(request, response -> {
+                error[0] = response.getStatusLine().getStatusCode() >= 500;
+                return handler.handleResponse(response);
+            });
+            return result;
+        } catch (IOException | RuntimeException e) {
+            error[0] = true;
+            throw e;
+        } finally {
+            host.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), error[0]);
+        }
+    }
+
+    /**
+     * @return a builder starting from the default timeouts, for requests needing others
+     */
+    public RequestConfig.Builder requestConfig() {
+        return RequestConfig.copy(requestConfig);
+    }
+
+    /**
+     * @return statistics of every host called since startup
+     */
+    public List<OutboundHttpStatsDto> getStats() {
+        return stats.entrySet()
+                .stream()
+                .sorted(Map.Entry.comparingByKey(Comparator.naturalOrder()))
+                .map(e -> e.getValue().toDto(e.getKey()))
+                .collect(toList());
+    }
+
+    @Scheduled(fixedDelayString = "${http.outbound.stats-log-ms:3600000}")
+    public void logStats() {
+        getStats().forEach(s -> log.info("Outbound http {} calls {}, errors {}, avg ms {}, max ms {}",
+                s.getHost(), s.getCalls(), s.getErrors(), s.getAverageMillis(), s.getMaxMillis()));
+        log.info("Outbound http pool {}", connectionManager.getTotalStats());
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        httpClient.close();
+    }
+
+    private ClientHttpResponse intercept(HttpRequest request, byte[] body,
+                                         ClientHttpRequestExecution execution) throws IOException {
+        HostStats host = statsFor(request.getURI().getHost());
+        long start = System.nanoTime();
+        try {
+            ClientHttpResponse response = execution.execute(request, body);
+            host.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                    response.getRawStatusCode() >= 500);
+            return response;
+        } catch (IOException | RuntimeException e) {
+            host.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), true);
+            throw e;
+        }
+    }
+
+    private HostStats statsFor(String host) {
+        return stats.computeIfAbsent(host == null ? "unknown" : host.toLowerCase(), h -> new HostStats());
+    }
+
+    static Map<String, Integer> parseHostLimits(String hostLimits) {
+        Map<String, Integer> limits = new HashMap<>();
+        for (String limit : StringUtils.commaDelimitedListToStringArray(hostLimits)) {
+            String[] parts = limit.trim().split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid http.outbound.host-limits entry " + limit);
+            }
+            limits.put(parts[0].trim(), Integer.valueOf(parts[1].trim()));
+        }
+        return limits;
+    }
+
+    private static final class HostStats {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder totalMillis = new LongAdder();
+        private final AtomicLong maxMillis = new AtomicLong();
+
+        private void record(long millis, boolean error) {
+            calls.increment();
+            if (error) {
+                errors.increment();
+            }
+            totalMillis.add(millis);
+            maxMillis.accumulateAndGet(millis, Math::max);
+        }
+
+        private OutboundHttpStatsDto toDto(String host) {
+            long count = calls.sum();
+            return OutboundHttpStatsDto.builder()
+                    .host(host)
+                    .calls(count)
+                    .errors(errors.sum())
+                    .averageMillis(count == 0 ? 0 : totalMillis.sum() / count)
+                    .maxMillis(maxMillis.get())
+                    .build();
+        }
+    }
+}
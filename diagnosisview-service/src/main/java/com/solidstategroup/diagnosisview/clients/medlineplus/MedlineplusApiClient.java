@@ -29,6 +29,7 @@ public final class MedlineplusApiClient {
 
     private CodeSystem codeSystem;
     private String apiUrl;
+    private RestTemplate restTemplate;
 
     private static final String BASE_URL = "https://connect.medlineplus.gov/service";
 
@@ -119,7 +120,6 @@ public final class MedlineplusApiClient {
         URIBuilder urlBuilder = new URIBuilder(buildFullUrl());
         urlBuilder.addParameters(parameters);
 
-        RestTemplate restTemplate = new RestTemplate();
         HttpHeaders headers = new HttpHeaders();
         //headers.setAccept(Arrays.asList(MediaType.APPLICATION_JSON));
         org.springframework.http.HttpEntity<String> entity = new org.springframework.http.HttpEntity<>(headers);
@@ -157,6 +157,17 @@ public final class MedlineplusApiClient {
             return this;
         }
 
+        /**
+         * RestTemplate to call the service with, services should pass the shared
+         * {@link com.solidstategroup.diagnosisview.clients.OutboundHttpClient} one.
+         */
+        public Builder setRestTemplate(RestTemplate restTemplate) {
+            if (null != restTemplate) {
+                result.restTemplate = restTemplate;
+            }
+            return this;
+        }
+
         public MedlineplusApiClient build() {
 
             // default to ICD-10-CM code system if nothing provided
@@ -164,6 +175,9 @@ public final class MedlineplusApiClient {
                 result.codeSystem = CodeSystem.SNOMED_CT;
             }
             result.apiUrl = BASE_URL;
+            if (result.restTemplate == null) {
+                result.restTemplate = new RestTemplate();
+            }
             return result;
         }
     }
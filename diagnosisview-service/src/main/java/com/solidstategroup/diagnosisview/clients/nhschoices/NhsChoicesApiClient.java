@@ -1,5 +1,6 @@
 package com.solidstategroup.diagnosisview.clients.nhschoices;
 
+import com.solidstategroup.diagnosisview.utils.TokenBucket;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.NameValuePair;
@@ -33,9 +34,12 @@ public final class NhsChoicesApiClient {
 
     private static final String BASE_URL = "https://api.nhs.uk/";
     protected static final String CONDITIONS_URI = "conditions/";
+    private static final double DEFAULT_REQUESTS_PER_SECOND = 0.5;
 
     private String apiUrl;
     private String apiKey;
+    private TokenBucket rateLimiter;
+    private RestTemplate restTemplate;
 
     // Filters the conditions by A-Z
     private static final String PARAM_CONDITION_CATEGORY = "category";
@@ -91,6 +95,15 @@ public final class NhsChoicesApiClient {
 
         // run from A-Z to get all conditions
         for (char alphabet = 'A'; alphabet <= 'Z'; alphabet++) {
+            // test system need to throttle as allowed 10 calls/minute up to a maximum of 1000 calls per month
+            try {
+                rateLimiter.acquire();
+            } catch (InterruptedException ie) {
+                log.error("InterruptedException in NhsChoicesApiClient ", ie);
+                Thread.currentThread().interrupt();
+                break;
+            }
+
             try {
                 // add code parameter
                 parameters.add(new BasicNameValuePair(PARAM_CONDITION_CATEGORY, String.valueOf(alphabet)));
@@ -103,20 +116,12 @@ public final class NhsChoicesApiClient {
             } catch (Exception e) {
                 log.error("Exception in NhsChoicesApiClient.getAllConditions() ", e);
             }
-
-            // test system need to throttle as allowed 10 calls/minute up to a maximum of 1000 calls per month
-            try {
-                Thread.sleep(2000);
-            } catch (InterruptedException ie) {
-                log.error("InterruptedException in NhsChoicesApiClient ", ie);
-            }
         }
 
         return allConditions;
     }
 
     private NhsChoicesResponseJson doGet(List<NameValuePair> parameters, String uri) throws URISyntaxException {
-        RestTemplate restTemplate = new RestTemplate();
         HttpHeaders headers = new HttpHeaders();
         headers.setAccept(Arrays.asList(MediaType.APPLICATION_JSON));
         headers.set(AUTH_HEADER, apiKey);
@@ -160,8 +165,35 @@ public final class NhsChoicesApiClient {
             return this;
         }
 
+        /**
+         * Limits calls made to the API, defaults to one call every 2 seconds.
+         */
+        public Builder setRateLimiter(TokenBucket rateLimiter) {
+            if (null != rateLimiter) {
+                result.rateLimiter = rateLimiter;
+            }
+            return this;
+        }
+
+        /**
+         * RestTemplate to call the API with, services should pass the shared
+         * {@link com.solidstategroup.diagnosisview.clients.OutboundHttpClient} one.
+         */
+        public Builder setRestTemplate(RestTemplate restTemplate) {
+            if (null != restTemplate) {
+                result.restTemplate = restTemplate;
+            }
+            return this;
+        }
+
         public NhsChoicesApiClient build() {
             result.apiUrl = BASE_URL;
+            if (result.restTemplate == null) {
+                result.restTemplate = new RestTemplate();
+            }
+            if (result.rateLimiter == null) {
+                result.rateLimiter = new TokenBucket(DEFAULT_REQUESTS_PER_SECOND, 1);
+            }
             return result;
         }
     }
@@ -1,7 +1,9 @@
 package com.solidstategroup.diagnosisview.jobs;
 
 import com.solidstategroup.diagnosisview.service.SubscriptionService;
+import com.solidstategroup.diagnosisview.service.UserService;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
@@ -13,9 +15,15 @@ import org.springframework.stereotype.Component;
 public class SubscriptionTask {
 
   private final SubscriptionService subscriptionService;
+  private final UserService userService;
+  private final int reconcileBatchSize;
 
-  public SubscriptionTask(final SubscriptionService subscriptionService) {
+  public SubscriptionTask(final SubscriptionService subscriptionService,
+      final UserService userService,
+      @Value("${subscriptions.reconcile.batch-size:500}") final int reconcileBatchSize) {
     this.subscriptionService = subscriptionService;
+    this.userService = userService;
+    this.reconcileBatchSize = reconcileBatchSize;
   }
 
   /**
@@ -28,4 +36,20 @@ public class SubscriptionTask {
     log.info("Checking subscriptions....");
     subscriptionService.checkSubscriptions();
   }
+
+  /**
+   * Persist lapsed subscriptions, requests only derive subscription state so
+   * stored flag is brought up to date here.
+   */
+  @Scheduled(fixedDelayString = "${subscriptions.reconcile.delay-ms:3600000}")
+  public void reconcileSubscriptions() {
+    long start = System.currentTimeMillis();
+    try {
+      int updated = userService.expireLapsedSubscriptions(reconcileBatchSize);
+      long stop = System.currentTimeMillis();
+      log.info("Expired {} lapsed subscriptions, timing {}", updated, (stop - start));
+    } catch (Exception e) {
+      log.error("Failed to reconcile subscriptions", e);
+    }
+  }
 }
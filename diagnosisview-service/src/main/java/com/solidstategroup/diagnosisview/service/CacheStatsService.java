@@ -0,0 +1,18 @@
+package com.solidstategroup.diagnosisview.service;
+
+import com.solidstategroup.diagnosisview.model.CacheStatsDto;
+
+import java.util.List;
+
+/**
+ * Exposes statistics of in memory caches used by the application.
+ */
+public interface CacheStatsService {
+
+    /**
+     * Get statistics for all caches, including Spring managed ones.
+     *
+     * @return a list of CacheStatsDto, one per cache
+     */
+    List<CacheStatsDto> getStats();
+}
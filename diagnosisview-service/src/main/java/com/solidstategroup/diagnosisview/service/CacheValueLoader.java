@@ -0,0 +1,22 @@
+package com.solidstategroup.diagnosisview.service;
+
+/**
+ * Loads values for a named cache outside of the cached method, letting the
+ * cache refresh entries in the background before they expire.
+ */
+public interface CacheValueLoader {
+
+    /**
+     * @return name of the cache this loader serves
+     */
+    String getCacheName();
+
+    /**
+     * Compute value for given cache key, same as the cached method would.
+     *
+     * @param key a cache key as generated for the cached method
+     * @return a value to store, must not be null
+     * @throws Exception when value can not be loaded, current value is kept
+     */
+    Object load(Object key) throws Exception;
+}
@@ -1,6 +1,7 @@
 package com.solidstategroup.diagnosisview.service;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.solidstategroup.diagnosisview.clients.OutboundHttpClient;
 import java.util.Collection;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
@@ -23,8 +24,9 @@ public class CaptchaValidatorService {
   private String siteSecret;
 
   public CaptchaValidatorService(@Value("${google.recaptcha.key.site}") String siteKey,
-      @Value("${google.recaptcha.key.secret}") String siteSecret) {
-    this.restTemplate = new RestTemplate();
+      @Value("${google.recaptcha.key.secret}") String siteSecret,
+      OutboundHttpClient outboundHttpClient) {
+    this.restTemplate = outboundHttpClient.getRestTemplate();
     this.siteKey = siteKey;
     this.siteSecret = siteSecret;
     log.info("Created");
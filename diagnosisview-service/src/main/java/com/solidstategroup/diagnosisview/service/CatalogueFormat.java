@@ -0,0 +1,79 @@
+package com.solidstategroup.diagnosisview.service;
+
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.util.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Forms the active Code catalogue can be sent in.
+ */
+public enum CatalogueFormat {
+
+    /**
+     * List of CodeDto, the default.
+     */
+    FULL(MediaType.APPLICATION_JSON_UTF8),
+
+    /**
+     * CompactCatalogueDto, link types, categories and tags sent once and referred to by id.
+     */
+    COMPACT(new MediaType("application", "vnd.diagnosisview.compact+json", StandardCharsets.UTF_8)),
+
+    /**
+     * List of CodeDto encoded as CBOR, same fields as FULL in a binary encoding.
+     */
+    CBOR(new MediaType("application", "cbor"));
+
+    private final MediaType mediaType;
+
+    CatalogueFormat(MediaType mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * Pick the format for a request, formats other than FULL are only sent when asked
+     * for by name or by their media type, never through a wildcard.
+     *
+     * @param format format request parameter, can be null
+     * @param accept Accept request header, can be null
+     * @return format to send
+     */
+    public static CatalogueFormat select(String format, String accept) {
+        if (!StringUtils.isEmpty(format)) {
+            for (CatalogueFormat candidate : values()) {
+                if (candidate.name().equalsIgnoreCase(format)) {
+                    return candidate;
+                }
+            }
+        }
+
+        if (!StringUtils.isEmpty(accept)) {
+            List<MediaType> accepted;
+            try {
+                accepted = MediaType.parseMediaTypes(accept);
+            } catch (InvalidMediaTypeException e) {
+                return FULL;
+            }
+            MediaType.sortBySpecificityAndQuality(accepted);
+
+            for (MediaType mediaType : accepted) {
+                if (mediaType.getQualityValue() <= 0 || mediaType.isWildcardType() || mediaType.isWildcardSubtype()) {
+                    continue;
+                }
+                for (CatalogueFormat candidate : values()) {
+                    if (candidate.mediaType.isCompatibleWith(mediaType)) {
+                        return candidate;
+                    }
+                }
+            }
+        }
+        return FULL;
+    }
+}
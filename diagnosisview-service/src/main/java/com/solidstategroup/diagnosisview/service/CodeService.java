@@ -2,8 +2,10 @@ package com.solidstategroup.diagnosisview.service;
 
 import com.solidstategroup.diagnosisview.exceptions.ResourceNotFoundException;
 import com.solidstategroup.diagnosisview.model.CategoryDto;
+import com.solidstategroup.diagnosisview.model.CodeChangesDto;
 import com.solidstategroup.diagnosisview.model.CodeDto;
 import com.solidstategroup.diagnosisview.model.codes.Code;
+import com.solidstategroup.diagnosisview.model.codes.enums.SyncOutcome;
 import java.util.List;
 
 /**
@@ -43,6 +45,29 @@ public interface CodeService {
    */
   List<CodeDto> getAllActive(String institutionCode) throws ResourceNotFoundException;
 
+  /**
+   * Get All active codes as returned by {@link #getAllActive(String)}, serialised in given format
+   * with compressed variants and ETag. Used to serve the mobile app catalogue without serialising
+   * it on every request.
+   *
+   * @param institutionCode a code for Institution
+   * @param format          form to serialise the codes in
+   * @return serialised catalogue, the same instance until active codes change
+   */
+  SerialisedCatalogue getActiveCatalogue(String institutionCode, CatalogueFormat format)
+      throws ResourceNotFoundException;
+
+  /**
+   * Get active codes changed since a catalogue version, with tombstones for codes deleted or no
+   * longer shown to users. Used by the mobile app to keep its catalogue up to date.
+   *
+   * @param since           a version returned by an earlier call, null to get a starting version
+   * @param institutionCode a code for Institution
+   * @return changes and the version to pass next time, full when the whole catalogue has to be
+   * reloaded
+   */
+  CodeChangesDto getActiveChanges(Long since, String institutionCode) throws ResourceNotFoundException;
+
   /**
    * Get All active codes, has not been removed externally and not hidden from user and part of the
    * given codes list. Used when building favourites and history for User
@@ -135,9 +160,11 @@ public interface CodeService {
    * Should be used with sync only as has sync specific logic. Use upsert(Code) for DV Web code
    * update
    *
-   * @param code a code to save
+   * @param code    a code to save
+   * @param context reference data already saved by the current sync run
+   * @return what the sync did with the Code
    */
-  Code updateCodeFromSync(Code code);
+  SyncOutcome updateCodeFromSync(Code code, SyncRunContext context);
 
   Code getByInstitution(String code, String institutionCode) throws ResourceNotFoundException;
 }
@@ -1,5 +1,6 @@
 package com.solidstategroup.diagnosisview.service;
 
+import com.solidstategroup.diagnosisview.model.CodeSyncReport;
 
 import java.io.IOException;
 
@@ -19,8 +20,9 @@ public interface CodeSyncService {
     /**
      * Sync Codes from patientview to diagnosisview.
      *
+     * @return counts of skipped, created and updated Codes
      * @deprecated not syncing from PV anymore, use NhsChoicesTask.syncAndUpdateCodes()
      */
-    void syncCodes();
+    CodeSyncReport syncCodes();
 
 }
@@ -2,6 +2,7 @@ package com.solidstategroup.diagnosisview.service;
 
 import com.solidstategroup.diagnosisview.exceptions.ResourceNotFoundException;
 import com.solidstategroup.diagnosisview.model.LinkRuleDto;
+import com.solidstategroup.diagnosisview.model.LinkRuleSyncReport;
 import com.solidstategroup.diagnosisview.model.codes.Link;
 import com.solidstategroup.diagnosisview.model.codes.LinkRule;
 import com.solidstategroup.diagnosisview.model.codes.LinkRuleMapping;
@@ -54,11 +55,21 @@ public interface LinkRuleService {
      */
     void deleteLinkRule(String id);
 
+    /**
+     * Build link rule mappings for every rule the Link url starts with, rules
+     * are matched in memory without querying the database.
+     *
+     * @param link a Link to match
+     * @return mappings for the matching rules
+     */
     Set<LinkRuleMapping> matchLinkToRule(Link link);
 
     /**
      * Re sync all the link rule mappings for existing link rules.
      * Used to populate any missing link rule mapping after sync Links job.
+     * Mappings of links that no longer match their rule are removed.
+     *
+     * @return summary of mappings inserted, updated and deleted
      */
-    void syncLinkRules();
+    LinkRuleSyncReport syncLinkRules();
 }
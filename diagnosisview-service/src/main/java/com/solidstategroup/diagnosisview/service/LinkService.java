@@ -36,6 +36,42 @@ public interface LinkService {
      */
     Link upsert(Link link, Set<Link> codeLinks, boolean fromSync);
 
+    /**
+     * Creates or updates a link from sync job, saving its link type only
+     * if not already saved by the current sync run.
+     *
+     * @param link      new link or updated link
+     * @param codeLinks an list of Link objects from the Code this link belongs to
+     * @param context   reference data already saved by the current sync run
+     * @return created/updated link
+     */
+    Link upsert(Link link, Set<Link> codeLinks, SyncRunContext context);
+
+    /**
+     * Creates or updates all the links of a Code in one go. Existing links are
+     * loaded with a single query and the links are written as a JDBC batch.
+     *
+     * Links without url are skipped, as with {@link #upsert(Link, Set, boolean)}.
+     *
+     * @param code     the Code links belong to
+     * @param links    new or updated links of the Code, must have ids assigned
+     * @param fromSync a flag to indicate if the upsert triggered from sync job
+     * @return created/updated links
+     */
+    Set<Link> upsertAll(Code code, Set<Link> links, boolean fromSync);
+
+    /**
+     * Creates or updates all the links of a Code from sync job, see
+     * {@link #upsertAll(Code, Set, boolean)}, saving link types only if not
+     * already saved by the current sync run.
+     *
+     * @param code    the Code links belong to
+     * @param links   new or updated links of the Code
+     * @param context reference data already saved by the current sync run
+     * @return created/updated links
+     */
+    Set<Link> upsertAll(Code code, Set<Link> links, SyncRunContext context);
+
     Link addExternalLink(Link link, Code code) throws Exception;
 
     Link updateExternalLink(Link link) throws Exception;
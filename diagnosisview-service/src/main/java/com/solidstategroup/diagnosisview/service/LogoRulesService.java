@@ -53,8 +53,10 @@ public interface LogoRulesService {
     LogoRule update(String id, LogoRuleDto logoRuleDto) throws Exception;
 
     /**
+     * Match a Link without a logo against logo rules held in memory, the rule
+     * with the longest matching prefix wins.
      *
-     * @param link
+     * @param link a Link to match
      * @return Optional {@link LogoRule} that matches link.
      */
     Optional<LogoRule> matchLinkToRule(Link link);
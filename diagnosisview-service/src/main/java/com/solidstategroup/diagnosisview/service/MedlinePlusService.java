@@ -21,4 +21,14 @@ public interface MedlinePlusService {
      * @param codeExternalEntity
      */
     boolean processLink(Code entityCode, CodeExternalStandard codeExternalEntity);
+
+    /**
+     * Sets a MedlinPlus Link for CodeExternalStandard, looking the link up through
+     * responses of the current links sync run
+     *
+     * @param entityCode
+     * @param codeExternalEntity
+     * @param responses MedlinePlus responses of the run
+     */
+    boolean processLink(Code entityCode, CodeExternalStandard codeExternalEntity, ProviderResponses responses);
 }
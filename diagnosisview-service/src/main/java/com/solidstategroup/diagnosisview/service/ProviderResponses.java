@@ -0,0 +1,194 @@
+package com.solidstategroup.diagnosisview.service;
+
+import com.solidstategroup.diagnosisview.model.ProviderResponse;
+import com.solidstategroup.diagnosisview.utils.CircuitBreaker;
+import com.solidstategroup.diagnosisview.utils.ProviderCallLimiter;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Responses of one external provider during one links sync run.
+ * <p>
+ * Codes sharing an external standard code are only looked up once per run, threads
+ * asking for a code already being fetched wait for that fetch. Responses stored by an
+ * earlier run are used as they are while younger than the minimum age, so only codes
+ * not fetched recently go to the provider, through its {@link CircuitBreaker} and
+ * {@link ProviderCallLimiter}. When a fetch fails, or the breaker is open, an older
+ * stored response is used if there is one.
+ */
+public final class ProviderResponses {
+
+    private final String provider;
+    private final Map<String, ProviderResponse> stored;
+    private final long minAgeMillis;
+    private final ProviderCallLimiter limiter;
+    private final CircuitBreaker breaker;
+    private final Store store;
+
+    private final Map<String, CompletableFuture<ProviderResponse>> inRun = new ConcurrentHashMap<>();
+    private final LongAdder reused = new LongAdder();
+    private final LongAdder fetched = new LongAdder();
+    private final LongAdder deduped = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+
+    /**
+     * @param provider     provider name, responses are stored under it
+     * @param stored       responses stored by earlier runs, by {@link #key(String, String)}
+     * @param minAgeMillis age a stored response is used for before it is fetched again
+     * @param limiter      limits calls to the provider
+     * @param breaker      stops calls to the provider while it is failing
+     * @param store        saves fetched responses
+     */
+    public ProviderResponses(String provider, Map<String, ProviderResponse> stored, long minAgeMillis,
+                             ProviderCallLimiter limiter, CircuitBreaker breaker, Store store) {
+        this.provider = provider;
+        this.stored = stored == null ? Collections.emptyMap() : stored;
+        this.minAgeMillis = minAgeMillis;
+        this.limiter = limiter;
+        this.breaker = breaker;
+        this.store = store;
+    }
+
+    /**
+     * Get the provider response for a code, fetching it when not already fetched in
+     * this run or stored recently enough.
+     *
+     * @param codeSystem code system name, SNOMED-CT or ICD-10
+     * @param code       code in the code system
+     * @param fetch      calls the provider, returning null when it has nothing for the code
+     * @return the response, without entries when provider has nothing for the code
+     * @throws Exception when the provider could not be called and nothing is stored for
+     *                   the code, failures are not stored
+     */
+    public ProviderResponse get(String codeSystem, String code, Callable<ProviderResponse> fetch)
+            throws Exception {
+
+        String key = key(codeSystem, code);
+        CompletableFuture<ProviderResponse> future = new CompletableFuture<>();
+        CompletableFuture<ProviderResponse> existing = inRun.putIfAbsent(key, future);
+
+        if (existing != null) {
+            deduped.increment();
+            return await(existing);
+        }
+
+        try {
+            ProviderResponse response = stored.get(key);
+            if (response != null && isFresh(response)) {
+                reused.increment();
+            } else {
+                response = fetch(codeSystem, code, fetch, response);
+            }
+            future.complete(response);
+            return response;
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private ProviderResponse fetch(String codeSystem, String code, Callable<ProviderResponse> fetch,
+                                   ProviderResponse lastKnown) throws Exception {
+        ProviderResponse response;
+        try {
+            // breaker times the provider only, not the wait for a limiter permit
+            response = limiter.call(() -> breaker.call(fetch));
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            if (lastKnown == null) {
+                throw e;
+            }
+            stale.increment();
+            return lastKnown;
+        }
+
+        if (response == null) {
+            response = new ProviderResponse();
+        }
+        response.setFetched(new Date());
+        store.save(provider, codeSystem, code, response);
+        fetched.increment();
+        return response;
+    }
+
+    public String getProvider() {
+        return provider;
+    }
+
+    public ProviderCallLimiter getLimiter() {
+        return limiter;
+    }
+
+    /**
+     * @return lookups answered by a response stored by an earlier run
+     */
+    public long getReused() {
+        return reused.sum();
+    }
+
+    /**
+     * @return lookups sent to the provider
+     */
+    public long getFetched() {
+        return fetched.sum();
+    }
+
+    /**
+     * @return lookups of a code already looked up in this run
+     */
+    public long getDeduped() {
+        return deduped.sum();
+    }
+
+    /**
+     * @return lookups answered by an older stored response as the provider could not be called
+     */
+    public long getStale() {
+        return stale.sum();
+    }
+
+    /**
+     * Key of a stored response.
+     */
+    public static String key(String codeSystem, String code) {
+        return codeSystem + '\u001f' + code;
+    }
+
+    private boolean isFresh(ProviderResponse response) {
+        return response.getFetched() != null
+                && System.currentTimeMillis() - response.getFetched().getTime() < minAgeMillis;
+    }
+
+    private static ProviderResponse await(CompletableFuture<ProviderResponse> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return provider + " responses reused " + getReused() + ", fetched " + getFetched()
+                + ", deduped " + getDeduped() + ", stale " + getStale() + ", " + limiter
+                + ", breaker " + breaker.getState();
+    }
+
+    /**
+     * Saves responses fetched during the run.
+     */
+    public interface Store {
+        void save(String provider, String codeSystem, String code, ProviderResponse response);
+    }
+}
@@ -0,0 +1,126 @@
+package com.solidstategroup.diagnosisview.service;
+
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StringUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * One version of a Code catalogue serialised in one {@link CatalogueFormat}, with its
+ * compressed variants and strong ETags derived from the serialised bytes.
+ * <p>
+ * Everything is computed once when built, serving it only copies bytes. Instances
+ * are immutable and must not have their arrays modified.
+ */
+public final class SerialisedCatalogue {
+
+    public static final String GZIP = "gzip";
+
+    private final byte[] body;
+    // content coding to body, in order of preference
+    private final Map<String, byte[]> encoded;
+    private final String hash;
+
+    private SerialisedCatalogue(byte[] body, Map<String, byte[]> encoded, String hash) {
+        this.body = body;
+        this.encoded = encoded;
+        this.hash = hash;
+    }
+
+    /**
+     * @param body serialised catalogue
+     * @return the catalogue with its compressed variants
+     */
+    public static SerialisedCatalogue of(byte[] body) {
+        Map<String, byte[]> encoded = new LinkedHashMap<>();
+        encoded.put(GZIP, gzip(body));
+        return new SerialisedCatalogue(body, Collections.unmodifiableMap(encoded), DigestUtils.md5DigestAsHex(body));
+    }
+
+    /**
+     * @return serialised catalogue, uncompressed
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * @param contentCoding a content coding such as gzip
+     * @return body in given coding, null if not available
+     */
+    public byte[] getEncoded(String contentCoding) {
+        return encoded.get(contentCoding);
+    }
+
+    /**
+     * Strong ETag of one representation, each content coding has its own as their
+     * bytes differ.
+     *
+     * @param contentCoding a content coding, null for uncompressed body
+     * @return quoted strong ETag, changes whenever the body does
+     */
+    public String getEtag(String contentCoding) {
+        return contentCoding == null ? "\"" + hash + "\"" : "\"" + hash + "-" + contentCoding + "\"";
+    }
+
+    /**
+     * Pick the content coding to send for an Accept-Encoding header.
+     *
+     * @param acceptEncoding Accept-Encoding request header, can be null
+     * @return the preferred coding accepted by the client, null to send body as is
+     */
+    public String selectEncoding(String acceptEncoding) {
+        if (StringUtils.isEmpty(acceptEncoding)) {
+            return null;
+        }
+
+        Map<String, Boolean> accepted = new LinkedHashMap<>();
+        for (String part : acceptEncoding.toLowerCase(Locale.ROOT).split(",")) {
+            String[] params = part.trim().split(";");
+            boolean refused = false;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        refused = Double.parseDouble(param.substring(2)) <= 0;
+                    } catch (NumberFormatException e) {
+                        refused = true;
+                    }
+                }
+            }
+            accepted.put(params[0].trim(), !refused);
+        }
+
+        for (String coding : encoded.keySet()) {
+            Boolean ok = accepted.containsKey(coding) ? accepted.get(coding) : accepted.get("*");
+            if (Boolean.TRUE.equals(ok)) {
+                return coding;
+            }
+        }
+        return null;
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, bytes.length / 4));
+        // compressed once per version so best compression is worth its cost
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            gzip.write(bytes);
+        } catch (IOException e) {
+            // not expected writing to memory
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+}
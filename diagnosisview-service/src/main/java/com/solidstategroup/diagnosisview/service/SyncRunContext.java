@@ -0,0 +1,103 @@
+package com.solidstategroup.diagnosisview.service;
+
+import com.solidstategroup.diagnosisview.model.BaseModel;
+import com.solidstategroup.diagnosisview.model.codes.Category;
+import com.solidstategroup.diagnosisview.model.codes.ExternalStandard;
+import com.solidstategroup.diagnosisview.model.codes.Lookup;
+import com.solidstategroup.diagnosisview.model.codes.LookupType;
+import com.solidstategroup.diagnosisview.repository.CategoryRepository;
+import com.solidstategroup.diagnosisview.repository.ExternalStandardRepository;
+import com.solidstategroup.diagnosisview.repository.LookupRepository;
+import com.solidstategroup.diagnosisview.repository.LookupTypeRepository;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.solidstategroup.diagnosisview.utils.TransactionUtils.runAfterCommit;
+
+/**
+ * Reference data written during one sync run.
+ * <p>
+ * Synced Codes carry the same few Lookups, Categories and ExternalStandards over and
+ * over, each is saved the first time it is seen and then skipped for the rest of the
+ * run unless its content changes. Objects are only remembered once the transaction
+ * that saved them commits. A new context is used for every run and shared by all
+ * the threads of that run.
+ */
+public final class SyncRunContext {
+
+    private final Map<String, List<Object>> saved = new ConcurrentHashMap<>();
+    private final AtomicInteger writes = new AtomicInteger();
+    private final AtomicInteger avoidedWrites = new AtomicInteger();
+
+    public void upsertOnce(LookupType lookupType, LookupTypeRepository lookupTypeRepository) {
+        if (lookupType != null) {
+            upsertOnce(lookupType,
+                    Arrays.asList(lookupType.getType(), lookupType.getDescription()),
+                    () -> lookupTypeRepository.save(lookupType));
+        }
+    }
+
+    public void upsertOnce(Lookup lookup, LookupRepository lookupRepository) {
+        if (lookup != null) {
+            upsertOnce(lookup,
+                    Arrays.asList(lookup.getValue(), lookup.getDescription(), lookup.getDescriptionFriendly(),
+                            lookup.getDisplayOrder(), lookup.getDvOnly(),
+                            lookup.getData() == null ? null : new HashMap<>(lookup.getData()),
+                            lookup.getLookupType() == null ? null : lookup.getLookupType().getId()),
+                    () -> lookupRepository.save(lookup));
+        }
+    }
+
+    public void upsertOnce(Category category, CategoryRepository categoryRepository) {
+        if (category != null) {
+            upsertOnce(category,
+                    Arrays.asList(category.getNumber(), category.getIcd10Description(),
+                            category.getFriendlyDescription(), category.isHidden()),
+                    () -> categoryRepository.save(category));
+        }
+    }
+
+    public void upsertOnce(ExternalStandard externalStandard,
+                           ExternalStandardRepository externalStandardRepository) {
+        if (externalStandard != null) {
+            upsertOnce(externalStandard,
+                    Arrays.asList(externalStandard.getName(), externalStandard.getDescription()),
+                    () -> externalStandardRepository.save(externalStandard));
+        }
+    }
+
+    /**
+     * @return number of reference objects saved in this run
+     */
+    public int getWrites() {
+        return writes.get();
+    }
+
+    /**
+     * @return number of saves skipped as the same object was already saved in this run
+     */
+    public int getAvoidedWrites() {
+        return avoidedWrites.get();
+    }
+
+    private void upsertOnce(BaseModel entity, List<Object> state, Runnable save) {
+        // objects without id are new and always saved
+        String key = entity.getId() == null ? null : entity.getClass().getName() + ":" + entity.getId();
+
+        if (key != null && state.equals(saved.get(key))) {
+            avoidedWrites.incrementAndGet();
+            return;
+        }
+
+        save.run();
+        writes.incrementAndGet();
+        if (key != null) {
+            runAfterCommit(() -> saved.put(key, state));
+        }
+    }
+}
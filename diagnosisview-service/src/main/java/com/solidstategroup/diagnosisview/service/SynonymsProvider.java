@@ -0,0 +1,18 @@
+package com.solidstategroup.diagnosisview.service;
+
+import java.util.Set;
+
+/**
+ * Source of ICD-10 codes for diagnosis synonyms, used by SynonymsService.
+ */
+public interface SynonymsProvider {
+
+    /**
+     * Search for diagnosis/synonyms for given, already normalised, search term.
+     *
+     * @param searchTerm a lower case, trimmed term to search for
+     * @return a set of external standards icd10 codes
+     * @throws Exception when provider could not be queried, results are not cached in this case
+     */
+    Set<String> searchSynonyms(String searchTerm) throws Exception;
+}
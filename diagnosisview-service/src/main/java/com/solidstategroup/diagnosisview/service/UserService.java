@@ -1,6 +1,7 @@
 package com.solidstategroup.diagnosisview.service;
 
 import com.solidstategroup.diagnosisview.exceptions.ResourceNotFoundException;
+import com.solidstategroup.diagnosisview.model.AuthenticatedUser;
 import com.solidstategroup.diagnosisview.model.PasswordResetDto;
 import com.solidstategroup.diagnosisview.model.SavedUserCode;
 import com.solidstategroup.diagnosisview.model.User;
@@ -166,6 +167,24 @@ public interface UserService {
    */
   User getUserByToken(final String token) throws Exception;
 
+  /**
+   * Get slim authentication details of a user by login token, served from a short
+   * lived cache so authenticating a request does not need to hit the database.
+   *
+   * @param token user token
+   * @return the authenticated user or null if token is not valid
+   */
+  AuthenticatedUser getAuthenticatedUser(final String token);
+
+  /**
+   * Mark subscriptions of non admin, non auto-renewing users that have expired as
+   * inactive, in batches.
+   *
+   * @param batchSize max number of users updated per statement
+   * @return number of users updated
+   */
+  int expireLapsedSubscriptions(final int batchSize);
+
   /**
    * Get all dashboard users within the db.
    *
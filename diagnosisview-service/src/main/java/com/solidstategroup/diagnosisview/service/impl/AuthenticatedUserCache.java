@@ -0,0 +1,71 @@
+package com.solidstategroup.diagnosisview.service.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.solidstategroup.diagnosisview.model.AuthenticatedUser;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static com.solidstategroup.diagnosisview.utils.TransactionUtils.runAfterCommit;
+
+/**
+ * Short lived cache of AuthenticatedUser by login token.
+ * <p>
+ * Unknown tokens are not cached so a fresh login is picked up straight away, entries
+ * are dropped whenever the user changes in a way that affects authentication.
+ */
+@Slf4j
+@Component
+public class AuthenticatedUserCache {
+
+    private final Cache<String, AuthenticatedUser> cache;
+
+    public AuthenticatedUserCache(@Value("${auth.cache.max-size:10000}") long maxSize,
+                                  @Value("${auth.cache.ttl-seconds:60}") long ttlSeconds) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Get AuthenticatedUser for given token, loading it when not cached.
+     *
+     * @param token  a login token
+     * @param loader loads AuthenticatedUser for token, may return null
+     * @return AuthenticatedUser or null when token is not valid
+     */
+    public AuthenticatedUser get(String token, Function<String, AuthenticatedUser> loader) {
+        if (StringUtils.isEmpty(token)) {
+            return null;
+        }
+        // Caffeine does not store null results
+        return cache.get(token, loader);
+    }
+
+    /**
+     * Drop cached entries for given user once current transaction commits, until
+     * then the old entry may still be served.
+     *
+     * @param userId id of changed user
+     */
+    public void invalidate(Long userId) {
+        if (userId == null) {
+            return;
+        }
+        runAfterCommit(() -> cache.asMap().values().removeIf(u -> userId.equals(u.getId())));
+    }
+
+    /**
+     * @return underlying cache, for statistics
+     */
+    Cache<String, AuthenticatedUser> getCache() {
+        return cache;
+    }
+}
@@ -0,0 +1,73 @@
+package com.solidstategroup.diagnosisview.service.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.solidstategroup.diagnosisview.model.CacheStatsDto;
+import com.solidstategroup.diagnosisview.service.CacheStatsService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects statistics from Spring managed Caffeine caches and standalone service caches.
+ */
+@Slf4j
+@Service
+public class CacheStatsServiceImpl implements CacheStatsService {
+
+    private static final String SYNONYMS_CACHE = "synonyms";
+    private static final String AUTHENTICATED_USERS_CACHE = "authenticatedUsers";
+
+    private final CacheManager cacheManager;
+    private final SynonymsService synonymsService;
+    private final AuthenticatedUserCache authenticatedUserCache;
+
+    public CacheStatsServiceImpl(final CacheManager cacheManager,
+                                 final SynonymsService synonymsService,
+                                 final AuthenticatedUserCache authenticatedUserCache) {
+        this.cacheManager = cacheManager;
+        this.synonymsService = synonymsService;
+        this.authenticatedUserCache = authenticatedUserCache;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<CacheStatsDto> getStats() {
+        List<CacheStatsDto> stats = new ArrayList<>();
+
+        for (String name : cacheManager.getCacheNames()) {
+            org.springframework.cache.Cache cache = cacheManager.getCache(name);
+            if (cache != null && cache.getNativeCache() instanceof Cache) {
+                stats.add(toDto(name, (Cache<?, ?>) cache.getNativeCache()));
+            } else {
+                log.warn("Cache {} is not a Caffeine cache, no statistics available", name);
+            }
+        }
+        stats.add(toDto(SYNONYMS_CACHE, synonymsService.getCache()));
+        stats.add(toDto(AUTHENTICATED_USERS_CACHE, authenticatedUserCache.getCache()));
+
+        return stats;
+    }
+
+    private static CacheStatsDto toDto(String name, Cache<?, ?> cache) {
+        CacheStats stats = cache.stats();
+        return CacheStatsDto.builder()
+                .name(name)
+                .size(cache.estimatedSize())
+                .hitCount(stats.hitCount())
+                .missCount(stats.missCount())
+                .hitRate(stats.hitRate())
+                .evictionCount(stats.evictionCount())
+                .evictionWeight(stats.evictionWeight())
+                .loadSuccessCount(stats.loadSuccessCount())
+                .loadFailureCount(stats.loadFailureCount())
+                .averageLoadPenaltyMillis(stats.averageLoadPenalty() / TimeUnit.MILLISECONDS.toNanos(1))
+                .build();
+    }
+}
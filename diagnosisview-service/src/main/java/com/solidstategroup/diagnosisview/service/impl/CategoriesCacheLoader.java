@@ -0,0 +1,50 @@
+package com.solidstategroup.diagnosisview.service.impl;
+
+import com.solidstategroup.diagnosisview.model.CategoryDto;
+import com.solidstategroup.diagnosisview.repository.CategoryRepository;
+import com.solidstategroup.diagnosisview.service.CacheValueLoader;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Loads categories listing for "getAllCategories" cache, used by CodeService
+ * and by the cache itself to refresh the listing ahead of expiry.
+ */
+@Component
+public class CategoriesCacheLoader implements CacheValueLoader {
+
+    private final CategoryRepository categoryRepository;
+
+    public CategoriesCacheLoader(final CategoryRepository categoryRepository) {
+        this.categoryRepository = categoryRepository;
+    }
+
+    @Override
+    public String getCacheName() {
+        return "getAllCategories";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object load(Object key) {
+        return loadCategories();
+    }
+
+    /**
+     * Get all categories, not cached.
+     *
+     * @return a list of CategoryDto
+     */
+    public List<CategoryDto> loadCategories() {
+        return categoryRepository
+                .findAll()
+                .stream()
+                .map(CodeDtoMapper::toCategoryDto)
+                .collect(toList());
+    }
+}
@@ -0,0 +1,79 @@
+package com.solidstategroup.diagnosisview.service.impl;
+
+import com.solidstategroup.diagnosisview.model.CircuitBreakerDto;
+import com.solidstategroup.diagnosisview.utils.CircuitBreaker;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Circuit breakers of the external systems DV calls, one per system.
+ * <p>
+ * Thresholds are read from circuit-breaker.[name].[setting] properties, falling back to
+ * circuit-breaker.default.[setting] and then to the {@link CircuitBreaker.Config} defaults.
+ */
+@Component
+public class CircuitBreakerRegistry {
+
+    public static final String SYNONYMS = "synonyms";
+    public static final String BMJ = "bmj";
+    public static final String MEDLINE_PLUS = "medlineplus";
+    public static final String PATIENTVIEW = "patientview";
+
+    private final Map<String, CircuitBreaker> breakers = new TreeMap<>();
+
+    public CircuitBreakerRegistry(final Environment environment) {
+        for (String name : Arrays.asList(SYNONYMS, BMJ, MEDLINE_PLUS, PATIENTVIEW)) {
+            breakers.put(name, new CircuitBreaker(name, config(environment, name)));
+        }
+    }
+
+    /**
+     * @param name one of the breaker names defined here
+     * @return the breaker
+     */
+    public CircuitBreaker get(String name) {
+        CircuitBreaker breaker = breakers.get(name);
+        if (breaker == null) {
+            throw new IllegalArgumentException("No circuit breaker " + name);
+        }
+        return breaker;
+    }
+
+    /**
+     * @return state of every breaker, by name
+     */
+    public List<CircuitBreakerDto> getStates() {
+        return breakers.values().stream().map(CircuitBreaker::toDto).collect(toList());
+    }
+
+    private static CircuitBreaker.Config config(Environment environment, String name) {
+        CircuitBreaker.Config defaults = CircuitBreaker.Config.builder().build();
+        return CircuitBreaker.Config.builder()
+                .windowSize(property(environment, name, "window-size", Integer.class, defaults.getWindowSize()))
+                .minimumCalls(property(environment, name, "minimum-calls", Integer.class,
+                        defaults.getMinimumCalls()))
+                .failureRatePercent(property(environment, name, "failure-rate-percent", Double.class,
+                        defaults.getFailureRatePercent()))
+                .slowCallMs(property(environment, name, "slow-call-ms", Long.class, defaults.getSlowCallMs()))
+                .slowCallRatePercent(property(environment, name, "slow-call-rate-percent", Double.class,
+                        defaults.getSlowCallRatePercent()))
+                .openDurationMs(property(environment, name, "open-duration-ms", Long.class,
+                        defaults.getOpenDurationMs()))
+                .halfOpenCalls(property(environment, name, "half-open-calls", Integer.class,
+                        defaults.getHalfOpenCalls()))
+                .build();
+    }
+
+    private static <T> T property(Environment environment, String name, String setting, Class<T> type, T fallback) {
+        T value = environment.getProperty("circuit-breaker." + name + "." + setting, type);
+        return value != null ? value
+                : environment.getProperty("circuit-breaker.default." + setting, type, fallback);
+    }
+}
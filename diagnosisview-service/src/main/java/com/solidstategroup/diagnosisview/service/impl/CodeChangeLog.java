@@ -0,0 +1,183 @@
+package com.solidstategroup.diagnosisview.service.impl;
+
+import com.google.common.collect.Lists;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.CollectionUtils;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Log of changes to Codes in the catalogue, so clients can ask what changed since
+ * the catalogue version they hold.
+ * <p>
+ * Rows are written in the transaction changing the Codes and carry its transaction
+ * id. A catalogue version is the oldest transaction still running when it was read,
+ * every change from an older transaction was already visible then. Changes read again
+ * with a newer version are sent twice rather than missed when transactions commit out
+ * of order. Changes affecting too many Codes to list, such as link rules, are logged
+ * as a reset and clients older than that reload the whole catalogue.
+ * <p>
+ * A renamed Code is logged with its previous code as well, taken from its newest row,
+ * so clients holding it under the previous code can remove it.
+ * <p>
+ * The log is compacted to the newest row of each code a Code had and the newest reset.
+ * A client only needs to know a Code changed since its version, which the newest row
+ * tells as well as all of them, so the log stays about as long as the catalogue.
+ */
+@Slf4j
+@Component
+public class CodeChangeLog {
+
+    private static final String CHANGED_SQL = "INSERT INTO dv_code_change (code_id, code) "
+            + "SELECT id, code FROM pv_code WHERE id = ?";
+    // previous code of a renamed Code, before its row with the new code is added
+    private static final String RENAMED_SQL = "INSERT INTO dv_code_change (code_id, code) "
+            + "SELECT l.code_id, l.code FROM dv_code_change l JOIN pv_code c ON c.id = l.code_id "
+            + "WHERE l.id = (SELECT max(id) FROM dv_code_change WHERE code_id = ?) AND l.code <> c.code";
+    private static final String DELETED_SQL = "INSERT INTO dv_code_change (code_id, code) VALUES (?, ?)";
+    private static final String RESET_SQL = "INSERT INTO dv_code_change (code_id, code) VALUES (NULL, NULL)";
+
+    private static final String VERSION_SQL = "SELECT txid_snapshot_xmin(txid_current_snapshot())";
+    private static final String CHANGES_SQL = "SELECT code_id, code FROM dv_code_change "
+            + "WHERE txid >= ? ORDER BY txid, id";
+
+    // resets have no code_id and are compacted together
+    private static final String COMPACT_SQL = "DELETE FROM dv_code_change WHERE id IN ("
+            + "SELECT id FROM (SELECT id, row_number() OVER "
+            + "(PARTITION BY code_id, code ORDER BY txid DESC, id DESC) AS n FROM dv_code_change) c WHERE n > 1)";
+
+    private static final int BATCH_SIZE = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final EntityManager entityManager;
+
+    public CodeChangeLog(final JdbcTemplate jdbcTemplate,
+                         final EntityManager entityManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.entityManager = entityManager;
+    }
+
+    /**
+     * Record changed Codes, should be called in the transaction making the change.
+     *
+     * @param codeIds ids of Codes created or changed
+     */
+    public void recordChanged(Collection<Long> codeIds) {
+        if (CollectionUtils.isEmpty(codeIds)) {
+            return;
+        }
+
+        // Codes are read back with JDBC, which does not see changes Hibernate has not flushed
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            entityManager.flush();
+        }
+
+        List<Object[]> args = new ArrayList<>(codeIds.size());
+        codeIds.forEach(id -> args.add(new Object[]{id}));
+        for (List<Object[]> chunk : Lists.partition(args, BATCH_SIZE)) {
+            jdbcTemplate.batchUpdate(RENAMED_SQL, chunk);
+            jdbcTemplate.batchUpdate(CHANGED_SQL, chunk);
+        }
+    }
+
+    /**
+     * Record a Code removed from the database, which can no longer be looked up by id.
+     *
+     * @param codeId id the Code had
+     * @param code   code of the Code
+     */
+    public void recordDeleted(Long codeId, String code) {
+        jdbcTemplate.update(DELETED_SQL, codeId, code);
+    }
+
+    /**
+     * Record a change to more Codes than are worth listing.
+     */
+    public void recordReset() {
+        jdbcTemplate.update(RESET_SQL);
+    }
+
+    /**
+     * Remove rows superseded by a newer row of the same Code, or a newer reset.
+     */
+    @Scheduled(fixedDelayString = "${code-changes.compact.delay-ms:3600000}")
+    public void compact() {
+        long start = System.currentTimeMillis();
+        int removed = jdbcTemplate.update(COMPACT_SQL);
+        log.info("Compacted code change log, {} rows removed, timing {}.",
+                removed, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Read changes since a version, both reads have to be made in one repeatable read
+     * transaction so the version matches the changes.
+     *
+     * @param since a version returned earlier, null if the client has none
+     * @return changes and the version to read from next time
+     */
+    public Changes changesSince(Long since) {
+        Long version = jdbcTemplate.queryForObject(VERSION_SQL, Long.class);
+        if (since == null || since > version) {
+            // unknown version, from before the log or another database
+            return new Changes(version, true, Collections.emptyMap());
+        }
+
+        boolean[] reset = new boolean[1];
+        Map<Long, Set<String>> codes = new HashMap<>();
+        jdbcTemplate.query(CHANGES_SQL, rs -> {
+            long codeId = rs.getLong(1);
+            if (rs.wasNull()) {
+                reset[0] = true;
+            } else {
+                codes.computeIfAbsent(codeId, id -> new LinkedHashSet<>()).add(rs.getString(2));
+            }
+        }, since);
+
+        return new Changes(version, reset[0], reset[0] ? Collections.emptyMap() : codes);
+    }
+
+    /**
+     * Changes read from the log.
+     */
+    public static final class Changes {
+        private final long version;
+        private final boolean reset;
+        private final Map<Long, Set<String>> codes;
+
+        Changes(long version, boolean reset, Map<Long, Set<String>> codes) {
+            this.version = version;
+            this.reset = reset;
+            this.codes = codes;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * @return true when changes can not be listed and the whole catalogue has to be reloaded
+         */
+        public boolean isReset() {
+            return reset;
+        }
+
+        /**
+         * @return codes every changed Code had in the logged changes by id, oldest first
+         */
+        public Map<Long, Set<String>> getCodes() {
+            return codes;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.solidstategroup.diagnosisview.service.impl;
+
+import com.solidstategroup.diagnosisview.model.CategoryDto;
+import com.solidstategroup.diagnosisview.model.CodeDto;
+import com.solidstategroup.diagnosisview.model.CompactCatalogueDto;
+import com.solidstategroup.diagnosisview.model.LinkDto;
+import com.solidstategroup.diagnosisview.model.Tag;
+import com.solidstategroup.diagnosisview.model.codes.Category;
+import com.solidstategroup.diagnosisview.model.codes.Code;
+import com.solidstategroup.diagnosisview.model.codes.Institution;
+import com.solidstategroup.diagnosisview.model.codes.Link;
+import com.solidstategroup.diagnosisview.model.codes.LinkRuleMapping;
+import com.solidstategroup.diagnosisview.model.codes.Lookup;
+import com.solidstategroup.diagnosisview.model.codes.enums.CriteriaType;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static java.util.stream.Collectors.toSet;
+
+/**
+ * Builds CodeDto objects from Code entities, shared between CodeService and CodeSnapshotStore.
+ */
+final class CodeDtoMapper {
+
+    static final String PAYWALLED_KEY = "paywalled";
+    static final String LINK_KEY = "link";
+
+    /**
+     * Order CodeDto are returned in, by friendly name with code to keep order stable.
+     */
+    static final Comparator<CodeDto> FRIENDLY_NAME_ORDER = Comparator
+            .comparing(CodeDto::getFriendlyName, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(CodeDto::getCode, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    private CodeDtoMapper() {
+    }
+
+    /**
+     * Build CodeDto with all the fields used in admin listing.
+     *
+     * @param code        a Code to convert
+     * @param institution an Institution to transform links for, can be null
+     * @return a CodeDto
+     */
+    static CodeDto toDto(Code code, Institution institution) {
+        return CodeDto
+                .builder()
+                .code(code.getCode())
+                .links(buildLinkDtos(code, institution))
+                .categories(buildCategories(code))
+                .removedExternally(code.isRemovedExternally())
+                .hideFromPatients(code.isHideFromPatients())
+                .deleted(shouldBeDeleted(code))
+                .friendlyName(code.getPatientFriendlyName())
+                .tags(code.getTags())
+                .created(code.getCreated())
+                .build();
+    }
+
+    /**
+     * Build CodeDto returned to users, without admin only fields.
+     *
+     * @param code        a Code to convert
+     * @param institution an Institution to transform links for, can be null
+     * @return a CodeDto
+     */
+    static CodeDto toUserDto(Code code, Institution institution) {
+        return CodeDto
+                .builder()
+                .code(code.getCode())
+                .links(buildLinkDtos(code, institution))
+                .categories(buildCategories(code))
+                .deleted(shouldBeDeleted(code))
+                .friendlyName(code.getPatientFriendlyName())
+                .tags(code.getTags())
+                .build();
+    }
+
+    /**
+     * Build the compact form of a CodeDto list, each link type, category and tag is
+     * kept once in the dictionaries and referred to by id.
+     *
+     * @param codes CodeDto to convert, in the order they should be sent
+     * @return a CompactCatalogueDto
+     */
+    static CompactCatalogueDto toCompactCatalogue(List<CodeDto> codes) {
+        Map<Long, Lookup> linkTypes = new TreeMap<>();
+        Map<Long, CategoryDto> categories = new TreeMap<>();
+        Map<Long, Tag> tags = new TreeMap<>();
+        List<CompactCatalogueDto.CodeEntry> entries = new ArrayList<>(codes.size());
+
+        for (CodeDto code : codes) {
+            Set<Long> categoryIds = null;
+            if (code.getCategories() != null) {
+                categoryIds = new TreeSet<>();
+                for (CategoryDto category : code.getCategories()) {
+                    categories.putIfAbsent(category.getId(), category);
+                    categoryIds.add(category.getId());
+                }
+            }
+
+            Set<Long> tagIds = null;
+            if (code.getTags() != null) {
+                tagIds = new TreeSet<>();
+                for (Tag tag : code.getTags()) {
+                    tags.putIfAbsent(tag.getId(), tag);
+                    tagIds.add(tag.getId());
+                }
+            }
+
+            List<CompactCatalogueDto.LinkEntry> links = null;
+            if (code.getLinks() != null) {
+                links = new ArrayList<>(code.getLinks().size());
+                for (LinkDto link : code.getLinks()) {
+                    Long linkTypeId = null;
+                    if (link.getLinkType() != null) {
+                        linkTypeId = link.getLinkType().getId();
+                        linkTypes.putIfAbsent(linkTypeId, link.getLinkType());
+                    }
+                    links.add(new CompactCatalogueDto.LinkEntry(
+                            link.getId(),
+                            linkTypeId,
+                            link.getDifficultyLevel(),
+                            link.getLink(),
+                            Objects.equals(link.getOriginalLink(), link.getLink()) ? null : link.getOriginalLink(),
+                            link.getDisplayOrder(),
+                            link.getDisplayLink(),
+                            link.getName(),
+                            link.getFreeLink(),
+                            link.getTransformationsOnly(),
+                            link.getPaywalled()));
+                }
+            }
+
+            entries.add(CompactCatalogueDto.CodeEntry.builder()
+                    .code(code.getCode())
+                    .friendlyName(code.getFriendlyName())
+                    .deleted(code.getDeleted())
+                    .categories(categoryIds)
+                    .tags(tagIds)
+                    .links(links)
+                    .build());
+        }
+
+        return CompactCatalogueDto.builder()
+                .linkTypes(linkTypes)
+                .categories(categories)
+                .tags(tags)
+                .codes(entries)
+                .build();
+    }
+
+    static boolean shouldDisplayLink(String linkMapping, Link link) {
+
+        return !StringUtils.isEmpty(linkMapping) | !link.getTransformationsOnly();
+    }
+
+    static boolean shouldBeDeleted(Code code) {
+        return code.isRemovedExternally() || code.isHideFromPatients();
+    }
+
+    /**
+     * Build links based on the given Institution.
+     * <p>
+     * Institution is used to transform url for subscribed users.
+     *
+     * @param code
+     * @param institution
+     * @return
+     */
+    static Set<LinkDto> buildLinkDtos(Code code, Institution institution) {
+
+        return code
+                .getLinks()
+                .stream()
+                .map(link -> {
+                    String originalLink = link.getLink();
+                    // check if we have link rules for transformation for
+                    // given institution also if it's paywalled link
+                    Map<String, String> linkMapping = buildLink(link.getMappingLinks(), institution);
+
+                    return new LinkDto(
+                            link.getId(),
+                            link.getLinkType(),
+                            link.getDifficultyLevel(),
+                            linkMapping.get(LINK_KEY) != null ? linkMapping.get(LINK_KEY) : originalLink,
+                            originalLink,
+                            link.getDisplayOrder(),
+                            shouldDisplayLink(linkMapping.get(LINK_KEY), link),
+                            link.getName(), link.getFreeLink(),
+                            link.getTransformationsOnly(),
+                            linkMapping.get(PAYWALLED_KEY) != null ?
+                                    LinkDto.PaywalledType.valueOf(linkMapping.get(PAYWALLED_KEY)) : null);
+                })
+                .collect(toSet());
+    }
+
+    /**
+     * From given set of link mapping find the one that matches given Institution criteria
+     *
+     * @param linkRuleMapping
+     * @param institution
+     * @return a transformed link url
+     */
+    static Map<String, String> buildLink(Set<LinkRuleMapping> linkRuleMapping,
+                                         Institution institution) {
+
+        Map<String, String> data = new HashMap<>();
+
+        for (LinkRuleMapping r : linkRuleMapping) {
+            // if we have an institution against rule means its
+            // link is Paywalled eg transformable
+            if (r.getCriteriaType() != null && r.getCriteriaType() == CriteriaType.INSTITUTION) {
+
+                // default to locked and original url
+                data.put(PAYWALLED_KEY, LinkDto.PaywalledType.LOCKED.name());
+                data.put(LINK_KEY, r.getLink().getLink());
+
+                // now check for transformation based on Institution
+                if (institution != null && r.getCriteria().equals(institution.getCode())) {
+                    // matches given institution set to unlocked
+                    data.put(PAYWALLED_KEY, LinkDto.PaywalledType.UNLOCKED.name());
+                    data.put(LINK_KEY, r.getReplacementLink());
+                    break;
+                }
+            }
+        }
+        return data;
+    }
+
+    static Set<CategoryDto> buildCategories(Code code) {
+
+        return code
+                .getCodeCategories()
+                .stream()
+                .map(cc -> toCategoryDto(cc.getCategory()))
+                .collect(toSet());
+    }
+
+    static CategoryDto toCategoryDto(Category category) {
+        return new CategoryDto(
+                category.getId(),
+                category.getNumber(),
+                category.getIcd10Description(),
+                category.getFriendlyDescription(),
+                category.isHidden());
+    }
+}
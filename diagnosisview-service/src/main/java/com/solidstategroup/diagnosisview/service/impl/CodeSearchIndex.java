@@ -0,0 +1,463 @@
+package com.solidstategroup.diagnosisview.service.impl;
+
+import com.solidstategroup.diagnosisview.model.Synonym;
+import com.solidstategroup.diagnosisview.model.Tag;
+import com.solidstategroup.diagnosisview.model.codes.Code;
+import com.solidstategroup.diagnosisview.model.codes.CodeExternalStandard;
+import com.solidstategroup.diagnosisview.repository.CodeRepository;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+import static com.solidstategroup.diagnosisview.utils.TransactionUtils.runAfterCommit;
+
+/**
+ * In memory trigram index over Code code, patient friendly name and synonym names.
+ * <p>
+ * Answers the case insensitive substring searches previously done with
+ * UPPER(...) LIKE '%term%' queries against pv_code, and resolves icd10 codes
+ * returned by synonyms search to Codes through a sorted map of Code external
+ * standards rather than a query per icd10 code. Built once the application
+ * is ready and kept up to date by CodeService write paths, changes are applied
+ * only after the surrounding transaction commits. Changes applied while the index
+ * is rebuilt are kept and applied again to the rebuilt index, as the Codes it was
+ * loaded from may not have them.
+ */
+@Slf4j
+@Service
+public class CodeSearchIndex {
+
+    private static final int GRAM_SIZE = 3;
+
+    private final CodeRepository codeRepository;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Map<Long, IndexedCode> codes = new HashMap<>();
+    private Map<String, Set<Long>> grams = new HashMap<>();
+    private TreeMap<String, Set<Long>> externalStandards = new TreeMap<>();
+    // while rebuilding, latest change of each Code by id with null for removed Codes
+    private Map<Long, IndexedCode> pending;
+    private volatile boolean ready;
+
+    public CodeSearchIndex(final CodeRepository codeRepository) {
+        this.codeRepository = codeRepository;
+    }
+
+    /**
+     * Loads all the Codes from the database and replaces current index content.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public synchronized void rebuild() {
+        long start = System.currentTimeMillis();
+
+        lock.writeLock().lock();
+        try {
+            pending = new LinkedHashMap<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        Map<Long, IndexedCode> newCodes = new HashMap<>();
+        Map<String, Set<Long>> newGrams = new HashMap<>();
+        TreeMap<String, Set<Long>> newExternalStandards = new TreeMap<>();
+        boolean built = false;
+        try {
+            for (Code code : codeRepository.findAll()) {
+                IndexedCode indexed = IndexedCode.of(code);
+                newCodes.put(indexed.getId(), indexed);
+                addGrams(newGrams, indexed);
+                addExternalStandards(newExternalStandards, indexed);
+            }
+            built = true;
+        } finally {
+            lock.writeLock().lock();
+            try {
+                if (built) {
+                    pending.forEach((id, indexed) ->
+                            apply(newCodes, newGrams, newExternalStandards, id, indexed));
+                    codes = newCodes;
+                    grams = newGrams;
+                    externalStandards = newExternalStandards;
+                    ready = true;
+                }
+                pending = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        long stop = System.currentTimeMillis();
+        log.info("Code search index built, {} codes {} trigrams, timing {}",
+                newCodes.size(), newGrams.size(), (stop - start));
+    }
+
+    /**
+     * Whether initial index load has completed, callers should fall back
+     * to the database until it has.
+     *
+     * @return true if index can be queried
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Add or replace given Code in the index.
+     *
+     * @param code a Code to index
+     */
+    public void index(Code code) {
+        if (code == null || code.getId() == null) {
+            return;
+        }
+        final IndexedCode indexed = IndexedCode.of(code);
+        runAfterCommit(() -> put(indexed));
+    }
+
+    /**
+     * Add or replace given Codes in the index.
+     *
+     * @param codes a collection of Codes to index
+     */
+    public void indexAll(Collection<Code> codes) {
+        if (CollectionUtils.isEmpty(codes)) {
+            return;
+        }
+        final List<IndexedCode> indexed = new ArrayList<>();
+        codes.stream()
+                .filter(c -> c.getId() != null)
+                .forEach(c -> indexed.add(IndexedCode.of(c)));
+        runAfterCommit(() -> indexed.forEach(this::put));
+    }
+
+    /**
+     * Remove Code with given id from the index.
+     *
+     * @param id an id of the Code to remove
+     */
+    public void remove(Long id) {
+        if (id == null) {
+            return;
+        }
+        runAfterCommit(() -> evict(id));
+    }
+
+    /**
+     * Find all Codes where code, patient friendly name or any of the synonyms
+     * contains given term, regardless of the Code status.
+     *
+     * @param term a search term
+     * @return a list of matching indexed Codes
+     */
+    public List<IndexedCode> search(String term) {
+        final String needle = normalise(term);
+        return find(needle, c -> c.matches(needle));
+    }
+
+    /**
+     * Find active Codes (not removed externally and not hidden from patients)
+     * where any of the synonyms contains given term.
+     *
+     * @param term a search term
+     * @return a list of matching indexed Codes
+     */
+    public List<IndexedCode> searchSynonyms(String term) {
+        final String needle = normalise(term);
+        return find(needle, c -> c.isActive() && c.matchesSynonym(needle));
+    }
+
+    /**
+     * Find active Codes for icd10 codes returned by synonyms search.
+     * <p>
+     * DV only stores first part of the codes, eg for I25.5 we need I25, so every
+     * Code with external standard starting with the part before dot(.) matches.
+     * If more than one Code matches, Codes with an exact external standard
+     * match win, otherwise default to all Codes matching the prefix.
+     *
+     * @param icd10Codes a collection of icd10 codes
+     * @return a list of matching indexed Codes
+     */
+    public List<IndexedCode> findByExternalStandards(Collection<String> icd10Codes) {
+        if (CollectionUtils.isEmpty(icd10Codes)) {
+            return Collections.emptyList();
+        }
+
+        lock.readLock().lock();
+        try {
+            Set<Long> found = new HashSet<>();
+            for (String icd10Code : icd10Codes) {
+                String prefix = icd10Code.split("\\.")[0];
+
+                Set<Long> wildcard = new HashSet<>();
+                externalStandards.subMap(prefix, prefix + Character.MAX_VALUE)
+                        .values()
+                        .forEach(ids -> ids.stream().filter(this::isActive).forEach(wildcard::add));
+
+                if (wildcard.size() > 1) {
+                    Set<Long> exact = new HashSet<>();
+                    externalStandards.getOrDefault(icd10Code, Collections.emptySet())
+                            .stream()
+                            .filter(this::isActive)
+                            .forEach(exact::add);
+                    found.addAll(exact.isEmpty() ? wildcard : exact);
+                } else {
+                    found.addAll(wildcard);
+                }
+            }
+
+            List<IndexedCode> result = new ArrayList<>();
+            found.forEach(id -> result.add(codes.get(id)));
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean isActive(Long id) {
+        IndexedCode code = codes.get(id);
+        return code != null && code.isActive();
+    }
+
+    private List<IndexedCode> find(String needle, Predicate<IndexedCode> filter) {
+        if (StringUtils.isEmpty(needle)) {
+            return Collections.emptyList();
+        }
+
+        lock.readLock().lock();
+        try {
+            Collection<Long> candidates = candidates(needle);
+            List<IndexedCode> result = new ArrayList<>();
+            for (Long id : candidates) {
+                IndexedCode code = codes.get(id);
+                if (code != null && filter.test(code)) {
+                    result.add(code);
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Intersect posting lists of all term trigrams, starting from the smallest.
+     * Terms shorter than a trigram can't use postings and check every entry.
+     */
+    private Collection<Long> candidates(String needle) {
+        if (needle.length() < GRAM_SIZE) {
+            return codes.keySet();
+        }
+
+        List<Set<Long>> postings = new ArrayList<>();
+        for (String gram : trigrams(needle)) {
+            Set<Long> posting = grams.get(gram);
+            if (posting == null) {
+                return Collections.emptySet();
+            }
+            postings.add(posting);
+        }
+        postings.sort((a, b) -> Integer.compare(a.size(), b.size()));
+
+        Set<Long> result = new HashSet<>(postings.get(0));
+        for (int i = 1; i < postings.size() && !result.isEmpty(); i++) {
+            result.retainAll(postings.get(i));
+        }
+        return result;
+    }
+
+    private void put(IndexedCode indexed) {
+        update(indexed.getId(), indexed);
+    }
+
+    private void evict(Long id) {
+        update(id, null);
+    }
+
+    private void update(Long id, IndexedCode indexed) {
+        lock.writeLock().lock();
+        try {
+            apply(codes, grams, externalStandards, id, indexed);
+            if (pending != null) {
+                pending.put(id, indexed);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replace or, when indexed is null, remove Code with given id in given maps.
+     */
+    private static void apply(Map<Long, IndexedCode> codes, Map<String, Set<Long>> grams,
+                              Map<String, Set<Long>> externalStandards, Long id, IndexedCode indexed) {
+        IndexedCode previous = indexed == null ? codes.remove(id) : codes.put(id, indexed);
+        if (previous != null) {
+            removeGrams(grams, previous);
+            removeExternalStandards(externalStandards, previous);
+        }
+        if (indexed != null) {
+            addGrams(grams, indexed);
+            addExternalStandards(externalStandards, indexed);
+        }
+    }
+
+    private static void addGrams(Map<String, Set<Long>> target, IndexedCode code) {
+        for (String gram : code.trigrams()) {
+            target.computeIfAbsent(gram, g -> new HashSet<>()).add(code.getId());
+        }
+    }
+
+    private static void removeGrams(Map<String, Set<Long>> target, IndexedCode code) {
+        for (String gram : code.trigrams()) {
+            Set<Long> posting = target.get(gram);
+            if (posting != null) {
+                posting.remove(code.getId());
+                if (posting.isEmpty()) {
+                    target.remove(gram);
+                }
+            }
+        }
+    }
+
+    private static void addExternalStandards(Map<String, Set<Long>> target, IndexedCode code) {
+        for (String externalStandard : code.getExternalStandardCodes()) {
+            target.computeIfAbsent(externalStandard, es -> new HashSet<>()).add(code.getId());
+        }
+    }
+
+    private static void removeExternalStandards(Map<String, Set<Long>> target, IndexedCode code) {
+        for (String externalStandard : code.getExternalStandardCodes()) {
+            Set<Long> ids = target.get(externalStandard);
+            if (ids != null) {
+                ids.remove(code.getId());
+                if (ids.isEmpty()) {
+                    target.remove(externalStandard);
+                }
+            }
+        }
+    }
+
+    private static Set<String> trigrams(String value) {
+        Set<String> result = new HashSet<>();
+        if (value == null) {
+            return result;
+        }
+        for (int i = 0; i + GRAM_SIZE <= value.length(); i++) {
+            result.add(value.substring(i, i + GRAM_SIZE));
+        }
+        return result;
+    }
+
+    private static String normalise(String value) {
+        return value == null ? null : value.toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * Immutable copy of the Code fields needed to match and display search results.
+     */
+    @Getter
+    public static final class IndexedCode {
+        private final Long id;
+        private final String code;
+        private final String friendlyName;
+        private final boolean removedExternally;
+        private final boolean hideFromPatients;
+        private final Date created;
+        private final Set<Tag> tags;
+        private final Set<String> externalStandardCodes;
+
+        @Getter(AccessLevel.NONE)
+        private final String codeKey;
+        @Getter(AccessLevel.NONE)
+        private final String friendlyNameKey;
+        @Getter(AccessLevel.NONE)
+        private final List<String> synonymKeys;
+
+        private IndexedCode(Code code) {
+            this.id = code.getId();
+            this.code = code.getCode();
+            this.friendlyName = code.getPatientFriendlyName();
+            this.removedExternally = code.isRemovedExternally();
+            this.hideFromPatients = code.isHideFromPatients();
+            this.created = code.getCreated();
+            this.tags = code.getTags() == null
+                    ? Collections.emptySet()
+                    : Collections.unmodifiableSet(new HashSet<>(code.getTags()));
+
+            Set<String> externalStandardCodes = new HashSet<>();
+            if (code.getExternalStandards() != null) {
+                for (CodeExternalStandard es : code.getExternalStandards()) {
+                    if (es.getCodeString() != null) {
+                        externalStandardCodes.add(es.getCodeString());
+                    }
+                }
+            }
+            this.externalStandardCodes = Collections.unmodifiableSet(externalStandardCodes);
+
+            this.codeKey = normalise(code.getCode());
+            this.friendlyNameKey = normalise(code.getPatientFriendlyName());
+            List<String> keys = new ArrayList<>();
+            if (code.getSynonyms() != null) {
+                for (Synonym synonym : code.getSynonyms()) {
+                    if (synonym != null && synonym.getName() != null) {
+                        keys.add(normalise(synonym.getName()));
+                    }
+                }
+            }
+            this.synonymKeys = Collections.unmodifiableList(keys);
+        }
+
+        public static IndexedCode of(Code code) {
+            return new IndexedCode(code);
+        }
+
+        public boolean isActive() {
+            return !removedExternally && !hideFromPatients;
+        }
+
+        boolean matches(String needle) {
+            return (codeKey != null && codeKey.contains(needle))
+                    || (friendlyNameKey != null && friendlyNameKey.contains(needle))
+                    || matchesSynonym(needle);
+        }
+
+        boolean matchesSynonym(String needle) {
+            for (String synonym : synonymKeys) {
+                if (synonym.contains(needle)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        Set<String> trigrams() {
+            Set<String> result = CodeSearchIndex.trigrams(codeKey);
+            result.addAll(CodeSearchIndex.trigrams(friendlyNameKey));
+            synonymKeys.forEach(s -> result.addAll(CodeSearchIndex.trigrams(s)));
+            return result;
+        }
+    }
+}
@@ -1,25 +1,29 @@
 package com.solidstategroup.diagnosisview.service.impl;
 
+import static com.solidstategroup.diagnosisview.service.impl.CodeDtoMapper.LINK_KEY;
+import static com.solidstategroup.diagnosisview.service.impl.CodeDtoMapper.PAYWALLED_KEY;
+import static com.solidstategroup.diagnosisview.service.impl.CodeDtoMapper.buildLink;
+import static com.solidstategroup.diagnosisview.service.impl.CodeDtoMapper.shouldDisplayLink;
 import static java.lang.String.format;
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toSet;
 
 import com.solidstategroup.diagnosisview.exceptions.BadRequestException;
 import com.solidstategroup.diagnosisview.exceptions.ResourceNotFoundException;
+import com.solidstategroup.diagnosisview.model.BaseModel;
 import com.solidstategroup.diagnosisview.model.CategoryDto;
+import com.solidstategroup.diagnosisview.model.CodeChangesDto;
 import com.solidstategroup.diagnosisview.model.CodeDto;
-import com.solidstategroup.diagnosisview.model.LinkDto;
 import com.solidstategroup.diagnosisview.model.Tag;
 import com.solidstategroup.diagnosisview.model.codes.Code;
 import com.solidstategroup.diagnosisview.model.codes.CodeCategory;
 import com.solidstategroup.diagnosisview.model.codes.CodeExternalStandard;
 import com.solidstategroup.diagnosisview.model.codes.Institution;
 import com.solidstategroup.diagnosisview.model.codes.Link;
-import com.solidstategroup.diagnosisview.model.codes.LinkRuleMapping;
 import com.solidstategroup.diagnosisview.model.codes.LogoRule;
 import com.solidstategroup.diagnosisview.model.codes.enums.CodeSourceTypes;
-import com.solidstategroup.diagnosisview.model.codes.enums.CriteriaType;
 import com.solidstategroup.diagnosisview.model.codes.enums.DifficultyLevel;
+import com.solidstategroup.diagnosisview.model.codes.enums.SyncOutcome;
 import com.solidstategroup.diagnosisview.repository.CategoryRepository;
 import com.solidstategroup.diagnosisview.repository.CodeCategoryRepository;
 import com.solidstategroup.diagnosisview.repository.CodeExternalStandardRepository;
@@ -28,9 +32,13 @@ import com.solidstategroup.diagnosisview.repository.ExternalStandardRepository;
 import com.solidstategroup.diagnosisview.repository.LinkRepository;
 import com.solidstategroup.diagnosisview.repository.LookupRepository;
 import com.solidstategroup.diagnosisview.repository.LookupTypeRepository;
+import com.solidstategroup.diagnosisview.service.CatalogueFormat;
 import com.solidstategroup.diagnosisview.service.CodeService;
 import com.solidstategroup.diagnosisview.service.LinkService;
-import java.math.BigInteger;
+import com.solidstategroup.diagnosisview.service.SerialisedCatalogue;
+import com.solidstategroup.diagnosisview.service.SyncRunContext;
+import com.solidstategroup.diagnosisview.service.impl.CodeSearchIndex.IndexedCode;
+import com.solidstategroup.diagnosisview.service.impl.IdAllocator.Sequence;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -40,12 +48,13 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import javax.persistence.EntityExistsException;
-import javax.persistence.EntityManager;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.CollectionUtils;
@@ -60,12 +69,6 @@ public class CodeServiceImpl implements CodeService {
 
   private static final String DV_CODE = "dv_";
   private static final String DV_CODE_TEMPLATE = "dv_%s";
-  private static final String CODE_SEQ = "code_seq";
-  private static final String LINK_SEQ = "link_seq";
-  private static final String CODE_CATEGORY_SEQ = "code_category_seq";
-  private static final String CODE_EXTERNAL_STANDARD = "code_external_standard_seq";
-  private static final String PAYWALLED_KEY = "paywalled";
-  private static final String LINK_KEY = "link";
 
   private final CodeRepository codeRepository;
   private final CategoryRepository categoryRepository;
@@ -83,8 +86,15 @@ public class CodeServiceImpl implements CodeService {
 
   private final TagsService tagsService;
 
-  // Temporary hack to get ids for codes and links.
-  private EntityManager entityManager;
+  private final CodeSearchIndex codeSearchIndex;
+
+  private final CodeSnapshotStore codeSnapshotStore;
+
+  private final CodeChangeLog codeChangeLog;
+
+  private final CategoriesCacheLoader categoriesCacheLoader;
+
+  private final IdAllocator idAllocator;
 
   public CodeServiceImpl(CodeRepository codeRepository,
       CategoryRepository categoryRepository,
@@ -98,7 +108,11 @@ public class CodeServiceImpl implements CodeService {
       LookupRepository lookupRepository,
       InstitutionService institutionService,
       TagsService tagsService,
-      EntityManager entityManager) {
+      CodeSearchIndex codeSearchIndex,
+      CodeSnapshotStore codeSnapshotStore,
+      CodeChangeLog codeChangeLog,
+      CategoriesCacheLoader categoriesCacheLoader,
+      IdAllocator idAllocator) {
 
     this.codeRepository = codeRepository;
     this.categoryRepository = categoryRepository;
@@ -112,16 +126,11 @@ public class CodeServiceImpl implements CodeService {
     this.lookupRepository = lookupRepository;
     this.institutionService = institutionService;
     this.tagsService = tagsService;
-    this.entityManager = entityManager;
-  }
-
-  private static boolean shouldDisplayLink(String linkMapping, Link link) {
-
-    return !StringUtils.isEmpty(linkMapping) | !link.getTransformationsOnly();
-  }
-
-  private static boolean shouldBeDeleted(Code code) {
-    return code.isRemovedExternally() || code.isHideFromPatients();
+    this.codeSearchIndex = codeSearchIndex;
+    this.codeSnapshotStore = codeSnapshotStore;
+    this.codeChangeLog = codeChangeLog;
+    this.categoriesCacheLoader = categoriesCacheLoader;
+    this.idAllocator = idAllocator;
   }
 
   /**
@@ -131,16 +140,7 @@ public class CodeServiceImpl implements CodeService {
   @Cacheable("getAllCategories")
   public List<CategoryDto> getAllCategories() {
 
-    return categoryRepository
-        .findAll()
-        .stream()
-        .map(category -> new CategoryDto(
-            category.getId(),
-            category.getNumber(),
-            category.getIcd10Description(),
-            category.getFriendlyDescription(),
-            category.isHidden()))
-        .collect(toList());
+    return categoriesCacheLoader.loadCategories();
   }
 
   public List<Code> getAll() {
@@ -152,85 +152,88 @@ public class CodeServiceImpl implements CodeService {
    * {@inheritDoc}
    */
   @Override
-  @Cacheable("getAllCodes")
   public List<CodeDto> getAll(String institutionCode) throws ResourceNotFoundException {
 
-    final Institution institution =
-        StringUtils.isEmpty(institutionCode) ? null
-            : institutionService.getInstitution(institutionCode);
-
-    return codeRepository
-        .findAll()
-        .parallelStream()
-        .map(code -> CodeDto
-            .builder()
-            .code(code.getCode())
-            .links(buildLinkDtos(code, institution))
-            .categories(buildCategories(code))
-            .removedExternally(code.isRemovedExternally())
-            .hideFromPatients(code.isHideFromPatients())
-            .deleted(shouldBeDeleted(code))
-            .friendlyName(code.getPatientFriendlyName())
-            .tags(code.getTags())
-            .created(code.getCreated())
-            .build())
-        .sorted(Comparator.comparing(CodeDto::getFriendlyName,
-            Comparator.nullsFirst(Comparator.naturalOrder())))
-        .collect(toList());
+    return codeSnapshotStore.getAll(institutionCode);
   }
 
   /**
    * {@inheritDoc}
    */
   @Override
-  @Cacheable("getAllCodes")
   public List<CodeDto> getAllActive(String institutionCode) throws ResourceNotFoundException {
 
+    return codeSnapshotStore.getAllActive(institutionCode);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public SerialisedCatalogue getActiveCatalogue(String institutionCode, CatalogueFormat format)
+      throws ResourceNotFoundException {
+
+    return codeSnapshotStore.getActiveSerialised(institutionCode, format);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * Changed Codes are read from the database rather than snapshots, so they are never
+   * older than the version returned with them.
+   */
+  @Override
+  @Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+  public CodeChangesDto getActiveChanges(Long since, String institutionCode)
+      throws ResourceNotFoundException {
+
     final Institution institution =
         StringUtils.isEmpty(institutionCode) ? null
             : institutionService.getInstitution(institutionCode);
 
-    return codeRepository
-        .findAllActive()
-        .parallelStream()
-        .map(code -> CodeDto
-            .builder()
-            .code(code.getCode())
-            .links(buildLinkDtos(code, institution))
-            .categories(buildCategories(code))
-            .deleted(shouldBeDeleted(code))
-            .friendlyName(code.getPatientFriendlyName())
-            .tags(code.getTags())
-            .build())
-        .sorted(Comparator.comparing(CodeDto::getFriendlyName,
-            Comparator.nullsFirst(Comparator.naturalOrder())))
-        .collect(toList());
+    CodeChangeLog.Changes changes = codeChangeLog.changesSince(since);
+    if (changes.isReset()) {
+      return CodeChangesDto.builder()
+          .version(changes.getVersion())
+          .full(true)
+          .codes(Collections.emptyList())
+          .tombstones(Collections.emptyList())
+          .build();
+    }
+
+    List<CodeDto> codes = new ArrayList<>();
+    // a renamed code is logged with its previous code too, which is sent as removed
+    Set<String> removed = new TreeSet<>();
+    changes.getCodes().values().forEach(removed::addAll);
+    for (Code code : codeRepository.findAllById(changes.getCodes().keySet())) {
+      if (!CodeDtoMapper.shouldBeDeleted(code)) {
+        codes.add(CodeDtoMapper.toUserDto(code, institution));
+      }
+    }
+    // a code deleted and created again is sent as changed only
+    codes.forEach(c -> removed.remove(c.getCode()));
+    codes.sort(CodeDtoMapper.FRIENDLY_NAME_ORDER);
+
+    return CodeChangesDto.builder()
+        .version(changes.getVersion())
+        .full(false)
+        .codes(codes)
+        .tombstones(new ArrayList<>(removed))
+        .build();
   }
 
   @Override
-  @Transactional(readOnly = true)
-  @Cacheable("getAllCodes")
   public List<CodeDto> getAllActiveByCodes(List<String> codes, String institutionCode)
       throws ResourceNotFoundException {
 
-    final Institution institution =
-        StringUtils.isEmpty(institutionCode) ? null
-            : institutionService.getInstitution(institutionCode);
+    if (CollectionUtils.isEmpty(codes)) {
+      return Collections.emptyList();
+    }
 
-    return codeRepository
-        .findAllActiveByCodes(codes)
-        .parallelStream()
-        .map(code -> CodeDto
-            .builder()
-            .code(code.getCode())
-            .links(buildLinkDtos(code, institution))
-            .categories(buildCategories(code))
-            .deleted(shouldBeDeleted(code))
-            .friendlyName(code.getPatientFriendlyName())
-            .tags(code.getTags())
-            .build())
-        .sorted(Comparator.comparing(CodeDto::getFriendlyName,
-            Comparator.nullsFirst(Comparator.naturalOrder())))
+    Set<String> codeSet = new HashSet<>(codes);
+    return codeSnapshotStore.getAllActive(institutionCode)
+        .stream()
+        .filter(code -> codeSet.contains(code.getCode()))
         .collect(toList());
   }
 
@@ -246,40 +249,26 @@ public class CodeServiceImpl implements CodeService {
       return filteredCodes;
     }
 
-    // search DV by synonyms
-    List<Code> dvCodes = codeRepository.findBySynonym("%".concat(searchTerm).concat("%"));
-    if (!CollectionUtils.isEmpty(dvCodes)) {
-      foundCodes.addAll(dvCodes);
-    }
-
     // search diagnosis by synonyms, and get icd10 codes back
     Set<String> externalStandardCodes = synonymsService.searchSynonyms(searchTerm);
 
-    for (String code : externalStandardCodes) {
-
-      // extract only first part before dot(.) as DV only stores
-      // first part of the codes eg I25.5 we only need I25 part
-      String[] codeArr = code.split("\\.");
-      String codePrefix = codeArr[0];
-
-      // do wildcard search eg search on I25%
-      List<Code> wildcardCodes = codeRepository.findByExternalStandards(codePrefix.concat("%"));
-
-      if (!CollectionUtils.isEmpty(wildcardCodes)) {
-        // if more then 1 found do exact match search
-        if (wildcardCodes.size() > 1) {
-          List<Code> fullMatchCodes = codeRepository.findByExternalStandards(code);
-          // found codes add to main list, otherwise
-          // default to wildcard search
-          if (!CollectionUtils.isEmpty(fullMatchCodes)) {
-            foundCodes.addAll(fullMatchCodes);
-          } else {
-            foundCodes.addAll(wildcardCodes);
-          }
-        } else {
-          foundCodes.addAll(wildcardCodes);
-        }
+    if (codeSearchIndex.isReady()) {
+      // match DV synonyms and icd10 codes in memory, index only gives us
+      // ids as we need full Codes to build links, so load them in one go
+      Set<Long> ids = new HashSet<>();
+      codeSearchIndex.searchSynonyms(searchTerm).forEach(c -> ids.add(c.getId()));
+      codeSearchIndex.findByExternalStandards(externalStandardCodes)
+          .forEach(c -> ids.add(c.getId()));
+      if (!ids.isEmpty()) {
+        foundCodes.addAll(codeRepository.findAllById(ids));
+      }
+    } else {
+      // search DV by synonyms
+      List<Code> dvCodes = codeRepository.findBySynonym("%".concat(searchTerm).concat("%"));
+      if (!CollectionUtils.isEmpty(dvCodes)) {
+        foundCodes.addAll(dvCodes);
       }
+      foundCodes.addAll(findByExternalStandards(externalStandardCodes));
     }
 
     final Institution institution =
@@ -289,15 +278,7 @@ public class CodeServiceImpl implements CodeService {
     // convert Codes to DTO and return
     if (!CollectionUtils.isEmpty(foundCodes)) {
       return foundCodes.parallelStream()
-          .map(code -> CodeDto
-              .builder()
-              .code(code.getCode())
-              .links(buildLinkDtos(code, institution))
-              .categories(buildCategories(code))
-              .deleted(shouldBeDeleted(code))
-              .friendlyName(code.getPatientFriendlyName())
-              .tags(code.getTags())
-              .build())
+          .map(code -> CodeDtoMapper.toUserDto(code, institution))
           .sorted(Comparator.comparing(CodeDto::getFriendlyName,
               Comparator.nullsFirst(Comparator.naturalOrder())))
           .collect(toList());
@@ -318,15 +299,60 @@ public class CodeServiceImpl implements CodeService {
       return Collections.EMPTY_LIST;
     }
 
-    // search diagnosis by name, code or synonym
-    List<Code> dvCodes = codeRepository.searchAllCodes("%".concat(searchTerm).concat("%"));
-    if (!CollectionUtils.isEmpty(dvCodes)) {
-      foundCodes.addAll(dvCodes);
-    }
-
     // search diagnosis by synonyms, and get icd10 codes back
     Set<String> externalStandardCodes = synonymsService.searchSynonyms(searchTerm);
 
+    // search diagnosis by name, code or synonym and icd10 codes
+    Map<Long, IndexedCode> indexedCodes = new HashMap<>();
+    if (codeSearchIndex.isReady()) {
+      codeSearchIndex.search(searchTerm).forEach(c -> indexedCodes.put(c.getId(), c));
+      codeSearchIndex.findByExternalStandards(externalStandardCodes)
+          .forEach(c -> indexedCodes.put(c.getId(), c));
+    } else {
+      List<Code> dvCodes = codeRepository.searchAllCodes("%".concat(searchTerm).concat("%"));
+      if (!CollectionUtils.isEmpty(dvCodes)) {
+        foundCodes.addAll(dvCodes);
+      }
+      foundCodes.addAll(findByExternalStandards(externalStandardCodes));
+    }
+
+    // TODO: do we need to filter on institution using for admins only
+//        final Institution institution =
+//                StringUtils.isEmpty(institutionCode) ? null : institutionService.getInstitution(institutionCode);
+
+    foundCodes.forEach(c -> indexedCodes.putIfAbsent(c.getId(), IndexedCode.of(c)));
+
+    // convert Codes to DTO and return
+    if (!CollectionUtils.isEmpty(indexedCodes)) {
+      return indexedCodes.values().parallelStream()
+          .map(code -> CodeDto
+              .builder()
+              .code(code.getCode())
+              .deleted(!code.isActive())
+              .removedExternally(code.isRemovedExternally())
+              .hideFromPatients(code.isHideFromPatients())
+              .friendlyName(code.getFriendlyName())
+              .tags(code.getTags())
+              .created(code.getCreated())
+              .build())
+          .sorted(Comparator.comparing(CodeDto::getFriendlyName,
+              Comparator.nullsFirst(Comparator.naturalOrder())))
+          .collect(toList());
+    }
+
+    return Collections.EMPTY_LIST;
+  }
+
+  /**
+   * Find active Codes for given icd10 codes querying each code separately,
+   * only used until search index is loaded.
+   *
+   * @param externalStandardCodes a set of icd10 codes
+   * @return a set of matching Codes
+   */
+  private Set<Code> findByExternalStandards(Set<String> externalStandardCodes) {
+    Set<Code> foundCodes = new HashSet<>();
+
     for (String code : externalStandardCodes) {
 
       // extract only first part before dot(.) as DV only stores
@@ -354,29 +380,7 @@ public class CodeServiceImpl implements CodeService {
       }
     }
 
-    // TODO: do we need to filter on institution using for admins only
-//        final Institution institution =
-//                StringUtils.isEmpty(institutionCode) ? null : institutionService.getInstitution(institutionCode);
-
-    // convert Codes to DTO and return
-    if (!CollectionUtils.isEmpty(foundCodes)) {
-      return foundCodes.parallelStream()
-          .map(code -> CodeDto
-              .builder()
-              .code(code.getCode())
-              .deleted(shouldBeDeleted(code))
-              .removedExternally(code.isRemovedExternally())
-              .hideFromPatients(code.isHideFromPatients())
-              .friendlyName(code.getPatientFriendlyName())
-              .tags(code.getTags())
-              .created(code.getCreated())
-              .build())
-          .sorted(Comparator.comparing(CodeDto::getFriendlyName,
-              Comparator.nullsFirst(Comparator.naturalOrder())))
-          .collect(toList());
-    }
-
-    return Collections.EMPTY_LIST;
+    return foundCodes;
   }
 
   /**
@@ -434,7 +438,7 @@ public class CodeServiceImpl implements CodeService {
    */
   @Override
   @Transactional
-  @CacheEvict(value = {"getAllCodes", "getAllCategories"}, allEntries = true)
+  @CacheEvict(value = "getAllCategories", allEntries = true)
   public void delete(Code code) {
 
     if (code.getCode() == null) {
@@ -449,21 +453,23 @@ public class CodeServiceImpl implements CodeService {
 
     linkRepository.deleteByCode(currentCode);
     codeRepository.delete(currentCode);
+    codeSearchIndex.remove(currentCode.getId());
+    // id can no longer be looked up, record the code so clients get a tombstone
+    codeChangeLog.recordDeleted(currentCode.getId(), currentCode.getCode());
+    codeSnapshotStore.refresh(currentCode.getId());
   }
 
   /**
    * {@inheritDoc}
    */
   @Override
-  @CacheEvict(value = {"getAllCodes", "getAllCategories"}, allEntries = true)
+  @CacheEvict(value = "getAllCategories", allEntries = true)
   public Code save(Code code) {
 
-    return codeRepository.save(code);
-  }
-
-  private long selectIdFrom(String sequence) {
-    String sql = "SELECT nextval('" + sequence + "')";
-    return ((BigInteger) entityManager.createNativeQuery(sql).getSingleResult()).longValue();
+    Code saved = codeRepository.save(code);
+    codeSearchIndex.index(saved);
+    codeSnapshotStore.refresh(saved.getId());
+    return saved;
   }
 
   /**
@@ -471,7 +477,7 @@ public class CodeServiceImpl implements CodeService {
    */
   @Transactional(propagation = Propagation.REQUIRED)
   @Override
-  @CacheEvict(value = {"getAllCodes", "getAllCategories"}, allEntries = true)
+  @CacheEvict(value = "getAllCategories", allEntries = true)
   public Code add(Code code) throws Exception {
 
     if (code == null) {
@@ -514,46 +520,20 @@ public class CodeServiceImpl implements CodeService {
     }
 
     if (code.getId() == null) {
-      code.setId(selectIdFrom(CODE_SEQ));
+      code.setId(idAllocator.next(Sequence.CODE));
     }
 
     // validate Links order for the Code
     linkService.checkLinksOrder(code.getLinks(), code);
 
-    code.setLinks(code
-        .getLinks()
-        .stream()
-        .peek(l -> {
-          if (l.getId() == null) {
-            l.setId(selectIdFrom(LINK_SEQ));
-          }
-        })
-        .collect(toSet()));
+    code.setLinks(withIds(code.getLinks(), Sequence.LINK));
 
     if (code.getExternalStandards() != null) {
-
-      code.setExternalStandards(code
-          .getExternalStandards()
-          .stream()
-          .peek(es -> {
-            if (es.getId() == null) {
-              es.setId(selectIdFrom(CODE_EXTERNAL_STANDARD));
-            }
-          })
-          .collect(toSet()));
+      code.setExternalStandards(withIds(code.getExternalStandards(), Sequence.CODE_EXTERNAL_STANDARD));
     }
 
     if (code.getCodeCategories() != null) {
-
-      code.setCodeCategories(code
-          .getCodeCategories()
-          .stream()
-          .peek(cc -> {
-            if (cc.getId() == null) {
-              cc.setId(selectIdFrom(CODE_CATEGORY_SEQ));
-            }
-          })
-          .collect(toSet()));
+      code.setCodeCategories(withIds(code.getCodeCategories(), Sequence.CODE_CATEGORY));
     }
 
     Set<Link> links = code.getLinks();
@@ -584,15 +564,14 @@ public class CodeServiceImpl implements CodeService {
         .map(codeExternalStandardRepository::save)
         .collect(toSet()));
 
-    code.setLinks(links
-        .stream()
-        .peek(l -> l.setCode(code))
-        .map(l -> linkService.upsert(l, links, false))
-        .collect(toSet()));
+    code.setLinks(linkService.upsertAll(code, links, false));
 
     code.setTags(buildTags(tags));
 
-    return codeRepository.save(code);
+    Code saved = codeRepository.save(code);
+    codeSearchIndex.index(saved);
+    codeSnapshotStore.refresh(saved.getId());
+    return saved;
   }
 
   /**
@@ -600,7 +579,7 @@ public class CodeServiceImpl implements CodeService {
    */
   @Transactional(propagation = Propagation.REQUIRED)
   @Override
-  @CacheEvict(value = {"getAllCodes", "getAllCategories"}, allEntries = true)
+  @CacheEvict(value = "getAllCategories", allEntries = true)
   public Code update(Code code) throws Exception {
 
     if (code == null) {
@@ -639,40 +618,14 @@ public class CodeServiceImpl implements CodeService {
     // validate Links order for the Code
     linkService.checkLinksOrder(code.getLinks(), code);
 
-    code.setLinks(code
-        .getLinks()
-        .stream()
-        .peek(l -> {
-          if (l.getId() == null) {
-            l.setId(selectIdFrom(LINK_SEQ));
-          }
-        })
-        .collect(toSet()));
+    code.setLinks(withIds(code.getLinks(), Sequence.LINK));
 
     if (code.getExternalStandards() != null) {
-
-      code.setExternalStandards(code
-          .getExternalStandards()
-          .stream()
-          .peek(es -> {
-            if (es.getId() == null) {
-              es.setId(selectIdFrom(CODE_EXTERNAL_STANDARD));
-            }
-          })
-          .collect(toSet()));
+      code.setExternalStandards(withIds(code.getExternalStandards(), Sequence.CODE_EXTERNAL_STANDARD));
     }
 
     if (code.getCodeCategories() != null) {
-
-      code.setCodeCategories(code
-          .getCodeCategories()
-          .stream()
-          .peek(cc -> {
-            if (cc.getId() == null) {
-              cc.setId(selectIdFrom(CODE_CATEGORY_SEQ));
-            }
-          })
-          .collect(toSet()));
+      code.setCodeCategories(withIds(code.getCodeCategories(), Sequence.CODE_CATEGORY));
     }
 
     Set<Link> links = code.getLinks();
@@ -701,20 +654,19 @@ public class CodeServiceImpl implements CodeService {
         .map(codeExternalStandardRepository::save)
         .collect(toSet()));
 
-    code.setLinks(links
-        .stream()
-        .peek(l -> l.setCode(code))
-        .map(l -> linkService.upsert(l, links, false))
-        .collect(toSet()));
+    code.setLinks(linkService.upsertAll(code, links, false));
 
     code.setTags(buildTags(tags));
 
-    return codeRepository.save(code);
+    Code saved = codeRepository.save(code);
+    codeSearchIndex.index(saved);
+    codeSnapshotStore.refresh(saved.getId());
+    return saved;
   }
 
   @Transactional(propagation = Propagation.REQUIRED)
   @Override
-  @CacheEvict(value = {"getAllCodes", "getAllCategories"}, allEntries = true)
+  @CacheEvict(value = "getAllCategories", allEntries = true)
   public Code updateCodeSynonyms(Code code) throws Exception {
     Code existingCode = codeRepository.findById(code.getId())
         .orElseThrow(() -> new BadRequestException("The Code not exist within DiagnosisView."));
@@ -722,13 +674,16 @@ public class CodeServiceImpl implements CodeService {
     existingCode.setSynonyms(new HashSet<>());
     existingCode.setSynonyms(code.getSynonyms());
 
-    return codeRepository.save(existingCode);
+    Code saved = codeRepository.save(existingCode);
+    codeSearchIndex.index(saved);
+    codeSnapshotStore.refresh(saved.getId());
+    return saved;
   }
 
   @Transactional(propagation = Propagation.REQUIRED)
   @Override
-  @CacheEvict(value = {"getAllCodes", "getAllCategories"}, allEntries = true)
-  public Code updateCodeFromSync(Code code) {
+  @CacheEvict(value = "getAllCategories", allEntries = true)
+  public SyncOutcome updateCodeFromSync(Code code, SyncRunContext context) {
 
     long start = System.currentTimeMillis();
     log.info(" processing CODE id {} {} ", code.getId(), code.getCode());
@@ -736,14 +691,15 @@ public class CodeServiceImpl implements CodeService {
     Code existingCode = codeRepository.findById(code.getId())
         .orElse(null);
 
+    SyncOutcome outcome = existingCode == null ? SyncOutcome.CREATED : SyncOutcome.UPDATED;
     try {
 
       if (upsertNotRequired(code, existingCode)) {
         log.info(" Update not required CODE {}", code.getCode());
-        return code;
+        return SyncOutcome.UNCHANGED;
       }
 
-      saveAdditionalSyncObjects(code);
+      saveAdditionalSyncObjects(code, context);
 
 //            if (code.getSourceType() == null) {
 //                code.setSourceType(CodeSourceTypes.PATIENTVIEW);
@@ -788,22 +744,19 @@ public class CodeServiceImpl implements CodeService {
           .map(codeExternalStandardRepository::save)
           .collect(toSet()));
 
-      code.setLinks(links
-          .stream()
-          .filter(l -> !StringUtils.isEmpty(l.getLink()))
-          .peek(l -> l.setCode(code))
-          .map(l -> linkService.upsert(l, links, true))
-          .collect(toSet()));
+      code.setLinks(linkService.upsertAll(code, links, context));
 
       codeRepository.save(code);
+      codeSearchIndex.index(code);
+      codeSnapshotStore.refresh(code.getId());
 
     } catch (Exception e) {
       log.error("Update failed for code: {} ", code.getCode(), e);
-
+      outcome = SyncOutcome.FAILED;
     }
     long stop = System.currentTimeMillis();
     log.info("  DONE code update {} timing {}", code.getCode(), (stop - start));
-    return code;
+    return outcome;
   }
 
   private boolean upsertNotRequired(Code code, final Code currentCode) {
@@ -828,55 +781,39 @@ public class CodeServiceImpl implements CodeService {
             .before(code.getLastUpdate())));
   }
 
-  private void saveAdditionalSyncObjects(Code code) {
+  private void saveAdditionalSyncObjects(Code code, SyncRunContext context) {
 
-    lookupTypeRepository.save(code.getStandardType().getLookupType());
-    lookupRepository.save(code.getStandardType());
+    context.upsertOnce(code.getStandardType().getLookupType(), lookupTypeRepository);
+    context.upsertOnce(code.getStandardType(), lookupRepository);
 
-    lookupTypeRepository.save(code.getCodeType().getLookupType());
-    lookupRepository.save(code.getCodeType());
+    context.upsertOnce(code.getCodeType().getLookupType(), lookupTypeRepository);
+    context.upsertOnce(code.getCodeType(), lookupRepository);
 
     code.getCodeCategories()
-        .forEach(cc -> categoryRepository.save(cc.getCategory()));
+        .forEach(cc -> context.upsertOnce(cc.getCategory(), categoryRepository));
 
     code.getExternalStandards()
-        .forEach(es -> externalStandardRepository.save(es.getExternalStandard()));
+        .forEach(es -> context.upsertOnce(es.getExternalStandard(), externalStandardRepository));
   }
 
   /**
-   * Build links based on the given Institution.
-   * <p>
-   * Institution is used to transform url for subscribed users.
+   * Give entities without an id one from given sequence, ids are reserved together.
    *
-   * @param code
-   * @param institution
-   * @return
+   * @param entities a set of entities to save
+   * @param sequence a sequence to allocate ids from
+   * @return a new set of the entities, as their hash changes with the id
    */
-  private Set<LinkDto> buildLinkDtos(Code code, Institution institution) {
-
-    return code
-        .getLinks()
+  private <T extends BaseModel> Set<T> withIds(Set<T> entities, Sequence sequence) {
+    List<T> withoutIds = entities
         .stream()
-        .map(link -> {
-          String originalLink = link.getLink();
-          // check if we have link rules for transformation for
-          // given institution also if it's paywalled link
-          Map<String, String> linkMapping = buildLink(link.getMappingLinks(), institution);
-
-          return new LinkDto(
-              link.getId(),
-              link.getLinkType(),
-              link.getDifficultyLevel(),
-              linkMapping.get(LINK_KEY) != null ? linkMapping.get(LINK_KEY) : originalLink,
-              originalLink,
-              link.getDisplayOrder(),
-              shouldDisplayLink(linkMapping.get(LINK_KEY), link),
-              link.getName(), link.getFreeLink(),
-              link.getTransformationsOnly(),
-              linkMapping.get(PAYWALLED_KEY) != null ?
-                  LinkDto.PaywalledType.valueOf(linkMapping.get(PAYWALLED_KEY)) : null);
-        })
-        .collect(toSet());
+        .filter(e -> e.getId() == null)
+        .collect(toList());
+
+    long[] ids = idAllocator.next(sequence, withoutIds.size());
+    for (int i = 0; i < ids.length; i++) {
+      withoutIds.get(i).setId(ids[i]);
+    }
+    return new HashSet<>(entities);
   }
 
   private DifficultyLevel buildDifficultyLevel(Link link) {
@@ -896,54 +833,6 @@ public class CodeServiceImpl implements CodeService {
     return override;
   }
 
-  /**
-   * From given set of link mapping find the one that matches given Institution criteria
-   *
-   * @param linkRuleMapping
-   * @param institution
-   * @return a transformed link url
-   */
-  private Map<String, String> buildLink(Set<LinkRuleMapping> linkRuleMapping,
-      Institution institution) {
-
-    Map<String, String> data = new HashMap<>();
-
-    for (LinkRuleMapping r : linkRuleMapping) {
-      // if we have an institution against rule means its
-      // link is Paywalled eg transformable
-      if (r.getCriteriaType() != null && r.getCriteriaType() == CriteriaType.INSTITUTION) {
-
-        // default to locked and original url
-        data.put(PAYWALLED_KEY, LinkDto.PaywalledType.LOCKED.name());
-        data.put(LINK_KEY, r.getLink().getLink());
-
-        // now check for transformation based on Institution
-        if (institution != null && r.getCriteria().equals(institution.getCode())) {
-          // matches given institution set to unlocked
-          data.put(PAYWALLED_KEY, LinkDto.PaywalledType.UNLOCKED.name());
-          data.put(LINK_KEY, r.getReplacementLink());
-          break;
-        }
-      }
-    }
-    return data;
-  }
-
-  private Set<CategoryDto> buildCategories(Code code) {
-
-    return code
-        .getCodeCategories()
-        .stream()
-        .map(cc ->
-            new CategoryDto(
-                cc.getCategory().getId(),
-                cc.getCategory().getNumber(),
-                cc.getCategory().getIcd10Description(),
-                cc.getCategory().getFriendlyDescription(),
-                cc.getCategory().isHidden()))
-        .collect(toSet());
-  }
-
   /**
    * From given set of Tag values find Tag lookup and build set.
    *
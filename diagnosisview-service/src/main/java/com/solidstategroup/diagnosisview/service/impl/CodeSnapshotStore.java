@@ -0,0 +1,405 @@
+package com.solidstategroup.diagnosisview.service.impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.solidstategroup.diagnosisview.exceptions.ResourceNotFoundException;
+import com.solidstategroup.diagnosisview.model.CodeDto;
+import com.solidstategroup.diagnosisview.model.CompactCatalogueDto;
+import com.solidstategroup.diagnosisview.model.codes.Code;
+import com.solidstategroup.diagnosisview.model.codes.Institution;
+import com.solidstategroup.diagnosisview.repository.CodeRepository;
+import com.solidstategroup.diagnosisview.service.CatalogueFormat;
+import com.solidstategroup.diagnosisview.service.SerialisedCatalogue;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.solidstategroup.diagnosisview.utils.TransactionUtils.runAfterCommit;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+
+/**
+ * Keeps sorted CodeDto catalogues, one per Institution plus one for users without Institution.
+ * <p>
+ * Each snapshot is immutable, changes to Codes patch only affected entries into a
+ * copy which then replaces the current snapshot, so readers never wait on a rebuild.
+ * Snapshots for Institutions are built on first request, all of them are warmed up on start.
+ * The active catalogue of a snapshot is serialised the first time it is requested as a
+ * whole in each {@link CatalogueFormat} and kept with the snapshot, so it is serialised
+ * once per version and format.
+ * Every refresh is also recorded in the {@link CodeChangeLog} for clients fetching changes.
+ */
+@Slf4j
+@Service
+public class CodeSnapshotStore {
+
+    private static final String NO_INSTITUTION = "";
+
+    private final CodeRepository codeRepository;
+    private final InstitutionService institutionService;
+    private final CodeChangeLog codeChangeLog;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectWriter catalogueWriter;
+    private final ObjectWriter compactCatalogueWriter;
+    private final ObjectWriter cborCatalogueWriter;
+
+    // only read without lock, every change is done holding this object monitor
+    private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+
+    public CodeSnapshotStore(final CodeRepository codeRepository,
+                             final InstitutionService institutionService,
+                             final CodeChangeLog codeChangeLog,
+                             final PlatformTransactionManager transactionManager,
+                             final ObjectMapper objectMapper,
+                             final MappingJackson2CborHttpMessageConverter cborConverter) {
+        this.codeRepository = codeRepository;
+        this.institutionService = institutionService;
+        this.codeChangeLog = codeChangeLog;
+        // same mapper and type MVC writes List<CodeDto> with
+        this.catalogueWriter = objectMapper.writerFor(new TypeReference<List<CodeDto>>() {
+        });
+        this.compactCatalogueWriter = objectMapper.writerFor(CompactCatalogueDto.class);
+        this.cborCatalogueWriter = cborConverter.getObjectMapper().writerFor(new TypeReference<List<CodeDto>>() {
+        });
+
+        // changes are applied after commit, new transaction makes sure we read committed data
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    /**
+     * Build snapshots for all Institutions so first requests don't pay for it.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        List<Institution> institutions = new ArrayList<>();
+        institutions.add(null);
+        institutions.addAll(institutionService.getAll());
+        rebuild(institutions);
+    }
+
+    /**
+     * Get all Codes for given Institution, including hidden and removed ones.
+     *
+     * @param institutionCode an Institution code, can be null
+     * @return unmodifiable sorted list of CodeDto
+     * @throws ResourceNotFoundException when Institution does not exist
+     */
+    public List<CodeDto> getAll(String institutionCode) throws ResourceNotFoundException {
+        return snapshot(institutionCode).all;
+    }
+
+    /**
+     * Get all active Codes for given Institution.
+     *
+     * @param institutionCode an Institution code, can be null
+     * @return unmodifiable sorted list of CodeDto
+     * @throws ResourceNotFoundException when Institution does not exist
+     */
+    public List<CodeDto> getAllActive(String institutionCode) throws ResourceNotFoundException {
+        return snapshot(institutionCode).active;
+    }
+
+    /**
+     * Get all active Codes for given Institution serialised in given format.
+     *
+     * @param institutionCode an Institution code, can be null
+     * @param format          form to serialise the Codes in
+     * @return serialised catalogue, the same instance until active Codes change
+     * @throws ResourceNotFoundException when Institution does not exist
+     */
+    public SerialisedCatalogue getActiveSerialised(String institutionCode, CatalogueFormat format)
+            throws ResourceNotFoundException {
+        Snapshot snapshot = snapshot(institutionCode);
+        // serialised once, requests for the same format wait for it
+        return snapshot.activeSerialised.computeIfAbsent(format, f -> serialise(snapshot.active, f));
+    }
+
+    /**
+     * Reload given Codes into every snapshot once current transaction commits,
+     * Codes no longer in the database are removed. Deleted Codes have to be
+     * recorded in the change log by the caller.
+     *
+     * @param codeIds ids of changed Codes
+     */
+    public void refresh(Collection<Long> codeIds) {
+        if (CollectionUtils.isEmpty(codeIds)) {
+            return;
+        }
+        final Set<Long> ids = new HashSet<>(codeIds);
+        codeChangeLog.recordChanged(ids);
+        runAfterCommit(() -> patch(ids));
+    }
+
+    /**
+     * Reload given Code into every snapshot once current transaction commits.
+     *
+     * @param codeId id of changed Code
+     */
+    public void refresh(Long codeId) {
+        if (codeId != null) {
+            refresh(Collections.singleton(codeId));
+        }
+    }
+
+    /**
+     * Rebuild all existing snapshots once current transaction commits, for changes
+     * affecting many Codes such as link rules or sync jobs. Current snapshots are
+     * served until replaced.
+     */
+    public void refreshAll() {
+        codeChangeLog.recordReset();
+        runAfterCommit(() -> {
+            List<Institution> institutions = snapshots.values()
+                    .stream()
+                    .map(s -> s.institution)
+                    .collect(toList());
+            rebuild(institutions);
+        });
+    }
+
+    private Snapshot snapshot(String institutionCode) throws ResourceNotFoundException {
+        String key = key(institutionCode);
+        Snapshot snapshot = snapshots.get(key);
+        if (snapshot != null) {
+            return snapshot;
+        }
+
+        Institution institution = StringUtils.isEmpty(institutionCode) ? null
+                : institutionService.getInstitution(institutionCode);
+
+        synchronized (this) {
+            snapshot = snapshots.get(key);
+            if (snapshot == null) {
+                snapshot = transactionTemplate.execute(status ->
+                        Snapshot.build(institution, codeRepository.findAll()));
+                snapshots.put(key, snapshot);
+            }
+        }
+        return snapshot;
+    }
+
+    private synchronized void rebuild(Collection<Institution> institutions) {
+        long start = System.currentTimeMillis();
+
+        transactionTemplate.execute(status -> {
+            List<Code> codes = codeRepository.findAll();
+            institutions.forEach(i -> snapshots.put(key(i), Snapshot.build(i, codes)));
+            return null;
+        });
+
+        long stop = System.currentTimeMillis();
+        log.info("Code snapshots rebuilt for {} institutions, timing {}", institutions.size(), (stop - start));
+    }
+
+    private synchronized void patch(Set<Long> ids) {
+        if (snapshots.isEmpty()) {
+            return;
+        }
+
+        transactionTemplate.execute(status -> {
+            List<Code> codes = codeRepository.findAllById(ids);
+            snapshots.replaceAll((key, snapshot) -> snapshot.patch(ids, codes));
+            return null;
+        });
+    }
+
+    private SerialisedCatalogue serialise(List<CodeDto> codes, CatalogueFormat format) {
+        long start = System.currentTimeMillis();
+        SerialisedCatalogue serialised;
+        try {
+            switch (format) {
+                case COMPACT:
+                    serialised = SerialisedCatalogue.of(
+                            compactCatalogueWriter.writeValueAsBytes(CodeDtoMapper.toCompactCatalogue(codes)));
+                    break;
+                case CBOR:
+                    serialised = SerialisedCatalogue.of(cborCatalogueWriter.writeValueAsBytes(codes));
+                    break;
+                default:
+                    serialised = SerialisedCatalogue.of(catalogueWriter.writeValueAsBytes(codes));
+            }
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialise Code catalogue", e);
+        }
+
+        long stop = System.currentTimeMillis();
+        log.info("Serialised {} catalogue of {} codes, {} bytes, {} gzip bytes, timing {}", format, codes.size(),
+                serialised.getBody().length, serialised.getEncoded(SerialisedCatalogue.GZIP).length, (stop - start));
+        return serialised;
+    }
+
+    private static String key(String institutionCode) {
+        return StringUtils.isEmpty(institutionCode) ? NO_INSTITUTION : institutionCode;
+    }
+
+    private static String key(Institution institution) {
+        return institution == null ? NO_INSTITUTION : key(institution.getCode());
+    }
+
+    /**
+     * Immutable catalogue for one Institution, entries by Code id and sorted lists returned to callers.
+     * <p>
+     * Entries by id are only used to patch, under the store monitor, so they are updated in place
+     * and handed on to the patched snapshot. Sorted lists are never changed once published.
+     */
+    private static final class Snapshot {
+        private final Institution institution;
+        private final Map<Long, CodeDto> allById;
+        private final Map<Long, CodeDto> activeById;
+        private final List<CodeDto> all;
+        private final List<CodeDto> active;
+        // built on first request for each format
+        private final Map<CatalogueFormat, SerialisedCatalogue> activeSerialised = new ConcurrentHashMap<>();
+
+        private Snapshot(Institution institution, Map<Long, CodeDto> allById, Map<Long, CodeDto> activeById,
+                         List<CodeDto> all, List<CodeDto> active) {
+            this.institution = institution;
+            this.allById = allById;
+            this.activeById = activeById;
+            this.all = Collections.unmodifiableList(all);
+            this.active = Collections.unmodifiableList(active);
+        }
+
+        static Snapshot build(Institution institution, List<Code> codes) {
+            Map<Long, CodeDto> allById = codes
+                    .parallelStream()
+                    .collect(toMap(Code::getId, c -> CodeDtoMapper.toDto(c, institution)));
+            Map<Long, CodeDto> activeById = codes
+                    .parallelStream()
+                    .filter(c -> !CodeDtoMapper.shouldBeDeleted(c))
+                    .collect(toMap(Code::getId, c -> CodeDtoMapper.toUserDto(c, institution)));
+            return new Snapshot(institution, allById, activeById,
+                    sorted(allById.values()), sorted(activeById.values()));
+        }
+
+        /**
+         * Snapshot with given Codes replaced, ids without a Code are removed. Only the
+         * affected entries are looked up, the rest of the lists is copied as it is.
+         */
+        Snapshot patch(Set<Long> ids, List<Code> codes) {
+            // mapped before entries are touched, so a failure leaves them as they were
+            Map<Long, CodeDto> addedAll = new LinkedHashMap<>();
+            Map<Long, CodeDto> addedActive = new LinkedHashMap<>();
+            for (Code code : codes) {
+                addedAll.put(code.getId(), CodeDtoMapper.toDto(code, institution));
+                if (!CodeDtoMapper.shouldBeDeleted(code)) {
+                    addedActive.put(code.getId(), CodeDtoMapper.toUserDto(code, institution));
+                }
+            }
+
+            List<CodeDto> removedAll = replace(allById, ids, addedAll);
+            List<CodeDto> removedActive = replace(activeById, ids, addedActive);
+            return new Snapshot(institution, allById, activeById,
+                    patched(all, removedAll, new ArrayList<>(addedAll.values())),
+                    patched(active, removedActive, new ArrayList<>(addedActive.values())));
+        }
+
+        /**
+         * Remove entries of given ids then put added ones.
+         *
+         * @return entries removed
+         */
+        private static List<CodeDto> replace(Map<Long, CodeDto> byId, Set<Long> ids, Map<Long, CodeDto> added) {
+            List<CodeDto> removed = new ArrayList<>();
+            for (Long id : ids) {
+                CodeDto previous = byId.remove(id);
+                if (previous != null) {
+                    removed.add(previous);
+                }
+            }
+            byId.putAll(added);
+            return removed;
+        }
+
+        private static List<CodeDto> sorted(Collection<CodeDto> codes) {
+            List<CodeDto> list = new ArrayList<>(codes);
+            list.sort(CodeDtoMapper.FRIENDLY_NAME_ORDER);
+            return list;
+        }
+
+        /**
+         * Copy of a sorted list without removed entries and with added ones, positions of
+         * both are found by binary search and the ranges between them copied in bulk.
+         */
+        private static List<CodeDto> patched(List<CodeDto> current, List<CodeDto> removed, List<CodeDto> added) {
+            int[] removedAt = removed.stream()
+                    .mapToInt(dto -> indexOf(current, dto))
+                    .filter(i -> i >= 0)
+                    .sorted()
+                    .toArray();
+            added.sort(CodeDtoMapper.FRIENDLY_NAME_ORDER);
+
+            List<CodeDto> result = new ArrayList<>(current.size() - removedAt.length + added.size());
+            int from = 0;
+            int nextRemoved = 0;
+            for (CodeDto dto : added) {
+                int at = Collections.binarySearch(current, dto, CodeDtoMapper.FRIENDLY_NAME_ORDER);
+                at = at < 0 ? -at - 1 : at;
+                nextRemoved = copy(current, from, at, removedAt, nextRemoved, result);
+                result.add(dto);
+                from = at;
+            }
+            copy(current, from, current.size(), removedAt, nextRemoved, result);
+            return result;
+        }
+
+        /**
+         * Copy entries from, inclusive, to, exclusive, skipping removed positions.
+         *
+         * @return index of the first removed position not reached
+         */
+        private static int copy(List<CodeDto> source, int from, int to, int[] removedAt, int nextRemoved,
+                                List<CodeDto> target) {
+            while (nextRemoved < removedAt.length && removedAt[nextRemoved] < to) {
+                target.addAll(source.subList(from, removedAt[nextRemoved]));
+                from = removedAt[nextRemoved] + 1;
+                nextRemoved++;
+            }
+            target.addAll(source.subList(from, to));
+            return nextRemoved;
+        }
+
+        /**
+         * Position of the given entry itself, among entries sorting the same.
+         */
+        private static int indexOf(List<CodeDto> sorted, CodeDto dto) {
+            int found = Collections.binarySearch(sorted, dto, CodeDtoMapper.FRIENDLY_NAME_ORDER);
+            if (found < 0) {
+                return -1;
+            }
+            for (int i = found; i >= 0 && CodeDtoMapper.FRIENDLY_NAME_ORDER.compare(sorted.get(i), dto) == 0; i--) {
+                if (sorted.get(i) == dto) {
+                    return i;
+                }
+            }
+            for (int i = found + 1; i < sorted.size()
+                    && CodeDtoMapper.FRIENDLY_NAME_ORDER.compare(sorted.get(i), dto) == 0; i++) {
+                if (sorted.get(i) == dto) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.solidstategroup.diagnosisview.service.impl;
+
+import com.solidstategroup.diagnosisview.model.codes.Category;
+import com.solidstategroup.diagnosisview.model.codes.Code;
+import com.solidstategroup.diagnosisview.model.codes.ExternalStandard;
+import com.solidstategroup.diagnosisview.model.codes.Link;
+import com.solidstategroup.diagnosisview.model.codes.Lookup;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers a hash of every Code as it was last received from PatientView, so a sync
+ * run can drop unchanged Codes before loading them or opening a transaction.
+ * <p>
+ * A fingerprint only counts while the stored Code keeps the last update it had after
+ * sync, any change made in DV since then makes the Code go through full sync again.
+ */
+@Slf4j
+@Component
+public class CodeSyncFingerprintStore {
+
+    private static final String LOAD_SQL = "SELECT f.code_id, f.hash, f.source_last_update "
+            + "FROM dv_code_sync_fingerprint f "
+            + "JOIN pv_code c ON c.id = f.code_id "
+            + "WHERE c.last_update_date IS NOT DISTINCT FROM f.code_last_update";
+
+    private static final String SAVE_SQL = "INSERT INTO dv_code_sync_fingerprint "
+            + "(code_id, hash, source_last_update, code_last_update) "
+            + "SELECT c.id, ?, ?, c.last_update_date FROM pv_code c WHERE c.id = ? "
+            + "ON CONFLICT (code_id) DO UPDATE SET hash = EXCLUDED.hash, "
+            + "source_last_update = EXCLUDED.source_last_update, code_last_update = EXCLUDED.code_last_update";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public CodeSyncFingerprintStore(final JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Load all valid fingerprints with a single query.
+     *
+     * @return fingerprints by Code id
+     */
+    public Map<Long, Fingerprint> loadAll() {
+        long start = System.currentTimeMillis();
+
+        Map<Long, Fingerprint> fingerprints = new HashMap<>();
+        jdbcTemplate.query(LOAD_SQL, rs -> {
+            Timestamp sourceLastUpdate = rs.getTimestamp(3);
+            fingerprints.put(rs.getLong(1), new Fingerprint(rs.getString(2),
+                    sourceLastUpdate == null ? null : new Date(sourceLastUpdate.getTime())));
+        });
+
+        long stop = System.currentTimeMillis();
+        log.info("Loaded {} code sync fingerprints, timing {}", fingerprints.size(), (stop - start));
+        return fingerprints;
+    }
+
+    /**
+     * Store fingerprints of Codes synced in this run, should be called once the Codes are committed.
+     *
+     * @param fingerprints fingerprints by Code id
+     */
+    public void saveAll(Map<Long, Fingerprint> fingerprints) {
+        if (fingerprints.isEmpty()) {
+            return;
+        }
+
+        List<Object[]> args = new ArrayList<>(fingerprints.size());
+        fingerprints.forEach((id, fingerprint) -> args.add(new Object[]{
+                fingerprint.getHash(),
+                fingerprint.getSourceLastUpdate() == null ? null
+                        : new Timestamp(fingerprint.getSourceLastUpdate().getTime()),
+                id}));
+        jdbcTemplate.batchUpdate(SAVE_SQL, args);
+    }
+
+    /**
+     * Build fingerprint of a Code received from sync, covering every field sync writes.
+     *
+     * @param code a Code as received
+     * @return a Fingerprint
+     */
+    public static Fingerprint fingerprint(Code code) {
+        StringBuilder content = new StringBuilder();
+        append(content, code.getId(), code.getCode(), code.getPatientFriendlyName(), code.getDescription(),
+                code.getFullDescription(), code.getDisplayOrder(), code.isHideFromPatients(),
+                code.isRemovedExternally(), code.getSourceType());
+        appendLookup(content, code.getCodeType());
+        appendLookup(content, code.getStandardType());
+
+        List<String> links = new ArrayList<>();
+        for (Link link : code.getLinks()) {
+            StringBuilder l = new StringBuilder();
+            append(l, link.getId(), link.getLink(), link.getName(), link.getDifficultyLevel(),
+                    link.getDisplayOrder(), link.getExternalId());
+            appendLookup(l, link.getLinkType());
+            links.add(l.toString());
+        }
+        appendSorted(content, links);
+
+        List<String> categories = new ArrayList<>();
+        code.getCodeCategories().forEach(cc -> {
+            Category category = cc.getCategory();
+            StringBuilder c = new StringBuilder();
+            append(c, cc.getId());
+            if (category != null) {
+                append(c, category.getId(), category.getNumber(), category.getIcd10Description(),
+                        category.getFriendlyDescription(), category.isHidden());
+            }
+            categories.add(c.toString());
+        });
+        appendSorted(content, categories);
+
+        List<String> standards = new ArrayList<>();
+        code.getExternalStandards().forEach(es -> {
+            ExternalStandard standard = es.getExternalStandard();
+            StringBuilder s = new StringBuilder();
+            append(s, es.getId(), es.getCodeString());
+            if (standard != null) {
+                append(s, standard.getId(), standard.getName(), standard.getDescription());
+            }
+            standards.add(s.toString());
+        });
+        appendSorted(content, standards);
+
+        String hash = DigestUtils.md5DigestAsHex(content.toString().getBytes(StandardCharsets.UTF_8));
+        return new Fingerprint(hash, code.getLastUpdate());
+    }
+
+    private static void appendLookup(StringBuilder content, Lookup lookup) {
+        if (lookup == null) {
+            append(content, (Object) null);
+            return;
+        }
+        append(content, lookup.getId(), lookup.getValue(), lookup.getDescription(),
+                lookup.getLookupType() == null ? null : lookup.getLookupType().getId());
+    }
+
+    private static void appendSorted(StringBuilder content, List<String> values) {
+        Collections.sort(values);
+        content.append(values.size()).append('[');
+        values.forEach(v -> content.append(v).append('\u001e'));
+        content.append(']');
+    }
+
+    private static void append(StringBuilder content, Object... values) {
+        for (Object value : values) {
+            content.append(value == null ? "\u0000" : value.toString()).append('\u001f');
+        }
+    }
+
+    /**
+     * Content hash of a Code together with the last update PatientView reported for it.
+     */
+    public static final class Fingerprint {
+        private final String hash;
+        private final Date sourceLastUpdate;
+
+        public Fingerprint(String hash, Date sourceLastUpdate) {
+            this.hash = hash;
+            this.sourceLastUpdate = sourceLastUpdate;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public Date getSourceLastUpdate() {
+            return sourceLastUpdate;
+        }
+
+        /**
+         * Whether a Code with this fingerprint can be skipped given the stored one,
+         * same content and not updated in PatientView since.
+         */
+        public boolean isUnchangedSince(Fingerprint stored) {
+            if (stored == null || !hash.equals(stored.hash)) {
+                return false;
+            }
+            return sourceLastUpdate == null || stored.sourceLastUpdate != null
+                    && !sourceLastUpdate.after(stored.sourceLastUpdate);
+        }
+    }
+}
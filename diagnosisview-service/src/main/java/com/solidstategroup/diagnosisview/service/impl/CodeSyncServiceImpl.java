@@ -1,54 +1,69 @@
 package com.solidstategroup.diagnosisview.service.impl;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.LongSerializationPolicy;
-import com.solidstategroup.diagnosisview.model.RestPage;
+import com.solidstategroup.diagnosisview.clients.OutboundHttpClient;
+import com.solidstategroup.diagnosisview.exceptions.CircuitOpenException;
+import com.solidstategroup.diagnosisview.model.CodeSyncReport;
 import com.solidstategroup.diagnosisview.model.codes.Code;
 import com.solidstategroup.diagnosisview.model.codes.Link;
+import com.solidstategroup.diagnosisview.model.codes.enums.SyncOutcome;
 import com.solidstategroup.diagnosisview.service.CodeService;
 import com.solidstategroup.diagnosisview.service.CodeSyncService;
 import com.solidstategroup.diagnosisview.service.DatetimeParser;
+import com.solidstategroup.diagnosisview.service.SyncRunContext;
+import com.solidstategroup.diagnosisview.service.impl.CodeSyncFingerprintStore.Fingerprint;
+import com.solidstategroup.diagnosisview.utils.CircuitBreaker;
 import com.tyler.gson.immutable.ImmutableListDeserializer;
 import com.tyler.gson.immutable.ImmutableMapDeserializer;
 import com.tyler.gson.immutable.ImmutableSortedMapDeserializer;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.http.Header;
-import org.apache.http.HttpEntity;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.util.EntityUtils;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.CacheEvict;
-import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.StringUtils;
+import org.springframework.web.client.ResponseErrorHandler;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.lang.String.format;
 import static org.springframework.util.MimeTypeUtils.APPLICATION_JSON_VALUE;
@@ -60,7 +75,8 @@ import static org.springframework.util.MimeTypeUtils.APPLICATION_JSON_VALUE;
 @Service
 public class CodeSyncServiceImpl implements CodeSyncService {
 
-    private static final int PAGE_SIZE = 30;
+    // marks end of stream for workers, one per worker
+    private static final Code END_OF_CODES = new Code();
     private static final String PATIENTVIEW_AUTH_ENDPOINT_TEMPLATE = "%sauth/login";
     private static final String PATIENTVIEW_CODE_ENDPOINT_TEMPLATE =
             "%scode?filterText=&sortDirection=ASC&sortField=code&standardTypes=134";//&page=47&size=20
@@ -77,6 +93,7 @@ public class CodeSyncServiceImpl implements CodeSyncService {
             .create();
 
     private final CodeService codeService;
+    private final CodeSyncFingerprintStore fingerprintStore;
     private final String patientviewUser;
     private final String patientviewPassword;
     private final String patientviewApiKey;
@@ -84,16 +101,38 @@ public class CodeSyncServiceImpl implements CodeSyncService {
     private final String PATIENTVIEW_CODES_ENDPOINT;
     private final String PATIENTVIEW_CODE_DETAILS_ENDPOINT;
     private final Executor taskExecutor;
+    private final OutboundHttpClient outboundHttpClient;
+    private final RestTemplate restTemplate;
+    private final CircuitBreaker circuitBreaker;
+    private final ObjectMapper objectMapper;
+    private final int pageSize;
+    private final int queueCapacity;
+    private final int workerCount;
 
     public CodeSyncServiceImpl(final CodeService codeService,
+                               final CodeSyncFingerprintStore fingerprintStore,
+                               final OutboundHttpClient outboundHttpClient,
+                               final CircuitBreakerRegistry circuitBreakerRegistry,
                                @Qualifier("asyncExecutor") final Executor taskExecutor,
+                               @Value("${patientview.sync.page-size:500}") int pageSize,
+                               @Value("${patientview.sync.queue-capacity:200}") int queueCapacity,
+                               @Value("${patientview.sync.workers:4}") int workerCount,
                                @Value("${PATIENTVIEW_USER:NONE}") String patientviewUser,
                                @Value("${PATIENTVIEW_PASSWORD:NONE}") String patientviewPassword,
                                @Value("${PATIENTVIEW_APIKEY:NONE}") String patientviewApiKey,
                                @Value("${PATIENTVIEW_URL:https://test.patientview.org/api/}") String patientviewUrl) {
 
         this.codeService = codeService;
+        this.fingerprintStore = fingerprintStore;
         this.taskExecutor = taskExecutor;
+        this.pageSize = pageSize;
+        this.queueCapacity = queueCapacity;
+        this.workerCount = workerCount;
+        this.outboundHttpClient = outboundHttpClient;
+        this.restTemplate = outboundHttpClient.getRestTemplate();
+        this.circuitBreaker = circuitBreakerRegistry.get(CircuitBreakerRegistry.PATIENTVIEW);
+        // same settings RestTemplate decodes Codes with
+        this.objectMapper = Jackson2ObjectMapperBuilder.json().build();
         this.patientviewUser = patientviewUser;
         this.patientviewPassword = patientviewPassword;
         this.patientviewApiKey = patientviewApiKey;
@@ -103,13 +142,12 @@ public class CodeSyncServiceImpl implements CodeSyncService {
         PATIENTVIEW_CODE_DETAILS_ENDPOINT = format("%scode/", patientviewUrl);
     }
 
-    @CacheEvict(value = {"getAllCodes", "getAllCategories"}, allEntries = true)
+    @CacheEvict(value = "getAllCategories", allEntries = true)
     @Transactional
     public void syncCode(String code) {
 
         long start = System.currentTimeMillis();
         try {
-            RestTemplate restTemplate = new RestTemplate();
             HttpHeaders headers = new HttpHeaders();
             headers.setAccept(Arrays.asList(MediaType.APPLICATION_JSON));
             headers.set(AUTH_HEADER, getLoginToken());
@@ -117,10 +155,10 @@ public class CodeSyncServiceImpl implements CodeSyncService {
 
             Code foundCode = codeService.get(code);
 
-            ResponseEntity<Code> response = restTemplate
-                    .exchange(PATIENTVIEW_CODE_DETAILS_ENDPOINT + foundCode.getId(), HttpMethod.GET, entity, Code.class);
+            ResponseEntity<Code> response = circuitBreaker.call(() -> restTemplate
+                    .exchange(PATIENTVIEW_CODE_DETAILS_ENDPOINT + foundCode.getId(), HttpMethod.GET, entity, Code.class));
             if (response.getStatusCode() == HttpStatus.OK) {
-                codeService.updateCodeFromSync(response.getBody());
+                codeService.updateCodeFromSync(response.getBody(), new SyncRunContext());
             }
         } catch (Exception e) {
             log.error("Failed to sync PV codes", e);
@@ -131,149 +169,299 @@ public class CodeSyncServiceImpl implements CodeSyncService {
     }
 
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Pages are streamed from PatientView, each Code is decoded as soon as it is read and
+     * queued for the workers persisting them. The queue is bounded so reading a page
+     * waits while workers catch up, and the next page is requested as soon as the
+     * current one is read, while its Codes are still being saved.
+     * <p>
+     * Calls to PatientView go through its circuit breaker, while it is open the sync
+     * stops and Codes already stored are left as they are.
+     */
     @Override
     // @Scheduled(cron = "${cron.job.sync.code}")
-    public void syncCodes() {
-        try {
-
-            log.info("Starting Code Sync from PatientView");
-            long start = System.currentTimeMillis();
+    public CodeSyncReport syncCodes() {
+        log.info("Starting Code Sync from PatientView");
+        long start = System.currentTimeMillis();
 
-            RestTemplate restTemplate = new RestTemplate();
+        // fingerprints are loaded up front so unchanged Codes never reach the database
+        SyncRun run = new SyncRun(fingerprintStore.loadAll());
+        int currentPage = 0;
 
+        try {
             HttpHeaders headers = new HttpHeaders();
             headers.setAccept(Arrays.asList(MediaType.APPLICATION_JSON));
             headers.set(AUTH_HEADER, getLoginToken());
             org.springframework.http.HttpEntity<String> entity = new org.springframework.http.HttpEntity<>(headers);
 
-            int currentPage = 0;
-            ResponseEntity<RestPage<Code>> response = null;
+            BlockingQueue<Code> queue = new ArrayBlockingQueue<>(queueCapacity);
 
-            do {
+            List<CompletableFuture<Void>> workers = new ArrayList<>();
+            for (int i = 0; i < workerCount; i++) {
+                workers.add(CompletableFuture.runAsync(() -> processCodes(queue, entity, run), taskExecutor));
+            }
 
-                // call codes end point with small size per page, otherwise will run out of memory
-                String codesUrl = UriComponentsBuilder.fromHttpUrl(PATIENTVIEW_CODES_ENDPOINT)
-                        .queryParam("size", PAGE_SIZE)
-                        .queryParam("page", currentPage)
-                        .build()
-                        .toUriString();
+            try {
+                boolean last;
+                do {
+                    last = streamPage(currentPage, headers, queue);
+                    currentPage++;
+                } while (!last);
+            } finally {
+                stopWorkers(queue, workers);
+                fingerprintStore.saveAll(run.synced);
+            }
+        } catch (InterruptedException ie) {
+            log.error("Code Sync from PatientView interrupted");
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Failed to sync PV codes", e);
+        }
 
-                ParameterizedTypeReference<RestPage<Code>> responseType =
-                        new ParameterizedTypeReference<RestPage<Code>>() {
-                        };
+        long stop = System.currentTimeMillis();
+        CodeSyncReport report = CodeSyncReport.builder()
+                .pages(currentPage)
+                .skipped(run.skipped.get())
+                .created(run.created.get())
+                .updated(run.updated.get())
+                .unchanged(run.unchanged.get())
+                .failed(run.failed.get())
+                .referenceWrites(run.context.getWrites())
+                .referenceWritesAvoided(run.context.getAvoidedWrites())
+                .timing(stop - start)
+                .build();
+        log.info("Finished Code Sync from PatientView {}, timing {}", report, (stop - start));
+        return report;
+    }
 
-                response = restTemplate.exchange(codesUrl, HttpMethod.GET, entity, responseType);
+    /**
+     * Let every worker finish what is queued then wait for them to stop. When the sync
+     * was interrupted Codes still queued are dropped, the interrupt is held back until
+     * workers have stopped as they would otherwise never take END_OF_CODES.
+     *
+     * @param queue   a queue workers take Codes from
+     * @param workers the running workers
+     */
+    private void stopWorkers(BlockingQueue<Code> queue, List<CompletableFuture<Void>> workers) {
+        boolean interrupted = Thread.interrupted();
+        if (interrupted) {
+            queue.clear();
+        }
 
-                if (response.getStatusCode() == HttpStatus.OK) {
-                    List<Code> codes = response.getBody().getContent();
-                    batchProcess(codes, currentPage, entity);
-                    currentPage++;
-                } else {
-                    log.error("Could not connect to PV, code {}", response.getStatusCode());
-                    break;
+        try {
+            for (int i = 0; i < workers.size(); i++) {
+                while (true) {
+                    try {
+                        queue.put(END_OF_CODES);
+                        break;
+                    } catch (InterruptedException ie) {
+                        interrupted = true;
+                    }
                 }
-            } while (response != null && response.getBody().hasNext());
-
-            long stop = System.currentTimeMillis();
-            log.info("Finished Code Sync from PatientView, timing {}", (stop - start));
-
-        } catch (Exception e) {
-            log.error("Failed to sync PV codes", e);
+            }
+            CompletableFuture.allOf(workers.toArray(new CompletableFuture[workers.size()])).join();
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
         }
     }
 
     /**
-     * Update a list of Codes.
-     * We are using CompletableFuture to process each code async.
+     * Fetch one page of Codes and queue each Code as it is decoded, so only
+     * the Codes waiting in the queue are held in memory.
      *
-     * @param codesToProcess a list of codes to process
-     * @param page           a page number that getting processes
-     * @param entity         a HttpEntity containing required headers to be used to re fetch code details if needed
+     * @param page    a page number to fetch
+     * @param headers a HttpHeaders with auth token
+     * @param queue   a queue to put decoded Codes on, blocks when full
+     * @return true if this was the last page
+     * @throws Exception when the page could not be read or PatientView circuit breaker is open
      */
-    @CacheEvict(value = {"getAllCodes", "getAllCategories"}, allEntries = true)
-    public void batchProcess(List<Code> codesToProcess, int page, org.springframework.http.HttpEntity<String> entity) {
-        log.info("Starting code batchProcess {}, page {}", codesToProcess.size(), page);
+    private boolean streamPage(int page, HttpHeaders headers, BlockingQueue<Code> queue) throws Exception {
         long start = System.currentTimeMillis();
 
-        codes(codesToProcess)
-                .thenCompose(codes -> {
-                    List<CompletionStage<Code>> updatedCodes = codes.stream()
-                            .map(code -> checkLinksAndUpdate(code, entity)
-                                    .thenApply(r -> {
-                                        log.debug("-> completed code {}", code.getCode());
-                                        // check for missing link then do a call again
-                                        return code;
-                                    })
-                            ).collect(Collectors.toList());
-                    CompletableFuture<Void> done = CompletableFuture
-                            .allOf(updatedCodes.toArray(new CompletableFuture[updatedCodes.size()]));
-                    return done.thenApply(v -> updatedCodes.stream()
-                            .map(CompletionStage::toCompletableFuture)
-                            .map(CompletableFuture::join)
-                            .collect(Collectors.toList()));
-                })
-                .toCompletableFuture().join();
+        URI codesUri = UriComponentsBuilder.fromHttpUrl(PATIENTVIEW_CODES_ENDPOINT)
+                .queryParam("size", pageSize)
+                .queryParam("page", page)
+                .build()
+                .toUri();
+
+        // breaker times PatientView answering, the page is read outside it as reading
+        // waits on the queue whenever workers fall behind
+        ClientHttpResponse response = circuitBreaker.call(() -> openPage(codesUri, headers));
+
+        boolean last;
+        try {
+            if (response.getStatusCode() != HttpStatus.OK) {
+                log.error("Could not connect to PV, code {}", response.getStatusCode());
+                last = true;
+            } else {
+                last = readPage(response.getBody(), queue);
+            }
+        } finally {
+            response.close();
+        }
 
         long stop = System.currentTimeMillis();
-        log.info("Finished code batchProcess, page {} timing {}", page, (stop - start));
+        log.info("Read codes page {}, timing {}", page, (stop - start));
+        return last;
     }
 
     /**
-     * Update code details.
-     * We have ddd issue where some links are getting stripped ﻿https://www.nhs.uk when returned
-     * with a Code. Re fetch Code details to fix it.
+     * Request a page of Codes, error responses are handled as RestTemplate would.
      *
-     * @param code a Code to update
-     * @return a CompletionStage<Code>
+     * @return the response with its body not read yet, to be closed by the caller
      */
-    @Transactional
-    protected CompletionStage<Code> checkLinksAndUpdate(Code code, org.springframework.http.HttpEntity<String> entity) {
+    private ClientHttpResponse openPage(URI codesUri, HttpHeaders headers) throws IOException {
+        ClientHttpRequest request = restTemplate.getRequestFactory().createRequest(codesUri, HttpMethod.GET);
+        request.getHeaders().putAll(headers);
+
+        ClientHttpResponse response = request.execute();
+        ResponseErrorHandler errorHandler = restTemplate.getErrorHandler();
+        if (errorHandler.hasError(response)) {
+            try {
+                errorHandler.handleError(codesUri, HttpMethod.GET, response);
+            } finally {
+                response.close();
+            }
+        }
+        return response;
+    }
 
-        return CompletableFuture.supplyAsync(() -> {
+    /**
+     * Decode a RestPage of Codes from given stream, queueing Codes from content
+     * one at a time and skipping everything else apart from last flag.
+     */
+    private boolean readPage(InputStream body, BlockingQueue<Code> queue) throws IOException {
+        Boolean last = null;
+        int count = 0;
 
-            RestTemplate restTemplate = new RestTemplate();
-            boolean needRefetch = false;
-            // need to check if all the links formatted correctly
-            for (Link l : code.getLinks()) {
-                if (!StringUtils.isEmpty(l.getLink()) && !l.getLink().startsWith("http")) {
-                    log.info("Code {} missing http for link Link {} {} ", code.getCode(), l.getId(), l.getLink());
-                    needRefetch = true;
-                    break;
-                }
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Unexpected codes page response from PV");
             }
 
-            if (needRefetch) {
-                ResponseEntity<Code> response = restTemplate
-                        .exchange(PATIENTVIEW_CODE_DETAILS_ENDPOINT + code.getId(), HttpMethod.GET, entity, Code.class);
-                if (response.getStatusCode() == HttpStatus.OK) {
-                    return codeService.updateCodeFromSync(response.getBody());
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+
+                if ("content".equals(field) && value == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        queue.put(objectMapper.readValue(parser, Code.class));
+                        count++;
+                    }
+                } else if ("last".equals(field) && value.isBoolean()) {
+                    last = parser.getBooleanValue();
+                } else {
+                    parser.skipChildren();
                 }
             }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing codes");
+        }
+
+        // older responses without last flag, short page means no more codes
+        return last != null ? last : count < pageSize;
+    }
+
+    /**
+     * Worker loop, updates queued Codes until it takes END_OF_CODES. Codes with the
+     * same fingerprint as on last sync are counted and dropped.
+     *
+     * @param queue  a queue of Codes to update
+     * @param entity a HttpEntity containing required headers to be used to re fetch code details if needed
+     * @param run    state of current sync run
+     */
+    private void processCodes(BlockingQueue<Code> queue,
+                              org.springframework.http.HttpEntity<String> entity,
+                              SyncRun run) {
+        while (true) {
+            Code code;
+            try {
+                code = queue.take();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            if (code == END_OF_CODES) {
+                return;
+            }
+
+            try {
+                // fingerprint Code as received, update may change it
+                Fingerprint fingerprint = CodeSyncFingerprintStore.fingerprint(code);
+                if (code.getId() != null && fingerprint.isUnchangedSince(run.stored.get(code.getId()))) {
+                    run.skipped.incrementAndGet();
+                    continue;
+                }
 
-            return codeService.updateCodeFromSync(code);
-        }, taskExecutor).exceptionally(th -> null);
+                SyncOutcome outcome = checkLinksAndUpdate(code, entity, run.context);
+                log.debug("-> completed code {} {}", code.getCode(), outcome);
+                run.count(outcome);
+                if (outcome != SyncOutcome.FAILED && code.getId() != null) {
+                    run.synced.put(code.getId(), fingerprint);
+                }
+            } catch (Exception e) {
+                log.error("Failed to sync code {}", code.getCode(), e);
+                run.failed.incrementAndGet();
+            }
+        }
     }
 
     /**
-     * Wraps a list of Codes in CompletionStage for async processing
+     * Update code details.
+     * We have ddd issue where some links are getting stripped ﻿https://www.nhs.uk when returned
+     * with a Code. Re fetch Code details to fix it, the Code is used as read when PatientView
+     * cannot be called.
      *
-     * @param codes a list of Code objects
-     * @return CompletionStage<List<Code>>
+     * @param code    a Code to update
+     * @param context reference data already saved by the current sync run
+     * @return what the sync did with the Code
+     * @throws Exception when the Code could not be re fetched
      */
-    private CompletionStage<List<Code>> codes(List<Code> codes) {
-        return CompletableFuture.supplyAsync(() -> codes);
+    protected SyncOutcome checkLinksAndUpdate(Code code,
+                                              org.springframework.http.HttpEntity<String> entity,
+                                              SyncRunContext context) throws Exception {
+
+        boolean needRefetch = false;
+        // need to check if all the links formatted correctly
+        for (Link l : code.getLinks()) {
+            if (!StringUtils.isEmpty(l.getLink()) && !l.getLink().startsWith("http")) {
+                log.info("Code {} missing http for link Link {} {} ", code.getCode(), l.getId(), l.getLink());
+                needRefetch = true;
+                break;
+            }
+        }
+
+        if (needRefetch) {
+            ResponseEntity<Code> response = null;
+            try {
+                response = circuitBreaker.call(() -> restTemplate
+                        .exchange(PATIENTVIEW_CODE_DETAILS_ENDPOINT + code.getId(), HttpMethod.GET, entity, Code.class));
+            } catch (CircuitOpenException e) {
+                log.warn("Not re fetching Code {}, {}", code.getCode(), e.getMessage());
+            }
+            if (response != null && response.getStatusCode() == HttpStatus.OK) {
+                return codeService.updateCodeFromSync(response.getBody(), context);
+            }
+        }
+
+        return codeService.updateCodeFromSync(code, context);
     }
 
     /**
      * Get the token returned by the api.
      *
      * @return login token
+     * @throws Exception when login failed or PatientView circuit breaker is open
      */
-    private String getLoginToken() throws IOException {
+    private String getLoginToken() throws Exception {
 
         //Make request to auth/login
-        HttpClient httpClient = HttpClientBuilder.create().build();
-
         Map<String, String> body = new HashMap<>();
         body.put("username", patientviewUser);
         body.put("password", patientviewPassword);
@@ -283,10 +471,43 @@ public class CodeSyncServiceImpl implements CodeSyncService {
         request.addHeader(APPLICATION_JSON_HEADER);
         request.setEntity(new StringEntity(gson.toJson(body)));
 
-        HttpEntity entity = httpClient.execute(request).getEntity();
-
-        String responseString = EntityUtils.toString(entity, "UTF-8");
+        String responseString = circuitBreaker.call(() -> outboundHttpClient.execute(request,
+                response -> EntityUtils.toString(response.getEntity(), "UTF-8")));
 
         return gson.fromJson(responseString, Map.class).get("token").toString();
     }
+
+    /**
+     * Fingerprints, reference data and counters shared by workers of one sync run.
+     */
+    private static final class SyncRun {
+        private final Map<Long, Fingerprint> stored;
+        private final Map<Long, Fingerprint> synced = new ConcurrentHashMap<>();
+        private final SyncRunContext context = new SyncRunContext();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private final AtomicInteger created = new AtomicInteger();
+        private final AtomicInteger updated = new AtomicInteger();
+        private final AtomicInteger unchanged = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+
+        SyncRun(Map<Long, Fingerprint> stored) {
+            this.stored = stored;
+        }
+
+        void count(SyncOutcome outcome) {
+            switch (outcome) {
+                case CREATED:
+                    created.incrementAndGet();
+                    break;
+                case UPDATED:
+                    updated.incrementAndGet();
+                    break;
+                case UNCHANGED:
+                    unchanged.incrementAndGet();
+                    break;
+                default:
+                    failed.incrementAndGet();
+            }
+        }
+    }
 }
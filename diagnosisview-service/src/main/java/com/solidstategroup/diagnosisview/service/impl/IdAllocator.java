@@ -0,0 +1,143 @@
+package com.solidstategroup.diagnosisview.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands out ids for entities using database sequences, instead of a
+ * SELECT nextval round trip per entity.
+ * <p>
+ * Ids are reserved from the sequence in blocks with a single query and handed out
+ * from memory without locking, only refilling a block takes a per sequence lock.
+ * Ids left in a block when the application stops are never used, sequences already
+ * have gaps so nothing relies on them being contiguous.
+ */
+@Slf4j
+@Component
+public class IdAllocator {
+
+    /**
+     * Sequences ids are allocated from.
+     */
+    public enum Sequence {
+        CODE("code_seq"),
+        LINK("link_seq"),
+        CODE_CATEGORY("code_category_seq"),
+        CODE_EXTERNAL_STANDARD("code_external_standard_seq"),
+        LOOKUP_VALUE("lookup_value_seq"),
+        NHSCHOICES_CONDITION("nhschoices_conditioncode_seq");
+
+        private final String sequenceName;
+
+        Sequence(String sequenceName) {
+            this.sequenceName = sequenceName;
+        }
+
+        public String getSequenceName() {
+            return sequenceName;
+        }
+    }
+
+    private static final Block EMPTY = new Block(new long[0]);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int blockSize;
+    private final Map<Sequence, AtomicReference<Block>> blocks = new EnumMap<>(Sequence.class);
+
+    public IdAllocator(final JdbcTemplate jdbcTemplate,
+                       @Value("${ids.block-size:50}") int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("ids.block-size must be at least 1");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.blockSize = blockSize;
+        for (Sequence sequence : Sequence.values()) {
+            blocks.put(sequence, new AtomicReference<>(EMPTY));
+        }
+    }
+
+    /**
+     * Get next id for given sequence.
+     *
+     * @param sequence a sequence to allocate from
+     * @return an id not handed out before
+     */
+    public long next(Sequence sequence) {
+        AtomicReference<Block> current = blocks.get(sequence);
+        while (true) {
+            Block block = current.get();
+            long id = block.take();
+            if (id > 0) {
+                return id;
+            }
+            refill(sequence, current, block);
+        }
+    }
+
+    /**
+     * Get given number of ids for given sequence, for bulk inserts. Large
+     * requests are reserved straight from the database in one query.
+     *
+     * @param sequence a sequence to allocate from
+     * @param count    number of ids needed
+     * @return ids not handed out before
+     */
+    public long[] next(Sequence sequence, int count) {
+        if (count >= blockSize) {
+            return reserve(sequence, count);
+        }
+
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = next(sequence);
+        }
+        return ids;
+    }
+
+    private void refill(Sequence sequence, AtomicReference<Block> current, Block exhausted) {
+        synchronized (current) {
+            // another thread may have refilled while we waited
+            if (current.get() == exhausted) {
+                current.set(new Block(reserve(sequence, blockSize)));
+            }
+        }
+    }
+
+    private long[] reserve(Sequence sequence, int count) {
+        String sql = "SELECT nextval('" + sequence.getSequenceName() + "') FROM generate_series(1, ?)";
+        List<Long> reserved = jdbcTemplate.queryForList(sql, Long.class, count);
+
+        long[] ids = new long[reserved.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = reserved.get(i);
+        }
+        log.debug("Reserved {} ids from {}", ids.length, sequence.getSequenceName());
+        return ids;
+    }
+
+    /**
+     * Reserved ids, taken in order by moving the cursor.
+     */
+    private static final class Block {
+        private final long[] ids;
+        private final AtomicInteger cursor = new AtomicInteger();
+
+        Block(long[] ids) {
+            this.ids = ids;
+        }
+
+        // 0 when block is used up, sequences here never return 0
+        long take() {
+            int index = cursor.getAndIncrement();
+            return index < ids.length ? ids[index] : 0;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.solidstategroup.diagnosisview.service.impl;
+
+import com.google.common.collect.Lists;
+import com.solidstategroup.diagnosisview.model.LinkRuleSyncReport;
+import com.solidstategroup.diagnosisview.model.codes.LinkRule;
+import com.solidstategroup.diagnosisview.utils.UrlPrefixTrie;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+
+import static com.solidstategroup.diagnosisview.utils.CommonUtils.likePrefix;
+
+/**
+ * Brings dv_link_rule_mapping in line with link rules in a fixed number of statements.
+ * <p>
+ * The mappings every rule should have are worked out in one pass over the links, then
+ * compared with the stored mappings by (rule, link). Missing mappings are inserted,
+ * changed ones updated and the ones no longer matching deleted, each as JDBC batches.
+ * A link matches a rule when its url starts with the rule link, same as when links
+ * are saved. Codes of the links whose mappings changed are reported so only they are
+ * reloaded.
+ */
+@Slf4j
+@Component
+public class LinkRuleMappingReconciler {
+
+    private static final String LINKS_SQL = "SELECT id, link, code_id FROM pv_link WHERE link IS NOT NULL";
+    private static final String LINKS_BY_PREFIX_SQL = LINKS_SQL + " AND link LIKE ? ESCAPE '\\'";
+
+    private static final String MAPPINGS_SQL = "SELECT m.id, m.mapping_id, m.link_id, m.replacement_link, "
+            + "m.criteria_type, m.criteria, l.code_id "
+            + "FROM dv_link_rule_mapping m LEFT JOIN pv_link l ON l.id = m.link_id";
+    private static final String MAPPINGS_BY_RULE_SQL = MAPPINGS_SQL + " WHERE m.mapping_id = ?";
+
+    private static final String INSERT_SQL = "INSERT INTO dv_link_rule_mapping "
+            + "(id, mapping_id, link_id, replacement_link, criteria_type, criteria) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_SQL = "UPDATE dv_link_rule_mapping "
+            + "SET replacement_link = ?, criteria_type = ?, criteria = ? WHERE id = ?";
+    private static final String DELETE_SQL = "DELETE FROM dv_link_rule_mapping WHERE id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int batchSize;
+
+    public LinkRuleMappingReconciler(final JdbcTemplate jdbcTemplate,
+                                     @Value("${link-rules.reconcile.batch-size:500}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Reconcile mappings of all rules, mappings of rules not given are deleted.
+     *
+     * @param rules all link rules
+     * @return summary of changes made
+     */
+    @Transactional
+    public LinkRuleSyncReport reconcileAll(List<LinkRule> rules) {
+        return reconcile(rules, null);
+    }
+
+    /**
+     * Reconcile mappings of a single rule, only links starting with the rule link are read.
+     *
+     * @param rule a saved link rule
+     * @return summary of changes made
+     */
+    @Transactional
+    public LinkRuleSyncReport reconcile(LinkRule rule) {
+        return reconcile(Collections.singletonList(rule), rule);
+    }
+
+    /**
+     * Url a mapping sends users to, the rule link replaced with its transformation.
+     *
+     * @param link a link url
+     * @param rule a rule the url matches
+     * @return replacement url
+     */
+    static String transformLink(String link, LinkRule rule) {
+        return link.replace(rule.getLink(), rule.getTransform());
+    }
+
+    private LinkRuleSyncReport reconcile(List<LinkRule> rules, LinkRule single) {
+        long start = System.currentTimeMillis();
+
+        // desired mappings by rule and link
+        UrlPrefixTrie<LinkRule> trie = UrlPrefixTrie.build(rules, LinkRule::getLink);
+        Map<String, Object[]> desired = new HashMap<>();
+        // code of each matched link, for mappings yet to be inserted
+        Map<Long, Long> linkCodes = new HashMap<>();
+        int[] links = new int[1];
+
+        // a rule without link matches nothing
+        if (trie.size() > 0) {
+            Object[] linkArgs = single == null ? new Object[0] : new Object[]{likePrefix(single.getLink())};
+            jdbcTemplate.query(single == null ? LINKS_SQL : LINKS_BY_PREFIX_SQL, rs -> {
+                long linkId = rs.getLong(1);
+                String url = rs.getString(2);
+                long codeId = rs.getLong(3);
+                boolean withoutCode = rs.wasNull();
+                links[0]++;
+                for (LinkRule rule : trie.matchAll(url)) {
+                    if (!withoutCode) {
+                        linkCodes.put(linkId, codeId);
+                    }
+                    desired.put(key(rule.getId(), linkId), new Object[]{
+                            transformLink(url, rule),
+                            rule.getCriteriaType() == null ? null : rule.getCriteriaType().name(),
+                            rule.getCriteria()});
+                }
+            }, linkArgs);
+        }
+        int matched = desired.size();
+
+        List<Object[]> updates = new ArrayList<>();
+        List<Object[]> deletes = new ArrayList<>();
+        Set<Long> changedCodeIds = new HashSet<>();
+        int[] unchanged = new int[1];
+
+        Object[] mappingArgs = single == null ? new Object[0] : new Object[]{single.getId()};
+        jdbcTemplate.query(single == null ? MAPPINGS_SQL : MAPPINGS_BY_RULE_SQL, rs -> {
+            String id = rs.getString(1);
+            long linkId = rs.getLong(3);
+            // a mapping without rule or link never matches
+            Object[] wanted = rs.wasNull() || rs.getString(2) == null
+                    ? null : desired.remove(key(rs.getString(2), linkId));
+
+            if (wanted == null) {
+                // stale, or a duplicate of a mapping already seen
+                deletes.add(new Object[]{id});
+                addCodeId(rs, changedCodeIds);
+            } else if (Objects.equals(wanted[0], rs.getString(4))
+                    && Objects.equals(wanted[1], rs.getString(5))
+                    && Objects.equals(wanted[2], rs.getString(6))) {
+                unchanged[0]++;
+            } else {
+                updates.add(new Object[]{wanted[0], wanted[1], wanted[2], id});
+                addCodeId(rs, changedCodeIds);
+            }
+        }, mappingArgs);
+
+        // whatever is left has no mapping yet
+        List<Object[]> inserts = new ArrayList<>(desired.size());
+        desired.forEach((key, wanted) -> {
+            int separator = key.lastIndexOf('/');
+            Long linkId = Long.valueOf(key.substring(separator + 1));
+            inserts.add(new Object[]{UUID.randomUUID().toString(), key.substring(0, separator),
+                    linkId, wanted[0], wanted[1], wanted[2]});
+            if (linkCodes.containsKey(linkId)) {
+                changedCodeIds.add(linkCodes.get(linkId));
+            }
+        });
+
+        batchUpdate(DELETE_SQL, deletes);
+        batchUpdate(UPDATE_SQL, updates);
+        batchUpdate(INSERT_SQL, inserts);
+
+        long stop = System.currentTimeMillis();
+        LinkRuleSyncReport report = LinkRuleSyncReport.builder()
+                .rules(rules.size())
+                .links(links[0])
+                .matched(matched)
+                .inserted(inserts.size())
+                .updated(updates.size())
+                .deleted(deletes.size())
+                .unchanged(unchanged[0])
+                .timing(stop - start)
+                .changedCodeIds(changedCodeIds)
+                .build();
+        log.info("Reconciled link rule mappings {}", report);
+        return report;
+    }
+
+    private void batchUpdate(String sql, List<Object[]> args) {
+        for (List<Object[]> chunk : Lists.partition(args, batchSize)) {
+            jdbcTemplate.batchUpdate(sql, chunk);
+        }
+    }
+
+    private static void addCodeId(ResultSet rs, Set<Long> codeIds) throws SQLException {
+        // no code when the link itself is gone
+        long codeId = rs.getLong(7);
+        if (!rs.wasNull()) {
+            codeIds.add(codeId);
+        }
+    }
+
+    private static String key(String ruleId, long linkId) {
+        return ruleId + "/" + linkId;
+    }
+}
@@ -14,21 +14,28 @@ import com.solidstategroup.diagnosisview.repository.LookupTypeRepository;
 import com.solidstategroup.diagnosisview.service.LinkRuleService;
 import com.solidstategroup.diagnosisview.service.LinkService;
 import com.solidstategroup.diagnosisview.service.LogoRulesService;
+import com.solidstategroup.diagnosisview.service.SyncRunContext;
+import com.solidstategroup.diagnosisview.service.impl.IdAllocator.Sequence;
 import com.solidstategroup.diagnosisview.utils.CommonUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.CollectionUtils;
 import org.springframework.util.StringUtils;
 
 import javax.persistence.EntityManager;
-import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static org.apache.commons.lang3.StringUtils.compareIgnoreCase;
@@ -37,7 +44,6 @@ import static org.apache.commons.lang3.StringUtils.compareIgnoreCase;
 @Slf4j
 public class LinkServiceImpl implements LinkService {
 
-    private static final String LINK_SEQ = "link_seq";
     private static Map<DifficultyLevel, Integer> defaultOrder = new HashMap<>();
 
     static {
@@ -46,32 +52,38 @@ public class LinkServiceImpl implements LinkService {
         defaultOrder.put(DifficultyLevel.RED, 21);
     }
 
-    private final EntityManager entityManager;
+    private final IdAllocator idAllocator;
     private final LinkRuleService linkRuleService;
     private final LinkRuleMappingRepository linkRuleMappingRepository;
     private final LinkRepository linkRepository;
     private final LookupRepository lookupRepository;
     private final LookupTypeRepository lookupTypeRepository;
     private final LogoRulesService logoRulesService;
+    private final CodeSnapshotStore codeSnapshotStore;
+    private final EntityManager entityManager;
     private Lookup niceLinksLookup;
     private Lookup userLink;
 
     public LinkServiceImpl(
-            EntityManager entityManager,
+            IdAllocator idAllocator,
             LinkRuleService linkRuleService,
             LinkRuleMappingRepository linkRuleMappingRepository,
             LinkRepository linkRepository,
             LookupRepository lookupRepository,
             LookupTypeRepository lookupTypeRepository,
-            LogoRulesService logoRulesService) {
+            LogoRulesService logoRulesService,
+            CodeSnapshotStore codeSnapshotStore,
+            EntityManager entityManager) {
 
-        this.entityManager = entityManager;
+        this.idAllocator = idAllocator;
         this.linkRuleService = linkRuleService;
         this.linkRuleMappingRepository = linkRuleMappingRepository;
         this.linkRepository = linkRepository;
         this.lookupRepository = lookupRepository;
         this.lookupTypeRepository = lookupTypeRepository;
         this.logoRulesService = logoRulesService;
+        this.codeSnapshotStore = codeSnapshotStore;
+        this.entityManager = entityManager;
     }
 
     /**
@@ -86,7 +98,7 @@ public class LinkServiceImpl implements LinkService {
      * {@inheritDoc}
      */
     @Override
-    @CacheEvict(value = {"getAllCodes", "getAllCategories"}, allEntries = true)
+    @CacheEvict(value = "getAllCategories", allEntries = true)
     public Link update(Link link) throws Exception {
 
         Link existingLink = linkRepository.findById(link.getId())
@@ -125,6 +137,7 @@ public class LinkServiceImpl implements LinkService {
         // existingLink.setMappingLinks(new HashSet<>());
 
         linkRepository.save(existingLink);
+        codeSnapshotStore.refresh(existingLink.getCode().getId());
 
         return existingLink;
     }
@@ -133,50 +146,144 @@ public class LinkServiceImpl implements LinkService {
      * {@inheritDoc}
      */
     @Override
+    @Transactional
     public Link upsert(Link link, Set<Link> codeLinks, boolean fromSync) {
+        return upsert(link, codeLinks, fromSync, new SyncRunContext());
+    }
 
-        if (StringUtils.isEmpty(link.getLink())) {
-            log.error(" Link url is null {}", link.getId());
-            return null;
-        }
-        
-        if (!StringUtils.isEmpty(link.getLink()) && !link.getLink().startsWith("http")) {
-            log.error(" Link url not formatted correctly {} {} ", link.getId(), link.getLink());
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Transactional
+    public Link upsert(Link link, Set<Link> codeLinks, SyncRunContext context) {
+        return upsert(link, codeLinks, true, context);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Transactional
+    public Set<Link> upsertAll(Code code, Set<Link> links, boolean fromSync) {
+        return new HashSet<>(upsertAll(code, links, links, fromSync, new SyncRunContext()));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Transactional
+    public Set<Link> upsertAll(Code code, Set<Link> links, SyncRunContext context) {
+        return new HashSet<>(upsertAll(code, links, links, true, context));
+    }
+
+    private Link upsert(Link link, Set<Link> codeLinks, boolean fromSync, SyncRunContext context) {
+
+        List<Link> saved = upsertAll(link.getCode(), Collections.singleton(link), codeLinks, fromSync, context);
+        return saved.isEmpty() ? null : saved.get(0);
+    }
+
+    /**
+     * Upsert given links with a fixed number of queries, existing links are loaded
+     * once and the links are saved together so Hibernate can batch them.
+     *
+     * @param code      the Code links belong to
+     * @param links     links to upsert
+     * @param codeLinks an list of Link objects from the Code, used for display order
+     * @param fromSync  if we executing from code sync
+     * @param context   reference data already saved by the current sync run
+     * @return saved links, without the ones skipped for missing url
+     */
+    private List<Link> upsertAll(Code code, Collection<Link> links, Set<Link> codeLinks,
+                                 boolean fromSync, SyncRunContext context) {
+
+        List<Link> toSave = links.stream()
+                .filter(this::hasLinkUrl)
+                .collect(Collectors.toList());
+
+        if (toSave.isEmpty()) {
+            return Collections.emptyList();
         }
 
         //Get the NICE lookup if it exists
         populatDVLookups();
 
-        link = checkLink(link, codeLinks, fromSync);
+        Set<Long> ids = toSave.stream()
+                .map(Link::getId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
 
-        // Check if the link matches any urls for logos,
-        // if it does, assign it that logo url
-        logoRulesService
-                .matchLinkToRule(link)
-                .ifPresent(link::setLogoRule);
+        Map<Long, Link> existingLinks = ids.isEmpty()
+                ? Collections.emptyMap()
+                : linkRepository.findAllWithMappingsByIdIn(ids)
+                        .stream()
+                        .collect(Collectors.toMap(Link::getId, Function.identity()));
 
-        if (link.getLinkType() == null) {
+        for (Link link : toSave) {
+            link.setCode(code);
+
+            checkLink(link, existingLinks.get(link.getId()), codeLinks, fromSync);
+
+            // Check if the link matches any urls for logos,
+            // if it does, assign it that logo url
+            logoRulesService
+                    .matchLinkToRule(link)
+                    .ifPresent(link::setLogoRule);
+
+            if (link.getLinkType() == null) {
+
+                link.setLinkType(userLink);
+            }
+
+            // If the lookupValue is a DV only value, then don't update as it will overlap
+            // In future this may need to be a check against all DV only lookup values
+            if (niceLinksLookup != null &&
+                    link.getLinkType().getId().equals(niceLinksLookup.getId())) {
+
+                link.setLinkType(userLink);
+
+            } else {
+
+                context.upsertOnce(link.getLinkType().getLookupType(), lookupTypeRepository);
+                context.upsertOnce(link.getLinkType(), lookupRepository);
+            }
+        }
 
-            link.setLinkType(userLink);
+        // ids are allocated up front, so save would merge new links and select each one first
+        List<Link> existing = new ArrayList<>(existingLinks.size());
+        for (Link link : toSave) {
+            if (existingLinks.containsKey(link.getId())) {
+                existing.add(link);
+            } else {
+                entityManager.persist(link);
+            }
         }
 
-        // If the lookupValue is a DV only value, then don't update as it will overlap
-        // In future this may need to be a check against all DV only lookup values
-        if (niceLinksLookup != null &&
-                link.getLinkType().getId().equals(niceLinksLookup.getId())) {
+        Map<Long, Link> merged = linkRepository.saveAll(existing)
+                .stream()
+                .collect(Collectors.toMap(Link::getId, Function.identity()));
 
-            link.setLinkType(userLink);
+        return toSave.stream()
+                .map(link -> merged.getOrDefault(link.getId(), link))
+                .collect(Collectors.toList());
+    }
 
-        } else {
+    private boolean hasLinkUrl(Link link) {
 
-            lookupTypeRepository.save(link.getLinkType().getLookupType());
-            lookupRepository.save(link.getLinkType());
+        if (StringUtils.isEmpty(link.getLink())) {
+            log.error(" Link url is null {}", link.getId());
+            return false;
         }
 
-        return linkRepository.save(link);
+        if (!link.getLink().startsWith("http")) {
+            log.error(" Link url not formatted correctly {} {} ", link.getId(), link.getLink());
+        }
+        return true;
     }
 
     @Override
+    @Transactional
     public Link addExternalLink(Link link, Code code) throws Exception {
 
         if (link.getLinkType() == null) {
@@ -218,9 +325,11 @@ public class LinkServiceImpl implements LinkService {
         link.setLastUpdate(now);
         link.setMappingLinks(new HashSet<>());
 
-        link.setId(selectIdFrom(LINK_SEQ));
+        link.setId(idAllocator.next(Sequence.LINK));
 
-        return linkRepository.save(link);
+        // new with an allocated id, persist rather than merge
+        entityManager.persist(link);
+        return link;
     }
 
     @Override
@@ -241,7 +350,9 @@ public class LinkServiceImpl implements LinkService {
         savedLink.setName(link.getName());
         savedLink.setLink(link.getLink());
 
-        return linkRepository.save(savedLink);
+        Link saved = linkRepository.save(savedLink);
+        codeSnapshotStore.refresh(saved.getCode().getId());
+        return saved;
     }
 
     @Override
@@ -264,6 +375,10 @@ public class LinkServiceImpl implements LinkService {
             l.setLastUpdate(new Date());
             linkRepository.save(l);
         });
+
+        codeSnapshotStore.refresh(savedLinks.stream()
+                .map(l -> l.getCode().getId())
+                .collect(Collectors.toSet()));
     }
 
     /**
@@ -293,15 +408,12 @@ public class LinkServiceImpl implements LinkService {
     /**
      * Check an existing link and see if it has the difficulty set etc
      *
-     * @param link      a link to check
-     * @param codeLinks an list of Link objects from the Code this link belongs to
-     * @param fromSync  if we executing from code sync
-     * @return
+     * @param link         a link to check
+     * @param existingLink the stored version of the link, null for a new link
+     * @param codeLinks    an list of Link objects from the Code this link belongs to
+     * @param fromSync     if we executing from code sync
      */
-    private Link checkLink(Link link, Set<Link> codeLinks, boolean fromSync) {
-
-        Link existingLink = linkRepository.findById(link.getId())
-                .orElse(null);
+    private void checkLink(Link link, Link existingLink, Set<Link> codeLinks, boolean fromSync) {
 
         // Ensure that difficulty is not overwritten when executed from sync
         if (existingLink != null) {
@@ -360,8 +472,6 @@ public class LinkServiceImpl implements LinkService {
                 setLinkDisplayOrder(link, codeLinks);
             }
         }
-
-        return link;
     }
 
     /**
@@ -478,11 +588,6 @@ public class LinkServiceImpl implements LinkService {
         link.setDisplayOrder(firstAvailable);
     }
 
-
-    private long selectIdFrom(String sequence) {
-        String sql = "SELECT nextval('" + sequence + "')";
-        return ((BigInteger) entityManager.createNativeQuery(sql).getSingleResult()).longValue();
-    }
 }
 
 
@@ -1,7 +1,9 @@
 package com.solidstategroup.diagnosisview.service.impl;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.solidstategroup.diagnosisview.clients.OutboundHttpClient;
+import com.solidstategroup.diagnosisview.model.ProviderResponse;
 import com.solidstategroup.diagnosisview.model.codes.Code;
 import com.solidstategroup.diagnosisview.model.codes.CodeExternalStandard;
 import com.solidstategroup.diagnosisview.model.codes.Link;
@@ -13,22 +15,35 @@ import com.solidstategroup.diagnosisview.service.LinkRuleService;
 import com.solidstategroup.diagnosisview.service.LinkService;
 import com.solidstategroup.diagnosisview.service.LinksSyncService;
 import com.solidstategroup.diagnosisview.service.MedlinePlusService;
+import com.solidstategroup.diagnosisview.service.ProviderResponses;
+import com.solidstategroup.diagnosisview.utils.ProviderCallLimiter;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.CacheEvict;
-import org.springframework.http.ResponseEntity;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
-import java.text.SimpleDateFormat;
+import java.io.IOException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Service to handle sync for different types of links from external systems.
@@ -49,7 +64,6 @@ public class LinksSyncServiceImpl implements LinksSyncService {
     private static final String SNOMED_CT = "SNOMED-CT";
     private static final String ICD_10 = "ICD-10";
     private static final String linkName = "BMJ Best Practice";
-    private static RestTemplate template = new RestTemplate();
     private static Integer DEFAULT_BMJ_ORDER = 11;
 
     static {
@@ -62,6 +76,16 @@ public class LinksSyncServiceImpl implements LinksSyncService {
     private final LinkService linkService;
     private final MedlinePlusService medlinePlusService;
     private final LinkRuleService linkRuleService;
+    private final CodeSnapshotStore codeSnapshotStore;
+    private final ProviderResponseCache providerResponseCache;
+    private final OutboundHttpClient outboundHttpClient;
+    private final CircuitBreakerRegistry circuitBreakerRegistry;
+    private final ObjectMapper objectMapper;
+    private final int workers;
+    private final int bmjConcurrency;
+    private final double bmjRequestsPerSecond;
+    private final int medlinePlusConcurrency;
+    private final double medlinePlusRequestsPerSecond;
 
     private final Lookup BMJ;
 
@@ -69,20 +93,45 @@ public class LinksSyncServiceImpl implements LinksSyncService {
                                 final LinkService linkService,
                                 final LookupRepository lookupRepository,
                                 final MedlinePlusService medlinePlusService,
-                                final LinkRuleService linkRuleService) {
+                                final LinkRuleService linkRuleService,
+                                final CodeSnapshotStore codeSnapshotStore,
+                                final ProviderResponseCache providerResponseCache,
+                                final OutboundHttpClient outboundHttpClient,
+                                final CircuitBreakerRegistry circuitBreakerRegistry,
+                                @Value("${links.sync.workers:4}") int workers,
+                                @Value("${links.sync.bmj.concurrency:2}") int bmjConcurrency,
+                                @Value("${links.sync.bmj.requests-per-second:2}") double bmjRequestsPerSecond,
+                                @Value("${links.sync.medlineplus.concurrency:2}") int medlinePlusConcurrency,
+                                @Value("${links.sync.medlineplus.requests-per-second:1.5}")
+                                        double medlinePlusRequestsPerSecond) {
 
         this.codeService = codeService;
         this.linkService = linkService;
         this.medlinePlusService = medlinePlusService;
         this.linkRuleService = linkRuleService;
+        this.codeSnapshotStore = codeSnapshotStore;
+        this.providerResponseCache = providerResponseCache;
+        this.outboundHttpClient = outboundHttpClient;
+        this.circuitBreakerRegistry = circuitBreakerRegistry;
+        this.objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        this.workers = workers;
+        this.bmjConcurrency = bmjConcurrency;
+        this.bmjRequestsPerSecond = bmjRequestsPerSecond;
+        this.medlinePlusConcurrency = medlinePlusConcurrency;
+        this.medlinePlusRequestsPerSecond = medlinePlusRequestsPerSecond;
 
         BMJ = lookupRepository.findOneByValue("BMJ").orElse(null);
     }
 
     /**
      * {@inheritDoc}
+     *
+     * Codes are synced in parallel by links.sync.workers threads, each Code by a single
+     * thread so its links are only written by one thread. Calls to each provider are
+     * limited by their own concurrency and requests per second, and only made for
+     * external standard codes not already looked up recently, see {@link ProviderResponseCache}.
      */
-    @CacheEvict(value = {"getAllCodes", "getAllCategories"}, allEntries = true)
+    @CacheEvict(value = "getAllCategories", allEntries = true)
     @Override
     public void syncLinks() {
 
@@ -91,44 +140,42 @@ public class LinksSyncServiceImpl implements LinksSyncService {
 
         log.info("Links Sync Processing {} codes.", codes.size());
 
-        codes.forEach(code -> {
-
-            final Optional<CodeExternalStandard> snomed = getExternalStandard(code, SNOMED_CT);
-
-            boolean foundBmjSnomed = false;
-            boolean foundMedlineSnomed = false;
+        ProviderResponses bmj = startBmjRun();
+        ProviderResponses medlinePlus = startMedlinePlusRun();
+        int failed = 0;
 
-            if (snomed.isPresent()) {
-
-                foundBmjSnomed = processBMJLink(buildUrl(SNOMED_CT, snomed.get().getCodeString(), code.getCode()),
-                        code,
-                        SNOMED_CT);
-
-                foundMedlineSnomed = medlinePlusService.processLink(code, snomed.get());
-            }
-
-            // no links found for SNOMED code, try ICD_10
-            if (!foundBmjSnomed) {
-                getExternalStandard(code, ICD_10)
-                        .ifPresent(icd10 ->
-                                processBMJLink(buildUrl(ICD_10, icd10.getCodeString(), code.getCode()), code, ICD_10)
-                        );
-            }
-
-            if (!foundMedlineSnomed) {
-                getExternalStandard(code, ICD_10)
-                        .ifPresent(icd10 -> medlinePlusService.processLink(code, icd10));
+        ExecutorService executor = Executors.newFixedThreadPool(workers,
+                new CustomizableThreadFactory("links-sync-"));
+        try {
+            Map<Code, Future<?>> results = new LinkedHashMap<>();
+            codes.forEach(code -> results.put(code, executor.submit(() -> syncCode(code, bmj, medlinePlus))));
+
+            for (Map.Entry<Code, Future<?>> result : results.entrySet()) {
+                try {
+                    result.getValue().get();
+                } catch (ExecutionException e) {
+                    failed++;
+                    log.error("Links Sync failed for code {}", result.getKey().getCode(), e.getCause());
+                }
             }
-        });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Links Sync interrupted");
+            return;
+        } finally {
+            executor.shutdownNow();
+        }
 
         long stop = System.currentTimeMillis();
-        log.info("Links Sync DONE Processing codes, timing {}.", (stop - start));
+        log.info("Links Sync DONE Processing codes, {} failed, timing {}.", failed, (stop - start));
+        log.info("Links Sync {}", bmj);
+        log.info("Links Sync {}", medlinePlus);
 
         // trigger sync link rules to add any missing mappings
         linkRuleService.syncLinkRules();
     }
 
-    @CacheEvict(value = {"getAllCodes", "getAllCategories"}, allEntries = true)
+    @CacheEvict(value = "getAllCategories", allEntries = true)
     @Override
     public void syncLinks(String codeStr) {
 
@@ -136,32 +183,52 @@ public class LinksSyncServiceImpl implements LinksSyncService {
 
         log.info("Processing {} code.", code.getCode());
 
+        syncCode(code, startBmjRun(), startMedlinePlusRun());
+
+        codeSnapshotStore.refresh(code.getId());
+    }
+
+    /**
+     * Sync BMJ and MedlinePlus links of a Code, for each provider SNOMED-CT is tried
+     * first and ICD-10 only when SNOMED-CT found nothing.
+     */
+    private void syncCode(Code code, ProviderResponses bmj, ProviderResponses medlinePlus) {
+
         final Optional<CodeExternalStandard> snomed = getExternalStandard(code, SNOMED_CT);
+        final Optional<CodeExternalStandard> icd10 = getExternalStandard(code, ICD_10);
 
-        boolean foundSnomed = false;
+        boolean foundBmjSnomed = false;
         boolean foundMedlineSnomed = false;
 
         if (snomed.isPresent()) {
-            // process BMJ link
-            foundSnomed = processBMJLink(
-                    buildUrl(SNOMED_CT, snomed.get().getCodeString(), code.getCode()), code, SNOMED_CT);
 
-            foundMedlineSnomed = medlinePlusService.processLink(code, snomed.get());
+            foundBmjSnomed = processBMJLink(code, SNOMED_CT, snomed.get().getCodeString(), bmj);
+
+            foundMedlineSnomed = medlinePlusService.processLink(code, snomed.get(), medlinePlus);
         }
 
-        if (!foundSnomed) {
-            getExternalStandard(code, ICD_10)
-                    .ifPresent(icd10 -> processBMJLink(
-                            buildUrl(ICD_10, icd10.getCodeString(), code.getCode()), code, ICD_10)
-                    );
+        // no links found for SNOMED code, try ICD_10
+        if (!foundBmjSnomed && icd10.isPresent()) {
+            processBMJLink(code, ICD_10, icd10.get().getCodeString(), bmj);
         }
 
-        if (!foundMedlineSnomed) {
-            getExternalStandard(code, ICD_10)
-                    .ifPresent(icd10 -> medlinePlusService.processLink(code, icd10));
+        if (!foundMedlineSnomed && icd10.isPresent()) {
+            medlinePlusService.processLink(code, icd10.get(), medlinePlus);
         }
     }
 
+    private ProviderResponses startBmjRun() {
+        return providerResponseCache.startRun("BMJ",
+                new ProviderCallLimiter("BMJ", bmjConcurrency, bmjRequestsPerSecond),
+                circuitBreakerRegistry.get(CircuitBreakerRegistry.BMJ));
+    }
+
+    private ProviderResponses startMedlinePlusRun() {
+        return providerResponseCache.startRun("MedlinePlus",
+                new ProviderCallLimiter("MedlinePlus", medlinePlusConcurrency, medlinePlusRequestsPerSecond),
+                circuitBreakerRegistry.get(CircuitBreakerRegistry.MEDLINE_PLUS));
+    }
+
     /**
      * Builds a BMJ link. Uses the external code standard mapping to build the link with the correct codes.
      */
@@ -171,95 +238,122 @@ public class LinksSyncServiceImpl implements LinksSyncService {
     }
 
     /**
-     * Calls the url and processes the result from the BMJ.
+     * Calls the url and extracts the links from the BMJ response.
+     *
+     * NOTE: the BMJ sends an http 500 response with HTML when the code is not found, this is taken as nothing
+     * found without reading the body. Other errors are thrown so the code is looked up again next run and
+     * count against the BMJ circuit breaker.
      *
-     * NOTE: the BMJ sends an http 500 response with HTML when the code is not found. {@link RestTemplate} is not
-     * setup to handle this so will throw an exception. All we are doing here is to capturing that exception and moving
-     * on.
+     * @return links found, null if none
      */
-    private boolean processBMJLink(String url, Code code, String standard) {
+    private ProviderResponse fetchBMJLinks(String url) throws IOException {
 
-        final UUID correlation = UUID.randomUUID();
-        Instant start = Instant.now();
+        JsonNode body = outboundHttpClient.execute(new HttpGet(url), response -> {
+            int status = response.getStatusLine().getStatusCode();
+            if (status == HttpStatus.INTERNAL_SERVER_ERROR.value()) {
+                EntityUtils.consume(response.getEntity());
+                return null;
+            }
+            if (status >= 300) {
+                EntityUtils.consume(response.getEntity());
+                throw new HttpResponseException(status, response.getStatusLine().getReasonPhrase());
+            }
+            return response.getEntity() == null ? null : objectMapper.readTree(response.getEntity().getContent());
+        });
 
-        ResponseEntity<ObjectNode> entity = null;
-        try {
+        if (body == null) {
+            return null;
+        }
 
-            entity = template.getForEntity(url, ObjectNode.class);
+        JsonNode entry = body.findValue("entry");
+        if (entry == null || !entry.isArray()) {
+            return null;
+        }
 
-            if (!entity.getStatusCode().is2xxSuccessful()) {
+        List<ProviderResponse.Entry> entries = new ArrayList<>();
+        for (JsonNode jn : entry) {
 
-                return false;
+            String id = jn.get("id").get("_value").asText();
+            Date dateUpdated = Date.from(Instant.parse(jn.get("updated").get("_value").asText()));
+
+            for (JsonNode link : jn.get("link")) {
+                entries.add(new ProviderResponse.Entry(id, link.get("href").asText(),
+                        link.get("title").asText(), dateUpdated));
             }
+        }
+        return entries.isEmpty() ? null : new ProviderResponse(entries);
+    }
 
-            JsonNode entry = entity.getBody().findValue("entry");
+    /**
+     * Looks up the BMJ links for an external standard code and adds or updates the BMJ link of the Code.
+     */
+    private boolean processBMJLink(Code code, String standard, String codeString, ProviderResponses responses) {
 
-            if (entry != null && entry.isArray()) {
+        final UUID correlation = UUID.randomUUID();
+        Instant start = Instant.now();
 
-                for (JsonNode jn : entry) {
+        String url = buildUrl(standard, codeString, code.getCode());
+        try {
 
-                    String id = jn.get("id").get("_value").asText();
-                    SimpleDateFormat utcDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-                    Date dateUpdated = utcDateFormat.parse(jn.get("updated").get("_value").asText());
+            ProviderResponse response = responses.get(standard, codeString, () -> fetchBMJLinks(url));
 
-                    for (JsonNode link : jn.get("link")) {
+            for (ProviderResponse.Entry entry : response.getEntries()) {
 
-                        String href = link.get("href").asText();
-                        String title = link.get("title").asText();
-                        Set<Link> links = code.getLinks();
+                String id = entry.getExternalId();
+                Set<Link> links = code.getLinks();
 
-                        Optional<Link> bmj = links.stream()
-                                .filter(l -> l.getLinkType().getValue().equals("BMJ"))
-                                .filter(l -> l.getExternalId().equals(id))
-                                .findAny();
+                Optional<Link> bmj = links.stream()
+                        .filter(l -> l.getLinkType().getValue().equals("BMJ"))
+                        .filter(l -> l.getExternalId().equals(id))
+                        .findAny();
 
-                        if (bmj.isPresent()) {
+                if (bmj.isPresent()) {
 
-                            // we have links
+                    // we have links
 
-                            if (bmj.get().getLastUpdate().before(dateUpdated)) {
+                    if (bmj.get().getLastUpdate().before(entry.getUpdated())) {
 
-                                // we have an updated link...
-                                Link linkToUpdate = new Link();
-                                linkToUpdate.setName(linkName);
-                                linkToUpdate.setLink(href);
-                                linkToUpdate.setExternalId(id);
-                                linkService.updateExternalLinks(linkToUpdate);
+                        // we have an updated link...
+                        Link linkToUpdate = new Link();
+                        linkToUpdate.setName(linkName);
+                        linkToUpdate.setLink(entry.getHref());
+                        linkToUpdate.setExternalId(id);
+                        linkService.updateExternalLinks(linkToUpdate);
 
-                                log.info("BMJ Correlation id: {}. Links updated for ext id {}", correlation, id);
-                                log.debug("BMJ Correlation id: {}. Time taken: {}", correlation,
-                                        Duration.between(start, Instant.now()));
-                                return true;
-                            }
+                        log.info("BMJ Correlation id: {}. Links updated for ext id {}", correlation, id);
+                        log.debug("BMJ Correlation id: {}. Time taken: {}", correlation,
+                                Duration.between(start, Instant.now()));
+                        return true;
+                    }
 
-                        } else {
+                } else {
 
-                            // we have a new link...
-                            Link newLink = new Link();
-                            newLink.setName(linkName);
-                            newLink.setLink(href);
-                            newLink.setExternalId(id);
-                            newLink.setLinkType(BMJ);
-                            newLink.setDisplayOrder(DEFAULT_BMJ_ORDER);
-                            newLink.setDifficultyLevel(DifficultyLevel.AMBER);
+                    // we have a new link...
+                    Link newLink = new Link();
+                    newLink.setName(linkName);
+                    newLink.setLink(entry.getHref());
+                    newLink.setExternalId(id);
+                    newLink.setLinkType(BMJ);
+                    newLink.setDisplayOrder(DEFAULT_BMJ_ORDER);
+                    newLink.setDifficultyLevel(DifficultyLevel.AMBER);
 
-                            Link saved = linkService.addExternalLink(newLink, code);
-                            code.addLink(saved);
-                            codeService.save(code);
+                    Link saved = linkService.addExternalLink(newLink, code);
+                    code.addLink(saved);
+                    codeService.save(code);
 
-                            log.info("BMJ Correlation id: {}. New link saved {}", correlation, newLink.getId());
-                            log.debug("BMJ Correlation id: {}. Time taken: {}", correlation, Duration.between(start, Instant.now()));
+                    log.info("BMJ Correlation id: {}. New link saved {}", correlation, newLink.getId());
+                    log.debug("BMJ Correlation id: {}. Time taken: {}", correlation, Duration.between(start, Instant.now()));
 
-                            return true;
-                        }
-                    }
+                    return true;
                 }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted in Bmj.processLink() for code {}", code.getCode());
         } catch (Exception e) {
             log.error("Exception in Bmj.processLink()", e);
             log.debug("Correlation id: {}. Could not get links for {} using standard {} ", correlation, code.getCode(), standard);
-            log.error("Exception in Bmj.processLink() Correlation id: {}. Url: {}, Response status code: {}",
-                    correlation, url, entity != null ? entity.getStatusCode() : "none returned");
+            log.error("Exception in Bmj.processLink() Correlation id: {}. Url: {}", correlation, url);
         }
 
         log.debug("Correlation id: {}. Time taken: {}", correlation, Duration.between(start, Instant.now()));
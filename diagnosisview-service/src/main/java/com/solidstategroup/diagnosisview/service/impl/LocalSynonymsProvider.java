@@ -0,0 +1,129 @@
+package com.solidstategroup.diagnosisview.service.impl;
+
+import com.solidstategroup.diagnosisview.service.SynonymsProvider;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Synonyms provider answering searches from a local copy of the conditions dataset,
+ * enabled with synonyms.provider=local.
+ * <p>
+ * File given by synonyms.local.file is a tab separated file, one condition per line:
+ * comma separated ICD-10 codes in the first column followed by the condition name and
+ * any synonyms, lines starting with # are ignored. Every word is stored in a sorted
+ * prefix index, a condition matches when each search word is a prefix of one of its words,
+ * same as the remote conditions API.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "synonyms.provider", havingValue = "local")
+public class LocalSynonymsProvider implements SynonymsProvider {
+
+    // same as maxList used against remote API
+    private static final int MAX_CONDITIONS = 20;
+
+    private final String[][] conditionCodes;
+    private final TreeMap<String, BitSet> wordIndex = new TreeMap<>();
+
+    public LocalSynonymsProvider(@Value("${synonyms.local.file}") String file) throws IOException {
+        long start = System.currentTimeMillis();
+
+        List<String[]> codes = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] columns = line.split("\t");
+                if (columns.length < 2) {
+                    continue;
+                }
+
+                int conditionId = codes.size();
+                codes.add(Arrays.stream(columns[0].split(","))
+                        .map(String::trim)
+                        .filter(c -> !c.isEmpty())
+                        .toArray(String[]::new));
+
+                for (int i = 1; i < columns.length; i++) {
+                    for (String word : words(columns[i])) {
+                        wordIndex.computeIfAbsent(word, w -> new BitSet()).set(conditionId);
+                    }
+                }
+            }
+        }
+        this.conditionCodes = codes.toArray(new String[0][]);
+
+        long stop = System.currentTimeMillis();
+        log.info("Loaded {} local synonym conditions, {} words from {}, timing {}",
+                conditionCodes.length, wordIndex.size(), file, (stop - start));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<String> searchSynonyms(String searchTerm) {
+
+        Set<String> codes = new HashSet<>();
+
+        BitSet matches = null;
+        for (String word : words(searchTerm)) {
+            BitSet wordMatches = new BitSet();
+            SortedMap<String, BitSet> prefixed = wordIndex.subMap(word, word + Character.MAX_VALUE);
+            for (Map.Entry<String, BitSet> entry : prefixed.entrySet()) {
+                wordMatches.or(entry.getValue());
+            }
+
+            if (matches == null) {
+                matches = wordMatches;
+            } else {
+                matches.and(wordMatches);
+            }
+            if (matches.isEmpty()) {
+                return codes;
+            }
+        }
+
+        if (matches == null) {
+            return codes;
+        }
+
+        int found = 0;
+        for (int id = matches.nextSetBit(0); id >= 0 && found < MAX_CONDITIONS; id = matches.nextSetBit(id + 1)) {
+            codes.addAll(Arrays.asList(conditionCodes[id]));
+            found++;
+        }
+        return codes;
+    }
+
+    private static Set<String> words(String value) {
+        Set<String> words = new HashSet<>();
+        for (String word : value.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+}
@@ -8,23 +8,41 @@ import com.solidstategroup.diagnosisview.repository.LogoRuleRepository;
 import com.solidstategroup.diagnosisview.service.LogoRulesService;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
-import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.io.UnsupportedEncodingException;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.IntSupplier;
+
+import static com.solidstategroup.diagnosisview.utils.CommonUtils.likePrefix;
+import static com.solidstategroup.diagnosisview.utils.TransactionUtils.runAfterCommit;
 
 @Slf4j
 @Service
 public class LogoRulesServiceImpl implements LogoRulesService {
 
     private final LogoRuleRepository logoRuleRepository;
+    private final UrlRuleMatcher urlRuleMatcher;
+    private final CodeSnapshotStore codeSnapshotStore;
+    private final TransactionTemplate transactionTemplate;
+    private final int chunkSize;
 
-    public LogoRulesServiceImpl(LogoRuleRepository logoRuleRepository) {
+    public LogoRulesServiceImpl(LogoRuleRepository logoRuleRepository,
+                                final UrlRuleMatcher urlRuleMatcher,
+                                final CodeSnapshotStore codeSnapshotStore,
+                                final PlatformTransactionManager transactionManager,
+                                @Value("${logo-rules.apply.chunk-size:1000}") int chunkSize) {
 
         this.logoRuleRepository = logoRuleRepository;
+        this.urlRuleMatcher = urlRuleMatcher;
+        this.codeSnapshotStore = codeSnapshotStore;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.chunkSize = chunkSize;
     }
 
     private static byte[] decodeBase64Image(String image)
@@ -37,8 +55,6 @@ public class LogoRulesServiceImpl implements LogoRulesService {
      * {@inheritDoc}
      */
     @Override
-    @Transactional
-    @CacheEvict(value = "getAllCodes", allEntries = true)
     public LogoRule add(LogoRuleDto logoRuleDto) throws UnsupportedEncodingException {
 
         final LogoRule logoRule = logoRuleRepository.saveAndFlush(
@@ -50,7 +66,8 @@ public class LogoRulesServiceImpl implements LogoRulesService {
                         .overrideDifficultyLevel(logoRuleDto.getOverrideDifficultyLevel())
                         .build());
 
-        logoRuleRepository.addLogoRule(logoRule);
+        logoRule.setLinksUpdated(assignLinks(logoRule));
+        linksUpdated(logoRule);
 
         return logoRule;
     }
@@ -78,7 +95,6 @@ public class LogoRulesServiceImpl implements LogoRulesService {
      */
     @Override
     @Transactional
-    @CacheEvict(value = "getAllCodes", allEntries = true)
     public void delete(String id) {
 
         logoRuleRepository.clearLogoRule(
@@ -86,14 +102,13 @@ public class LogoRulesServiceImpl implements LogoRulesService {
                         .orElseThrow(() -> new IllegalStateException("Could not find LogoRule")));
 
         logoRuleRepository.deleteById(id);
+        runAfterCommit(urlRuleMatcher::reloadLogoRules);
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    @Transactional
-    @CacheEvict(value = "getAllCodes", allEntries = true)
     public LogoRule update(String id, LogoRuleDto logoRuleDto) throws Exception {
 
         LogoRule current = logoRuleRepository.findById(id)
@@ -121,17 +136,22 @@ public class LogoRulesServiceImpl implements LogoRulesService {
                         logoRuleDto.getOverrideDifficultyLevel() :
                         current.getOverrideDifficultyLevel());
 
+        // current is the managed instance save merges into, read its prefix before saving
+        String currentStartsWith = current.getStartsWith();
+
         LogoRule newLogoRule =
                 logoRuleRepository.saveAndFlush(builder.build());
 
-        // If startsWith string has changed update links
-        String currentStartsWith = current.getStartsWith();
+        // If startsWith string has changed update links,
+        // links that still match keep the rule
+        int linksUpdated = 0;
 
-        if (!StringUtils.equals(currentStartsWith, logoRuleDto.getStartsWith())) {
+        if (!StringUtils.equals(currentStartsWith, newLogoRule.getStartsWith())) {
 
-            logoRuleRepository.clearLogoRule(newLogoRule);
-            logoRuleRepository.addLogoRule(newLogoRule);
+            linksUpdated = releaseLinks(newLogoRule) + assignLinks(newLogoRule);
         }
+        newLogoRule.setLinksUpdated(linksUpdated);
+        linksUpdated(newLogoRule);
 
         return newLogoRule;
     }
@@ -149,17 +169,64 @@ public class LogoRulesServiceImpl implements LogoRulesService {
             return Optional.empty();
         }
 
-        String linkText = link.getLink();
+        return urlRuleMatcher.matchLogoRule(link.getLink());
+    }
+
+    /**
+     * Assign the rule to links starting with its prefix, a chunk per transaction
+     * so links are never locked for long.
+     *
+     * @param logoRule a saved logo rule
+     * @return number of links updated
+     */
+    private int assignLinks(LogoRule logoRule) {
 
-        if (link.getLink() == null) {
+        String startsWith = logoRule.getStartsWith();
 
-            return Optional.empty();
+        if (startsWith == null) {
+
+            return 0;
         }
 
-        return this.logoRuleRepository
-                .findAll()
-                .stream()
-                .filter(lr -> linkText.startsWith(lr.getStartsWith()))
-                .findFirst();
+        return inChunks(() -> logoRuleRepository.assignLogoRule(
+                logoRule.getId(), likePrefix(startsWith), startsWith.length(), chunkSize));
+    }
+
+    /**
+     * Remove the rule from links no longer starting with its prefix, a chunk per transaction.
+     *
+     * @param logoRule a saved logo rule
+     * @return number of links updated
+     */
+    private int releaseLinks(LogoRule logoRule) {
+
+        // pattern matching nothing releases all the links
+        String pattern = logoRule.getStartsWith() == null ? "" : likePrefix(logoRule.getStartsWith());
+
+        return inChunks(() -> logoRuleRepository.releaseLogoRule(logoRule.getId(), pattern, chunkSize));
+    }
+
+    private int inChunks(IntSupplier chunk) {
+
+        int total = 0;
+        int updated;
+
+        do {
+            updated = transactionTemplate.execute(status -> chunk.getAsInt());
+            total += updated;
+        } while (updated >= chunkSize);
+
+        return total;
+    }
+
+    private void linksUpdated(LogoRule logoRule) {
+
+        log.info("Logo rule {} {} applied, links updated {}",
+                logoRule.getId(), logoRule.getStartsWith(), logoRule.getLinksUpdated());
+
+        if (logoRule.getLinksUpdated() > 0) {
+            codeSnapshotStore.refreshAll();
+        }
+        runAfterCommit(urlRuleMatcher::reloadLogoRules);
     }
 }
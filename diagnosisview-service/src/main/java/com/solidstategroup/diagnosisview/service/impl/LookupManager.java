@@ -6,6 +6,7 @@ import com.solidstategroup.diagnosisview.model.codes.LookupType;
 import com.solidstategroup.diagnosisview.model.codes.enums.LookupTypes;
 import com.solidstategroup.diagnosisview.repository.LookupRepository;
 import com.solidstategroup.diagnosisview.repository.LookupTypeRepository;
+import com.solidstategroup.diagnosisview.service.impl.IdAllocator.Sequence;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -13,8 +14,6 @@ import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.EntityExistsException;
-import javax.persistence.EntityManager;
-import java.math.BigInteger;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -28,19 +27,18 @@ import java.util.Map;
 @Slf4j
 @Service
 public class LookupManager {
-    private static final String LOOKUP_VALUE_SEQ = "lookup_value_seq";
     private final LookupRepository lookupRepository;
     private final LookupTypeRepository lookupTypeRepository;
 
-    private final EntityManager entityManager;
+    private final IdAllocator idAllocator;
 
     @Autowired
     public LookupManager(final LookupRepository lookupRepository,
                          final LookupTypeRepository lookupTypeRepository,
-                         final EntityManager entityManager) {
+                         final IdAllocator idAllocator) {
         this.lookupRepository = lookupRepository;
         this.lookupTypeRepository = lookupTypeRepository;
-        this.entityManager = entityManager;
+        this.idAllocator = idAllocator;
     }
 
     public Lookup findByTypeAndValue(final LookupTypes lookupType, final String lookupValue)
@@ -69,7 +67,7 @@ public class LookupManager {
                     throw new EntityExistsException("Lookup with this code already exist");
                 });
 
-        lookup.setId(selectIdFrom(LOOKUP_VALUE_SEQ));
+        lookup.setId(idAllocator.next(Sequence.LOOKUP_VALUE));
 
         return lookupRepository.save(lookup);
     }
@@ -141,9 +139,4 @@ public class LookupManager {
                 .orElseThrow(() -> new ResourceNotFoundException("Could not find LookupType"));
 
     }
-
-    private long selectIdFrom(String sequence) {
-        String sql = "SELECT nextval('" + sequence + "')";
-        return ((BigInteger) entityManager.createNativeQuery(sql).getSingleResult()).longValue();
-    }
 }
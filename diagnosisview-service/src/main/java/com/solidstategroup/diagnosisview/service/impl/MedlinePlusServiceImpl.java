@@ -1,9 +1,13 @@
 package com.solidstategroup.diagnosisview.service.impl;
 
 
+import com.solidstategroup.diagnosisview.clients.OutboundHttpClient;
+import com.solidstategroup.diagnosisview.clients.medlineplus.EntryJson;
 import com.solidstategroup.diagnosisview.clients.medlineplus.MedlineplusApiClient;
 import com.solidstategroup.diagnosisview.clients.medlineplus.MedlineplusResponseJson;
+import com.solidstategroup.diagnosisview.exceptions.CircuitOpenException;
 import com.solidstategroup.diagnosisview.exceptions.ResourceNotFoundException;
+import com.solidstategroup.diagnosisview.model.ProviderResponse;
 import com.solidstategroup.diagnosisview.model.codes.Code;
 import com.solidstategroup.diagnosisview.model.codes.CodeExternalStandard;
 import com.solidstategroup.diagnosisview.model.codes.Link;
@@ -15,6 +19,8 @@ import com.solidstategroup.diagnosisview.repository.LookupRepository;
 import com.solidstategroup.diagnosisview.service.CodeService;
 import com.solidstategroup.diagnosisview.service.LinkService;
 import com.solidstategroup.diagnosisview.service.MedlinePlusService;
+import com.solidstategroup.diagnosisview.service.ProviderResponses;
+import com.solidstategroup.diagnosisview.utils.CircuitBreaker;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -22,8 +28,12 @@ import org.springframework.util.CollectionUtils;
 import org.springframework.util.StringUtils;
 
 import javax.transaction.Transactional;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.Objects;
 import java.util.Set;
 
 /**
@@ -37,17 +47,25 @@ public class MedlinePlusServiceImpl implements MedlinePlusService {
     private final CodeService codeService;
     private final LinkService linkService;
     private final LinkRepository linkRepository;
-
+    private final OutboundHttpClient outboundHttpClient;
+    private final CircuitBreaker circuitBreaker;
+    private final CodeSnapshotStore codeSnapshotStore;
 
     @Autowired
     public MedlinePlusServiceImpl(final LookupRepository lookupRepository,
                                   final CodeService codeService,
                                   final LinkService linkService,
-                                  final LinkRepository linkRepository) {
+                                  final LinkRepository linkRepository,
+                                  final OutboundHttpClient outboundHttpClient,
+                                  final CircuitBreakerRegistry circuitBreakerRegistry,
+                                  final CodeSnapshotStore codeSnapshotStore) {
         this.lookupRepository = lookupRepository;
         this.codeService = codeService;
         this.linkService = linkService;
         this.linkRepository = linkRepository;
+        this.outboundHttpClient = outboundHttpClient;
+        this.circuitBreaker = circuitBreakerRegistry.get(CircuitBreakerRegistry.MEDLINE_PLUS);
+        this.codeSnapshotStore = codeSnapshotStore;
     }
 
 
@@ -86,95 +104,163 @@ public class MedlinePlusServiceImpl implements MedlinePlusService {
                 return false;
             }
 
-            Date now = new Date();
-            Link existingLink = null;
+            return applyLink(entityCode, codeExternalEntity,
+                    circuitBreaker.call(() -> fetchLink(codeExternalEntity)));
 
-            // check Link exists already with Medline Plus type
-            for (Link link : entityCode.getLinks()) {
-                if (link.getLinkType() != null && LinkTypes.MEDLINE_PLUS.id() == link.getLinkType().getId()) {
-                    existingLink = link;
-                }
-            }
+        } catch (CircuitOpenException e) {
+            log.warn("Skipping MedlinePlus link for Code {}, {}", entityCode.getCode(), e.getMessage());
+        } catch (Exception e) {
+            log.error("Failed to add MediaPlus link to Code", e);
+        }
+        return false;
+    }
 
-            /**
-             * Need to check what system to use to query the link ICD-10 or SNOMED-CT.
-             * Will bring the same link url though, but still nice to have support
-             *
-             * Defaults to ICD-10
-             */
-            MedlineplusApiClient.CodeSystem codeSystem = MedlineplusApiClient.CodeSystem.ICD_10_CM;
-            if (MedlineplusApiClient.CodeSystem.SNOMED_CT.nameCode().equals(
-                    codeExternalEntity.getExternalStandard().getName())) {
-                codeSystem = MedlineplusApiClient.CodeSystem.SNOMED_CT;
-            }
+    @Override
+    @Transactional
+    public boolean processLink(Code entityCode, CodeExternalStandard codeExternalEntity,
+                               ProviderResponses responses) {
+        try {
 
-            MedlineplusApiClient apiClient = MedlineplusApiClient
-                    .newBuilder()
-                    .setCodeSystem(codeSystem)
-                    .build();
-            MedlineplusResponseJson json = apiClient.getLink(codeExternalEntity.getCodeString());
-
-            String linkUrl = null;
-
-            // Deep down in json, need to check all the bits before getting url
-            if (json.getFeed() != null
-                    && json.getFeed().getEntry() != null
-                    && json.getFeed().getEntry().length > 0
-                    && json.getFeed().getEntry()[0].getLink().length > 0) {
-
-                linkUrl = json.getFeed().getEntry()[0].getLink()[0].getHref();
-
-                if(!StringUtils.isEmpty(linkUrl) && linkUrl.endsWith("%20")){
-                    // some links apparently have empty spaces
-                    linkUrl = linkUrl.replace("%20", "");
-                }
-
-                // should have them already configured
-                if (existingLink == null) {
-                    Lookup linkType = lookupRepository.findById(LinkTypes.MEDLINE_PLUS.id())
-                            .orElseThrow(() ->
-                                    new ResourceNotFoundException("Could not find MEDLINE_PLUS link type Lookup"));
-
-                    // no medline plus link exist create one Link
-                    Link medlinePlusLink = new Link();
-
-                    medlinePlusLink.setLinkType(linkType);
-                    medlinePlusLink.setLink(linkUrl);
-                    medlinePlusLink.setName(linkType.getDescription());
-                    medlinePlusLink.setDifficultyLevel(DifficultyLevel.GREEN);
-                    medlinePlusLink.setCode(entityCode);
-                    medlinePlusLink.setCreator(null);
-                    medlinePlusLink.setCreated(now);
-                    medlinePlusLink.setLastUpdater(null);
-                    medlinePlusLink.setLastUpdate(now);
-
-                    // add new links, sets correct display order and persist it
-                    Link saved = linkService.addExternalLink(medlinePlusLink, entityCode);
-                    entityCode.addLink(saved);
-                    codeService.save(entityCode);
-
-                } else {
-                    // update existing MedlineLink link
-                    existingLink.setLink(linkUrl);
-                    existingLink.setLastUpdater(null);
-                    existingLink.setLastUpdate(now);
-
-                    linkRepository.save(existingLink);
-                }
-
-                log.info("Done medline plus link for code {}, external standard {}",
-                        entityCode.getCode(), codeExternalEntity.getCodeString());
-
-                return true;
-            } else {
-                log.error("Could not find medline plus url for {}", codeExternalEntity.getCodeString());
+            if (codeExternalEntity == null || entityCode == null) {
+                log.error("Missing CodeExternalStandard or Code, cannot add Medline Plus link");
                 return false;
             }
 
+            ProviderResponse response = responses.get(codeExternalEntity.getExternalStandard().getName(),
+                    codeExternalEntity.getCodeString(), () -> fetchLink(codeExternalEntity));
+
+            return applyLink(entityCode, codeExternalEntity, response);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted adding MediaPlus link to Code {}", entityCode.getCode());
         } catch (Exception e) {
             log.error("Failed to add MediaPlus link to Code", e);
         }
         return false;
     }
 
+    /**
+     * Calls MedlinePlus for the link of CodeExternalStandard.
+     *
+     * @return the link, null if MedlinePlus has none
+     */
+    private ProviderResponse fetchLink(CodeExternalStandard codeExternalEntity) {
+
+        /**
+         * Need to check what system to use to query the link ICD-10 or SNOMED-CT.
+         * Will bring the same link url though, but still nice to have support
+         *
+         * Defaults to ICD-10
+         */
+        MedlineplusApiClient.CodeSystem codeSystem = MedlineplusApiClient.CodeSystem.ICD_10_CM;
+        if (MedlineplusApiClient.CodeSystem.SNOMED_CT.nameCode().equals(
+                codeExternalEntity.getExternalStandard().getName())) {
+            codeSystem = MedlineplusApiClient.CodeSystem.SNOMED_CT;
+        }
+
+        MedlineplusApiClient apiClient = MedlineplusApiClient
+                .newBuilder()
+                .setCodeSystem(codeSystem)
+                .setRestTemplate(outboundHttpClient.getRestTemplate())
+                .build();
+        MedlineplusResponseJson json = apiClient.getLink(codeExternalEntity.getCodeString());
+
+        // client logs and swallows errors, do not take them as no link
+        if (json == null) {
+            throw new IllegalStateException("No MedlinePlus response for " + codeExternalEntity.getCodeString());
+        }
+
+        // Deep down in json, need to check all the bits before getting url
+        if (json.getFeed() != null
+                && json.getFeed().getEntry() != null
+                && json.getFeed().getEntry().length > 0
+                && json.getFeed().getEntry()[0].getLink().length > 0) {
+
+            EntryJson entry = json.getFeed().getEntry()[0];
+            String linkUrl = entry.getLink()[0].getHref();
+
+            if (!StringUtils.isEmpty(linkUrl) && linkUrl.endsWith("%20")) {
+                // some links apparently have empty spaces
+                linkUrl = linkUrl.replace("%20", "");
+            }
+
+            return new ProviderResponse(Collections.singletonList(new ProviderResponse.Entry(
+                    null, linkUrl, null, parseUpdated(entry))));
+        }
+        return null;
+    }
+
+    /**
+     * Adds or updates the MedlinePlus link of the Code, the link is only saved when its url changed.
+     */
+    private boolean applyLink(Code entityCode, CodeExternalStandard codeExternalEntity, ProviderResponse response)
+            throws Exception {
+
+        if (response == null || !response.isFound()) {
+            log.error("Could not find medline plus url for {}", codeExternalEntity.getCodeString());
+            return false;
+        }
+
+        Date now = new Date();
+        Link existingLink = null;
+        String linkUrl = response.getEntries().get(0).getHref();
+
+        // check Link exists already with Medline Plus type
+        for (Link link : entityCode.getLinks()) {
+            if (link.getLinkType() != null && LinkTypes.MEDLINE_PLUS.id() == link.getLinkType().getId()) {
+                existingLink = link;
+            }
+        }
+
+        // should have them already configured
+        if (existingLink == null) {
+            Lookup linkType = lookupRepository.findById(LinkTypes.MEDLINE_PLUS.id())
+                    .orElseThrow(() ->
+                            new ResourceNotFoundException("Could not find MEDLINE_PLUS link type Lookup"));
+
+            // no medline plus link exist create one Link
+            Link medlinePlusLink = new Link();
+
+            medlinePlusLink.setLinkType(linkType);
+            medlinePlusLink.setLink(linkUrl);
+            medlinePlusLink.setName(linkType.getDescription());
+            medlinePlusLink.setDifficultyLevel(DifficultyLevel.GREEN);
+            medlinePlusLink.setCode(entityCode);
+            medlinePlusLink.setCreator(null);
+            medlinePlusLink.setCreated(now);
+            medlinePlusLink.setLastUpdater(null);
+            medlinePlusLink.setLastUpdate(now);
+
+            // add new links, sets correct display order and persist it
+            Link saved = linkService.addExternalLink(medlinePlusLink, entityCode);
+            entityCode.addLink(saved);
+            codeService.save(entityCode);
+
+        } else if (!Objects.equals(existingLink.getLink(), linkUrl)) {
+            // update existing MedlineLink link
+            existingLink.setLink(linkUrl);
+            existingLink.setLastUpdater(null);
+            existingLink.setLastUpdate(now);
+
+            linkRepository.save(existingLink);
+            codeSnapshotStore.refresh(entityCode.getId());
+        }
+
+        log.info("Done medline plus link for code {}, external standard {}",
+                entityCode.getCode(), codeExternalEntity.getCodeString());
+
+        return true;
+    }
+
+    private static Date parseUpdated(EntryJson entry) {
+        if (entry.getUpdated() == null || entry.getUpdated().getValue() == null) {
+            return null;
+        }
+        try {
+            return Date.from(Instant.parse(entry.getUpdated().getValue()));
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
 }
@@ -1,10 +1,13 @@
 package com.solidstategroup.diagnosisview.service.impl;
 
+import com.google.common.collect.Lists;
+import com.solidstategroup.diagnosisview.clients.OutboundHttpClient;
 import com.solidstategroup.diagnosisview.clients.nhschoices.ConditionLinkJson;
 import com.solidstategroup.diagnosisview.clients.nhschoices.NhsChoicesApiClient;
 import com.solidstategroup.diagnosisview.exceptions.ImportResourceException;
 import com.solidstategroup.diagnosisview.exceptions.ResourceNotFoundException;
 import com.solidstategroup.diagnosisview.model.NhschoicesCondition;
+import com.solidstategroup.diagnosisview.model.SyncCheckpoint;
 import com.solidstategroup.diagnosisview.model.codes.Code;
 import com.solidstategroup.diagnosisview.model.codes.Link;
 import com.solidstategroup.diagnosisview.model.codes.Lookup;
@@ -17,21 +20,23 @@ import com.solidstategroup.diagnosisview.model.enums.LinkTypes;
 import com.solidstategroup.diagnosisview.repository.CodeRepository;
 import com.solidstategroup.diagnosisview.repository.LookupRepository;
 import com.solidstategroup.diagnosisview.repository.NhschoicesConditionRepository;
+import com.solidstategroup.diagnosisview.repository.SyncCheckpointRepository;
 import com.solidstategroup.diagnosisview.service.CodeService;
 import com.solidstategroup.diagnosisview.service.LinkService;
 import com.solidstategroup.diagnosisview.service.NhsChoicesService;
+import com.solidstategroup.diagnosisview.service.impl.IdAllocator.Sequence;
+import com.solidstategroup.diagnosisview.utils.TokenBucket;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.http.client.methods.HttpHead;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import javax.persistence.EntityManager;
-import java.math.BigInteger;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
@@ -40,6 +45,13 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * NHS Choices service, for retrieving data from NHS Choices.
@@ -51,16 +63,26 @@ import java.util.Set;
 @Service
 public class NhsChoicesServiceImpl implements NhsChoicesService {
 
-    private static final String NHSCHOICES_CONDITION_SEQ = "nhschoices_conditioncode_seq";
-    private static final String CODE_SEQ = "code_seq";
+    private static final String CHECKPOINT_NAME = "nhschoices_conditions";
+    private static final int PROBE_TIMEOUT_MS = 10000;
     private final NhschoicesConditionRepository nhschoicesConditionRepository;
     private final LookupRepository lookupRepository;
     private final CodeRepository codeRepository;
     private final CodeService codeService;
     private final LinkService linkService;
+    private final CodeSearchIndex codeSearchIndex;
+    private final CodeSnapshotStore codeSnapshotStore;
+    private final SyncCheckpointRepository syncCheckpointRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final OutboundHttpClient outboundHttpClient;
 
-    private EntityManager entityManager;
+    private final IdAllocator idAllocator;
     private String nhsChoicesApiKey;
+    private final double apiRequestsPerSecond;
+    private final double probeRequestsPerSecond;
+    private final int probeConcurrency;
+    private final int batchSize;
+    private final int checkpointMaxAgeHours;
     /**
      * This date was selected as the DV Live DB was already operational
      * via the original PV sync method and all irrelevant NHS Choices codes
@@ -70,29 +92,53 @@ public class NhsChoicesServiceImpl implements NhsChoicesService {
 
     @Autowired
     public NhsChoicesServiceImpl(@Value("${nhschoices.conditions.api.key}") String nhsChoicesApiKey,
+                                 @Value("${nhschoices.api.requests-per-second:0.5}") double apiRequestsPerSecond,
+                                 @Value("${nhschoices.probe.requests-per-second:1}") double probeRequestsPerSecond,
+                                 @Value("${nhschoices.probe.concurrency:4}") int probeConcurrency,
+                                 @Value("${nhschoices.sync.batch-size:100}") int batchSize,
+                                 @Value("${nhschoices.sync.checkpoint-max-age-hours:24}") int checkpointMaxAgeHours,
                                  final NhschoicesConditionRepository nhschoicesConditionRepository,
                                  final LookupRepository lookupRepository,
                                  final CodeRepository codeRepository,
                                  final CodeService codeService,
                                  final LinkService linkService,
-                                 EntityManager entityManager) {
+                                 final CodeSearchIndex codeSearchIndex,
+                                 final CodeSnapshotStore codeSnapshotStore,
+                                 final SyncCheckpointRepository syncCheckpointRepository,
+                                 final PlatformTransactionManager transactionManager,
+                                 final IdAllocator idAllocator,
+                                 final OutboundHttpClient outboundHttpClient) {
         this.nhsChoicesApiKey = nhsChoicesApiKey;
+        this.apiRequestsPerSecond = apiRequestsPerSecond;
+        this.probeRequestsPerSecond = probeRequestsPerSecond;
+        this.probeConcurrency = probeConcurrency;
+        this.batchSize = batchSize;
+        this.checkpointMaxAgeHours = checkpointMaxAgeHours;
         this.nhschoicesConditionRepository = nhschoicesConditionRepository;
         this.lookupRepository = lookupRepository;
         this.codeRepository = codeRepository;
         this.codeService = codeService;
         this.linkService = linkService;
-        this.entityManager = entityManager;
+        this.codeSearchIndex = codeSearchIndex;
+        this.codeSnapshotStore = codeSnapshotStore;
+        this.syncCheckpointRepository = syncCheckpointRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.idAllocator = idAllocator;
+        this.outboundHttpClient = outboundHttpClient;
     }
 
     /**
      * Step 1 of update PV Codes from NHS Choices.
      * Reads data from API and stores each condition as NhschoicesCondition.
      * Will create new NhschoicesConditions and delete from PV if no longer found in API.
+     * <p>
+     * Conditions are processed in code order and saved in chunks, each chunk in its own
+     * transaction together with the checkpoint, so a failed run resumes after the last
+     * saved chunk. Public urls of new conditions are probed in parallel, limited by
+     * nhschoices.probe.concurrency threads and nhschoices.probe.requests-per-second.
      *
      * //@throws ImportResourceException
      */
-    @Transactional
     @Override
     public void updateConditionsFromNhsChoices() throws ImportResourceException {
         log.info("START sync NhschoicesCondition process");
@@ -103,6 +149,8 @@ public class NhsChoicesServiceImpl implements NhsChoicesService {
         // we should have enough information to build full object
         NhsChoicesApiClient apiClient = NhsChoicesApiClient.newBuilder()
                 .setApiKey(nhsChoicesApiKey)
+                .setRateLimiter(new TokenBucket(apiRequestsPerSecond, 1))
+                .setRestTemplate(outboundHttpClient.getRestTemplate())
                 .build();
 
         List<ConditionLinkJson> allConditions = apiClient.getAllConditions();
@@ -113,95 +161,65 @@ public class NhsChoicesServiceImpl implements NhsChoicesService {
 
         log.info("Found NhschoicesConditions api: " + allConditions.size());
 
-        // compare to existing using uri, adding if required with correct details
-        List<NhschoicesCondition> currentConditions = nhschoicesConditionRepository.findAll();
-        List<String> currentConditionCodes = new ArrayList<>();
-        Map<String, NhschoicesCondition> currentCodeMap = new HashMap<>();
-
-        for (NhschoicesCondition currentCondition : currentConditions) {
-            currentConditionCodes.add(currentCondition.getCode());
-            currentCodeMap.put(currentCondition.getCode(), currentCondition);
+        // conditions by code, sorted so checkpoint can tell how far previous run got
+        TreeMap<String, ConditionLinkJson> conditionsByCode = new TreeMap<>();
+        for (ConditionLinkJson condition : allConditions) {
+            conditionsByCode.put(getConditionCodeFromUri(condition.getApiUrl()), condition);
         }
 
-        List<String> newConditionCodes = new ArrayList<>();
         Date now = new Date();
-        for (ConditionLinkJson condition : allConditions) {
-            String conditionCode = getConditionCodeFromUri(condition.getApiUrl());
-            newConditionCodes.add(conditionCode);
-            // build condition public url from api url
-            String conditionUrl = buildUrlFromApiUrl(condition.getApiUrl());
-
-            if (!currentCodeMap.keySet().contains(conditionCode)) {
-                // found new condition, populate all the details
-                NhschoicesCondition newCondition = new NhschoicesCondition();
-                newCondition.setId(selectIdFrom(NHSCHOICES_CONDITION_SEQ));
-                newCondition.setCode(conditionCode);
-                newCondition.setName(condition.getName());
-                newCondition.setDescription(condition.getDescription());
-                newCondition.setDescriptionLastUpdateDate(now);
-
-                // check if public url accessible accessible
-                Integer status = getUrlStatus(conditionUrl);
-                if (status != null && status.equals(200)) {
-                    newCondition.setIntroductionUrl(conditionUrl);
-                } else {
-                    // 404, 403 or otherwise, remove introduction url
-                    newCondition.setIntroductionUrl(null);
-                }
-                newCondition.setIntroductionUrlStatus(status);
-                newCondition.setIntroductionUrlLastUpdateDate(now);
-
-                newCondition.setUri(condition.getApiUrl());
-                newCondition.setCreator(null);
-                newCondition.setCreated(now);
-                newCondition.setLastUpdate(newCondition.getCreated());
-                newCondition.setLastUpdater(null);
-
-                // NHS choices dates to record for audit
-                if (condition.getPageDetails() != null) {
-                    newCondition.setPublishedDate(condition.getPageDetails().getDatePublished());
-                    newCondition.setModifiedDate(condition.getPageDetails().getDateModified());
-                }
+        SyncCheckpoint checkpoint = transactionTemplate.execute(status -> startCheckpoint(now));
+        Set<String> currentConditionCodes = transactionTemplate.execute(status ->
+                nhschoicesConditionRepository.findAllCodes());
 
-                nhschoicesConditionRepository.save(newCondition);
-            } else {
-                // existing entry, update dates for introduction url and description
-                NhschoicesCondition existingCondition = currentCodeMap.get(conditionCode);
-                if (existingCondition != null) {
-                    existingCondition.setName(condition.getName());
-                    existingCondition.setIntroductionUrl(conditionUrl);
-                    existingCondition.setIntroductionUrlLastUpdateDate(now);
-                    existingCondition.setIntroductionUrlStatus(200);
-                    existingCondition.setDescription(condition.getDescription());
-                    existingCondition.setDescriptionLastUpdateDate(now);
-                    existingCondition.setUri(condition.getApiUrl());
-                    existingCondition.setLastUpdate(now);
-                    existingCondition.setLastUpdater(null);
-
-                    // NHS choices dates to record for audit
-                    if (condition.getPageDetails() != null) {
-                        existingCondition.setPublishedDate(condition.getPageDetails().getDatePublished());
-                        existingCondition.setModifiedDate(condition.getPageDetails().getDateModified());
-                    }
+        List<String> pendingCodes = new ArrayList<>(checkpoint.getLastKey() == null
+                ? conditionsByCode.keySet()
+                : conditionsByCode.tailMap(checkpoint.getLastKey(), false).keySet());
 
-                    nhschoicesConditionRepository.save(existingCondition);
+        ExecutorService probeExecutor = Executors.newFixedThreadPool(probeConcurrency,
+                new CustomizableThreadFactory("nhschoices-probe-"));
+        try {
+            // probes for all new conditions are queued up front, chunks are saved as their probes complete
+            TokenBucket probeRateLimiter = new TokenBucket(probeRequestsPerSecond, probeConcurrency);
+            Map<String, Future<Integer>> probes = new HashMap<>();
+            for (String conditionCode : pendingCodes) {
+                if (!currentConditionCodes.contains(conditionCode)) {
+                    String conditionUrl = buildUrlFromApiUrl(conditionsByCode.get(conditionCode).getApiUrl());
+                    probes.put(conditionCode, probeExecutor.submit(() -> {
+                        probeRateLimiter.acquire();
+                        return getUrlStatus(conditionUrl);
+                    }));
                 }
             }
 
-            // sleep for 1 seconds to avoid too many calls to nhs website
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException ie) {
-                throw new ImportResourceException("Thread interrupted");
+            for (List<String> chunk : Lists.partition(pendingCodes, batchSize)) {
+                Map<String, Integer> statuses = new HashMap<>();
+                for (String conditionCode : chunk) {
+                    if (probes.containsKey(conditionCode)) {
+                        statuses.put(conditionCode, waitForProbe(probes.get(conditionCode)));
+                    }
+                }
+
+                checkpoint = saveChunk(chunk, conditionsByCode, statuses, now, checkpoint);
+                log.info("Saved {} of {} NhschoicesConditions", checkpoint.getProcessed(), conditionsByCode.size());
             }
+        } finally {
+            probeExecutor.shutdownNow();
         }
 
-        // delete old NhschoiceCondition, no longer on NHS Choices
-        currentConditionCodes.removeAll(newConditionCodes);
+        // delete old NhschoiceCondition, no longer on NHS Choices, and close the run
+        List<String> removedConditionCodes = new ArrayList<>(currentConditionCodes);
+        removedConditionCodes.removeAll(conditionsByCode.keySet());
 
-        if (!currentConditionCodes.isEmpty()) {
-            nhschoicesConditionRepository.deleteByCode(currentConditionCodes);
-        }
+        SyncCheckpoint completed = checkpoint;
+        transactionTemplate.execute(status -> {
+            if (!removedConditionCodes.isEmpty()) {
+                nhschoicesConditionRepository.deleteByCode(removedConditionCodes);
+            }
+            completed.setCompleted(true);
+            completed.setLastUpdate(new Date());
+            return syncCheckpointRepository.save(completed);
+        });
 
         long stop = System.currentTimeMillis();
         log.info("TIMING Update NhschoicesCondition took {}", (stop - start));
@@ -214,7 +232,7 @@ public class NhsChoicesServiceImpl implements NhsChoicesService {
      * @throws ResourceNotFoundException
      */
     @Override
-    @CacheEvict(value = {"getAllCodes", "getAllCategories"}, allEntries = true)
+    @CacheEvict(value = "getAllCategories", allEntries = true)
     public void syncConditionsWithCodes() throws ResourceNotFoundException {
         log.info("START sync NhschoicesConditions with Codes process");
         long start = System.currentTimeMillis();
@@ -310,7 +328,7 @@ public class NhsChoicesServiceImpl implements NhsChoicesService {
 
                 // NhschoicesCondition is new, create and save new Code
                 Code code = new Code();
-                code.setId(selectIdFrom(CODE_SEQ));
+                code.setId(idAllocator.next(Sequence.CODE));
                 code.setCreator(null);
                 code.setCreated(new Date());
                 code.setLastUpdater(null);
@@ -374,7 +392,9 @@ public class NhsChoicesServiceImpl implements NhsChoicesService {
         }
 
         if (!codesToSave.isEmpty()) {
-            codeRepository.saveAll(codesToSave);
+            List<Code> savedCodes = codeRepository.saveAll(codesToSave);
+            codeSearchIndex.indexAll(savedCodes);
+            codeSnapshotStore.refresh(savedCodes.stream().map(Code::getId).collect(Collectors.toSet()));
         }
 
         long stop = System.currentTimeMillis();
@@ -382,6 +402,135 @@ public class NhsChoicesServiceImpl implements NhsChoicesService {
                 conditions.size(), currentCodes.size(), (stop - start));
     }
 
+    /**
+     * Carry on with the previous run if it didn't complete and is recent enough,
+     * otherwise start a new run from the first condition.
+     */
+    private SyncCheckpoint startCheckpoint(Date now) {
+        SyncCheckpoint checkpoint = syncCheckpointRepository.findById(CHECKPOINT_NAME).orElse(null);
+
+        if (checkpoint != null && !checkpoint.isCompleted()
+                && now.getTime() - checkpoint.getLastUpdate().getTime() < TimeUnit.HOURS.toMillis(checkpointMaxAgeHours)) {
+            log.info("Resuming NhschoicesCondition sync started {} after condition {}, {} already processed",
+                    checkpoint.getRunStarted(), checkpoint.getLastKey(), checkpoint.getProcessed());
+            return checkpoint;
+        }
+
+        if (checkpoint == null) {
+            checkpoint = new SyncCheckpoint();
+            checkpoint.setName(CHECKPOINT_NAME);
+        }
+        checkpoint.setRunStarted(now);
+        checkpoint.setLastKey(null);
+        checkpoint.setProcessed(0);
+        checkpoint.setCompleted(false);
+        checkpoint.setLastUpdate(now);
+        return syncCheckpointRepository.save(checkpoint);
+    }
+
+    /**
+     * Create or update NhschoicesConditions for given codes and move the checkpoint
+     * past them, all in one transaction.
+     */
+    private SyncCheckpoint saveChunk(List<String> chunk,
+                                     Map<String, ConditionLinkJson> conditionsByCode,
+                                     Map<String, Integer> statuses,
+                                     Date now,
+                                     SyncCheckpoint checkpoint) {
+        return transactionTemplate.execute(status -> {
+            Map<String, NhschoicesCondition> existingConditions = new HashMap<>();
+            for (NhschoicesCondition existing : nhschoicesConditionRepository.findAllByCodes(chunk)) {
+                existingConditions.put(existing.getCode(), existing);
+            }
+
+            // ids for new conditions of the chunk are reserved together
+            long[] newIds = idAllocator.next(Sequence.NHSCHOICES_CONDITION, (int) chunk
+                    .stream()
+                    .filter(conditionCode -> !existingConditions.containsKey(conditionCode))
+                    .count());
+            int newCount = 0;
+
+            List<NhschoicesCondition> conditionsToSave = new ArrayList<>();
+            for (String conditionCode : chunk) {
+                ConditionLinkJson condition = conditionsByCode.get(conditionCode);
+                // build condition public url from api url
+                String conditionUrl = buildUrlFromApiUrl(condition.getApiUrl());
+
+                NhschoicesCondition existingCondition = existingConditions.get(conditionCode);
+                if (existingCondition == null) {
+                    // found new condition, populate all the details
+                    NhschoicesCondition newCondition = new NhschoicesCondition();
+                    newCondition.setId(newIds[newCount++]);
+                    newCondition.setCode(conditionCode);
+                    newCondition.setName(condition.getName());
+                    newCondition.setDescription(condition.getDescription());
+                    newCondition.setDescriptionLastUpdateDate(now);
+
+                    // check if public url accessible accessible
+                    Integer urlStatus = statuses.get(conditionCode);
+                    if (urlStatus != null && urlStatus.equals(200)) {
+                        newCondition.setIntroductionUrl(conditionUrl);
+                    } else {
+                        // 404, 403 or otherwise, remove introduction url
+                        newCondition.setIntroductionUrl(null);
+                    }
+                    newCondition.setIntroductionUrlStatus(urlStatus);
+                    newCondition.setIntroductionUrlLastUpdateDate(now);
+
+                    newCondition.setUri(condition.getApiUrl());
+                    newCondition.setCreator(null);
+                    newCondition.setCreated(now);
+                    newCondition.setLastUpdate(newCondition.getCreated());
+                    newCondition.setLastUpdater(null);
+
+                    // NHS choices dates to record for audit
+                    if (condition.getPageDetails() != null) {
+                        newCondition.setPublishedDate(condition.getPageDetails().getDatePublished());
+                        newCondition.setModifiedDate(condition.getPageDetails().getDateModified());
+                    }
+
+                    conditionsToSave.add(newCondition);
+                } else {
+                    // existing entry, update dates for introduction url and description
+                    existingCondition.setName(condition.getName());
+                    existingCondition.setIntroductionUrl(conditionUrl);
+                    existingCondition.setIntroductionUrlLastUpdateDate(now);
+                    existingCondition.setIntroductionUrlStatus(200);
+                    existingCondition.setDescription(condition.getDescription());
+                    existingCondition.setDescriptionLastUpdateDate(now);
+                    existingCondition.setUri(condition.getApiUrl());
+                    existingCondition.setLastUpdate(now);
+                    existingCondition.setLastUpdater(null);
+
+                    // NHS choices dates to record for audit
+                    if (condition.getPageDetails() != null) {
+                        existingCondition.setPublishedDate(condition.getPageDetails().getDatePublished());
+                        existingCondition.setModifiedDate(condition.getPageDetails().getDateModified());
+                    }
+
+                    conditionsToSave.add(existingCondition);
+                }
+            }
+            nhschoicesConditionRepository.saveAll(conditionsToSave);
+
+            checkpoint.setLastKey(chunk.get(chunk.size() - 1));
+            checkpoint.setProcessed(checkpoint.getProcessed() + chunk.size());
+            checkpoint.setLastUpdate(new Date());
+            return syncCheckpointRepository.save(checkpoint);
+        });
+    }
+
+    private Integer waitForProbe(Future<Integer> probe) throws ImportResourceException {
+        try {
+            return probe.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new ImportResourceException("Thread interrupted");
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
     private String getConditionCodeFromUri(String uri) {
         return uri.split("/")[uri.split("/").length - 1];
     }
@@ -394,12 +543,14 @@ public class NhsChoicesServiceImpl implements NhsChoicesService {
      */
     private Integer getUrlStatus(String url) {
         try {
-            HttpURLConnection huc = (HttpURLConnection) new URL(url).openConnection();
-            huc.setRequestMethod("HEAD");  //OR  huc.setRequestMethod ("GET");
-            huc.setRequestProperty("User-Agent", "Mozilla/4.0 (compatible; MSIE 6.0; Windows NT 5.1; "
+            HttpHead request = new HttpHead(url);
+            request.setConfig(outboundHttpClient.requestConfig()
+                    .setConnectTimeout(PROBE_TIMEOUT_MS)
+                    .setSocketTimeout(PROBE_TIMEOUT_MS)
+                    .build());
+            request.setHeader("User-Agent", "Mozilla/4.0 (compatible; MSIE 6.0; Windows NT 5.1; "
                     + ".NET CLR 1.0.3705; .NET CLR 1.1.4322; .NET CLR 1.2.30703)");
-            huc.connect();
-            return huc.getResponseCode();
+            return outboundHttpClient.execute(request, response -> response.getStatusLine().getStatusCode());
         } catch (Exception e) {
             return null;
         }
@@ -417,9 +568,4 @@ public class NhsChoicesServiceImpl implements NhsChoicesService {
     private String buildUrlFromApiUrl(String apiUrl) {
         return apiUrl.replace("api.nhs.uk", "www.nhs.uk");
     }
-
-    private long selectIdFrom(String sequence) {
-        String sql = "SELECT nextval('" + sequence + "')";
-        return ((BigInteger) entityManager.createNativeQuery(sql).getSingleResult()).longValue();
-    }
 }
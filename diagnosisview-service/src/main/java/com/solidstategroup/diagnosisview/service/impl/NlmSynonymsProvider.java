@@ -0,0 +1,81 @@
+package com.solidstategroup.diagnosisview.service.impl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.solidstategroup.diagnosisview.clients.OutboundHttpClient;
+import com.solidstategroup.diagnosisview.service.SynonymsProvider;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Synonyms provider backed by the NLM clinical tables conditions API.
+ * <p>
+ * This is the default provider, enabled unless synonyms.provider is set to local.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "synonyms.provider", havingValue = "nlm", matchIfMissing = true)
+public class NlmSynonymsProvider implements SynonymsProvider {
+
+    private static final String SYNONYMS_URL = "https://clinicaltables.nlm.nih.gov/api/conditions/v3/search?" +
+            "terms={term}" +
+            "&maxList=20" +
+            "&ef=icd10cm_codes,primary_name" +
+            "&sf=primary_name,consumer_name,key_id,word_synonyms,synonyms";
+    private final RestTemplate template;
+
+    /**
+     * Standalone provider with its own RestTemplate, used outside of Spring.
+     */
+    public NlmSynonymsProvider() {
+        this.template = new RestTemplate();
+    }
+
+    /**
+     * Searches are made while users wait, so they get a shorter timeout than other calls.
+     */
+    @Autowired
+    public NlmSynonymsProvider(final OutboundHttpClient outboundHttpClient,
+                               @Value("${synonyms.nlm.timeout-ms:3000}") int timeoutMs) {
+        this.template = outboundHttpClient.getRestTemplate(timeoutMs, timeoutMs);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<String> searchSynonyms(String searchTerm) {
+
+        Set<String> codes = new HashSet<>();
+
+        ResponseEntity<ArrayNode> entity = template.getForEntity(SYNONYMS_URL, ArrayNode.class, searchTerm);
+
+        if (!entity.getStatusCode().is2xxSuccessful()) {
+            throw new RestClientException("Failed to search synonyms, status " + entity.getStatusCode());
+        }
+
+        JsonNode entry = entity.getBody().findValue("icd10cm_codes");
+        if (entry != null && entry.isArray()) {
+            for (JsonNode node : entry) {
+                String fullCode = node.asText();
+                if (!StringUtils.isEmpty(fullCode)) {
+                    codes.add(fullCode);
+                }
+            }
+        } else {
+            log.info("No codes returned in search synonyms {}", searchTerm);
+        }
+
+        return codes;
+    }
+}
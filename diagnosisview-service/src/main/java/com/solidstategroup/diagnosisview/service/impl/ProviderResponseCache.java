@@ -0,0 +1,118 @@
+package com.solidstategroup.diagnosisview.service.impl;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.solidstategroup.diagnosisview.model.ProviderResponse;
+import com.solidstategroup.diagnosisview.service.ProviderResponses;
+import com.solidstategroup.diagnosisview.utils.CircuitBreaker;
+import com.solidstategroup.diagnosisview.utils.ProviderCallLimiter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps what BMJ and MedlinePlus returned for each code in dv_provider_response, so
+ * links sync only calls a provider for codes it has not asked about recently.
+ * <p>
+ * Entries are stored as JSON already extracted from the provider response, together
+ * with the provider updated timestamp and the time they were fetched.
+ */
+@Slf4j
+@Component
+public class ProviderResponseCache {
+
+    private static final String LOAD_SQL = "SELECT code_system, code, entries, source_updated, fetched "
+            + "FROM dv_provider_response WHERE provider = ?";
+
+    private static final String SAVE_SQL = "INSERT INTO dv_provider_response "
+            + "(provider, code_system, code, found, entries, source_updated, fetched) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?) "
+            + "ON CONFLICT (provider, code_system, code) DO UPDATE SET found = EXCLUDED.found, "
+            + "entries = EXCLUDED.entries, source_updated = EXCLUDED.source_updated, fetched = EXCLUDED.fetched";
+
+    private static final TypeReference<List<ProviderResponse.Entry>> ENTRIES_TYPE =
+            new TypeReference<List<ProviderResponse.Entry>>() {
+            };
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final long minAgeMillis;
+
+    public ProviderResponseCache(final JdbcTemplate jdbcTemplate,
+                                 @Value("${links.sync.cache.min-age-hours:72}") long minAgeHours) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        this.minAgeMillis = TimeUnit.HOURS.toMillis(minAgeHours);
+    }
+
+    /**
+     * Start a sync run for a provider, loading all its stored responses with a single query.
+     *
+     * @param provider provider name
+     * @param limiter  limits calls to the provider during the run
+     * @param breaker  circuit breaker of the provider
+     * @return responses of the provider for the run
+     */
+    public ProviderResponses startRun(String provider, ProviderCallLimiter limiter, CircuitBreaker breaker) {
+        long start = System.currentTimeMillis();
+
+        Map<String, ProviderResponse> stored = new HashMap<>();
+        jdbcTemplate.query(LOAD_SQL, rs -> {
+            List<ProviderResponse.Entry> entries = readEntries(rs.getString(3));
+            // unreadable entries are left out and fetched again
+            if (entries != null) {
+                stored.put(ProviderResponses.key(rs.getString(1), rs.getString(2)),
+                        new ProviderResponse(entries, toDate(rs.getTimestamp(4)), toDate(rs.getTimestamp(5))));
+            }
+        }, provider);
+
+        long stop = System.currentTimeMillis();
+        log.info("Loaded {} stored {} responses, timing {}", stored.size(), provider, (stop - start));
+        return new ProviderResponses(provider, stored, minAgeMillis, limiter, breaker, this::save);
+    }
+
+    /**
+     * Store a fetched response, a failure to store is only logged as the response is
+     * fetched again next run.
+     */
+    void save(String provider, String codeSystem, String code, ProviderResponse response) {
+        try {
+            jdbcTemplate.update(SAVE_SQL, provider, codeSystem, code, response.isFound(),
+                    objectMapper.writeValueAsString(response.getEntries()),
+                    toTimestamp(response.getUpdated()), toTimestamp(response.getFetched()));
+        } catch (Exception e) {
+            log.error("Failed to store {} response for {} {}", provider, codeSystem, code, e);
+        }
+    }
+
+    private List<ProviderResponse.Entry> readEntries(String json) {
+        if (json == null) {
+            return Collections.emptyList();
+        }
+        try {
+            return objectMapper.readValue(json, ENTRIES_TYPE);
+        } catch (IOException e) {
+            log.warn("Could not read stored provider response entries", e);
+            return null;
+        }
+    }
+
+    private static Date toDate(Timestamp timestamp) {
+        return timestamp == null ? null : new Date(timestamp.getTime());
+    }
+
+    private static Timestamp toTimestamp(Date date) {
+        return date == null ? null : new Timestamp(date.getTime());
+    }
+}
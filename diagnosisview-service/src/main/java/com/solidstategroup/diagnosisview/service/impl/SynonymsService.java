@@ -1,18 +1,31 @@
 package com.solidstategroup.diagnosisview.service.impl;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.solidstategroup.diagnosisview.exceptions.CircuitOpenException;
+import com.solidstategroup.diagnosisview.service.SynonymsProvider;
+import com.solidstategroup.diagnosisview.utils.CircuitBreaker;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.http.ResponseEntity;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
-import org.springframework.web.client.RestTemplate;
 
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
- * A client for 3rd party service to search for Diagnosis by synonyms.
+ * Search for Diagnosis by synonyms using configured SynonymsProvider.
+ * <p>
+ * Results are cached per normalised term for a limited time, concurrent searches
+ * for the same term wait for a single provider call rather than each making their own.
+ * Provider calls go through the synonyms circuit breaker, when the provider fails or
+ * the breaker is open the last results seen for the term are used, or none so search
+ * carries on with DB results only.
  *
  * Created by Pavlo Maksymchuk.
  */
@@ -20,15 +33,46 @@ import java.util.Set;
 @Service
 public class SynonymsService {
 
+    private static final long DEFAULT_CACHE_SIZE = 5000;
+    private static final long DEFAULT_CACHE_TTL_MINUTES = 60;
 
-    private static final String SYNONYMS_URL = "https://clinicaltables.nlm.nih.gov/api/conditions/v3/search?" +
-            "terms=%s" +
-            "&maxList=20" +
-            "&ef=icd10cm_codes,primary_name" +
-            "&sf=primary_name,consumer_name,key_id,word_synonyms,synonyms";
-    private static RestTemplate template = new RestTemplate();
+    private final LoadingCache<String, Set<String>> cache;
+    // last successful result per term, kept after the cache entry expires
+    private final Cache<String, Set<String>> lastKnownGood;
 
     public SynonymsService() {
+        this(new NlmSynonymsProvider(), DEFAULT_CACHE_SIZE, DEFAULT_CACHE_TTL_MINUTES);
+    }
+
+    public SynonymsService(final SynonymsProvider synonymsProvider, long cacheSize, long cacheTtlMinutes) {
+        this(synonymsProvider, new CircuitBreaker(CircuitBreakerRegistry.SYNONYMS,
+                CircuitBreaker.Config.builder().build()), cacheSize, cacheTtlMinutes);
+    }
+
+    @Autowired
+    public SynonymsService(final SynonymsProvider synonymsProvider,
+                           final CircuitBreakerRegistry circuitBreakerRegistry,
+                           @Value("${synonyms.cache.max-size:5000}") long cacheSize,
+                           @Value("${synonyms.cache.ttl-minutes:60}") long cacheTtlMinutes) {
+        this(synonymsProvider, circuitBreakerRegistry.get(CircuitBreakerRegistry.SYNONYMS), cacheSize,
+                cacheTtlMinutes);
+    }
+
+    SynonymsService(final SynonymsProvider synonymsProvider, final CircuitBreaker circuitBreaker,
+                    long cacheSize, long cacheTtlMinutes) {
+        this.lastKnownGood = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .build();
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(cacheTtlMinutes, TimeUnit.MINUTES)
+                .recordStats()
+                .build(term -> {
+                    Set<String> codes = Collections.unmodifiableSet(
+                            circuitBreaker.call(() -> synonymsProvider.searchSynonyms(term)));
+                    lastKnownGood.put(term, codes);
+                    return codes;
+                });
     }
 
     /**
@@ -43,31 +87,25 @@ public class SynonymsService {
         long start = System.currentTimeMillis();
 
         Set<String> codes = new HashSet<>();
-        ResponseEntity<ArrayNode> entity;
+        String term = normalise(searchTerm);
+        if (StringUtils.isEmpty(term)) {
+            return codes;
+        }
 
         try {
-            String url = buildUrl(searchTerm);
-            entity = template.getForEntity(url, ArrayNode.class);
-
-            if (!entity.getStatusCode().is2xxSuccessful()) {
-                log.error("Failed to search synonyms, terms {}", entity.getStatusCode());
-                return codes;
-            }
-
-            JsonNode entry = entity.getBody().findValue("icd10cm_codes");
-            if (entry != null && entry.isArray()) {
-                for (JsonNode node : entry) {
-                    String fullCode = node.asText();
-                    if (!StringUtils.isEmpty(fullCode)) {
-                        codes.add(fullCode);
-                    }
-                }
+            codes.addAll(cache.get(term));
+        } catch (Exception e) {
+            // failed lookups are not cached, next search will try again
+            if (e.getCause() instanceof CircuitOpenException) {
+                log.warn("Synonyms search skipped, {}", e.getCause().getMessage());
             } else {
-                log.info("No codes returned in search synonyms {}", searchTerm);
+                log.error("Exception in synonyms search ", e);
             }
 
-        } catch (Exception e) {
-            log.error("Exception in synonyms search ", e);
+            Set<String> fallback = lastKnownGood.getIfPresent(term);
+            if (fallback != null) {
+                codes.addAll(fallback);
+            }
         }
 
         long stop = System.currentTimeMillis();
@@ -75,8 +113,20 @@ public class SynonymsService {
         return codes;
     }
 
-    private String buildUrl(String term) {
-        return String.format(SYNONYMS_URL, term);
+    /**
+     * @return underlying cache, for statistics
+     */
+    Cache<String, Set<String>> getCache() {
+        return cache;
     }
 
+    /**
+     * Lower case, trim and collapse whitespace so equivalent searches share a cache entry.
+     */
+    private static String normalise(String term) {
+        if (term == null) {
+            return null;
+        }
+        return term.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
 }
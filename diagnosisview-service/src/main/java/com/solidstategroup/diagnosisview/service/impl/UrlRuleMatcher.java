@@ -0,0 +1,100 @@
+package com.solidstategroup.diagnosisview.service.impl;
+
+import com.solidstategroup.diagnosisview.model.codes.LinkRule;
+import com.solidstategroup.diagnosisview.model.codes.LogoRule;
+import com.solidstategroup.diagnosisview.repository.LinkRuleRepository;
+import com.solidstategroup.diagnosisview.repository.LogoRuleRepository;
+import com.solidstategroup.diagnosisview.utils.UrlPrefixTrie;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Matches link urls against LinkRule and LogoRule url prefixes held in memory,
+ * so rules are not read from the database for every link.
+ * <p>
+ * Each set of rules is compiled into a {@link UrlPrefixTrie} that is swapped in
+ * whole when rules change, readers always see either the old or the new rules.
+ * Rules are loaded on first use, reloaded by the rule services after every change
+ * and periodically to pick up changes made by other instances.
+ */
+@Slf4j
+@Component
+public class UrlRuleMatcher {
+
+    private final LinkRuleRepository linkRuleRepository;
+    private final LogoRuleRepository logoRuleRepository;
+
+    private volatile UrlPrefixTrie<LinkRule> linkRules;
+    private volatile UrlPrefixTrie<LogoRule> logoRules;
+
+    public UrlRuleMatcher(final LinkRuleRepository linkRuleRepository,
+                          final LogoRuleRepository logoRuleRepository) {
+        this.linkRuleRepository = linkRuleRepository;
+        this.logoRuleRepository = logoRuleRepository;
+    }
+
+    /**
+     * Find all link rules given url starts with.
+     *
+     * @param url a link url
+     * @return matching rules, empty if none
+     */
+    public List<LinkRule> matchLinkRules(String url) {
+        UrlPrefixTrie<LinkRule> rules = linkRules;
+        if (rules == null) {
+            rules = reloadLinkRules();
+        }
+        return rules.matchAll(url);
+    }
+
+    /**
+     * Find the logo rule for given url, when several rules match the one with
+     * the longest prefix is used.
+     *
+     * @param url a link url
+     * @return Optional matching rule
+     */
+    public Optional<LogoRule> matchLogoRule(String url) {
+        UrlPrefixTrie<LogoRule> rules = logoRules;
+        if (rules == null) {
+            rules = reloadLogoRules();
+        }
+
+        List<LogoRule> matches = rules.matchAll(url);
+        return matches.isEmpty() ? Optional.empty() : Optional.of(matches.get(matches.size() - 1));
+    }
+
+    /**
+     * Rebuild link rules from the database.
+     *
+     * @return the new rules
+     */
+    public synchronized UrlPrefixTrie<LinkRule> reloadLinkRules() {
+        UrlPrefixTrie<LinkRule> rules = UrlPrefixTrie.build(linkRuleRepository.findAll(), LinkRule::getLink);
+        linkRules = rules;
+        log.debug("Loaded {} link rules", rules.size());
+        return rules;
+    }
+
+    /**
+     * Rebuild logo rules from the database.
+     *
+     * @return the new rules
+     */
+    public synchronized UrlPrefixTrie<LogoRule> reloadLogoRules() {
+        UrlPrefixTrie<LogoRule> rules = UrlPrefixTrie.build(logoRuleRepository.findAll(), LogoRule::getStartsWith);
+        logoRules = rules;
+        log.debug("Loaded {} logo rules", rules.size());
+        return rules;
+    }
+
+    @Scheduled(fixedDelayString = "${rules.matcher.reload-ms:300000}")
+    public void reload() {
+        reloadLinkRules();
+        reloadLogoRules();
+    }
+}
@@ -4,6 +4,7 @@ package com.solidstategroup.diagnosisview.service.impl;
 import com.solidstategroup.diagnosisview.exceptions.BadRequestException;
 import com.solidstategroup.diagnosisview.exceptions.ResourceNotFoundException;
 import com.solidstategroup.diagnosisview.exceptions.UsernameTakenException;
+import com.solidstategroup.diagnosisview.model.AuthenticatedUser;
 import com.solidstategroup.diagnosisview.model.CodeDto;
 import com.solidstategroup.diagnosisview.model.LinkDto;
 import com.solidstategroup.diagnosisview.model.PasswordResetDto;
@@ -54,6 +55,7 @@ public class UserServiceImpl implements UserService {
   private final InstitutionService institutionService;
   private final CodeService codeService;
   private final CaptchaValidatorService captchaValidatorService;
+  private final AuthenticatedUserCache authenticatedUserCache;
 
   /**
    * Constructor for the dashboard user service.
@@ -65,12 +67,14 @@ public class UserServiceImpl implements UserService {
       final EmailService emailService,
       final InstitutionService institutionService,
       final CodeService codeService,
-      CaptchaValidatorService captchaValidatorService) {
+      CaptchaValidatorService captchaValidatorService,
+      final AuthenticatedUserCache authenticatedUserCache) {
     this.userRepository = userRepository;
     this.emailService = emailService;
     this.institutionService = institutionService;
     this.codeService = codeService;
     this.captchaValidatorService = captchaValidatorService;
+    this.authenticatedUserCache = authenticatedUserCache;
   }
 
   /**
@@ -291,7 +295,9 @@ public class UserServiceImpl implements UserService {
             savedUser.getStoredSalt()));
       }
 
-      return userRepository.save(savedUser);
+      User updatedUser = userRepository.save(savedUser);
+      authenticatedUserCache.invalidate(updatedUser.getId());
+      return updatedUser;
     }
   }
 
@@ -300,7 +306,9 @@ public class UserServiceImpl implements UserService {
    */
   @Override
   public User saveUser(User user) {
-    return userRepository.save(user);
+    User savedUser = userRepository.save(user);
+    authenticatedUserCache.invalidate(savedUser.getId());
+    return savedUser;
   }
 
   /**
@@ -311,6 +319,7 @@ public class UserServiceImpl implements UserService {
     User user1 = userRepository.findOneByUsernameIgnoreCase(user.getUsername());
     user1.setDeleted(true);
     userRepository.save(user1);
+    authenticatedUserCache.invalidate(user1.getId());
 
     return user1;
   }
@@ -481,18 +490,7 @@ public class UserServiceImpl implements UserService {
             "Please contact support@diagnosisview.org.");
       }
 
-      //Admin users will always have a subscription
-      if (user.getRoleType().equals(RoleType.ADMIN)) {
-        user.setActiveSubscription(true);
-        userRepository.save(user);
-      }
-      //If the user is not auto-renewing, and the expiry date has past, set them to inactive
-      else if (!user.isAutoRenewing() && (user.getExpiryDate() == null ||
-          user.getExpiryDate().before(new Date()))) {
-        user.setActiveSubscription(false);
-        userRepository.save(user);
-      }
-
+      applySubscriptionState(user);
       return user;
 
     } else {
@@ -531,21 +529,18 @@ public class UserServiceImpl implements UserService {
       return null;
     }
 
-    //Admin users will always have a subscription
-    if (user.getRoleType().equals(RoleType.ADMIN)) {
-      user.setActiveSubscription(true);
-      userRepository.save(user);
-    }
-    //If the user is not auto-renewing, and the expiry date has past, set them to inactive
-    else if (!user.isAutoRenewing() && (user.getExpiryDate() == null || user.getExpiryDate()
-        .before(new Date()))) {
-      user.setActiveSubscription(false);
-      userRepository.save(user);
-    }
-
+    applySubscriptionState(user);
     return user;
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public AuthenticatedUser getAuthenticatedUser(final String token) {
+    return authenticatedUserCache.get(token, userRepository::findAuthenticatedUserByToken);
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -616,6 +611,34 @@ public class UserServiceImpl implements UserService {
     user.setSalt(Utils.generateSalt());
     user.setPassword(DigestUtils.sha256Hex(resetDto.getNewPassword() + user.getStoredSalt()));
     userRepository.save(user);
+    authenticatedUserCache.invalidate(user.getId());
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int expireLapsedSubscriptions(final int batchSize) {
+    int total = 0;
+    int updated;
+    // each batch commits on its own so row locks are held briefly
+    do {
+      updated = userRepository.expireLapsedSubscriptions(batchSize);
+      total += updated;
+    } while (updated == batchSize);
+
+    return total;
+  }
+
+  /**
+   * Set subscription state for the returned user based on role and expiry, nothing
+   * is saved, lapsed subscriptions are persisted by {@link #expireLapsedSubscriptions}.
+   *
+   * @param user a user to update
+   */
+  private void applySubscriptionState(User user) {
+    user.setActiveSubscription(Utils.isSubscriptionActive(user.getRoleType(),
+        user.isActiveSubscription(), user.isAutoRenewing(), user.getExpiryDate()));
   }
 
   /**
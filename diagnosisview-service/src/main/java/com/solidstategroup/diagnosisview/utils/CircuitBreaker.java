@@ -0,0 +1,246 @@
+package com.solidstategroup.diagnosisview.utils;
+
+import com.solidstategroup.diagnosisview.exceptions.CircuitOpenException;
+import com.solidstategroup.diagnosisview.model.CircuitBreakerDto;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops calling an external system that keeps failing or answering slowly.
+ * <p>
+ * While CLOSED the outcome of the last window-size calls is kept. Once at least
+ * minimum-calls are in the window and the share of failed or of slow calls reaches
+ * its threshold the breaker goes OPEN and refuses calls with {@link CircuitOpenException}
+ * so callers can fall back straight away. After open-duration it goes HALF_OPEN and
+ * lets half-open-calls probes through: if all succeed in time it closes again,
+ * otherwise it opens for another open-duration.
+ */
+@Slf4j
+public final class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final int MAX_TRANSITIONS = 20;
+    private static final byte FAILED = 1;
+    private static final byte SLOW = 2;
+
+    private final String name;
+    private final Config config;
+    private final LongSupplier clock;
+
+    // outcomes of calls while closed, as a ring buffer
+    private final byte[] window;
+    private int next;
+    private int buffered;
+    private int failures;
+    private int slowCalls;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int probesInFlight;
+    private int probesSucceeded;
+
+    private final LongAdder rejected = new LongAdder();
+    private final Deque<CircuitBreakerDto.Transition> transitions = new ArrayDeque<>();
+
+    public CircuitBreaker(String name, Config config) {
+        this(name, config, System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock current time in milliseconds
+     */
+    public CircuitBreaker(String name, Config config, LongSupplier clock) {
+        if (config.getWindowSize() < 1 || config.getHalfOpenCalls() < 1) {
+            throw new IllegalArgumentException("window size and half open calls must be at least 1");
+        }
+        this.name = name;
+        this.config = config;
+        this.clock = clock;
+        this.window = new byte[config.getWindowSize()];
+    }
+
+    /**
+     * Make a call through the breaker.
+     *
+     * @param call a call to the external system
+     * @param <T>  type of result
+     * @return result of the call
+     * @throws CircuitOpenException when the breaker refuses the call
+     * @throws Exception            when the call fails, counted as a failure
+     */
+    public <T> T call(Callable<T> call) throws Exception {
+        boolean probe = acquire();
+        long start = clock.getAsLong();
+        try {
+            T result = call.call();
+            onComplete(probe, clock.getAsLong() - start, false);
+            return result;
+        } catch (InterruptedException e) {
+            onInterrupted(probe);
+            throw e;
+        } catch (Exception e) {
+            onComplete(probe, clock.getAsLong() - start, true);
+            throw e;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return current state, rates and recent transitions
+     */
+    public synchronized CircuitBreakerDto toDto() {
+        return CircuitBreakerDto.builder()
+                .name(name)
+                .state(state.name())
+                .failureRate(rate(failures))
+                .slowCallRate(rate(slowCalls))
+                .bufferedCalls(buffered)
+                .rejectedCalls(rejected.sum())
+                .transitions(new ArrayList<>(transitions))
+                .build();
+    }
+
+    /**
+     * @return true when the call is a half open probe
+     */
+    private synchronized boolean acquire() throws CircuitOpenException {
+        if (state == State.OPEN) {
+            if (clock.getAsLong() - openedAt < config.getOpenDurationMs()) {
+                rejected.increment();
+                throw new CircuitOpenException("Circuit breaker " + name + " is open");
+            }
+            transition(State.HALF_OPEN, "open for " + config.getOpenDurationMs() + " ms");
+        }
+
+        if (state == State.HALF_OPEN) {
+            if (probesInFlight + probesSucceeded >= config.getHalfOpenCalls()) {
+                rejected.increment();
+                throw new CircuitOpenException("Circuit breaker " + name + " is half open");
+            }
+            probesInFlight++;
+            return true;
+        }
+        return false;
+    }
+
+    private synchronized void onComplete(boolean probe, long millis, boolean failed) {
+        boolean slow = millis >= config.getSlowCallMs();
+
+        if (probe) {
+            // state may have moved on while the probe ran
+            if (state != State.HALF_OPEN) {
+                return;
+            }
+            probesInFlight--;
+            if (failed || slow) {
+                transition(State.OPEN, failed ? "probe failed" : "probe took " + millis + " ms");
+            } else if (++probesSucceeded >= config.getHalfOpenCalls()) {
+                transition(State.CLOSED, probesSucceeded + " probes succeeded");
+            }
+            return;
+        }
+
+        // calls started before the breaker opened do not count
+        if (state != State.CLOSED) {
+            return;
+        }
+
+        record((byte) ((failed ? FAILED : 0) | (slow ? SLOW : 0)));
+        if (buffered < config.getMinimumCalls()) {
+            return;
+        }
+        if (rate(failures) >= config.getFailureRatePercent()) {
+            transition(State.OPEN, "failure rate " + rate(failures) + "%");
+        } else if (rate(slowCalls) >= config.getSlowCallRatePercent()) {
+            transition(State.OPEN, "slow call rate " + rate(slowCalls) + "%");
+        }
+    }
+
+    private synchronized void onInterrupted(boolean probe) {
+        if (probe && state == State.HALF_OPEN) {
+            probesInFlight--;
+        }
+    }
+
+    private void record(byte outcome) {
+        if (buffered == window.length) {
+            byte oldest = window[next];
+            failures -= oldest & FAILED;
+            slowCalls -= (oldest & SLOW) >> 1;
+        } else {
+            buffered++;
+        }
+        window[next] = outcome;
+        failures += outcome & FAILED;
+        slowCalls += (outcome & SLOW) >> 1;
+        next = (next + 1) % window.length;
+    }
+
+    private double rate(int count) {
+        return buffered == 0 ? 0 : count * 100.0 / buffered;
+    }
+
+    private void transition(State to, String reason) {
+        log.warn("Circuit breaker {} {} -> {}, {}", name, state, to, reason);
+
+        transitions.addLast(new CircuitBreakerDto.Transition(state.name(), to.name(),
+                new Date(clock.getAsLong()), reason));
+        if (transitions.size() > MAX_TRANSITIONS) {
+            transitions.removeFirst();
+        }
+
+        state = to;
+        probesInFlight = 0;
+        probesSucceeded = 0;
+        if (to == State.OPEN) {
+            openedAt = clock.getAsLong();
+        }
+        if (to == State.CLOSED) {
+            next = 0;
+            buffered = 0;
+            failures = 0;
+            slowCalls = 0;
+        }
+    }
+
+    /**
+     * Thresholds of a breaker.
+     */
+    @Getter
+    @Builder
+    public static final class Config {
+        @Builder.Default
+        private final int windowSize = 20;
+        @Builder.Default
+        private final int minimumCalls = 10;
+        @Builder.Default
+        private final double failureRatePercent = 50;
+        @Builder.Default
+        private final long slowCallMs = 5000;
+        @Builder.Default
+        private final double slowCallRatePercent = 80;
+        @Builder.Default
+        private final long openDurationMs = 60000;
+        @Builder.Default
+        private final int halfOpenCalls = 3;
+    }
+}
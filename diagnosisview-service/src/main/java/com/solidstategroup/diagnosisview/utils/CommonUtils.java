@@ -24,6 +24,15 @@ public final class CommonUtils {
 
         return false;
     }
-}
-
 
+    /**
+     * Build a LIKE pattern matching values that start with given prefix,
+     * wildcards in the prefix are escaped for ESCAPE '\'.
+     *
+     * @param prefix a prefix to match
+     * @return LIKE pattern
+     */
+    public static String likePrefix(String prefix) {
+        return prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+    }
+}
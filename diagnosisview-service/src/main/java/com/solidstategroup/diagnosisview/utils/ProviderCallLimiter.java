@@ -0,0 +1,110 @@
+package com.solidstategroup.diagnosisview.utils;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits calls made to one external provider by concurrent threads, both the number
+ * of calls in flight and the rate they start at, and keeps timing of the calls.
+ */
+public final class ProviderCallLimiter {
+
+    private final String name;
+    private final Semaphore inFlight;
+    private final TokenBucket rateLimiter;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder found = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder totalMillis = new LongAdder();
+    private final AtomicLong maxMillis = new AtomicLong();
+
+    /**
+     * @param name              provider name, used when reporting
+     * @param concurrency       maximum number of calls in flight
+     * @param requestsPerSecond maximum rate calls are started at
+     */
+    public ProviderCallLimiter(String name, int concurrency, double requestsPerSecond) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1");
+        }
+        this.name = name;
+        this.inFlight = new Semaphore(concurrency, true);
+        this.rateLimiter = new TokenBucket(requestsPerSecond, concurrency);
+    }
+
+    /**
+     * Make a call once a slot and a rate token are free, waiting time is not counted
+     * in the call timing.
+     *
+     * @param call a call to the provider, returning null when it found nothing
+     * @param <T>  type of result
+     * @return result of the call
+     * @throws InterruptedException when interrupted while waiting for a slot
+     * @throws Exception            when the call fails, counted as failed
+     */
+    public <T> T call(Callable<T> call) throws Exception {
+        inFlight.acquire();
+        try {
+            rateLimiter.acquire();
+
+            long start = System.nanoTime();
+            try {
+                T result = call.call();
+                if (result != null) {
+                    found.increment();
+                }
+                return result;
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                failed.increment();
+                throw e;
+            } finally {
+                record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+        } finally {
+            inFlight.release();
+        }
+    }
+
+    private void record(long millis) {
+        calls.increment();
+        totalMillis.add(millis);
+        maxMillis.accumulateAndGet(millis, Math::max);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    public long getFound() {
+        return found.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getTotalMillis() {
+        return totalMillis.sum();
+    }
+
+    public long getMaxMillis() {
+        return maxMillis.get();
+    }
+
+    @Override
+    public String toString() {
+        long count = getCalls();
+        return name + " calls " + count + ", found " + getFound() + ", failed " + getFailed()
+                + ", avg ms " + (count == 0 ? 0 : getTotalMillis() / count) + ", max ms " + getMaxMillis();
+    }
+}
@@ -0,0 +1,58 @@
+package com.solidstategroup.diagnosisview.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter, shared by threads calling the same external host.
+ * <p>
+ * Bucket starts full and refills at a steady rate up to its capacity. Callers
+ * reserve a token and sleep outside the lock until it is due, so concurrent
+ * callers are spaced out evenly instead of all waking at once.
+ */
+public final class TokenBucket {
+
+    private final double capacity;
+    private final double nanosPerToken;
+
+    // negative when tokens are reserved ahead of refill
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param permitsPerSecond steady rate tokens are added at
+     * @param capacity         maximum number of tokens available in a burst
+     */
+    public TokenBucket(double permitsPerSecond, int capacity) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        this.capacity = capacity;
+        this.nanosPerToken = TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Take a token, blocking until one is available.
+     *
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos = reserve();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    private synchronized long reserve() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) / nanosPerToken);
+        lastRefill = now;
+
+        tokens -= 1;
+        return tokens >= 0 ? 0 : (long) (-tokens * nanosPerToken);
+    }
+}
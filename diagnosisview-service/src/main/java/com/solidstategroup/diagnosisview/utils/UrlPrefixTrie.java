@@ -0,0 +1,99 @@
+package com.solidstategroup.diagnosisview.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Immutable prefix trie mapping url prefixes to values, finds every value whose
+ * prefix a url starts with in a single walk over the url.
+ * <p>
+ * Matching is case sensitive, same as {@link String#startsWith(String)}.
+ *
+ * @param <T> type of values stored
+ */
+public final class UrlPrefixTrie<T> {
+
+    private final Node<T> root;
+    private final int size;
+
+    private UrlPrefixTrie(Node<T> root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Build a trie for given values, values without a prefix are left out.
+     *
+     * @param values   values to store
+     * @param prefixOf function giving the url prefix of a value
+     * @param <T>      type of values stored
+     * @return a new trie
+     */
+    public static <T> UrlPrefixTrie<T> build(Collection<T> values, Function<T, String> prefixOf) {
+        Node<T> root = new Node<>();
+        int size = 0;
+
+        for (T value : values) {
+            String prefix = prefixOf.apply(value);
+            if (prefix == null) {
+                continue;
+            }
+
+            Node<T> node = root;
+            for (int i = 0; i < prefix.length(); i++) {
+                node = node.children.computeIfAbsent(prefix.charAt(i), c -> new Node<>());
+            }
+            node.values.add(value);
+            size++;
+        }
+        return new UrlPrefixTrie<>(root, size);
+    }
+
+    /**
+     * @param <T> type of values stored
+     * @return a trie matching nothing
+     */
+    public static <T> UrlPrefixTrie<T> empty() {
+        return new UrlPrefixTrie<>(new Node<>(), 0);
+    }
+
+    /**
+     * Find values whose prefix the url starts with.
+     *
+     * @param url a url to match
+     * @return matching values ordered from shortest to longest prefix, empty if none match
+     */
+    public List<T> matchAll(String url) {
+        if (url == null) {
+            return Collections.emptyList();
+        }
+
+        List<T> matches = new ArrayList<>(root.values);
+        Node<T> node = root;
+        for (int i = 0; i < url.length(); i++) {
+            node = node.children.get(url.charAt(i));
+            if (node == null) {
+                break;
+            }
+            matches.addAll(node.values);
+        }
+        return matches;
+    }
+
+    /**
+     * @return number of values stored
+     */
+    public int size() {
+        return size;
+    }
+
+    private static final class Node<T> {
+        private final Map<Character, Node<T>> children = new HashMap<>(4);
+        private final List<T> values = new ArrayList<>(1);
+    }
+}
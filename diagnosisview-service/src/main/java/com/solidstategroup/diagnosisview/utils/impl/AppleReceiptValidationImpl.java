@@ -6,17 +6,24 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
+import com.solidstategroup.diagnosisview.clients.OutboundHttpClient;
 import com.solidstategroup.diagnosisview.exceptions.AppleReceiptValidationFailedException;
 import com.solidstategroup.diagnosisview.utils.AppleReceiptValidation;
-import com.solidstategroup.diagnosisview.utils.HttpConnection;
 import com.solidstategroup.diagnosisview.utils.MediaType;
 import lombok.extern.java.Log;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.BasicResponseHandler;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 /**
  * {@inheritDoc}.
  */
@@ -31,7 +38,10 @@ public class AppleReceiptValidationImpl implements AppleReceiptValidation {
   public static final String TEST_VALIDATE_RECEIPT_URL = "https://sandbox.itunes.apple.com/verifyReceipt";
   public static final String PRODUCTION_VALIDATE_RECEIPT_URL = "https://buy.itunes.apple.com/verifyReceipt";
 
-  public AppleReceiptValidationImpl() {
+  private final OutboundHttpClient outboundHttpClient;
+
+  public AppleReceiptValidationImpl(final OutboundHttpClient outboundHttpClient) {
+    this.outboundHttpClient = outboundHttpClient;
   }
 
   /**
@@ -67,11 +77,12 @@ public class AppleReceiptValidationImpl implements AppleReceiptValidation {
 
   private String sendValidationRequest(String validationUrl, String json)
       throws AppleReceiptValidationFailedException {
+    HttpPost request = new HttpPost(validationUrl);
+    request.setEntity(new StringEntity(json, ContentType.create(MediaType.Application.JSON, UTF_8)));
     try {
-      return HttpConnection.sendSecureRequest(validationUrl,
-          HttpConnection.RequestMethod.POST,
-          MediaType.Application.JSON, json);
-    } catch (HttpConnection.ConnectionFailedException cfEx) {
+      // non 2xx responses are thrown as HttpResponseException
+      return outboundHttpClient.execute(request, new BasicResponseHandler());
+    } catch (IOException cfEx) {
       throw new AppleReceiptValidationFailedException(
           "Couldn't validate the receipt because the connection " +
               "with the Apple API server had failed", cfEx);
@@ -0,0 +1,85 @@
+package com.solidstategroup.diagnosisview.clients
+
+import com.sun.net.httpserver.HttpServer
+import org.apache.http.client.methods.HttpGet
+import org.springframework.web.client.HttpServerErrorException
+import spock.lang.Specification
+
+class OutboundHttpClientTest extends Specification {
+
+    HttpServer server
+    OutboundHttpClient client = new OutboundHttpClient(10, 2, "", 1000, 1000, 1000, 1000)
+
+    void setup() {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+        server.createContext("/ok", { exchange ->
+            def body = '{"found": true}'.bytes
+            exchange.responseHeaders.add("Content-Type", "application/json")
+            exchange.sendResponseHeaders(200, body.length)
+            exchange.responseBody.write(body)
+            exchange.close()
+        })
+        server.createContext("/error", { exchange ->
+            exchange.sendResponseHeaders(500, -1)
+            exchange.close()
+        })
+        server.start()
+    }
+
+    void cleanup() {
+        server.stop(0)
+        client.destroy()
+    }
+
+    def "should record calls and errors per host"() {
+
+        given: "a local host answering ok and with server errors"
+
+        def url = "http://localhost:${server.address.port}"
+
+        when: "it is called through the RestTemplate and directly"
+
+        client.restTemplate.getForObject("${url}/ok", Map)
+        client.execute(new HttpGet("${url}/ok"), { it.statusLine.statusCode })
+        def status = client.execute(new HttpGet("${url}/error"), { it.statusLine.statusCode })
+        client.restTemplate.getForObject("${url}/error", Map)
+
+        then: "server error is passed on"
+
+        thrown(HttpServerErrorException)
+        status == 500
+
+        and: "all calls are counted for the host"
+
+        def stats = client.stats
+        stats*.host == ["localhost"]
+        stats[0].calls == 4
+        stats[0].errors == 2
+    }
+
+    def "should count a host that cannot be reached as an error"() {
+
+        given: "a closed port"
+
+        def port = server.address.port
+        server.stop(0)
+
+        when: "it is called"
+
+        client.execute(new HttpGet("http://localhost:${port}/ok"), { it.statusLine.statusCode })
+
+        then:
+
+        thrown(IOException)
+        client.stats[0].errors == 1
+    }
+
+    def "should read per host connection limits"() {
+
+        expect:
+
+        OutboundHttpClient.parseHostLimits("bestpractice.bmj.com=4, connect.medlineplus.gov=2") ==
+                ["bestpractice.bmj.com": 4, "connect.medlineplus.gov": 2]
+        OutboundHttpClient.parseHostLimits("") == [:]
+    }
+}
@@ -0,0 +1,34 @@
+package com.solidstategroup.diagnosisview.service
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class CatalogueFormatTest extends Specification {
+
+    @Unroll
+    def "should select #expected for format #format and Accept #accept"() {
+
+        expect:
+
+        CatalogueFormat.select(format, accept) == expected
+
+        where:
+
+        format    | accept                                                         || expected
+        null      | null                                                           || CatalogueFormat.FULL
+        "compact" | null                                                           || CatalogueFormat.COMPACT
+        "COMPACT" | "application/json"                                             || CatalogueFormat.COMPACT
+        "unknown" | null                                                           || CatalogueFormat.FULL
+        null      | "*/*"                                                          || CatalogueFormat.FULL
+        null      | "application/*"                                                || CatalogueFormat.FULL
+        null      | "application/json"                                             || CatalogueFormat.FULL
+        null      | "application/vnd.diagnosisview.compact+json"                   || CatalogueFormat.COMPACT
+        null      | "application/json;q=0.9, application/vnd.diagnosisview.compact+json" || CatalogueFormat.COMPACT
+        null      | "application/vnd.diagnosisview.compact+json;q=0, */*"          || CatalogueFormat.FULL
+        null      | "application/json, application/vnd.diagnosisview.compact+json;q=0.5" || CatalogueFormat.FULL
+        "cbor"    | null                                                           || CatalogueFormat.CBOR
+        null      | "application/cbor"                                             || CatalogueFormat.CBOR
+        null      | "application/cbor, application/json;q=0.5"                    || CatalogueFormat.CBOR
+        null      | "not a media type"                                             || CatalogueFormat.FULL
+    }
+}
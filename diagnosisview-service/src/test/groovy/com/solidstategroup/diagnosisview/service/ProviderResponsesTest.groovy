@@ -0,0 +1,202 @@
+package com.solidstategroup.diagnosisview.service
+
+import com.solidstategroup.diagnosisview.exceptions.CircuitOpenException
+import com.solidstategroup.diagnosisview.model.ProviderResponse
+import com.solidstategroup.diagnosisview.utils.CircuitBreaker
+import com.solidstategroup.diagnosisview.utils.ProviderCallLimiter
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class ProviderResponsesTest extends Specification {
+
+    static final long HOUR = TimeUnit.HOURS.toMillis(1)
+
+    ProviderResponses.Store store = Mock(ProviderResponses.Store)
+
+    def "should reuse a stored response younger than the minimum age"() {
+
+        given: "a response fetched an hour ago with a minimum age of 72 hours"
+
+        def stored = response("https://bestpractice.bmj.com/topics/acne", new Date(System.currentTimeMillis() - HOUR))
+        def responses = new ProviderResponses("BMJ", [(ProviderResponses.key("SNOMED-CT", "11381005")): stored],
+                72 * HOUR, limiter(), breaker(), store)
+
+        when: "code is looked up"
+
+        def found = responses.get("SNOMED-CT", "11381005", { throw new IllegalStateException("not expected") })
+
+        then: "provider is not called and nothing is stored"
+
+        found.is(stored)
+        responses.reused == 1
+        responses.fetched == 0
+        0 * store.save(*_)
+    }
+
+    def "should fetch and store a response older than the minimum age"() {
+
+        given: "a response fetched 100 hours ago"
+
+        def stored = response("https://old", new Date(System.currentTimeMillis() - 100 * HOUR))
+        def responses = new ProviderResponses("BMJ", [(ProviderResponses.key("ICD-10", "L70")): stored],
+                72 * HOUR, limiter(), breaker(), store)
+
+        when: "code is looked up"
+
+        def found = responses.get("ICD-10", "L70", { response("https://new", null) })
+
+        then: "the new response is stored with its fetch time"
+
+        1 * store.save("BMJ", "ICD-10", "L70", { it.entries*.href == ["https://new"] && it.fetched != null })
+        found.found
+        responses.fetched == 1
+    }
+
+    def "should store that the provider has nothing for a code"() {
+
+        given: "no stored responses"
+
+        def responses = new ProviderResponses("MedlinePlus", [:], 72 * HOUR, limiter(), breaker(), store)
+
+        when: "provider finds nothing"
+
+        def found = responses.get("ICD-10", "L70", { null })
+
+        then: "an empty response is stored"
+
+        1 * store.save("MedlinePlus", "ICD-10", "L70", { !it.found })
+        !found.found
+    }
+
+    def "should fetch a code once per run when looked up by several threads"() {
+
+        given: "a fetch that blocks until all threads asked"
+
+        def responses = new ProviderResponses("BMJ", [:], 72 * HOUR, limiter(), breaker(), store)
+        def calls = new AtomicInteger()
+        def release = new CountDownLatch(1)
+        def executor = Executors.newFixedThreadPool(4)
+
+        when: "4 threads look up the same code"
+
+        def futures = (1..4).collect {
+            executor.submit({
+                responses.get("SNOMED-CT", "11381005", {
+                    calls.incrementAndGet()
+                    release.await()
+                    response("https://bestpractice.bmj.com/topics/acne", null)
+                })
+            } as Callable)
+        }
+        Thread.sleep(100)
+        release.countDown()
+        def results = futures*.get()
+        executor.shutdown()
+
+        then: "provider is called once and every thread gets its response"
+
+        calls.get() == 1
+        results*.entries*.href.flatten().unique() == ["https://bestpractice.bmj.com/topics/acne"]
+        responses.fetched == 1
+        responses.deduped == 3
+        1 * store.save(*_)
+    }
+
+    def "should not store a failed lookup"() {
+
+        given: "no stored responses"
+
+        def responses = new ProviderResponses("BMJ", [:], 72 * HOUR, limiter(), breaker(), store)
+
+        when: "provider call fails"
+
+        responses.get("SNOMED-CT", "11381005", { throw new IOException("timeout") })
+
+        then: "failure is passed on and counted"
+
+        thrown(IOException)
+        0 * store.save(*_)
+        responses.limiter.failed == 1
+    }
+
+    def "should fall back to an old stored response when the provider fails"() {
+
+        given: "a response fetched 100 hours ago"
+
+        def stored = response("https://old", new Date(System.currentTimeMillis() - 100 * HOUR))
+        def responses = new ProviderResponses("BMJ", [(ProviderResponses.key("ICD-10", "L70")): stored],
+                72 * HOUR, limiter(), breaker(), store)
+
+        when: "provider call fails"
+
+        def found = responses.get("ICD-10", "L70", { throw new IOException("timeout") })
+
+        then: "the old response is used and not stored again"
+
+        found.is(stored)
+        responses.stale == 1
+        responses.fetched == 0
+        0 * store.save(*_)
+    }
+
+    def "should not call the provider while its circuit breaker is open"() {
+
+        given: "a breaker opened by a failed call"
+
+        def breaker = new CircuitBreaker("bmj", CircuitBreaker.Config.builder().minimumCalls(1).build())
+        def responses = new ProviderResponses("BMJ", [:], 72 * HOUR, limiter(), breaker, store)
+        try {
+            responses.get("ICD-10", "L70", { throw new IOException("timeout") })
+        } catch (IOException ignored) {
+        }
+        def calls = new AtomicInteger()
+
+        when: "another code is looked up"
+
+        responses.get("ICD-10", "L71", { calls.incrementAndGet(); null })
+
+        then: "lookup is refused without calling the provider"
+
+        thrown(CircuitOpenException)
+        calls.get() == 0
+        0 * store.save(*_)
+    }
+
+    def "should not count waiting for the limiter as a slow provider call"() {
+
+        given: "a limiter allowing one call at 2 per second and a breaker opening on one slow call in two"
+
+        def breaker = new CircuitBreaker("bmj", CircuitBreaker.Config.builder()
+                .minimumCalls(2).slowCallMs(200).slowCallRatePercent(50).build())
+        def responses = new ProviderResponses("BMJ", [:], 72 * HOUR, new ProviderCallLimiter("BMJ", 1, 2), breaker, store)
+
+        when: "two codes are looked up, the second waiting for the limiter"
+
+        responses.get("ICD-10", "L70", { null })
+        responses.get("ICD-10", "L71", { null })
+
+        then: "provider answered quickly both times and the breaker stays closed"
+
+        breaker.state == CircuitBreaker.State.CLOSED
+        responses.fetched == 2
+    }
+
+    private static CircuitBreaker breaker() {
+        new CircuitBreaker("bmj", CircuitBreaker.Config.builder().build())
+    }
+
+    private static ProviderCallLimiter limiter() {
+        new ProviderCallLimiter("BMJ", 4, 1000)
+    }
+
+    private static ProviderResponse response(String href, Date fetched) {
+        def response = new ProviderResponse([new ProviderResponse.Entry("1", href, "title", new Date(0))])
+        response.fetched = fetched
+        response
+    }
+}
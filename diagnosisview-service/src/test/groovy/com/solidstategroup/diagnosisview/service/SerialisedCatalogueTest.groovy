@@ -0,0 +1,54 @@
+package com.solidstategroup.diagnosisview.service
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.zip.GZIPInputStream
+
+class SerialisedCatalogueTest extends Specification {
+
+    def json = '[{"code":"dv_acne","friendlyName":"Acne"}]'.getBytes("UTF-8")
+
+    def "should compress once with an ETag per representation"() {
+
+        when: "catalogue is built"
+
+        def catalogue = SerialisedCatalogue.of(json)
+
+        then: "gzip variant decompresses to the JSON and ETags differ by coding"
+
+        new GZIPInputStream(new ByteArrayInputStream(catalogue.getEncoded("gzip"))).bytes == json
+        catalogue.getEtag(null) ==~ /"[0-9a-f]{32}"/
+        catalogue.getEtag("gzip") == catalogue.getEtag(null).replace('"', '').with { "\"$it-gzip\"" as String }
+        catalogue.getEncoded("br") == null
+    }
+
+    def "should change ETag when JSON changes"() {
+
+        expect:
+
+        SerialisedCatalogue.of(json).getEtag(null) == SerialisedCatalogue.of(json.clone()).getEtag(null)
+        SerialisedCatalogue.of(json).getEtag(null) != SerialisedCatalogue.of("[]".getBytes("UTF-8")).getEtag(null)
+    }
+
+    @Unroll
+    def "should select #expected for Accept-Encoding #header"() {
+
+        expect:
+
+        SerialisedCatalogue.of(json).selectEncoding(header) == expected
+
+        where:
+
+        header                  | expected
+        null                    | null
+        ""                      | null
+        "gzip"                  | "gzip"
+        "deflate, GZIP;q=0.5"   | "gzip"
+        "gzip;q=0"              | null
+        "br"                    | null
+        "*"                     | "gzip"
+        "*, gzip;q=0"           | null
+        "identity"              | null
+    }
+}
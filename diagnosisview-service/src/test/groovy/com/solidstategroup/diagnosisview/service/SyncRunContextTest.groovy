@@ -0,0 +1,70 @@
+package com.solidstategroup.diagnosisview.service
+
+import com.solidstategroup.diagnosisview.model.codes.Category
+import com.solidstategroup.diagnosisview.model.codes.Lookup
+import com.solidstategroup.diagnosisview.repository.CategoryRepository
+import com.solidstategroup.diagnosisview.repository.LookupRepository
+import spock.lang.Specification
+
+class SyncRunContextTest extends Specification {
+
+    def lookupRepository = Mock(LookupRepository)
+    def categoryRepository = Mock(CategoryRepository)
+
+    SyncRunContext context = new SyncRunContext()
+
+    def "should save the same lookup once per run"() {
+
+        given: "the same lookup received with three codes"
+
+        def lookups = (1..3).collect { buildLookup(10L, "DIAGNOSIS") }
+
+        when: "each is upserted"
+
+        lookups.each { context.upsertOnce(it, lookupRepository) }
+
+        then: "it is saved once and the other writes are counted as avoided"
+
+        1 * lookupRepository.save(_)
+        context.writes == 1
+        context.avoidedWrites == 2
+    }
+
+    def "should save again when content changes during the run"() {
+
+        when: "a category is received with a changed description"
+
+        context.upsertOnce(buildCategory(5L, "Heart"), categoryRepository)
+        context.upsertOnce(buildCategory(5L, "Heart and circulation"), categoryRepository)
+
+        then: "both versions are saved"
+
+        2 * categoryRepository.save(_)
+        context.avoidedWrites == 0
+    }
+
+    def "should always save objects without id"() {
+
+        when: "a new lookup is upserted twice"
+
+        2.times { context.upsertOnce(buildLookup(null, "NEW"), lookupRepository) }
+
+        then: "both are saved"
+
+        2 * lookupRepository.save(_)
+    }
+
+    private static Lookup buildLookup(Long id, String value) {
+        def lookup = new Lookup()
+        lookup.id = id
+        lookup.value = value
+        lookup
+    }
+
+    private static Category buildCategory(Long id, String description) {
+        def category = new Category()
+        category.id = id
+        category.friendlyDescription = description
+        category
+    }
+}
@@ -0,0 +1,73 @@
+package com.solidstategroup.diagnosisview.service.impl
+
+import com.solidstategroup.diagnosisview.model.AuthenticatedUser
+import com.solidstategroup.diagnosisview.model.enums.RoleType
+import spock.lang.Specification
+
+class AuthenticatedUserCacheTest extends Specification {
+
+    AuthenticatedUserCache authenticatedUserCache = new AuthenticatedUserCache(100, 60)
+
+    def "should load user once per token until invalidated"() {
+
+        given: "a loader counting calls"
+
+        def calls = 0
+        def loader = { String token -> calls++; new AuthenticatedUser(1L, RoleType.USER, null, true, true, null) }
+
+        when: "user is requested twice"
+
+        authenticatedUserCache.get("token", loader)
+        def user = authenticatedUserCache.get("token", loader)
+
+        then: "database is only hit once"
+
+        calls == 1
+        user.id == 1L
+
+        when: "user changes"
+
+        authenticatedUserCache.invalidate(1L)
+        authenticatedUserCache.get("token", loader)
+
+        then: "user is loaded again"
+
+        calls == 2
+    }
+
+    def "should not cache unknown tokens"() {
+
+        given: "a loader that finds nothing"
+
+        def calls = 0
+        def loader = { String token -> calls++; null }
+
+        when: "token is checked twice"
+
+        def first = authenticatedUserCache.get("unknown", loader)
+        def second = authenticatedUserCache.get("unknown", loader)
+
+        then: "each check goes to the loader"
+
+        first == null
+        second == null
+        calls == 2
+        authenticatedUserCache.get(null, loader) == null
+    }
+
+    def "should derive subscription state at read time"() {
+
+        expect:
+
+        new AuthenticatedUser(1L, role, null, active, autoRenewing, expiry).isActiveSubscription() == result
+
+        where:
+
+        role           | active | autoRenewing | expiry                 | result
+        RoleType.ADMIN | false  | false        | null                   | true
+        RoleType.USER  | true   | false        | new Date() - 1         | false
+        RoleType.USER  | true   | false        | new Date() + 1         | true
+        RoleType.USER  | true   | true         | new Date() - 1         | true
+        RoleType.USER  | false  | true         | new Date() + 1         | false
+    }
+}
@@ -0,0 +1,39 @@
+package com.solidstategroup.diagnosisview.service.impl
+
+import com.github.benmanes.caffeine.cache.Caffeine
+import org.springframework.cache.caffeine.CaffeineCache
+import org.springframework.cache.support.SimpleCacheManager
+import spock.lang.Specification
+
+class CacheStatsServiceImplTest extends Specification {
+
+    def "should report statistics for spring and service caches"() {
+
+        given: "a bounded cache with some usage"
+
+        def cacheManager = new SimpleCacheManager()
+        cacheManager.setCaches([new CaffeineCache("getAllCategories",
+                Caffeine.newBuilder().maximumSize(10).recordStats().build())])
+        cacheManager.initializeCaches()
+
+        def cache = cacheManager.getCache("getAllCategories")
+        cache.get("missing")
+        cache.put("key", ["value"])
+        cache.get("key")
+        cache.get("key")
+
+        def cacheStatsService = new CacheStatsServiceImpl(cacheManager, new SynonymsService(), new AuthenticatedUserCache(10, 60))
+
+        when: "stats are requested"
+
+        def stats = cacheStatsService.getStats()
+
+        then: "each cache is reported with its counters"
+
+        stats*.name == ["getAllCategories", "synonyms", "authenticatedUsers"]
+        stats[0].size == 1
+        stats[0].hitCount == 2
+        stats[0].missCount == 1
+        stats[1].hitCount == 0
+    }
+}
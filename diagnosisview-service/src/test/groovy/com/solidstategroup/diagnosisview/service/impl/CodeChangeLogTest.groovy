@@ -0,0 +1,138 @@
+package com.solidstategroup.diagnosisview.service.impl
+
+import org.springframework.jdbc.core.JdbcTemplate
+import org.springframework.jdbc.core.RowCallbackHandler
+import spock.lang.Specification
+
+import javax.persistence.EntityManager
+import java.sql.ResultSet
+
+class CodeChangeLogTest extends Specification {
+
+    def jdbcTemplate = Mock(JdbcTemplate)
+    def entityManager = Mock(EntityManager)
+
+    CodeChangeLog codeChangeLog = new CodeChangeLog(jdbcTemplate, entityManager)
+
+    def "should ask for a full reload without a version"() {
+
+        given: "current version"
+
+        jdbcTemplate.queryForObject(_ as String, Long) >> 1250L
+
+        when: "changes are read without a version"
+
+        def changes = codeChangeLog.changesSince(null)
+
+        then: "client is told to reload and the log is not read"
+
+        changes.reset
+        changes.version == 1250L
+        0 * jdbcTemplate.query(*_)
+    }
+
+    def "should ask for a full reload with a version from the future"() {
+
+        given: "current version"
+
+        jdbcTemplate.queryForObject(_ as String, Long) >> 1250L
+
+        expect:
+
+        codeChangeLog.changesSince(5000L).reset
+    }
+
+    def "should return changed codes since a version"() {
+
+        given: "logged changes"
+
+        jdbcTemplate.queryForObject(_ as String, Long) >> 1250L
+        jdbcTemplate.query(_ as String, _ as RowCallbackHandler, 1200L) >> { String sql, RowCallbackHandler handler, args ->
+            rows([[1L, "dv_acne"], [2L, "dv_rash"], [1L, "dv_acne"]]).each { handler.processRow(it) }
+        }
+
+        when: "changes are read"
+
+        def changes = codeChangeLog.changesSince(1200L)
+
+        then: "each code is returned once"
+
+        !changes.reset
+        changes.version == 1250L
+        changes.codes == [1L: ["dv_acne"] as Set, 2L: ["dv_rash"] as Set]
+    }
+
+    def "should return previous and new code of a renamed code"() {
+
+        given: "a code logged under its previous code then renamed"
+
+        jdbcTemplate.queryForObject(_ as String, Long) >> 1250L
+        jdbcTemplate.query(_ as String, _ as RowCallbackHandler, 1200L) >> { String sql, RowCallbackHandler handler, args ->
+            rows([[1L, "dv_acne"], [1L, "dv_acne_vulgaris"]]).each { handler.processRow(it) }
+        }
+
+        when: "changes are read"
+
+        def changes = codeChangeLog.changesSince(1200L)
+
+        then: "both codes are returned for the code, oldest first"
+
+        changes.codes[1L] as List == ["dv_acne", "dv_acne_vulgaris"]
+    }
+
+    def "should ask for a full reload when a reset was logged"() {
+
+        given: "a change and a reset"
+
+        jdbcTemplate.queryForObject(_ as String, Long) >> 1250L
+        jdbcTemplate.query(_ as String, _ as RowCallbackHandler, 1200L) >> { String sql, RowCallbackHandler handler, args ->
+            rows([[1L, "dv_acne"], [null, null]]).each { handler.processRow(it) }
+        }
+
+        when: "changes are read"
+
+        def changes = codeChangeLog.changesSince(1200L)
+
+        then: "client is told to reload"
+
+        changes.reset
+        changes.codes.isEmpty()
+    }
+
+    def "should batch changed codes"() {
+
+        when: "changes are recorded"
+
+        codeChangeLog.recordChanged([1L, 2L])
+
+        then: "previous codes of renamed codes are written before the changes, one batch each"
+
+        1 * jdbcTemplate.batchUpdate({ it.contains("JOIN pv_code") }, { it*.getAt(0) == [1L, 2L] })
+
+        then:
+
+        1 * jdbcTemplate.batchUpdate({ it.startsWith("INSERT INTO dv_code_change (code_id, code) SELECT id, code") },
+                { it*.getAt(0) == [1L, 2L] })
+    }
+
+    def "should compact the log to the newest row of each code a code had"() {
+
+        when: "log is compacted"
+
+        codeChangeLog.compact()
+
+        then: "older rows of a code and older resets are deleted in one statement"
+
+        1 * jdbcTemplate.update({ it.startsWith("DELETE FROM dv_code_change") && it.contains("PARTITION BY code_id, code") }) >> 3
+    }
+
+    private List<ResultSet> rows(List<List> values) {
+        values.collect { row ->
+            def rs = Mock(ResultSet)
+            rs.getLong(1) >> (row[0] ?: 0L)
+            rs.wasNull() >> (row[0] == null)
+            rs.getString(2) >> row[1]
+            rs
+        }
+    }
+}
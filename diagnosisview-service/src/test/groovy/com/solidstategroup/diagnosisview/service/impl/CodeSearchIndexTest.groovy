@@ -0,0 +1,153 @@
+package com.solidstategroup.diagnosisview.service.impl
+
+import com.solidstategroup.diagnosisview.model.Synonym
+import com.solidstategroup.diagnosisview.model.codes.Code
+import com.solidstategroup.diagnosisview.model.codes.CodeExternalStandard
+import com.solidstategroup.diagnosisview.repository.CodeRepository
+import spock.lang.Specification
+
+class CodeSearchIndexTest extends Specification {
+
+    def codeRepository = Mock(CodeRepository)
+
+    CodeSearchIndex codeSearchIndex = new CodeSearchIndex(codeRepository)
+
+    def "should find codes by code, name or synonym substring"() {
+
+        given: "an index built from stored codes"
+
+        1 * codeRepository.findAll() >> [
+                buildCode(1L, "dv_acne", "Acne", ["spots"], false),
+                buildCode(2L, "heart-failure", "Heart failure", ["cardiac insufficiency"], false),
+                buildCode(3L, "dv_angina", "Angina", [], true)
+        ]
+        codeSearchIndex.rebuild()
+
+        expect: "case insensitive substring matches across all fields"
+
+        codeSearchIndex.search(term)*.id.sort() == ids
+
+        where:
+
+        term        | ids
+        "ACN"       | [1L]
+        "dv_"       | [1L, 3L]
+        "fail"      | [2L]
+        "cardiac"   | [2L]
+        "pots"      | [1L]
+        "xyz"       | []
+    }
+
+    def "should only return active codes for synonym search"() {
+
+        given: "an index with hidden code"
+
+        1 * codeRepository.findAll() >> [
+                buildCode(1L, "dv_acne", "Acne", ["skin spots"], false),
+                buildCode(2L, "dv_rash", "Rash", ["red spots"], true)
+        ]
+        codeSearchIndex.rebuild()
+
+        when: "searching synonyms"
+
+        def result = codeSearchIndex.searchSynonyms("spots")
+
+        then: "hidden code is filtered out and name is not matched"
+
+        result*.id == [1L]
+        codeSearchIndex.searchSynonyms("acne").isEmpty()
+    }
+
+    def "should update index incrementally"() {
+
+        given: "an empty index"
+
+        1 * codeRepository.findAll() >> []
+        codeSearchIndex.rebuild()
+
+        when: "a code is added then renamed"
+
+        codeSearchIndex.index(buildCode(1L, "dv_acne", "Acne", [], false))
+        codeSearchIndex.index(buildCode(1L, "dv_acne", "Pimples", [], false))
+
+        then: "only new name is found"
+
+        codeSearchIndex.search("acne")*.id == [1L]
+        codeSearchIndex.search("pimp")*.id == [1L]
+        codeSearchIndex.search("Acne").size() == 1
+
+        when: "the code is removed"
+
+        codeSearchIndex.remove(1L)
+
+        then: "nothing is found"
+
+        codeSearchIndex.search("pimp").isEmpty()
+    }
+
+    def "should keep changes made while the index is rebuilt"() {
+
+        given: "codes loaded before a rename and a removal committed during the rebuild"
+
+        1 * codeRepository.findAll() >> {
+            codeSearchIndex.index(buildCode(1L, "dv_acne", "Pimples", [], false))
+            codeSearchIndex.remove(2L)
+            [buildCode(1L, "dv_acne", "Acne", [], false), buildCode(2L, "dv_rash", "Rash", [], false)]
+        }
+
+        when: "index is rebuilt"
+
+        codeSearchIndex.rebuild()
+
+        then: "rebuilt index has the changes"
+
+        codeSearchIndex.search("pimp")*.id == [1L]
+        codeSearchIndex.search("Acne").size() == 1
+        codeSearchIndex.search("rash").isEmpty()
+    }
+
+    def "should resolve icd10 codes preferring exact matches"() {
+
+        given: "codes with external standards"
+
+        1 * codeRepository.findAll() >> [
+                withExternalStandards(buildCode(1L, "dv_angina", "Angina", [], false), ["I20"]),
+                withExternalStandards(buildCode(2L, "dv_mi", "Heart attack", [], false), ["I21.9"]),
+                withExternalStandards(buildCode(3L, "dv_stemi", "STEMI", [], false), ["I21.3"]),
+                withExternalStandards(buildCode(4L, "dv_hidden", "Hidden", [], true), ["I20.1"])
+        ]
+        codeSearchIndex.rebuild()
+
+        expect: "single prefix match used, otherwise exact match wins, otherwise all prefix matches"
+
+        codeSearchIndex.findByExternalStandards(icd10)*.id.sort() == ids
+
+        where:
+
+        icd10               | ids
+        ["I20.9"]           | [1L]
+        ["I21.3"]           | [3L]
+        ["I21.4"]           | [2L, 3L]
+        ["I20.9", "I21.9"]  | [1L, 2L]
+        ["K50"]             | []
+    }
+
+    def withExternalStandards(Code code, List<String> externalStandards) {
+        code.setExternalStandards(externalStandards.collect {
+            def es = new CodeExternalStandard()
+            es.setCodeString(it)
+            es
+        } as Set)
+        return code
+    }
+
+    def buildCode(Long id, String code, String name, List<String> synonyms, boolean hidden) {
+        def c = new Code()
+        c.setId(id)
+        c.setCode(code)
+        c.setPatientFriendlyName(name)
+        c.setHideFromPatients(hidden)
+        c.setSynonyms(synonyms.collect { new Synonym(it) } as Set)
+        return c
+    }
+}
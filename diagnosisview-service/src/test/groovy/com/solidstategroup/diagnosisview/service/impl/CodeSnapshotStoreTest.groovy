@@ -0,0 +1,209 @@
+package com.solidstategroup.diagnosisview.service.impl
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory
+import com.solidstategroup.diagnosisview.model.codes.Category
+import com.solidstategroup.diagnosisview.model.codes.Code
+import com.solidstategroup.diagnosisview.model.codes.CodeCategory
+import com.solidstategroup.diagnosisview.model.codes.Link
+import com.solidstategroup.diagnosisview.model.codes.Lookup
+import com.solidstategroup.diagnosisview.repository.CodeRepository
+import com.solidstategroup.diagnosisview.service.CatalogueFormat
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter
+import org.springframework.transaction.PlatformTransactionManager
+import spock.lang.Specification
+
+class CodeSnapshotStoreTest extends Specification {
+
+    def codeRepository = Mock(CodeRepository)
+    def institutionService = Mock(InstitutionService)
+    def transactionManager = Mock(PlatformTransactionManager)
+    def codeChangeLog = Mock(CodeChangeLog)
+
+    CodeSnapshotStore codeSnapshotStore = new CodeSnapshotStore(codeRepository, institutionService, codeChangeLog, transactionManager,
+            new ObjectMapper(), new MappingJackson2CborHttpMessageConverter())
+
+    def "should build sorted snapshot once"() {
+
+        given: "stored codes"
+
+        1 * codeRepository.findAll() >> [
+                buildCode(1L, "dv_rash", "Rash", false),
+                buildCode(2L, "dv_acne", "Acne", false),
+                buildCode(3L, "dv_hidden", "Boil", true)
+        ]
+
+        when: "codes are fetched twice"
+
+        def all = codeSnapshotStore.getAll(null)
+        def active = codeSnapshotStore.getAllActive(null)
+
+        then: "codes sorted by name and hidden code only in full list"
+
+        all*.code == ["dv_acne", "dv_hidden", "dv_rash"]
+        active*.code == ["dv_acne", "dv_rash"]
+    }
+
+    def "should patch only changed codes"() {
+
+        given: "a built snapshot"
+
+        1 * codeRepository.findAll() >> [
+                buildCode(1L, "dv_rash", "Rash", false),
+                buildCode(2L, "dv_acne", "Acne", false)
+        ]
+        codeSnapshotStore.getAllActive(null)
+
+        when: "one code is renamed and other deleted"
+
+        codeSnapshotStore.refresh([1L, 2L])
+
+        then: "changes are logged and only changed codes are reloaded"
+
+        1 * codeChangeLog.recordChanged({ it as Set == [1L, 2L] as Set })
+
+        1 * codeRepository.findAllById({ it as Set == [1L, 2L] as Set }) >> [buildCode(1L, "dv_rash", "Angry skin", false)]
+        0 * codeRepository.findAll()
+        codeSnapshotStore.getAllActive(null)*.friendlyName == ["Angry skin"]
+        codeSnapshotStore.getAll(null)*.code == ["dv_rash"]
+    }
+
+    def "should patch sorted lists in place of a full sort"() {
+
+        given: "a built snapshot with two codes sorting the same"
+
+        1 * codeRepository.findAll() >> [
+                buildCode(1L, "dv_rash", "Rash", false),
+                buildCode(2L, "dv_acne", "Acne", false),
+                buildCode(3L, "dv_boil", "Boil", true),
+                buildCode(4L, "dv_cyst", "Cyst", false),
+                buildCode(5L, "dv_acne", "Acne", false)
+        ]
+        codeSnapshotStore.getAllActive(null)
+
+        when: "codes are renamed, hidden, deleted and added at once"
+
+        codeSnapshotStore.refresh([1L, 2L, 4L, 6L])
+
+        then: "lists are sorted as if built again"
+
+        1 * codeRepository.findAllById(_) >> [
+                buildCode(1L, "dv_rash", "Abscess", false),
+                buildCode(2L, "dv_acne", "Acne", true),
+                buildCode(6L, "dv_mole", "Mole", false)
+        ]
+        codeSnapshotStore.getAll(null)*.friendlyName == ["Abscess", "Acne", "Acne", "Boil", "Mole"]
+        codeSnapshotStore.getAllActive(null)*.friendlyName == ["Abscess", "Acne", "Mole"]
+    }
+
+    def "should serialise active codes once per version"() {
+
+        given: "a built snapshot"
+
+        1 * codeRepository.findAll() >> [
+                buildCode(1L, "dv_rash", "Rash", false),
+                buildCode(2L, "dv_acne", "Acne", false)
+        ]
+
+        when: "serialised catalogue is fetched twice"
+
+        def first = codeSnapshotStore.getActiveSerialised(null, CatalogueFormat.FULL)
+        def second = codeSnapshotStore.getActiveSerialised(null, CatalogueFormat.FULL)
+
+        then: "same bytes are returned, sorted as the active list"
+
+        first.is(second)
+        new ObjectMapper().readValue(first.body, List)*.code == ["dv_acne", "dv_rash"]
+
+        when: "a code changes"
+
+        codeSnapshotStore.refresh(1L)
+        def third = codeSnapshotStore.getActiveSerialised(null, CatalogueFormat.FULL)
+
+        then: "catalogue is serialised again with a new ETag"
+
+        1 * codeRepository.findAllById(_) >> [buildCode(1L, "dv_rash", "Angry skin", false)]
+        !third.is(first)
+        third.getEtag(null) != first.getEtag(null)
+    }
+
+    def "should serialise compact catalogue with shared dictionaries"() {
+
+        given: "codes sharing a category and link type"
+
+        def category = new Category(number: 1, icd10Description: "Skin", friendlyDescription: "Skin")
+        category.setId(7L)
+        def linkType = new Lookup(value: "NHS_CHOICES")
+        linkType.setId(3L)
+
+        def rash = buildCode(1L, "dv_rash", "Rash", false)
+        def acne = buildCode(2L, "dv_acne", "Acne", false)
+        [rash, acne].each { code ->
+            code.codeCategories.add(new CodeCategory(code: code, category: category))
+            def link = new Link(linkType: linkType, link: "https://nhs.uk/" + code.code, name: "NHS")
+            link.setId(code.id * 10)
+            code.links.add(link)
+        }
+        1 * codeRepository.findAll() >> [rash, acne]
+
+        when: "both formats are fetched"
+
+        def full = codeSnapshotStore.getActiveSerialised(null, CatalogueFormat.FULL)
+        def compact = codeSnapshotStore.getActiveSerialised(null, CatalogueFormat.COMPACT)
+        def tree = new ObjectMapper().readValue(compact.body, Map)
+
+        then: "shared objects are sent once and referred to by id"
+
+        !compact.is(full)
+        compact.is(codeSnapshotStore.getActiveSerialised(null, CatalogueFormat.COMPACT))
+        tree.categories.keySet() == ["7"] as Set
+        tree.linkTypes["3"].value == "NHS_CHOICES"
+        tree.codes*.code == ["dv_acne", "dv_rash"]
+        tree.codes*.categories == [[7], [7]]
+        tree.codes[0].links[0].linkType == 3
+        tree.codes[0].links[0].link == "https://nhs.uk/dv_acne"
+        !tree.codes[0].links[0].containsKey("originalLink")
+        compact.body.length < full.body.length
+    }
+
+    def "should serialise CBOR catalogue with the same fields as JSON"() {
+
+        given: "a built snapshot"
+
+        1 * codeRepository.findAll() >> [
+                buildCode(1L, "dv_rash", "Rash", false),
+                buildCode(2L, "dv_acne", "Acne", false)
+        ]
+
+        when: "both formats are fetched"
+
+        def full = codeSnapshotStore.getActiveSerialised(null, CatalogueFormat.FULL)
+        def cbor = codeSnapshotStore.getActiveSerialised(null, CatalogueFormat.CBOR)
+
+        then: "CBOR decodes to the same tree as JSON"
+
+        new ObjectMapper(new CBORFactory()).readTree(cbor.body) == new ObjectMapper().readTree(full.body)
+        cbor.getEtag(null) != full.getEtag(null)
+    }
+
+    def "should log a reset when all snapshots are rebuilt"() {
+
+        when: "all codes are refreshed"
+
+        codeSnapshotStore.refreshAll()
+
+        then: "clients are told to reload the catalogue"
+
+        1 * codeChangeLog.recordReset()
+        0 * codeChangeLog.recordChanged(_)
+    }
+
+    def buildCode(Long id, String code, String name, boolean hidden) {
+        def c = new Code()
+        c.setId(id)
+        c.setCode(code)
+        c.setPatientFriendlyName(name)
+        c.setHideFromPatients(hidden)
+        return c
+    }
+}
@@ -0,0 +1,61 @@
+package com.solidstategroup.diagnosisview.service.impl
+
+import com.solidstategroup.diagnosisview.model.codes.Code
+import com.solidstategroup.diagnosisview.model.codes.Link
+import com.solidstategroup.diagnosisview.service.impl.CodeSyncFingerprintStore.Fingerprint
+import spock.lang.Specification
+
+class CodeSyncFingerprintStoreTest extends Specification {
+
+    def "should give same fingerprint regardless of link order"() {
+
+        given: "the same code with links in different order"
+
+        def first = buildCode([buildLink(1L, "https://a"), buildLink(2L, "https://b")])
+        def second = buildCode([buildLink(2L, "https://b"), buildLink(1L, "https://a")])
+
+        expect: "fingerprints match"
+
+        CodeSyncFingerprintStore.fingerprint(first).hash == CodeSyncFingerprintStore.fingerprint(second).hash
+    }
+
+    def "should change fingerprint when synced content changes"() {
+
+        given: "a code and a copy with a changed link"
+
+        def original = buildCode([buildLink(1L, "https://a")])
+        def changed = buildCode([buildLink(1L, "https://changed")])
+
+        expect: "fingerprints differ"
+
+        CodeSyncFingerprintStore.fingerprint(original).hash != CodeSyncFingerprintStore.fingerprint(changed).hash
+    }
+
+    def "should only treat code as unchanged when not updated since stored fingerprint"() {
+
+        expect:
+
+        new Fingerprint("hash", incoming).isUnchangedSince(stored) == unchanged
+
+        where:
+
+        incoming       | stored                                | unchanged
+        new Date(1000) | new Fingerprint("hash", new Date(1000)) | true
+        new Date(500)  | new Fingerprint("hash", new Date(1000)) | true
+        new Date(2000) | new Fingerprint("hash", new Date(1000)) | false
+        new Date(1000) | new Fingerprint("other", new Date(1000)) | false
+        new Date(1000) | null                                  | false
+    }
+
+    private static Code buildCode(List<Link> links) {
+        def code = new Code(code: "acne", patientFriendlyName: "Acne", links: links as Set)
+        code.id = 1L
+        code
+    }
+
+    private static Link buildLink(Long id, String url) {
+        def link = new Link(link: url, name: "link")
+        link.id = id
+        link
+    }
+}
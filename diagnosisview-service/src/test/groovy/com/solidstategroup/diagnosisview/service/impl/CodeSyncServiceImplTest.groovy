@@ -0,0 +1,226 @@
+package com.solidstategroup.diagnosisview.service.impl
+
+import com.solidstategroup.diagnosisview.clients.OutboundHttpClient
+import com.solidstategroup.diagnosisview.model.codes.Code
+import com.solidstategroup.diagnosisview.model.codes.enums.SyncOutcome
+import com.solidstategroup.diagnosisview.service.CodeService
+import com.solidstategroup.diagnosisview.utils.CircuitBreaker
+import org.springframework.core.env.MapPropertySource
+import org.springframework.core.env.StandardEnvironment
+import org.springframework.http.HttpHeaders
+import org.springframework.http.HttpStatus
+import org.springframework.http.client.ClientHttpRequestFactory
+import org.springframework.mock.http.client.MockClientHttpRequest
+import org.springframework.mock.http.client.MockClientHttpResponse
+import org.springframework.web.client.RestTemplate
+import spock.lang.Specification
+
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class CodeSyncServiceImplTest extends Specification {
+
+    def codeService = Mock(CodeService)
+    def fingerprintStore = Mock(CodeSyncFingerprintStore)
+
+    CodeSyncServiceImpl codeSyncService = new CodeSyncServiceImpl(
+            codeService,
+            fingerprintStore,
+            new OutboundHttpClient(10, 2, "", 1000, 1000, 1000, 1000),
+            new CircuitBreakerRegistry(new StandardEnvironment()),
+            Executors.newFixedThreadPool(2),
+            2,
+            10,
+            2,
+            "user",
+            "password",
+            "key",
+            "https://test.patientview.org/api/")
+
+    def "should decode codes from page content and read last flag"() {
+
+        given: "a page of codes with content before and after other fields"
+
+        def json = '''{
+            "totalElements": 3,
+            "sort": {"sorted": true, "unsorted": false},
+            "content": [
+                {"id": 1, "code": "acne", "links": []},
+                {"id": 2, "code": "rash", "links": [{"id": 10, "link": "https://www.nhs.uk/conditions/rash"}]}
+            ],
+            "last": false,
+            "number": 0
+        }'''
+        def queue = new ArrayBlockingQueue<Code>(10)
+
+        when: "page is read"
+
+        def last = codeSyncService.readPage(new ByteArrayInputStream(json.bytes), queue)
+
+        then: "each code is queued and page is not the last one"
+
+        !last
+        queue*.code == ["acne", "rash"]
+        queue*.id == [1L, 2L]
+        queue.toList()[1].links*.link == ["https://www.nhs.uk/conditions/rash"]
+    }
+
+    def "should treat short page without last flag as the last page"() {
+
+        given: "a page with fewer codes than the page size"
+
+        def json = '{"content": [{"id": 1, "code": "acne"}]}'
+        def queue = new ArrayBlockingQueue<Code>(10)
+
+        expect: "it is the last page"
+
+        codeSyncService.readPage(new ByteArrayInputStream(json.bytes), queue)
+        queue.size() == 1
+    }
+
+    def "should keep updating queued codes when one fails"() {
+
+        given: "two codes followed by end of stream"
+
+        def queue = new ArrayBlockingQueue<Code>(10)
+        queue.put(new Code(code: "acne", links: []))
+        queue.put(new Code(code: "rash", links: []))
+        queue.put(CodeSyncServiceImpl.END_OF_CODES)
+        def run = new CodeSyncServiceImpl.SyncRun([:])
+
+        when: "worker processes the queue"
+
+        codeSyncService.processCodes(queue, null, run)
+
+        then: "failed code is logged and the next one is still updated"
+
+        1 * codeService.updateCodeFromSync({ it.code == "acne" }, _) >> { throw new RuntimeException("failed") }
+        1 * codeService.updateCodeFromSync({ it.code == "rash" }, _) >> SyncOutcome.UPDATED
+        run.failed.get() == 1
+        run.updated.get() == 1
+        queue.isEmpty()
+    }
+
+    def "should skip codes with the same fingerprint as last sync"() {
+
+        given: "one code synced before unchanged and one new code"
+
+        def lastUpdate = new Date(1000)
+        def unchanged = new Code(code: "acne", links: [])
+        unchanged.id = 1L
+        unchanged.lastUpdate = lastUpdate
+        def created = new Code(code: "rash", links: [])
+        created.id = 2L
+
+        def queue = new ArrayBlockingQueue<Code>(10)
+        queue.put(unchanged)
+        queue.put(created)
+        queue.put(CodeSyncServiceImpl.END_OF_CODES)
+        def run = new CodeSyncServiceImpl.SyncRun([1L: CodeSyncFingerprintStore.fingerprint(unchanged)])
+
+        when: "worker processes the queue"
+
+        codeSyncService.processCodes(queue, null, run)
+
+        then: "only the new code is updated and its fingerprint is kept"
+
+        0 * codeService.updateCodeFromSync({ it.code == "acne" }, _)
+        1 * codeService.updateCodeFromSync({ it.code == "rash" }, _) >> SyncOutcome.CREATED
+        run.skipped.get() == 1
+        run.created.get() == 1
+        run.synced.keySet() == [2L] as Set
+    }
+
+    def "should not count waiting for workers against PatientView circuit breaker"() {
+
+        given: "a breaker opening on a single call slower than 100 ms"
+
+        def environment = new StandardEnvironment()
+        environment.propertySources.addFirst(new MapPropertySource("test", [
+                "circuit-breaker.patientview.minimum-calls": "1",
+                "circuit-breaker.patientview.slow-call-ms" : "100"]))
+        def registry = new CircuitBreakerRegistry(environment)
+        def service = new CodeSyncServiceImpl(codeService, fingerprintStore,
+                new OutboundHttpClient(10, 2, "", 1000, 1000, 1000, 1000), registry,
+                Executors.newFixedThreadPool(2), 2, 10, 2, "user", "password", "key", "https://test.patientview.org/api/")
+
+        and: "PatientView answering a page of two codes straight away"
+
+        def request = new MockClientHttpRequest()
+        request.response = new MockClientHttpResponse(
+                '{"content": [{"id": 1, "code": "acne"}, {"id": 2, "code": "rash"}], "last": true}'.bytes, HttpStatus.OK)
+        service.restTemplate.requestFactory = { uri, method -> request } as ClientHttpRequestFactory
+
+        and: "a queue with room for one code, taken from after 300 ms"
+
+        def queue = new ArrayBlockingQueue<Code>(1)
+        Executors.newSingleThreadExecutor().submit { sleep(300); queue.take() }
+
+        when: "page is streamed"
+
+        def last = service.streamPage(0, new HttpHeaders(), queue)
+
+        then: "both codes were queued and the breaker stays closed"
+
+        last
+        queue*.code == ["rash"]
+        registry.get(CircuitBreakerRegistry.PATIENTVIEW).state == CircuitBreaker.State.CLOSED
+    }
+
+    def "should stop workers and keep fingerprints when the sync is interrupted"() {
+
+        given: "PatientView answering a page of five codes straight away"
+
+        def restTemplate = new RestTemplate()
+        def request = new MockClientHttpRequest()
+        request.response = new MockClientHttpResponse(('{"content": ['
+                + (1..5).collect { '{"id": ' + it + ', "code": "code' + it + '"}' }.join(", ")
+                + '], "last": true}').bytes, HttpStatus.OK)
+        restTemplate.requestFactory = { uri, method -> request } as ClientHttpRequestFactory
+        def outboundHttpClient = Mock(OutboundHttpClient) {
+            getRestTemplate() >> restTemplate
+            execute(*_) >> '{"token": "token"}'
+        }
+
+        and: "two workers held on their first code and a queue with room for one more"
+
+        def executor = Executors.newFixedThreadPool(2)
+        def service = new CodeSyncServiceImpl(codeService, fingerprintStore, outboundHttpClient,
+                new CircuitBreakerRegistry(new StandardEnvironment()), executor,
+                10, 1, 2, "user", "password", "key", "https://test.patientview.org/api/")
+        def updating = new CountDownLatch(2)
+        def release = new CountDownLatch(1)
+        codeService.updateCodeFromSync(_, _) >> {
+            updating.countDown()
+            release.await()
+            SyncOutcome.CREATED
+        }
+        fingerprintStore.loadAll() >> [:]
+
+        def report = null
+        def saved = null
+        def producer = new Thread({ report = service.syncCodes() })
+
+        when: "the sync is interrupted while waiting to queue a code and workers are released"
+
+        producer.start()
+        updating.await(5, TimeUnit.SECONDS)
+        while (producer.state != Thread.State.WAITING) {
+            sleep(10)
+        }
+        producer.interrupt()
+        release.countDown()
+        producer.join(5000)
+        executor.shutdown()
+
+        then: "the sync returns, fingerprints of saved codes are kept and every worker has finished"
+
+        !producer.alive
+        1 * fingerprintStore.saveAll(_) >> { saved = it[0] }
+        saved.keySet().containsAll([1L, 2L])
+        report.created == saved.size()
+        executor.awaitTermination(5, TimeUnit.SECONDS)
+    }
+}
@@ -0,0 +1,83 @@
+package com.solidstategroup.diagnosisview.service.impl
+
+import com.solidstategroup.diagnosisview.service.impl.IdAllocator.Sequence
+import org.springframework.jdbc.core.JdbcTemplate
+import spock.lang.Specification
+
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicLong
+
+class IdAllocatorTest extends Specification {
+
+    def jdbcTemplate = Mock(JdbcTemplate)
+
+    def "should reserve ids in blocks"() {
+
+        given: "an allocator reserving 3 ids at a time"
+
+        def idAllocator = new IdAllocator(jdbcTemplate, 3)
+
+        when: "4 ids are taken"
+
+        def ids = (1..4).collect { idAllocator.next(Sequence.LINK) }
+
+        then: "sequence is queried twice"
+
+        2 * jdbcTemplate.queryForList({ it.contains("nextval('link_seq')") && it.contains("generate_series") }, Long, 3) >>>
+                [[10L, 11L, 12L], [13L, 14L, 15L]]
+
+        ids == [10L, 11L, 12L, 13L]
+    }
+
+    def "should keep blocks per sequence"() {
+
+        given: "an allocator reserving 2 ids at a time"
+
+        def idAllocator = new IdAllocator(jdbcTemplate, 2)
+        jdbcTemplate.queryForList({ it.contains("code_seq") }, Long, 2) >> [1L, 2L]
+        jdbcTemplate.queryForList({ it.contains("code_category_seq") }, Long, 2) >> [100L, 101L]
+
+        expect: "ids come from the requested sequence"
+
+        idAllocator.next(Sequence.CODE) == 1L
+        idAllocator.next(Sequence.CODE_CATEGORY) == 100L
+        idAllocator.next(Sequence.CODE) == 2L
+    }
+
+    def "should reserve large bulk requests in one query"() {
+
+        given: "an allocator reserving 2 ids at a time"
+
+        def idAllocator = new IdAllocator(jdbcTemplate, 2)
+
+        when: "5 ids are requested at once"
+
+        def ids = idAllocator.next(Sequence.NHSCHOICES_CONDITION, 5)
+
+        then: "all of them are reserved with a single query"
+
+        1 * jdbcTemplate.queryForList(_ as String, Long, 5) >> [1L, 2L, 3L, 4L, 5L]
+
+        ids == [1L, 2L, 3L, 4L, 5L] as long[]
+    }
+
+    def "should not hand out the same id twice across threads"() {
+
+        given: "a sequence counting up"
+
+        def sequence = new AtomicLong()
+        jdbcTemplate.queryForList(_ as String, Long, 7) >> { args -> (1..7).collect { sequence.incrementAndGet() } }
+        def idAllocator = new IdAllocator(jdbcTemplate, 7)
+        def executor = Executors.newFixedThreadPool(8)
+
+        when: "many ids are taken concurrently"
+
+        def futures = (1..1000).collect { executor.submit({ idAllocator.next(Sequence.CODE) } as java.util.concurrent.Callable) }
+        def ids = futures*.get()
+        executor.shutdown()
+
+        then: "every id is unique"
+
+        ids.toSet().size() == 1000
+    }
+}
@@ -0,0 +1,118 @@
+package com.solidstategroup.diagnosisview.service.impl
+
+import com.solidstategroup.diagnosisview.model.codes.LinkRule
+import com.solidstategroup.diagnosisview.model.codes.enums.CriteriaType
+import org.springframework.jdbc.core.JdbcTemplate
+import org.springframework.jdbc.core.RowCallbackHandler
+import spock.lang.Specification
+
+import java.sql.ResultSet
+
+class LinkRuleMappingReconcilerTest extends Specification {
+
+    def jdbcTemplate = Mock(JdbcTemplate)
+    def reconciler = new LinkRuleMappingReconciler(jdbcTemplate, 2)
+
+    def bmj = new LinkRule(id: "bmj", link: "https://bmj.com", transform: "https://proxy/bmj",
+            criteriaType: CriteriaType.INSTITUTION, criteria: "UNI")
+    def nhs = new LinkRule(id: "nhs", link: "https://nhs.uk", transform: "https://proxy/nhs",
+            criteriaType: CriteriaType.INSTITUTION, criteria: "UNI")
+
+    def "should insert, update and delete mappings in batches"() {
+
+        given: "links and stored mappings"
+
+        def links = [[1L, "https://bmj.com/a", 10L], [2L, "https://bmj.com/b", 20L], [3L, "https://nhs.uk/c", 30L],
+                     [4L, "https://other.org/d", 40L], [5L, "https://bmj.com/e", 50L], [6L, "https://bmj.com/f", 60L]]
+        def mappings = [
+                // up to date
+                ["m1", "bmj", 1L, "https://proxy/bmj/a", "INSTITUTION", "UNI", 10L],
+                ["m6", "bmj", 6L, "https://proxy/bmj/f", "INSTITUTION", "UNI", 60L],
+                // old replacement link
+                ["m2", "bmj", 2L, "https://proxy/old/b", "INSTITUTION", "UNI", 20L],
+                // link no longer matches
+                ["m4", "bmj", 4L, "https://proxy/bmj/d", "INSTITUTION", "UNI", 40L],
+                // duplicate
+                ["m5", "bmj", 1L, "https://proxy/bmj/a", "INSTITUTION", "UNI", 10L],
+                // link deleted
+                ["m7", "bmj", 7L, "https://proxy/bmj/g", "INSTITUTION", "UNI", null]]
+
+        def inserted = []
+        def updated = []
+        def deleted = []
+
+        when: "all rules are reconciled"
+
+        def report = reconciler.reconcileAll([bmj, nhs])
+
+        then: "links and mappings are each read once"
+
+        1 * jdbcTemplate.query({ it.contains("FROM pv_link") }, _ as RowCallbackHandler, *_) >> { rows(it[1], links) }
+        1 * jdbcTemplate.query({ it.contains("FROM dv_link_rule_mapping") }, _ as RowCallbackHandler, *_) >> {
+            rows(it[1], mappings)
+        }
+
+        and: "changes are written in batches"
+
+        _ * jdbcTemplate.batchUpdate({ it.startsWith("INSERT") }, _ as List) >> { inserted.addAll(it[1]); null }
+        _ * jdbcTemplate.batchUpdate({ it.startsWith("UPDATE") }, _ as List) >> { updated.addAll(it[1]); null }
+        _ * jdbcTemplate.batchUpdate({ it.startsWith("DELETE") }, _ as List) >> { deleted.addAll(it[1]); null }
+
+        and: "only the differences are applied"
+
+        inserted.collect { [it[1], it[2], it[3]] } as Set == [["nhs", 3L, "https://proxy/nhs/c"],
+                                                               ["bmj", 5L, "https://proxy/bmj/e"]] as Set
+        updated.collect { it as List } == [["https://proxy/bmj/b", "INSTITUTION", "UNI", "m2"]]
+        deleted.collect { it[0] } as Set == ["m4", "m5", "m7"] as Set
+
+        with(report) {
+            rules == 2
+            it.links == 6
+            matched == 5
+            it.inserted == 2
+            it.updated == 1
+            it.deleted == 3
+            unchanged == 2
+        }
+
+        and: "codes of links with changed mappings are reported"
+
+        report.changedCodeIds == [10L, 20L, 30L, 40L, 50L] as Set
+    }
+
+    def "should only read links starting with a single rule link"() {
+
+        given: "a rule with like wildcards in its link"
+
+        def rule = new LinkRule(id: "r", link: "https://a.org/100%_", transform: "https://p",
+                criteriaType: CriteriaType.INSTITUTION, criteria: "UNI")
+
+        when: "rule is reconciled"
+
+        def report = reconciler.reconcile(rule)
+
+        then: "links are read by escaped prefix and mappings of the rule only"
+
+        1 * jdbcTemplate.query({ it.contains("LIKE ?") }, _ as RowCallbackHandler, "https://a.org/100\\%\\_%") >> {
+            rows(it[1], [[1L, "https://a.org/100%_x", 10L]])
+        }
+        1 * jdbcTemplate.query({ it.contains("WHERE m.mapping_id = ?") }, _ as RowCallbackHandler, "r")
+        1 * jdbcTemplate.batchUpdate({ it.startsWith("INSERT") }, _ as List)
+
+        report.inserted == 1
+        report.deleted == 0
+        report.changedCodeIds == [10L] as Set
+    }
+
+    private void rows(RowCallbackHandler handler, List<List> rows) {
+        rows.each { row ->
+            def last = null
+            def rs = Stub(ResultSet) {
+                getString(_ as Integer) >> { int i -> last = row[i - 1]; last }
+                getLong(_ as Integer) >> { int i -> last = row[i - 1]; last ?: 0L }
+                wasNull() >> { last == null }
+            }
+            handler.processRow(rs)
+        }
+    }
+}
@@ -2,12 +2,11 @@ package com.solidstategroup.diagnosisview.service.impl
 
 import com.solidstategroup.diagnosisview.exceptions.BadRequestException
 import com.solidstategroup.diagnosisview.model.LinkRuleDto
+import com.solidstategroup.diagnosisview.model.LinkRuleSyncReport
 import com.solidstategroup.diagnosisview.model.codes.Link
 import com.solidstategroup.diagnosisview.model.codes.LinkRule
 import com.solidstategroup.diagnosisview.model.codes.LinkRuleMapping
 import com.solidstategroup.diagnosisview.model.codes.enums.CriteriaType
-import com.solidstategroup.diagnosisview.repository.LinkRepository
-import com.solidstategroup.diagnosisview.repository.LinkRuleMappingRepository
 import com.solidstategroup.diagnosisview.repository.LinkRuleRepository
 import com.solidstategroup.diagnosisview.service.LinkRuleService
 import spock.lang.Specification
@@ -17,8 +16,10 @@ class LinkRuleServiceImplTest extends Specification {
     LinkRuleService linkRuleService
 
     def linkRuleRepository = Mock(LinkRuleRepository)
-    def linkRuleMappingRepository = Mock(LinkRuleMappingRepository)
-    def linkRepository = Mock(LinkRepository)
+    def linkRuleMappingReconciler = Mock(LinkRuleMappingReconciler)
+    def institutionService = Mock(InstitutionService)
+    def codeSnapshotStore = Mock(CodeSnapshotStore)
+    def urlRuleMatcher = Mock(UrlRuleMatcher)
 
     def id = "a6924b77-cc96-4bbc-89ed-9e02477fee34"
 
@@ -26,8 +27,10 @@ class LinkRuleServiceImplTest extends Specification {
         linkRuleService =
                 new LinkRuleServiceImpl(
                         linkRuleRepository,
-                        linkRuleMappingRepository,
-                        linkRepository)
+                        linkRuleMappingReconciler,
+                        institutionService,
+                        codeSnapshotStore,
+                        urlRuleMatcher)
     }
 
     def "should delete rule"() {
@@ -114,4 +117,49 @@ class LinkRuleServiceImplTest extends Specification {
 
         thrown BadRequestException
     }
+
+    def "should build mappings for matching rules"() {
+        given: "a rule matching the link"
+
+        def rule = new LinkRule(link: "https://www.bmj.com", transform: "https://proxy.ac.uk/bmj",
+                criteria: "UNI", criteriaType: CriteriaType.INSTITUTION)
+        def link = new Link(link: "https://www.bmj.com/asthma")
+
+        when: "link is matched"
+
+        def mappings = linkRuleService.matchLinkToRule(link)
+
+        then: "rules are matched in memory"
+
+        1 * urlRuleMatcher.matchLinkRules("https://www.bmj.com/asthma") >> [rule]
+        0 * linkRuleRepository.findAll()
+
+        and: "mapping has transformed link"
+
+        mappings.size() == 1
+        with(mappings.first()) {
+            it.rule == rule
+            replacementLink == "https://proxy.ac.uk/bmj/asthma"
+            criteria == "UNI"
+        }
+    }
+
+    def "should only reload codes whose mappings changed on sync"() {
+        given: "rules"
+
+        def rules = [new LinkRule(link: "https://www.bmj.com", transform: "https://proxy.ac.uk/bmj",
+                criteria: "UNI", criteriaType: CriteriaType.INSTITUTION)]
+
+        when: "mappings are synced"
+
+        linkRuleService.syncLinkRules()
+
+        then: "changed codes are reloaded, the catalogue is not reset"
+
+        1 * linkRuleRepository.findAll() >> rules
+        1 * linkRuleMappingReconciler.reconcileAll(rules) >>
+                LinkRuleSyncReport.builder().changedCodeIds([7L, 9L] as Set).build()
+        1 * codeSnapshotStore.refresh({ it == [7L, 9L] as Set })
+        0 * codeSnapshotStore.refreshAll()
+    }
 }
@@ -1,6 +1,10 @@
 package com.solidstategroup.diagnosisview.service.impl
 
+import com.solidstategroup.diagnosisview.model.codes.Code
 import com.solidstategroup.diagnosisview.model.codes.Link
+import com.solidstategroup.diagnosisview.model.codes.LinkRuleMapping
+import com.solidstategroup.diagnosisview.model.codes.LogoRule
+import com.solidstategroup.diagnosisview.model.codes.Lookup
 import com.solidstategroup.diagnosisview.model.codes.enums.DifficultyLevel
 import com.solidstategroup.diagnosisview.repository.LinkRepository
 import com.solidstategroup.diagnosisview.repository.LinkRuleMappingRepository
@@ -15,22 +19,26 @@ import javax.persistence.EntityManager
 
 class LinkServiceImplTest extends Specification {
 
-    def entityManager = Mock(EntityManager)
+    def idAllocator = Mock(IdAllocator)
     def linkRuleService = Mock(LinkRuleService)
     def linkRuleMappingRepository = Mock(LinkRuleMappingRepository)
     def linkRepository = Mock(LinkRepository)
     def lookupRepository = Mock(LookupRepository)
     def lookupTypeRepository = Mock(LookupTypeRepository)
     def logoRuleService = Mock(LogoRulesService)
+    def codeSnapshotStore = Mock(CodeSnapshotStore)
+    def entityManager = Mock(EntityManager)
 
     LinkService linkService = new LinkServiceImpl(
-            entityManager,
+            idAllocator,
             linkRuleService,
             linkRuleMappingRepository,
             linkRepository,
             lookupRepository,
             lookupTypeRepository,
-            logoRuleService
+            logoRuleService,
+            codeSnapshotStore,
+            entityManager
     )
 
     def "should find one link"() {
@@ -91,4 +99,59 @@ class LinkServiceImplTest extends Specification {
             lastUpdate != null
         }
     }
+
+    def "should upsert all links of a code with a single lookup and save"() {
+
+        given: "a code with a stored link and a new link"
+
+        def code = new Code(id: 1)
+        def customLink = new Lookup(id: 100, value: "CUSTOM")
+        def stored = new Link(id: 10, link: "http://a.org/old", difficultyLevel: DifficultyLevel.RED,
+                displayOrder: 21, freeLink: true, transformationsOnly: false)
+        def logoRule = new LogoRule(startsWith: "http://b.org")
+
+        def links = [
+                new Link(id: 10, link: "http://a.org/old", difficultyLevel: DifficultyLevel.GREEN, displayOrder: 1),
+                new Link(id: 11, link: "http://b.org/page", difficultyLevel: DifficultyLevel.GREEN, displayOrder: 2),
+                new Link(id: 12, link: "")
+        ] as Set
+
+        lookupRepository.findOneByValue(_) >> Optional.of(customLink)
+
+        when: "links are upserted from sync"
+
+        def result = linkService.upsertAll(code, links, true)
+
+        then: "existing links are loaded once"
+
+        1 * linkRepository.findAllWithMappingsByIdIn({ it.sort() == [10L, 11L] }) >> [stored]
+        0 * linkRepository.findById(_)
+
+        and: "rules are matched for links"
+
+        1 * linkRuleService.matchLinkToRule({ it.id == 11 }) >> ([new LinkRuleMapping()] as Set)
+        1 * logoRuleService.matchLinkToRule({ it.id == 10 }) >> Optional.empty()
+        1 * logoRuleService.matchLinkToRule({ it.id == 11 }) >> Optional.of(logoRule)
+
+        and: "stored links are merged together, new links persisted without a select"
+
+        1 * linkRepository.saveAll({ it*.id == [10L] }) >> { it[0] as List }
+        1 * entityManager.persist({ it.id == 11 })
+        0 * linkRepository.save(_)
+
+        and: "sync keeps what was set in DV"
+
+        result.size() == 2
+        with(result.find { it.id == 10 }) {
+            difficultyLevel == DifficultyLevel.RED
+            displayOrder == 21
+            freeLink
+            it.code == code
+        }
+        with(result.find { it.id == 11 }) {
+            mappingLinks.size() == 1
+            it.logoRule == logoRule
+            linkType == customLink
+        }
+    }
 }
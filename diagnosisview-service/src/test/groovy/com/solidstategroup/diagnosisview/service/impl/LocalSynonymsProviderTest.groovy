@@ -0,0 +1,36 @@
+package com.solidstategroup.diagnosisview.service.impl
+
+import spock.lang.Specification
+
+import java.nio.file.Files
+
+class LocalSynonymsProviderTest extends Specification {
+
+    def "should find codes by word prefixes"() {
+
+        given: "a local synonyms file"
+
+            def file = Files.createTempFile("conditions", ".tsv")
+            file.toFile().text = "# codes\tname\tsynonyms\n" +
+                    "I21.9\tHeart attack\tMyocardial infarction\n" +
+                    "I50.9,I50.1\tHeart failure\tCardiac failure\n" +
+                    "L70.0\tAcne\tSpots\n"
+            def provider = new LocalSynonymsProvider(file.toString())
+
+        expect: "all search words match a word prefix"
+
+            provider.searchSynonyms(term) == codes as Set
+
+        cleanup:
+            Files.deleteIfExists(file)
+
+        where:
+
+            term            | codes
+            "heart"         | ["I21.9", "I50.9", "I50.1"]
+            "heart fail"    | ["I50.9", "I50.1"]
+            "myocard"       | ["I21.9"]
+            "spots"         | ["L70.0"]
+            "cardio"        | []
+    }
+}
@@ -2,10 +2,13 @@ package com.solidstategroup.diagnosisview.service.impl
 
 import com.google.api.client.util.Base64
 import com.solidstategroup.diagnosisview.model.LogoRuleDto
+import com.solidstategroup.diagnosisview.model.codes.Link
 import com.solidstategroup.diagnosisview.model.codes.LogoRule
 import com.solidstategroup.diagnosisview.model.codes.enums.DifficultyLevel
 import com.solidstategroup.diagnosisview.repository.LinkRepository
+import com.solidstategroup.diagnosisview.repository.LinkRuleRepository
 import com.solidstategroup.diagnosisview.repository.LogoRuleRepository
+import org.springframework.transaction.PlatformTransactionManager
 import spock.lang.Specification
 
 class LogoRulesServiceImplTest extends Specification {
@@ -13,8 +16,13 @@ class LogoRulesServiceImplTest extends Specification {
     def linkRepository = Mock(LinkRepository)
     def logoRuleRepository = Mock(LogoRuleRepository)
 
+    def urlRuleMatcher = new UrlRuleMatcher(Mock(LinkRuleRepository), logoRuleRepository)
+
+    def codeSnapshotStore = Mock(CodeSnapshotStore)
+
     def logoRulesService =
-            new LogoRulesServiceImpl(logoRuleRepository)
+            new LogoRulesServiceImpl(logoRuleRepository, urlRuleMatcher, codeSnapshotStore,
+                    Mock(PlatformTransactionManager), 2)
 
     def "should add a logo"() {
 
@@ -30,6 +38,8 @@ class LogoRulesServiceImplTest extends Specification {
                 overrideDifficultyLevel: "RED",
                 startsWith: starts)
 
+        logoRuleRepository.findAll() >> []
+
         when: "rule is added"
 
         def result = logoRulesService.add(logoRule)
@@ -37,7 +47,7 @@ class LogoRulesServiceImplTest extends Specification {
         then: "rule is saved"
 
         1 * logoRuleRepository.saveAndFlush(_ as LogoRule) >> { it[0] }
-        1 * logoRuleRepository.addLogoRule(_ as LogoRule)
+        1 * logoRuleRepository.assignLogoRule(_, starts + "%", starts.length(), 2) >> 1
 
         and: "correct fields are saved"
 
@@ -48,4 +58,101 @@ class LogoRulesServiceImplTest extends Specification {
             overrideDifficultyLevel == DifficultyLevel.RED
         }
     }
+
+    def "should match link to logo rule with longest prefix"() {
+
+        given: "logo rules for a site and a section of it"
+
+        def site = new LogoRule(id: "1", startsWith: "https://www.nhs.uk")
+        def conditions = new LogoRule(id: "2", startsWith: "https://www.nhs.uk/conditions")
+
+        when: "links are matched"
+
+        def matched = logoRulesService.matchLinkToRule(new Link(link: "https://www.nhs.uk/conditions/asthma"))
+        def other = logoRulesService.matchLinkToRule(new Link(link: "https://www.bmj.com/asthma"))
+
+        then: "rules are loaded once"
+
+        1 * logoRuleRepository.findAll() >> [conditions, site]
+
+        and: "most specific rule is used"
+
+        matched.get() == conditions
+        !other.isPresent()
+    }
+
+    def "should reload rules after a rule is added"() {
+
+        given: "rules already loaded"
+
+        logoRuleRepository.findAll() >> []
+        logoRulesService.matchLinkToRule(new Link(link: "https://www.nhs.uk/a"))
+
+        when: "rule is added"
+
+        logoRulesService.add(new LogoRuleDto(image: "base64", imageFormat: "image/png",
+                startsWith: "https://www.nhs.uk"))
+
+        then: "rules are read again"
+
+        1 * logoRuleRepository.saveAndFlush(_ as LogoRule) >> { it[0] }
+        1 * logoRuleRepository.findAll() >> [new LogoRule(id: "1", startsWith: "https://www.nhs.uk")]
+
+        and: "new rule is matched"
+
+        logoRulesService.matchLinkToRule(new Link(link: "https://www.nhs.uk/a")).isPresent()
+    }
+
+    def "should assign rule to links in chunks and report count"() {
+
+        given: "a rule prefix matching 5 links"
+
+        logoRuleRepository.findAll() >> []
+
+        when: "rule is added"
+
+        def result = logoRulesService.add(new LogoRuleDto(image: "base64", imageFormat: "image/png",
+                startsWith: "https://www.nhs.uk/100%"))
+
+        then: "links are updated 2 at a time until a chunk is not full"
+
+        1 * logoRuleRepository.saveAndFlush(_ as LogoRule) >> { LogoRule r -> r.id = "1"; r }
+        3 * logoRuleRepository.assignLogoRule("1", "https://www.nhs.uk/100\\%%", 23, 2) >>> [2, 2, 1]
+
+        and: "count is reported and served codes refreshed"
+
+        result.linksUpdated == 5
+        1 * codeSnapshotStore.refreshAll()
+    }
+
+    def "should move links when rule prefix changes"() {
+
+        given: "a stored rule"
+
+        def current = new LogoRule(id: "1", startsWith: "https://www.nhs.uk", logoFileType: "image/png")
+        logoRuleRepository.findById("1") >> Optional.of(current)
+        logoRuleRepository.findAll() >> []
+
+        and: "saving merges into the instance already loaded, as the EntityManager does"
+
+        logoRuleRepository.saveAndFlush(_ as LogoRule) >> { LogoRule saved ->
+            current.linkLogo = saved.linkLogo
+            current.logoFileType = saved.logoFileType
+            current.startsWith = saved.startsWith
+            current.overrideDifficultyLevel = saved.overrideDifficultyLevel
+            current
+        }
+
+        when: "prefix is changed"
+
+        def result = logoRulesService.update("1", new LogoRuleDto(startsWith: "https://www.nhs.uk/conditions"))
+
+        then: "links no longer matching are released and new ones assigned"
+
+        1 * logoRuleRepository.releaseLogoRule("1", "https://www.nhs.uk/conditions%", 2) >> 1
+        1 * logoRuleRepository.assignLogoRule("1", "https://www.nhs.uk/conditions%", 29, 2) >> 0
+        0 * logoRuleRepository.clearLogoRule(_)
+
+        result.linksUpdated == 1
+    }
 }
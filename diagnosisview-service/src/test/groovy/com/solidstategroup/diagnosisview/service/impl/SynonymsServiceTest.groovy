@@ -1,5 +1,7 @@
 package com.solidstategroup.diagnosisview.service.impl
 
+import com.solidstategroup.diagnosisview.service.SynonymsProvider
+import com.solidstategroup.diagnosisview.utils.CircuitBreaker
 import spock.lang.Specification
 
 class SynonymsServiceTest extends Specification {
@@ -18,4 +20,77 @@ class SynonymsServiceTest extends Specification {
         then: "all good"
             result.size() > 1
     }
+
+    def "should cache results per normalised term"() {
+
+        given: "a provider"
+
+            def provider = Mock(SynonymsProvider)
+            def service = new SynonymsService(provider, 10, 10)
+
+        when: "same term searched with different case and spacing"
+            def first = service.searchSynonyms("Heart  attack")
+            def second = service.searchSynonyms(" heart attack ")
+
+        then: "provider called once"
+            1 * provider.searchSynonyms("heart attack") >> (["I21.9"] as Set)
+            first == ["I21.9"] as Set
+            second == ["I21.9"] as Set
+    }
+
+    def "should not cache failed lookups"() {
+
+        given: "a failing provider"
+
+            def provider = Mock(SynonymsProvider)
+            def service = new SynonymsService(provider, 10, 10)
+
+        when: "term searched twice"
+            def first = service.searchSynonyms("angina")
+            def second = service.searchSynonyms("angina")
+
+        then: "second search retries the provider"
+            1 * provider.searchSynonyms("angina") >> { throw new IOException("timeout") }
+            1 * provider.searchSynonyms("angina") >> (["I20.9"] as Set)
+            first.isEmpty()
+            second == ["I20.9"] as Set
+    }
+
+    def "should fall back to last results when the provider fails"() {
+
+        given: "a term searched once and expired from the cache"
+
+            def provider = Mock(SynonymsProvider)
+            def service = new SynonymsService(provider, 10, 10)
+            provider.searchSynonyms("angina") >>> [["I20.9"] as Set, { throw new IOException("timeout") }]
+            service.searchSynonyms("angina")
+            service.cache.invalidateAll()
+
+        when: "term searched again while the provider is failing"
+            def result = service.searchSynonyms("angina")
+
+        then: "last results for the term are used"
+            result == ["I20.9"] as Set
+    }
+
+    def "should not call the provider while its circuit breaker is open"() {
+
+        given: "a breaker opened by a failed lookup"
+
+            def provider = Mock(SynonymsProvider)
+            def breaker = new CircuitBreaker(CircuitBreakerRegistry.SYNONYMS,
+                    CircuitBreaker.Config.builder().minimumCalls(1).build())
+            def service = new SynonymsService(provider, breaker, 10, 10)
+
+        when: "two terms are searched"
+            def first = service.searchSynonyms("angina")
+            def second = service.searchSynonyms("asthma")
+
+        then: "only the first search reaches the provider, search carries on without synonyms"
+            1 * provider.searchSynonyms("angina") >> { throw new IOException("timeout") }
+            0 * provider.searchSynonyms("asthma")
+            first.isEmpty()
+            second.isEmpty()
+            breaker.state == CircuitBreaker.State.OPEN
+    }
 }
@@ -0,0 +1,58 @@
+package com.solidstategroup.diagnosisview.service.impl
+
+import com.solidstategroup.diagnosisview.model.User
+import com.solidstategroup.diagnosisview.model.enums.RoleType
+import com.solidstategroup.diagnosisview.repository.UserRepository
+import com.solidstategroup.diagnosisview.service.CaptchaValidatorService
+import com.solidstategroup.diagnosisview.service.CodeService
+import com.solidstategroup.diagnosisview.service.EmailService
+import spock.lang.Specification
+
+class UserServiceImplTest extends Specification {
+
+    def userRepository = Mock(UserRepository)
+
+    UserServiceImpl userService = new UserServiceImpl(
+            userRepository,
+            Mock(EmailService),
+            Mock(InstitutionService),
+            Mock(CodeService),
+            Mock(CaptchaValidatorService),
+            new AuthenticatedUserCache(10, 60))
+
+    def "should derive subscription state without saving user"() {
+
+        given: "a user with lapsed subscription"
+
+        def user = new User(roleType: role, activeSubscription: true, autoRenewing: false,
+                expiryDate: new Date() - 1)
+
+        when: "user is looked up by token"
+
+        def result = userService.getUserByToken("token")
+
+        then: "subscription state is worked out but nothing is written"
+
+        1 * userRepository.findOneByToken("token") >> user
+        0 * userRepository.save(_)
+        result.activeSubscription == active
+
+        where:
+
+        role           | active
+        RoleType.USER  | false
+        RoleType.ADMIN | true
+    }
+
+    def "should expire lapsed subscriptions in batches"() {
+
+        when: "reconciling with batch of 2"
+
+        def updated = userService.expireLapsedSubscriptions(2)
+
+        then: "batches run until one is not full"
+
+        3 * userRepository.expireLapsedSubscriptions(2) >>> [2, 2, 1]
+        updated == 5
+    }
+}
@@ -0,0 +1,144 @@
+package com.solidstategroup.diagnosisview.utils
+
+import com.solidstategroup.diagnosisview.exceptions.CircuitOpenException
+import spock.lang.Specification
+
+class CircuitBreakerTest extends Specification {
+
+    long now = 0
+
+    def config = CircuitBreaker.Config.builder()
+            .windowSize(10)
+            .minimumCalls(4)
+            .failureRatePercent(50)
+            .slowCallMs(100)
+            .slowCallRatePercent(75)
+            .openDurationMs(1000)
+            .halfOpenCalls(2)
+            .build()
+
+    CircuitBreaker breaker = new CircuitBreaker("bmj", config, { now })
+
+    def "should stay closed below the minimum number of calls"() {
+
+        when: "3 calls fail"
+
+        3.times { fail() }
+
+        then: "breaker is still closed"
+
+        breaker.state == CircuitBreaker.State.CLOSED
+        breaker.toDto().bufferedCalls == 3
+    }
+
+    def "should open when the failure rate reaches its threshold"() {
+
+        when: "2 of 4 calls fail"
+
+        2.times { succeed() }
+        2.times { fail() }
+
+        then: "breaker opens and refuses calls"
+
+        breaker.state == CircuitBreaker.State.OPEN
+
+        when: "another call is made"
+
+        breaker.call({ "not expected" })
+
+        then: "call is rejected"
+
+        thrown(CircuitOpenException)
+        breaker.toDto().rejectedCalls == 1
+        breaker.toDto().transitions*.to == ["OPEN"]
+    }
+
+    def "should open when too many calls are slow"() {
+
+        when: "3 of 4 calls take 100 ms"
+
+        succeed()
+        3.times { breaker.call({ now += 100; "slow" }) }
+
+        then: "breaker opens on slow call rate"
+
+        breaker.state == CircuitBreaker.State.OPEN
+        breaker.toDto().transitions[0].reason.startsWith("slow call rate")
+    }
+
+    def "should close after enough probes succeed once open duration passed"() {
+
+        given: "an open breaker"
+
+        4.times { fail() }
+
+        when: "open duration passes and 2 probes succeed"
+
+        now += 1000
+        succeed()
+
+        then: "breaker is half open after the first probe"
+
+        breaker.state == CircuitBreaker.State.HALF_OPEN
+
+        when: "second probe succeeds"
+
+        succeed()
+
+        then: "breaker is closed with an empty window"
+
+        breaker.state == CircuitBreaker.State.CLOSED
+        breaker.toDto().bufferedCalls == 0
+        breaker.toDto().transitions*.to == ["OPEN", "HALF_OPEN", "CLOSED"]
+    }
+
+    def "should open again when a probe fails"() {
+
+        given: "an open breaker past its open duration"
+
+        4.times { fail() }
+        now += 1000
+
+        when: "probe fails"
+
+        fail()
+
+        then: "breaker opens for another open duration"
+
+        breaker.state == CircuitBreaker.State.OPEN
+
+        when: "called before open duration passed"
+
+        now += 500
+        breaker.call({ "not expected" })
+
+        then: "call is rejected"
+
+        thrown(CircuitOpenException)
+    }
+
+    def "should only count calls in the window"() {
+
+        given: "a failure pushed out of the window by successes"
+
+        fail()
+        10.times { succeed() }
+
+        expect: "failure rate only counts the last 10 calls"
+
+        breaker.state == CircuitBreaker.State.CLOSED
+        breaker.toDto().bufferedCalls == 10
+        breaker.toDto().failureRate == 0
+    }
+
+    private void succeed() {
+        breaker.call({ "ok" })
+    }
+
+    private void fail() {
+        try {
+            breaker.call({ throw new IOException("timeout") })
+        } catch (IOException ignored) {
+        }
+    }
+}
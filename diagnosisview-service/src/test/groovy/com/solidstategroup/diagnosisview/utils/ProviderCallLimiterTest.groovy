@@ -0,0 +1,101 @@
+package com.solidstategroup.diagnosisview.utils
+
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class ProviderCallLimiterTest extends Specification {
+
+    def "should never run more calls than the concurrency"() {
+
+        given: "a limiter allowing 2 calls in flight"
+
+        def limiter = new ProviderCallLimiter("BMJ", 2, 1000)
+        def executor = Executors.newFixedThreadPool(6)
+        def inFlight = new AtomicInteger()
+        def maxInFlight = new AtomicInteger()
+
+        when: "12 calls are made from 6 threads"
+
+        def futures = (1..12).collect {
+            executor.submit({
+                limiter.call({
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math.&max)
+                    Thread.sleep(20)
+                    inFlight.decrementAndGet()
+                    true
+                })
+            })
+        }
+        futures*.get()
+        executor.shutdown()
+
+        then: "at most 2 calls ran at once and all were counted"
+
+        maxInFlight.get() <= 2
+        limiter.calls == 12
+        limiter.found == 12
+        limiter.failed == 0
+    }
+
+    def "should count calls that found nothing or failed"() {
+
+        given: "a limiter and calls finding a link and finding nothing"
+
+        def limiter = new ProviderCallLimiter("MedlinePlus", 1, 1000)
+        def results = [limiter.call({ "https://medlineplus.gov/acne.html" }), limiter.call({ null })]
+
+        when: "a call throws"
+
+        limiter.call({ throw new IllegalStateException("down") })
+
+        then: "failure is passed on and counted"
+
+        thrown(IllegalStateException)
+        results == ["https://medlineplus.gov/acne.html", null]
+        limiter.calls == 3
+        limiter.found == 1
+        limiter.failed == 1
+        limiter.toString().startsWith("MedlinePlus calls 3, found 1, failed 1")
+    }
+
+    def "should let a waiting caller be interrupted"() {
+
+        given: "a limiter whose only slot is taken"
+
+        def limiter = new ProviderCallLimiter("BMJ", 1, 1000)
+        def started = new CountDownLatch(1)
+        def release = new CountDownLatch(1)
+        def executor = Executors.newFixedThreadPool(2)
+        executor.submit({ limiter.call({ started.countDown(); release.await(); true }) })
+        started.await()
+
+        when: "a second caller waits and is interrupted"
+
+        def waiting = executor.submit({ limiter.call({ true }) })
+        Thread.sleep(50)
+        waiting.cancel(true)
+        release.countDown()
+        executor.shutdown()
+        executor.awaitTermination(1, TimeUnit.SECONDS)
+
+        then: "only the first call was made"
+
+        waiting.isCancelled()
+        limiter.calls == 1
+    }
+
+    def "should reject a concurrency below one"() {
+
+        when:
+
+        new ProviderCallLimiter("BMJ", 0, 1)
+
+        then:
+
+        thrown(IllegalArgumentException)
+    }
+}
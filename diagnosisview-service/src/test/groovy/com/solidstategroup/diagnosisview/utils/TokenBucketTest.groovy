@@ -0,0 +1,58 @@
+package com.solidstategroup.diagnosisview.utils
+
+import spock.lang.Specification
+
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class TokenBucketTest extends Specification {
+
+    def "should let a full bucket through without waiting"() {
+
+        given: "a bucket holding 5 tokens"
+
+        def bucket = new TokenBucket(1, 5)
+
+        when: "5 tokens are taken"
+
+        def start = System.nanoTime()
+        5.times { bucket.acquire() }
+        def elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+
+        then: "no caller waited for refill"
+
+        elapsed < 500
+    }
+
+    def "should space out callers at the configured rate"() {
+
+        given: "a bucket refilling 20 tokens a second"
+
+        def bucket = new TokenBucket(20, 1)
+        def executor = Executors.newFixedThreadPool(4)
+
+        when: "11 tokens are taken from 4 threads"
+
+        def start = System.nanoTime()
+        def futures = (1..11).collect { executor.submit({ bucket.acquire() } as Runnable) }
+        futures*.get()
+        def elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+        executor.shutdown()
+
+        then: "it takes the time needed to refill 10 tokens"
+
+        elapsed >= 450
+        elapsed < 2000
+    }
+
+    def "should reject invalid rates"() {
+
+        when: "bucket is created with no rate"
+
+        new TokenBucket(0, 1)
+
+        then: "it is rejected"
+
+        thrown(IllegalArgumentException)
+    }
+}
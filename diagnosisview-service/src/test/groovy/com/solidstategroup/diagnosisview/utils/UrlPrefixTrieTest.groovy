@@ -0,0 +1,49 @@
+package com.solidstategroup.diagnosisview.utils
+
+import spock.lang.Specification
+
+class UrlPrefixTrieTest extends Specification {
+
+    def "should find all prefixes a url starts with"() {
+
+        given: "a trie of url prefixes"
+
+        def trie = UrlPrefixTrie.build(
+                ["https://www.bmj.com", "https://www.bmj.com/content", "https://www.nhs.uk", "https://www.bmj.co"],
+                { it })
+
+        expect: "matches ordered from shortest to longest prefix"
+
+        trie.matchAll(url) == expected
+
+        where:
+
+        url                                     | expected
+        "https://www.bmj.com/content/asthma"    | ["https://www.bmj.co", "https://www.bmj.com", "https://www.bmj.com/content"]
+        "https://www.bmj.com"                   | ["https://www.bmj.co", "https://www.bmj.com"]
+        "https://www.nhs.uk/conditions"         | ["https://www.nhs.uk"]
+        "https://www.NHS.uk/conditions"         | []
+        "https://www.nice.org.uk"               | []
+        null                                    | []
+    }
+
+    def "should keep every value sharing a prefix"() {
+
+        given: "two values with the same prefix and one without prefix"
+
+        def trie = UrlPrefixTrie.build([[id: 1, p: "http://a"], [id: 2, p: "http://a"], [id: 3, p: null]], { it.p })
+
+        expect:
+
+        trie.size() == 2
+        trie.matchAll("http://a/b")*.id == [1, 2]
+    }
+
+    def "should match every url with empty prefix"() {
+
+        expect:
+
+        UrlPrefixTrie.build([""], { it }).matchAll("http://any") == [""]
+        UrlPrefixTrie.empty().matchAll("http://any") == []
+    }
+}